@@ -0,0 +1,100 @@
+package networkvisualiser.benchmarks;
+
+import networkvisualiser.CaptureRingBuffer;
+import networkvisualiser.PacketStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the capture path, from the capture handler to the store.
+ * PacketHandler.nextPacket() needs a native buffer, so its work is reproduced here: each frame is copied into a
+ * ring buffer slot (cut to the snap length, as libpcap would), a batch at a time is published, then drained and stored
+ * as the analysis thread does. A snap length of 128 bytes is the header-only capture profile.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureBenchmark {
+    static final int FRAMES = 64 * 1024; // The synthetic capture is replayed in a loop.
+    static final int BATCH = 1024; // Packets published between drains; the analysis thread's batch size.
+    static final int STORED_PACKETS = 1000000; // The store is replaced once it holds this many packets.
+
+    @Param({"64", "512", "1500"})
+    public int frameSize;
+
+    @Param({"65536", "128"})
+    public int snapLength;
+
+    byte[][] frames;
+    CaptureRingBuffer ringBuffer;
+    CaptureRingBuffer.Consumer consumer;
+    PacketStore store;
+    int next = 0;
+    long checksum = 0;
+
+    // Stands in for the analysis thread when only the hand-off is being measured.
+    final CaptureRingBuffer.SlotHandler discard = (data, captureLength, wireLength, timestampMicros) ->
+            checksum += data[captureLength - 1] + wireLength;
+
+    // Stores packets, as the analysis thread does.
+    final CaptureRingBuffer.SlotHandler storing = (data, captureLength, wireLength, timestampMicros) ->
+            store.append(data, captureLength, wireLength, timestampMicros);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        frames = SyntheticTraffic.frames(FRAMES, frameSize, SyntheticTraffic.SEED);
+        ringBuffer = new CaptureRingBuffer(4096, snapLength);
+        consumer = ringBuffer.addConsumer();
+    }
+
+    @Setup(Level.Iteration)
+    public void newStore() {
+        store = SyntheticTraffic.store(new byte[0][]);
+    }
+
+    // Copies a batch of frames into the ring buffer and publishes them, as PacketHandler.dispatch() does.
+    private void publishBatch() {
+        long sequence = -1;
+        for (int i = 0; i < BATCH; i++) {
+            sequence = ringBuffer.claim();
+            byte[] frame = frames[next];
+            int captureLength = Math.min(frame.length, snapLength);
+            System.arraycopy(frame, 0, ringBuffer.slot(sequence), 0, captureLength);
+            ringBuffer.fill(sequence, captureLength, frame.length, SyntheticTraffic.timestamp(next));
+            next = (next + 1) & (FRAMES - 1);
+        }
+        ringBuffer.publishThrough(sequence);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long ringBufferHandoff() {
+        publishBatch();
+        consumer.drain(discard, BATCH);
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int captureToStore() {
+        if (store.size() >= STORED_PACKETS) { newStore(); }
+        publishBatch();
+        return consumer.drain(storing, BATCH);
+    }
+}
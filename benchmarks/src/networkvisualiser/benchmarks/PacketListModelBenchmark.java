@@ -0,0 +1,69 @@
+package networkvisualiser.benchmarks;
+
+import networkvisualiser.PacketListModel;
+import networkvisualiser.PacketStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks populating the packet selector's model: growing it as packets arrive, then rendering the
+ * rows a user would see while paging through the list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketListModelBenchmark {
+    static final int VISIBLE_ROWS = 40; // Roughly one screen of the packet selector.
+    static final int PAGES = 16; // Screens rendered, spread across the list.
+    static final int UPDATES = 100; // Live updates the list is grown in.
+
+    @Param({"100000"})
+    public int packets;
+
+    @Param({"512"})
+    public int frameSize;
+
+    PacketStore store;
+
+    @Setup
+    public void setUp() {
+        store = SyntheticTraffic.store(SyntheticTraffic.frames(packets, frameSize, SyntheticTraffic.SEED));
+    }
+
+    @Benchmark
+    public PacketListModel growLive() {
+        PacketListModel model = new PacketListModel(store);
+        for (int update = 1; update <= UPDATES; update++) {
+            model.setSize((int) ((long) packets * update / UPDATES));
+        }
+        return model;
+    }
+
+    @Benchmark
+    public void renderPages(Blackhole blackhole) {
+        // A new model each time, so that no rows are cached.
+        PacketListModel model = new PacketListModel(store);
+        model.setSize(packets);
+        for (int page = 0; page < PAGES; page++) {
+            int first = (int) ((long) page * (packets - VISIBLE_ROWS) / PAGES);
+            for (int row = first; row < first + VISIBLE_ROWS; row++) {
+                blackhole.consume(model.get(row));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package networkvisualiser.benchmarks;
+
+import networkvisualiser.ApplicationClassifier;
+import networkvisualiser.DisplayFilter;
+import networkvisualiser.FlowTable;
+import networkvisualiser.PacketBitmap;
+import networkvisualiser.PacketIndex;
+import networkvisualiser.PacketProcessor;
+import networkvisualiser.PacketStore;
+import networkvisualiser.ParallelAnalysis;
+import networkvisualiser.Protocols;
+import networkvisualiser.TcpAnalytics;
+import networkvisualiser.TcpReassembler;
+import networkvisualiser.ThroughputAggregator;
+import networkvisualiser.TopTalkers;
+import networkvisualiser.UniqueCounts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks each PacketProcessor function over a PacketStore of synthetic packets.
+ * The JPacket overloads need jNetPcap's native library, so only the PacketStore overloads are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketProcessorBenchmark {
+    static final int SUMMARIES = 1024; // Summaries are generated for this many packets per invocation.
+
+    @Param({"100000"})
+    public int packets;
+
+    @Param({"64", "512", "1500"})
+    public int frameSize;
+
+    PacketStore store;
+    PacketIndex index;
+    DisplayFilter filter;
+    long startingSecond;
+    int[] summaryIndices;
+
+    @Setup
+    public void setUp() {
+        store = SyntheticTraffic.store(SyntheticTraffic.frames(packets, frameSize, SyntheticTraffic.SEED));
+        startingSecond = store.second(0);
+        index = PacketProcessor.buildPacketIndex(store);
+        try {
+            filter = DisplayFilter.compile("tcp.flags.rst && ip.src == 10.0.0.5 || tcp.port == 443 && frame.len > 1000");
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+        // Spread across the whole store, as a user scrolling through the list would be.
+        summaryIndices = new int[SUMMARIES];
+        for (int i = 0; i < SUMMARIES; i++) { summaryIndices[i] = (int) ((long) i * packets / SUMMARIES); }
+    }
+
+    @Benchmark
+    public long totalSize() {
+        return PacketProcessor.totalSize(store);
+    }
+
+    @Benchmark
+    public Hashtable<Long, Long> dataPerSecond() {
+        return PacketProcessor.dataPerSecond(store, startingSecond);
+    }
+
+    @Benchmark
+    public Hashtable<Long, Integer> packetsPerSecond() {
+        return PacketProcessor.packetsPerSecond(store, startingSecond);
+    }
+
+    @Benchmark
+    public ThroughputAggregator aggregateThroughput() {
+        return PacketProcessor.aggregateThroughput(store);
+    }
+
+    @Benchmark
+    public int[] findPacketsWithHeader() {
+        return PacketProcessor.findPacketsWithHeader(store, Protocols.TCP);
+    }
+
+    @Benchmark
+    public ParallelAnalysis.ProtocolSummary summariseProtocols() {
+        return PacketProcessor.summariseProtocols(store);
+    }
+
+    @Benchmark
+    public int resetTCPConnections() {
+        return PacketProcessor.resetTCPConnections(store);
+    }
+
+    @Benchmark
+    public int urgentTCPPackets() {
+        return PacketProcessor.urgentTCPPackets(store);
+    }
+
+    @Benchmark
+    public ArrayList<String> listTCPConnections() {
+        return PacketProcessor.listTCPConnections(store);
+    }
+
+    @Benchmark
+    public FlowTable buildFlowTable() {
+        return PacketProcessor.buildFlowTable(store);
+    }
+
+    @Benchmark
+    public PacketIndex buildPacketIndex() {
+        return PacketProcessor.buildPacketIndex(store);
+    }
+
+    @Benchmark
+    public PacketBitmap filterPacketIndex() {
+        // Resets, or anything to or from port 443 that isn't an ACK: the same kind of filter as findPacketsWithHeader.
+        return index.tcpFlag(Protocols.TCP_RST).or(index.port(443).andNot(index.tcpFlag(Protocols.TCP_ACK)));
+    }
+
+    @Benchmark
+    public PacketBitmap filterPackets() {
+        return PacketProcessor.filterPackets(store, filter, 0, store.size());
+    }
+
+    @Benchmark
+    public UniqueCounts countUnique() {
+        return PacketProcessor.countUnique(store);
+    }
+
+    @Benchmark
+    public TopTalkers findTopTalkers() {
+        return PacketProcessor.findTopTalkers(store);
+    }
+
+    @Benchmark
+    public TcpAnalytics analyseTcp() {
+        return PacketProcessor.analyseTcp(store);
+    }
+
+    @Benchmark
+    public ApplicationClassifier classifyApplications() {
+        return PacketProcessor.classifyApplications(store);
+    }
+
+    @Benchmark
+    public TcpReassembler reassembleStreams() {
+        return PacketProcessor.reassembleStreams(store, 64L * 1024 * 1024);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SUMMARIES)
+    public void generatePacketSummary(Blackhole blackhole) {
+        for (int index : summaryIndices) {
+            blackhole.consume(PacketProcessor.generatePacketSummary(store, index));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package networkvisualiser.benchmarks;
+
+import networkvisualiser.ApplicationClassifier;
+import networkvisualiser.FlowTable;
+import networkvisualiser.PacketIndex;
+import networkvisualiser.PacketStore;
+import networkvisualiser.SessionFile;
+import networkvisualiser.TcpAnalytics;
+import networkvisualiser.ThroughputHistory;
+import networkvisualiser.TopTalkers;
+import networkvisualiser.UniqueCounts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks saving an analysed capture as a session, and opening it again, which stands in for reading
+ * and analysing the whole capture when it is reopened.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionBenchmark {
+    @Param({"1000000"})
+    public int packets;
+
+    @Param({"512"})
+    public int frameSize;
+
+    PacketStore store = new PacketStore();
+    FlowTable flows = new FlowTable();
+    ThroughputHistory throughput = new ThroughputHistory();
+    PacketIndex index = new PacketIndex();
+    TopTalkers talkers = new TopTalkers();
+    UniqueCounts uniqueCounts = new UniqueCounts();
+    TcpAnalytics tcpAnalytics = new TcpAnalytics();
+    Path session;
+
+    @Setup
+    public void setUp() throws IOException {
+        // The same analyses as the GUI, so the session holds everything it would.
+        store.addObserver(flows);
+        store.classifyApplications(new ApplicationClassifier(flows));
+        store.addObserver(throughput);
+        store.addObserver(talkers);
+        store.addObserver(uniqueCounts);
+        store.addObserver(index);
+        store.addObserver(tcpAnalytics);
+        byte[][] frames = SyntheticTraffic.frames(packets, frameSize, SyntheticTraffic.SEED);
+        for (int i = 0; i < frames.length; i++) {
+            store.append(frames[i], frames[i].length, frames[i].length, SyntheticTraffic.timestamp(i));
+        }
+        session = Files.createTempFile("benchmark", SessionFile.EXTENSION);
+        SessionFile.save(session, store, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(session);
+    }
+
+    @Benchmark
+    public Path save() throws IOException {
+        SessionFile.save(session, store, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+        return session;
+    }
+
+    @Benchmark
+    public PacketStore open() throws IOException {
+        PacketStore opened = new PacketStore();
+        SessionFile.open(session, opened, new FlowTable(), new ThroughputHistory(), new PacketIndex(),
+                new TopTalkers(), new UniqueCounts(), new TcpAnalytics());
+        return opened;
+    }
+}
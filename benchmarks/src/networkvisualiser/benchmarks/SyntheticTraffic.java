@@ -0,0 +1,160 @@
+package networkvisualiser.benchmarks;
+
+import networkvisualiser.ApplicationClassifier;
+import networkvisualiser.FlowTable;
+import networkvisualiser.PacketIndex;
+import networkvisualiser.PacketStore;
+import networkvisualiser.ThroughputHistory;
+import networkvisualiser.TopTalkers;
+import networkvisualiser.UniqueCounts;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * This class generates synthetic Ethernet frames for the benchmarks, so that no NIC or capture file is needed.
+ * The traffic is a fixed mix of TCP, HTTP, UDP, RTP and ARP between a pool of hosts, padded to a chosen frame size.
+ * Everything is generated from a fixed seed, so every run (and every commit) benchmarks exactly the same packets.
+ */
+public class SyntheticTraffic {
+    public static final long SEED = 0x5EEDL;
+    static final int HOSTS = 256; // Addresses are 10.0.0.0 to 10.0.0.255.
+    static final int PACKETS_PER_SECOND = 10000; // How closely the synthetic timestamps are spaced.
+    static final long START_MICROS = 1600000000L * 1000000;
+
+    static final byte[] HTTP_REQUEST = "GET /index.html HTTP/1.1\r\nHost: example.com\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    static final byte[] HTTP_RESPONSE = "HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // Offsets into an untagged Ethernet/IPv4 frame.
+    static final int IP = 14;
+    static final int TRANSPORT = IP + 20;
+
+    private SyntheticTraffic() {
+    }
+
+    /**
+     * This function generates a mix of frames: 45% TCP, 20% HTTP, 15% UDP, 15% RTP and 5% ARP.
+     * @param count The number of frames.
+     * @param frameSize The size of each frame, in bytes; frames are never smaller than their headers.
+     * @param seed The random seed.
+     * @return The frames, in capture order.
+     */
+    public static byte[][] frames(int count, int frameSize, long seed) {
+        Random random = new Random(seed);
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int kind = random.nextInt(100);
+            int source = random.nextInt(HOSTS);
+            int destination = random.nextInt(HOSTS);
+            int port = 1024 + random.nextInt(4096);
+            if (kind < 45) { frames[i] = tcp(frameSize, source, destination, port, 443, tcpFlags(random), null); }
+            else if (kind < 65) {
+                boolean request = random.nextBoolean();
+                frames[i] = request ? tcp(frameSize, source, destination, port, 80, 0x18, HTTP_REQUEST)
+                        : tcp(frameSize, destination, source, 80, port, 0x18, HTTP_RESPONSE);
+            }
+            else if (kind < 80) { frames[i] = udp(frameSize, source, destination, port, 53, false, random); }
+            else if (kind < 95) { frames[i] = udp(frameSize, source, destination, port, port + 1, true, random); }
+            else { frames[i] = arp(frameSize, source, destination); }
+        }
+        return frames;
+    }
+
+    /**
+     * This function stores frames in a new PacketStore, with the same observers as a live capture.
+     * Timestamps are spaced evenly, PACKETS_PER_SECOND to a second.
+     * @param frames The frames to store.
+     * @return The store.
+     */
+    public static PacketStore store(byte[][] frames) {
+        PacketStore store = new PacketStore();
+        FlowTable flows = new FlowTable();
+        store.addObserver(flows);
+        store.classifyApplications(new ApplicationClassifier(flows));
+        store.addObserver(new ThroughputHistory());
+        store.addObserver(new TopTalkers());
+        store.addObserver(new UniqueCounts());
+        store.addObserver(new PacketIndex());
+        for (int i = 0; i < frames.length; i++) {
+            store.append(frames[i], frames[i].length, frames[i].length, timestamp(i));
+        }
+        return store;
+    }
+
+    /**
+     * @param index The index of a frame.
+     * @return The synthetic capture timestamp of that frame, in microseconds since the epoch.
+     */
+    public static long timestamp(int index) {
+        return START_MICROS + (long) index * (1000000 / PACKETS_PER_SECOND);
+    }
+
+    // Mostly ACKs, with the occasional handshake, teardown, reset or urgent packet.
+    private static int tcpFlags(Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 5) { return 0x02; } // SYN
+        if (roll < 10) { return 0x12; } // SYN, ACK
+        if (roll < 14) { return 0x11; } // FIN, ACK
+        if (roll < 16) { return 0x04; } // RST
+        if (roll < 17) { return 0x30; } // URG, ACK
+        return roll < 60 ? 0x10 : 0x18; // ACK, or PSH, ACK
+    }
+
+    private static byte[] tcp(int frameSize, int source, int destination, int sourcePort, int destinationPort,
+                              int flags, byte[] payload) {
+        int payloadLength = payload == null ? 0 : payload.length;
+        ByteBuffer frame = ipv4(Math.max(frameSize, TRANSPORT + 20 + payloadLength), 6, source, destination);
+        frame.putShort(TRANSPORT, (short) sourcePort);
+        frame.putShort(TRANSPORT + 2, (short) destinationPort);
+        frame.putInt(TRANSPORT + 4, sourcePort * 7919);
+        frame.putInt(TRANSPORT + 8, destinationPort * 7919);
+        frame.put(TRANSPORT + 12, (byte) 0x50); // A 20 byte header.
+        frame.put(TRANSPORT + 13, (byte) flags);
+        frame.putShort(TRANSPORT + 14, (short) 65535);
+        if (payload != null) { frame.put(TRANSPORT + 20, payload); }
+        return frame.array();
+    }
+
+    private static byte[] udp(int frameSize, int source, int destination, int sourcePort, int destinationPort,
+                              boolean rtp, Random random) {
+        ByteBuffer frame = ipv4(Math.max(frameSize, TRANSPORT + 8 + 12), 17, source, destination);
+        frame.putShort(TRANSPORT, (short) sourcePort);
+        frame.putShort(TRANSPORT + 2, (short) destinationPort);
+        frame.putShort(TRANSPORT + 4, (short) (frame.capacity() - TRANSPORT));
+        if (rtp) {
+            // Version 2, payload type 0 (PCMU), then a sequence number, timestamp and SSRC.
+            frame.put(TRANSPORT + 8, (byte) 0x80);
+            frame.putShort(TRANSPORT + 10, (short) random.nextInt(65536));
+            frame.putInt(TRANSPORT + 12, random.nextInt());
+            frame.putInt(TRANSPORT + 16, sourcePort);
+        }
+        return frame.array();
+    }
+
+    private static byte[] arp(int frameSize, int sender, int target) {
+        ByteBuffer frame = ByteBuffer.allocate(Math.max(frameSize, 14 + 28));
+        frame.putShort(12, (short) 0x0806);
+        frame.putShort(14, (short) 1).putShort(16, (short) 0x0800).put(18, (byte) 6).put(19, (byte) 4);
+        frame.putShort(20, (short) 1); // A request.
+        frame.putInt(28, 0x0A000000 | sender);
+        frame.putInt(38, 0x0A000000 | target);
+        return frame.array();
+    }
+
+    // An Ethernet frame with an IPv4 header, ready for its transport header.
+    private static ByteBuffer ipv4(int size, int protocol, int source, int destination) {
+        ByteBuffer frame = ByteBuffer.allocate(size);
+        frame.putShort(6, (short) 0x0200).putShort(10, (short) source); // Locally administered source MAC.
+        frame.putShort(12, (short) 0x0800);
+        frame.put(IP, (byte) 0x45);
+        frame.putShort(IP + 2, (short) (size - IP));
+        frame.put(IP + 8, (byte) 64);
+        frame.put(IP + 9, (byte) protocol);
+        frame.putInt(IP + 12, 0x0A000000 | source);
+        frame.putInt(IP + 16, 0x0A000000 | destination);
+        return frame;
+    }
+}
@@ -0,0 +1,336 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class sorts flows into the kind of application using them: web browsing, VoIP calls, video streams, or bulk
+ * transfers such as file copies.
+ * Each flow is decided once, from its first EXAMINE_PACKETS packets: the well-known ports at either end, the media
+ * streams announced in SDP (so RTP on any port is recognised), the RTP payload type, HTTP content types, and failing
+ * all that, how large the flow's packets are. The verdict is kept in the FlowTable, so once a flow is decided, every
+ * later packet is labelled with a single array read, and any packet in the store with one flow lookup (see classify()).
+ * While a flow is being examined it carries the best guess so far. The verdict is also recorded in each packet's
+ * fields, so it must be registered after the FlowTable and before any observer wanting the label, such as the
+ * ThroughputHistory that charts each application's traffic.
+ * Only the thread which stores packets may update it, but packets may be classified from any thread.
+ */
+public class ApplicationClassifier implements PacketObserver {
+    // The kinds of application. OTHER covers anything not recognised, including flows still being examined.
+    public static final byte OTHER = 0;
+    public static final byte WEB = 1;
+    public static final byte VOIP = 2;
+    public static final byte VIDEO = 3;
+    public static final byte BULK = 4;
+    public static final int COUNT = 5; // The number of kinds above.
+
+    static final int EXAMINE_PACKETS = 8; // How many packets of a flow are looked at before it is decided.
+    static final int VIDEO_PAYLOAD_BYTES = 500; // RTP with a larger mean payload than this is taken to be video.
+    static final int BULK_PAYLOAD_BYTES = 1000; // TCP with a larger mean payload than this is taken to be a transfer.
+    static final int EXPECTED_MEDIA = 4096; // The most media endpoints announced in SDP that are remembered.
+    private static final int INITIAL_FLOWS = 1024;
+
+    private static final String[] NAMES = { "Other", "Web", "VoIP", "Video", "Bulk" };
+
+    // The application each well-known port suggests, indexed by port number.
+    private static final byte[] PORT_APPLICATIONS = new byte[65536];
+    static {
+        for (int port : new int[] {80, 443, 8000, 8080, 8443}) { PORT_APPLICATIONS[port] = WEB; }
+        for (int port : new int[] {5060, 5061}) { PORT_APPLICATIONS[port] = VOIP; } // SIP
+        for (int port : new int[] {554, 1935}) { PORT_APPLICATIONS[port] = VIDEO; } // RTSP and RTMP
+        for (int port : new int[] {20, 21, 445, 873, 2049}) { PORT_APPLICATIONS[port] = BULK; } // FTP, SMB, rsync, NFS
+    }
+
+    private static final byte[] HTTP_RESPONSE = ascii("HTTP/1.");
+    private static final byte[] SDP_CONNECTION = ascii("c=IN IP4 ");
+    private static final byte[] SDP_AUDIO = ascii("m=audio ");
+    private static final byte[] SDP_VIDEO = ascii("m=video ");
+    // Content types which mean an HTTP response is part of a video stream, in lower case.
+    private static final byte[][] VIDEO_CONTENT_TYPES = { ascii("content-type: video/"),
+            ascii("content-type: application/vnd.apple.mpegurl"), ascii("content-type: application/dash+xml") };
+    private static final int HEADER_SEARCH_LENGTH = 1024; // How far into a response its content type is looked for.
+
+    private final FlowTable flows;
+
+    // Per flow, while it is examined: how many packets have been looked at, whether it has been decided, whether any of
+    // them were RTP, and their total payload.
+    private byte[] examined = new byte[INITIAL_FLOWS];
+    private boolean[] decided = new boolean[INITIAL_FLOWS];
+    private boolean[] carriesRtp = new boolean[INITIAL_FLOWS];
+    private long[] payloadTotals = new long[INITIAL_FLOWS];
+
+    // The media endpoints announced in SDP, as address << 16 | port, with the application they were announced for.
+    // Only packets carrying SDP add to it, and the oldest are forgotten, so it stays small.
+    private final Map<Long, Byte> expectedMedia = new LinkedHashMap<Long, Byte>(64, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Byte> eldest) {
+            return size() > EXPECTED_MEDIA;
+        }
+    };
+
+    private volatile long decidedFlows = 0;
+
+    /**
+     * Creates a new ApplicationClassifier. Payloads are only read while each packet is being stored, so it works just
+     * as well on a store which doesn't keep its packets.
+     * @param flowTable The flow table registered with the store before this, where the verdicts are kept.
+     */
+    public ApplicationClassifier(FlowTable flowTable) {
+        flows = flowTable;
+    }
+
+    /**
+     * This method labels a stored packet with its flow's application, examining it first if the flow is undecided.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields, including the flow a FlowTable found for it.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        int flow = fields.flowId;
+        if (flow < 0) {
+            fields.application = OTHER;
+            return;
+        }
+        // SDP is read whichever flow it arrives on, as a call's signalling is decided long before its media starts.
+        if ((fields.protocols & Protocols.SDP) != 0) { readSdp(fields); }
+        if (flow >= decided.length) { grow(flow + 1); }
+        if (!decided[flow]) { examine(flow, fields); }
+        fields.application = flows.application(flow);
+    }
+
+    // Looks at one more packet of an undecided flow, and decides it once the evidence is strong enough.
+    private void examine(int flow, PacketFields fields) {
+        int count = ++examined[flow];
+        payloadTotals[flow] += fields.payloadLength;
+        byte verdict = flows.application(flow);
+        boolean settled = false;
+
+        // The first packet gives a guess from the ports, unless SDP has already said what the flow is for.
+        if (count == 1) {
+            byte announced = announcedMedia(fields);
+            if (announced != OTHER) {
+                verdict = announced;
+                settled = true;
+            }
+            else {
+                verdict = portApplication(fields.sourcePort, fields.destinationPort);
+                // A web port may still turn out to be carrying video, so only the other ports are taken as final.
+                settled = verdict != OTHER && verdict != WEB;
+            }
+        }
+
+        // Then the payload can confirm or overrule the guess.
+        int protocols = fields.protocols;
+        if (!settled && (protocols & Protocols.RTP) != 0) {
+            carriesRtp[flow] = true;
+            verdict = rtpApplication(fields);
+            settled = verdict != OTHER;
+            if (!settled) { verdict = VOIP; }
+        }
+        else if (!settled && (protocols & (Protocols.SDP | Protocols.RTCP_SENDER_REPORT
+                | Protocols.RTCP_RECEIVER_REPORT)) != 0 && verdict == OTHER) {
+            verdict = VOIP;
+            settled = (protocols & Protocols.SDP) != 0;
+        }
+        else if (!settled && (protocols & Protocols.HTTP) != 0) {
+            verdict = WEB;
+            // A response says what it contains, which settles the flow either way.
+            if (isHttpResponse(fields)) {
+                settled = true;
+                if (carriesVideo(fields)) { verdict = VIDEO; }
+            }
+        }
+
+        // Once enough packets have been seen, the best guess is final, and a flow still unknown is judged by its size.
+        if (!settled && count >= EXAMINE_PACKETS) {
+            settled = true;
+            long meanPayload = payloadTotals[flow] / count;
+            if (carriesRtp[flow]) { verdict = meanPayload > VIDEO_PAYLOAD_BYTES ? VIDEO : VOIP; }
+            else if (verdict == OTHER && flows.isTcp(flow) && meanPayload > BULK_PAYLOAD_BYTES) { verdict = BULK; }
+        }
+
+        flows.setApplication(flow, verdict);
+        if (settled) {
+            decided[flow] = true;
+            decidedFlows = decidedFlows + 1;
+        }
+    }
+
+    // The application suggested by a well-known port at either end, preferring the lower port, as the server's port
+    // is usually the lower of the two.
+    private static byte portApplication(int sourcePort, int destinationPort) {
+        int lower = Math.min(sourcePort, destinationPort);
+        int upper = Math.max(sourcePort, destinationPort);
+        return PORT_APPLICATIONS[lower] != OTHER ? PORT_APPLICATIONS[lower] : PORT_APPLICATIONS[upper];
+    }
+
+    // The application SDP announced for either end of a packet, if any.
+    private byte announcedMedia(PacketFields fields) {
+        if ((fields.protocols & Protocols.UDP) == 0 || expectedMedia.isEmpty()) { return OTHER; }
+        Byte source = expectedMedia.get(endpoint(fields.sourceAddress, fields.sourcePort));
+        if (source != null) { return source; }
+        Byte destination = expectedMedia.get(endpoint(fields.destinationAddress, fields.destinationPort));
+        return destination != null ? destination : OTHER;
+    }
+
+    // The static RTP payload types are either audio (0 to 23) or video (24 to 34); dynamic ones (from 96) could be
+    // either, so are left to the payload size.
+    private static byte rtpApplication(PacketFields fields) {
+        int payloadType = fields.frame.get(fields.frameOffset + fields.payloadOffset + 1) & 0x7F;
+        if (payloadType <= 23) { return VOIP; }
+        if (payloadType <= 34) { return VIDEO; }
+        return OTHER;
+    }
+
+    private static boolean isHttpResponse(PacketFields fields) {
+        int position = fields.frameOffset;
+        return FrameDecoder.startsWith(fields.frame, position + fields.payloadOffset, position + fields.captureLength,
+                HTTP_RESPONSE);
+    }
+
+    // Looks for a video content type among an HTTP response's headers, ignoring case.
+    private static boolean carriesVideo(PacketFields fields) {
+        ByteBuffer frame = fields.frame;
+        int position = fields.frameOffset;
+        int start = position + fields.payloadOffset;
+        int end = Math.min(position + fields.captureLength, start + HEADER_SEARCH_LENGTH);
+        for (int i = start; i < end; i++) {
+            // Each header starts a line, and the headers end at the first blank line.
+            if (i > start && frame.get(i - 1) != '\n') { continue; }
+            if (frame.get(i) == '\r' || frame.get(i) == '\n') { return false; }
+            for (byte[] type : VIDEO_CONTENT_TYPES) {
+                if (startsWithIgnoringCase(frame, i, end, type)) { return true; }
+            }
+        }
+        return false;
+    }
+
+    // Remembers the media endpoints an SDP body announces: each audio or video stream's port (and the next port up,
+    // which carries its RTCP), at the connection address.
+    private void readSdp(PacketFields fields) {
+        ByteBuffer frame = fields.frame;
+        int position = fields.frameOffset;
+        int end = position + fields.captureLength;
+        int sdp = FrameDecoder.findSdp(frame, position + fields.payloadOffset, end);
+        if (sdp < 0) { return; }
+
+        // The connection address usually comes before the media, but the media are only recorded once it is known.
+        int address = fields.sourceAddress;
+        int mediaCount = 0;
+        int[] mediaPorts = new int[8];
+        byte[] mediaApplications = new byte[8];
+        for (int line = sdp; line < end; line = nextLine(frame, line, end)) {
+            if (FrameDecoder.startsWith(frame, line, end, SDP_CONNECTION)) {
+                int parsed = parseAddress(frame, line + SDP_CONNECTION.length, end);
+                if (parsed != 0) { address = parsed; }
+            }
+            else if (mediaCount < mediaPorts.length) {
+                boolean audio = FrameDecoder.startsWith(frame, line, end, SDP_AUDIO);
+                if (audio || FrameDecoder.startsWith(frame, line, end, SDP_VIDEO)) {
+                    int port = parseNumber(frame, line + SDP_AUDIO.length, end);
+                    if (port > 0 && port < 65535) {
+                        mediaPorts[mediaCount] = port;
+                        mediaApplications[mediaCount] = audio ? VOIP : VIDEO;
+                        mediaCount++;
+                    }
+                }
+            }
+        }
+        for (int media = 0; media < mediaCount; media++) {
+            expectedMedia.put(endpoint(address, mediaPorts[media]), mediaApplications[media]);
+            expectedMedia.put(endpoint(address, mediaPorts[media] + 1), mediaApplications[media]);
+        }
+    }
+
+    // Finds the start of the next line, or the end of the data.
+    private static int nextLine(ByteBuffer frame, int position, int end) {
+        while (position < end && frame.get(position) != '\n') { position++; }
+        return position + 1;
+    }
+
+    // Parses a dotted IPv4 address, returning 0 if it isn't one.
+    private static int parseAddress(ByteBuffer frame, int position, int end) {
+        int address = 0;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (position >= end || frame.get(position) != '.') { return 0; }
+                position++;
+            }
+            int value = parseNumber(frame, position, end);
+            if (value < 0 || value > 255) { return 0; }
+            address = (address << 8) | value;
+            while (position < end && Character.isDigit(frame.get(position))) { position++; }
+        }
+        return address;
+    }
+
+    // Parses a decimal number of up to 5 digits, returning -1 if there isn't one.
+    private static int parseNumber(ByteBuffer frame, int position, int end) {
+        int value = 0;
+        int digits = 0;
+        while (position < end && digits < 5 && Character.isDigit(frame.get(position))) {
+            value = value * 10 + (frame.get(position) - '0');
+            position++;
+            digits++;
+        }
+        return digits == 0 ? -1 : value;
+    }
+
+    private static boolean startsWithIgnoringCase(ByteBuffer frame, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) { return false; }
+        for (int i = 0; i < prefix.length; i++) {
+            int b = frame.get(start + i);
+            if (b >= 'A' && b <= 'Z') { b += 'a' - 'A'; }
+            if (b != prefix[i]) { return false; }
+        }
+        return true;
+    }
+
+    private static long endpoint(int address, int port) {
+        return ((address & 0xFFFFFFFFL) << 16) | port;
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, decided.length * 2);
+        examined = Arrays.copyOf(examined, capacity);
+        decided = Arrays.copyOf(decided, capacity);
+        carriesRtp = Arrays.copyOf(carriesRtp, capacity);
+        payloadTotals = Arrays.copyOf(payloadTotals, capacity);
+    }
+
+    /**
+     * This function labels any packet in a store with its flow's application, with a single flow lookup.
+     * It may be called from any thread.
+     * @param store The store this classifier observes.
+     * @param index The index of the packet.
+     * @return The application (one of the constants above), or OTHER if the packet has no flow.
+     */
+    public byte classify(PacketStore store, int index) {
+        int flow = flows.find(store.protocols(index), store.sourceAddress(index), store.destinationAddress(index),
+                store.sourcePort(index), store.destinationPort(index));
+        return flow < 0 ? OTHER : flows.application(flow);
+    }
+
+    /**
+     * @return The number of flows which have been decided.
+     */
+    public long decidedFlows() {
+        return decidedFlows;
+    }
+
+    /**
+     * This function returns a readable name for an application.
+     * @param application One of the constants above.
+     * @return The name of the application.
+     */
+    public static String name(int application) {
+        return NAMES[application];
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
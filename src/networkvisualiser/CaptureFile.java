@@ -0,0 +1,329 @@
+package networkvisualiser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads a capture file (classic .pcap or .pcapng) into a PacketStore, so that captures taken elsewhere can
+ * be analysed exactly like a live one.
+ * The file is memory-mapped a large window at a time, and record headers are read straight out of the mapping; each
+ * frame is copied once, from the mapping into the store's off-heap arena, and is never turned into a JPacket.
+ * Only Ethernet frames are stored, as that is all FrameDecoder understands; anything else is counted and skipped.
+ */
+public class CaptureFile implements Closeable {
+    static final long MAP_WINDOW = 1L << 30; // How much of the file is mapped at a time.
+    static final int LINKTYPE_ETHERNET = 1;
+
+    // Classic pcap: the magic number gives the byte order, and whether timestamps are in micro or nanoseconds.
+    static final int PCAP_MAGIC_MICROS = 0xA1B2C3D4;
+    static final int PCAP_MAGIC_NANOS = 0xA1B23C4D;
+    static final int PCAP_HEADER_LENGTH = 24;
+    static final int PCAP_RECORD_HEADER_LENGTH = 16;
+
+    // pcapng: a file is a series of blocks, each starting with its type and length.
+    static final int BLOCK_SECTION_HEADER = 0x0A0D0D0A;
+    static final int BLOCK_INTERFACE_DESCRIPTION = 1;
+    static final int BLOCK_PACKET = 2; // Obsolete, but still found in old files.
+    static final int BLOCK_SIMPLE_PACKET = 3;
+    static final int BLOCK_ENHANCED_PACKET = 6;
+    static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+    static final int OPTION_END = 0;
+    static final int OPTION_TIMESTAMP_RESOLUTION = 9;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final boolean pcapNg;
+
+    // The part of the file currently mapped.
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    // The file's interfaces. Classic pcap files have exactly one; pcapng files declare them in each section.
+    private int interfaceCount = 0;
+    private int[] linkTypes = new int[4];
+    private int[] snapLengths = new int[4];
+    private long[] timestampUnits = new long[4]; // Timestamp ticks per second.
+
+    private long position; // The offset of the next record or block.
+    private volatile boolean running = true;
+    private volatile long packetsRead = 0;
+    private volatile long packetsSkipped = 0;
+    private long lastTimestamp = 0; // Given to packets which have no timestamp of their own.
+
+    /**
+     * Opens a capture file and reads its header.
+     * @param path The file to open.
+     * @throws IOException If the file can't be read, or isn't a pcap or pcapng file.
+     */
+    public CaptureFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+        try {
+            if (!map(0, 4)) { throw new IOException(path + " is too short to be a capture file"); }
+            int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            pcapNg = magic == BLOCK_SECTION_HEADER;
+            if (!pcapNg) { readPcapHeader(path); }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Reads the global header of a classic pcap file, which describes its only interface.
+    private void readPcapHeader(Path path) throws IOException {
+        if (!map(0, PCAP_HEADER_LENGTH)) { throw new IOException(path + " is too short to be a capture file"); }
+        int magic = window.getInt(0);
+        if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+            // The file was written on a machine of the other byte order.
+            order = ByteOrder.LITTLE_ENDIAN;
+            magic = window.order(order).getInt(0);
+        }
+        if (magic != PCAP_MAGIC_MICROS && magic != PCAP_MAGIC_NANOS) {
+            throw new IOException(path + " is not a pcap or pcapng file");
+        }
+        addInterface(window.getInt(20) & 0xFFFF, window.getInt(16), magic == PCAP_MAGIC_NANOS ? 1000000000 : 1000000);
+        position = PCAP_HEADER_LENGTH;
+    }
+
+    /**
+     * This function reads packets from the file into a store, until the end of the file or until stopReading() is
+     * called.
+     * @param store The store to add the packets to.
+     * @return The number of packets added by this call.
+     */
+    public long read(PacketStore store) {
+        return read(store, Long.MAX_VALUE);
+    }
+
+    /**
+     * This function reads packets from the file into a store, until the end of the file, until a number of packets
+     * have been added, or until stopReading() is called.
+     * @param store The store to add the packets to.
+     * @param maximumPackets The most packets to add.
+     * @return The number of packets added by this call.
+     */
+    public long read(PacketStore store, long maximumPackets) {
+        long before = packetsRead;
+        try {
+            while (running && packetsRead - before < maximumPackets
+                    && (pcapNg ? readBlock(store) : readRecord(store))) {
+                // Each call reads one record or block.
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return packetsRead - before;
+    }
+
+    // Reads one record of a classic pcap file. Returns false at the end of the file.
+    private boolean readRecord(PacketStore store) throws IOException {
+        if (!map(position, PCAP_RECORD_HEADER_LENGTH)) { return false; }
+        int header = (int) (position - windowStart);
+        long seconds = window.getInt(header) & 0xFFFFFFFFL;
+        long fraction = window.getInt(header + 4) & 0xFFFFFFFFL;
+        int captureLength = window.getInt(header + 8);
+        int wireLength = window.getInt(header + 12);
+        if (captureLength < 0 || captureLength > fileSize) {
+            System.err.println("Corrupt pcap record at offset " + position + ", stopping.");
+            return false;
+        }
+
+        long recordStart = position;
+        position += PCAP_RECORD_HEADER_LENGTH + captureLength;
+        if (!map(recordStart, PCAP_RECORD_HEADER_LENGTH + captureLength)) { return false; } // A truncated last record.
+        long timestampMicros = seconds * 1000000 + toMicros(fraction, timestampUnits[0]);
+        addPacket(store, 0, (int) (recordStart - windowStart) + PCAP_RECORD_HEADER_LENGTH, captureLength,
+                wireLength, timestampMicros);
+        return true;
+    }
+
+    // Reads one block of a pcapng file. Returns false at the end of the file.
+    private boolean readBlock(PacketStore store) throws IOException {
+        if (!map(position, 12)) { return false; }
+        int start = (int) (position - windowStart);
+        int type = window.order(ByteOrder.BIG_ENDIAN).getInt(start);
+        if (type == BLOCK_SECTION_HEADER) {
+            // A new section may have a different byte order, and always has its own interfaces.
+            order = window.getInt(start + 8) == BYTE_ORDER_MAGIC ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            interfaceCount = 0;
+        }
+        // Every other block is in the section's byte order (the section header's type reads the same either way).
+        type = window.order(order).getInt(start);
+        int length = window.getInt(start + 4);
+        if (length < 12 || (length & 3) != 0) {
+            System.err.println("Corrupt pcapng block at offset " + position + ", stopping.");
+            return false;
+        }
+
+        long blockStart = position;
+        position += length;
+        if (!map(blockStart, length)) { return false; } // A truncated last block.
+        int body = (int) (blockStart - windowStart) + 8;
+        int bodyEnd = (int) (blockStart - windowStart) + length - 4;
+
+        switch (type) {
+            case BLOCK_INTERFACE_DESCRIPTION:
+                readInterface(body, bodyEnd);
+                break;
+            case BLOCK_ENHANCED_PACKET:
+            case BLOCK_PACKET: {
+                // Both hold the interface, a 64-bit timestamp in two halves, then both lengths and the frame.
+                int iface = type == BLOCK_PACKET ? window.getShort(body) & 0xFFFF : window.getInt(body);
+                long ticks = ((window.getInt(body + 4) & 0xFFFFFFFFL) << 32) | (window.getInt(body + 8) & 0xFFFFFFFFL);
+                int captureLength = Math.min(window.getInt(body + 12), bodyEnd - body - 20);
+                int wireLength = window.getInt(body + 16);
+                if (iface < 0 || iface >= interfaceCount || captureLength < 0) { packetsSkipped++; break; }
+                long units = timestampUnits[iface];
+                long timestampMicros = (ticks / units) * 1000000 + toMicros(ticks % units, units);
+                addPacket(store, iface, body + 20, captureLength, wireLength, timestampMicros);
+                break;
+            }
+            case BLOCK_SIMPLE_PACKET: {
+                // These have no timestamp (so take the previous packet's), and only the original length; the frame is
+                // cut to the snapshot length.
+                int wireLength = window.getInt(body);
+                if (interfaceCount == 0) { packetsSkipped++; break; }
+                int captureLength = Math.min(wireLength, bodyEnd - body - 4);
+                if (snapLengths[0] > 0) { captureLength = Math.min(captureLength, snapLengths[0]); }
+                addPacket(store, 0, body + 4, captureLength, wireLength, lastTimestamp);
+                break;
+            }
+            default:
+                // Statistics, name resolution and custom blocks carry nothing we use.
+                break;
+        }
+        return true;
+    }
+
+    // Reads an interface description block: its link type, snapshot length, and timestamp resolution.
+    private void readInterface(int body, int bodyEnd) {
+        int linkType = window.getShort(body) & 0xFFFF;
+        int snapLength = window.getInt(body + 4);
+        long units = 1000000; // Microseconds, unless the interface says otherwise.
+
+        // Options are a code and length, then the value padded to four bytes.
+        int option = body + 8;
+        while (option + 4 <= bodyEnd) {
+            int code = window.getShort(option) & 0xFFFF;
+            int optionLength = window.getShort(option + 2) & 0xFFFF;
+            if (code == OPTION_END) { break; }
+            if (code == OPTION_TIMESTAMP_RESOLUTION && optionLength >= 1) {
+                // The top bit picks a power of two rather than of ten.
+                int resolution = window.get(option + 4);
+                int exponent = resolution & 0x7F;
+                if ((resolution & 0x80) != 0) { units = exponent < 63 ? 1L << exponent : units; }
+                else if (exponent <= 18) { units = 1; for (int i = 0; i < exponent; i++) { units *= 10; } }
+            }
+            option += 4 + ((optionLength + 3) & ~3);
+        }
+        addInterface(linkType, snapLength, units);
+    }
+
+    private void addInterface(int linkType, int snapLength, long units) {
+        if (interfaceCount == linkTypes.length) {
+            linkTypes = Arrays.copyOf(linkTypes, interfaceCount * 2);
+            snapLengths = Arrays.copyOf(snapLengths, interfaceCount * 2);
+            timestampUnits = Arrays.copyOf(timestampUnits, interfaceCount * 2);
+        }
+        linkTypes[interfaceCount] = linkType;
+        snapLengths[interfaceCount] = snapLength;
+        timestampUnits[interfaceCount] = units;
+        interfaceCount++;
+    }
+
+    // Copies a frame from the mapping into the store, if it is a frame we can decode.
+    private void addPacket(PacketStore store, int iface, int frame, int captureLength, int wireLength,
+                           long timestampMicros) {
+        if (linkTypes[iface] != LINKTYPE_ETHERNET) {
+            packetsSkipped++;
+            return;
+        }
+        store.append(window, frame, captureLength, Math.max(wireLength, captureLength), timestampMicros);
+        lastTimestamp = timestampMicros;
+        packetsRead++;
+    }
+
+    // Converts part of a second, in the given units, to microseconds.
+    private static long toMicros(long ticks, long unitsPerSecond) {
+        if (unitsPerSecond == 1000000) { return ticks; }
+        // Split the multiplication, so that fine resolutions can't overflow.
+        return ticks / unitsPerSecond * 1000000 + ticks % unitsPerSecond * 1000000 / unitsPerSecond;
+    }
+
+    /**
+     * This function makes sure a range of the file is mapped, moving the window if it isn't.
+     * @param offset The offset of the range in the file.
+     * @param length The length of the range.
+     * @return False if the range runs past the end of the file.
+     */
+    private boolean map(long offset, int length) throws IOException {
+        if (offset + length > fileSize) { return false; }
+        if (window != null && offset >= windowStart && offset + length <= windowStart + window.capacity()) {
+            return true;
+        }
+        // Start the new window at the range, so that it fits unless it is larger than a whole window.
+        long size = Math.min(Math.max(MAP_WINDOW, length), fileSize - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        window.order(order);
+        windowStart = offset;
+        return true;
+    }
+
+    /**
+     * This function stops read() after the packet it is reading. It may be called from any thread.
+     */
+    public void stopReading() {
+        running = false;
+    }
+
+    /**
+     * @return Whether the file is pcapng, rather than classic pcap.
+     */
+    public boolean isPcapNg() {
+        return pcapNg;
+    }
+
+    /**
+     * @return The number of packets added to the store so far.
+     */
+    public long packetsRead() {
+        return packetsRead;
+    }
+
+    /**
+     * @return The number of packets skipped, as they weren't Ethernet frames.
+     */
+    public long packetsSkipped() {
+        return packetsSkipped;
+    }
+
+    /**
+     * @return How far through the file reading has got, in bytes.
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return The size of the file, in bytes.
+     */
+    public long size() {
+        return fileSize;
+    }
+
+    /**
+     * This function closes the file. The current mapping is released once it is no longer referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
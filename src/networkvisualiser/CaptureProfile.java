@@ -0,0 +1,97 @@
+package networkvisualiser;
+
+import org.jnetpcap.Pcap;
+
+/**
+ * This class describes how a live capture is opened: how much of each packet libpcap copies (the snap length), how
+ * big a buffer the kernel fills while we are busy, how long libpcap waits before handing over a part-filled buffer,
+ * and how many packets are handed to PacketHandler per dispatch.
+ * The FULL profile keeps every byte of every packet. The HEADERS profile keeps just enough of each packet for the
+ * Ethernet, IP and TCP/UDP headers, which is all most analyses need; every packet's wire length is still recorded,
+ * so byte counts and throughput are unaffected, but payload-based analyses (HTTP, RTP and SDP detection, stream
+ * reassembly and payload classification) only see the first few bytes of each payload.
+ */
+public class CaptureProfile {
+    public static final CaptureProfile FULL = new CaptureProfile("full", 64 * 1024, 0, 1000, 1024, true);
+    public static final CaptureProfile HEADERS = new CaptureProfile("headers", 128, 64 * 1024 * 1024, 100, 4096,
+            true);
+
+    public final String name;
+    public final int snapLength; // The most bytes kept of each packet.
+    public final int bufferBytes; // The size of the kernel's capture buffer, or 0 for libpcap's default.
+    public final int timeoutMillis; // How long libpcap waits for more packets before handing over what it has.
+    public final int batchPackets; // The most packets handed over per dispatch.
+    public final boolean promiscuous;
+
+    /**
+     * Creates a new CaptureProfile.
+     * @param profileName The name the profile is chosen by on the command line.
+     * @param snapLength The most bytes kept of each packet.
+     * @param bufferBytes The size of the kernel's capture buffer, or 0 for libpcap's default.
+     * @param timeoutMillis How long libpcap waits for more packets before handing over what it has.
+     * @param batchPackets The most packets handed over per dispatch.
+     * @param promiscuous Whether the NIC should capture packets that aren't addressed to it.
+     */
+    public CaptureProfile(String profileName, int snapLength, int bufferBytes, int timeoutMillis, int batchPackets,
+                          boolean promiscuous) {
+        name = profileName;
+        this.snapLength = snapLength;
+        this.bufferBytes = bufferBytes;
+        this.timeoutMillis = timeoutMillis;
+        this.batchPackets = batchPackets;
+        this.promiscuous = promiscuous;
+    }
+
+    /**
+     * This function finds a profile by its name.
+     * @param profileName "full" or "headers".
+     * @return The profile, or null if there is no profile with that name.
+     */
+    public static CaptureProfile named(String profileName) {
+        if (profileName.equalsIgnoreCase(FULL.name)) { return FULL; }
+        if (profileName.equalsIgnoreCase(HEADERS.name)) { return HEADERS; }
+        return null;
+    }
+
+    /**
+     * This function returns a copy of the profile with a different snap length.
+     * @param length The most bytes kept of each packet. Anything under 64 can cut off a TCP header with options.
+     * @return The new profile.
+     */
+    public CaptureProfile withSnapLength(int length) {
+        if (length <= 0) { throw new IllegalArgumentException("The snap length must be positive: " + length); }
+        return new CaptureProfile(name, length, bufferBytes, timeoutMillis, batchPackets, promiscuous);
+    }
+
+    /**
+     * This function opens a live capture on a device with this profile's settings.
+     * Unlike Pcap.openLive(), this lets us set the kernel's buffer size before the capture is activated.
+     * @param device The name of the device.
+     * @param errorBuffer Any error message is appended to this.
+     * @return The activated Pcap, or null if the device couldn't be opened.
+     */
+    public Pcap open(String device, StringBuilder errorBuffer) {
+        Pcap pcap = Pcap.create(device, errorBuffer);
+        if (pcap == null) { return null; }
+        pcap.setSnaplen(snapLength);
+        pcap.setPromisc(promiscuous ? 1 : 0);
+        pcap.setTimeout(timeoutMillis);
+        if (bufferBytes > 0) { pcap.setBufferSize(bufferBytes); }
+
+        // A negative status is an error; a positive one is a warning, and the capture still works.
+        int status = pcap.activate();
+        if (status < 0) {
+            errorBuffer.append(pcap.getErr());
+            pcap.close();
+            return null;
+        }
+        if (status > 0) { System.err.println("Warning while opening " + device + ": " + pcap.getErr()); }
+        return pcap;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (snap length %d bytes, kernel buffer %s, %d packets per dispatch)", name,
+                snapLength, bufferBytes > 0 ? (bufferBytes >> 20) + " MB" : "default", batchPackets);
+    }
+}
@@ -0,0 +1,268 @@
+package networkvisualiser;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded, lock-free ring buffer which sits between the capture thread and the analysis side.
+ * There is exactly one producer (the libpcap callback), and any number of consumers; every consumer sees every
+ * packet. All slots are allocated up front, so the producer only ever copies a frame into an existing slot and
+ * publishes it. If the consumers fall behind and the buffer fills up, the producer drops the packet (and counts it)
+ * instead of blocking, so that libpcap is never held up by analysis.
+ */
+public class CaptureRingBuffer {
+    /**
+     * This interface is implemented by anything which wants to read packets out of the buffer.
+     * The slot is only valid for the duration of the call; anything kept afterwards must be copied.
+     */
+    public interface SlotHandler {
+        void handleSlot(byte[] data, int captureLength, int wireLength, long timestampMicros);
+    }
+
+    // The contents of each slot, stored as parallel arrays so nothing is allocated per packet.
+    private final byte[][] slotData;
+    private final int[] captureLengths;
+    private final int[] wireLengths;
+    private final long[] timestamps;
+    private final int mask; // The capacity is a power of two, so the slot index is (sequence & mask).
+    private final int backpressureThreshold; // Three-quarters of the capacity.
+    private static final int GATE_REFRESH_MASK = 63; // How often (in packets) the producer re-reads the consumers.
+
+    // The producer's view of the buffer. Only the capture thread writes to these.
+    private final AtomicLong publishedSequence = new AtomicLong(0); // The next sequence consumers may not read yet.
+    private long nextSequence = 0; // The next sequence the producer will claim.
+    private long cachedGate = 0; // The slowest consumer's position, the last time we looked.
+
+    // Backpressure and drop counters, readable from any thread.
+    private final AtomicLong droppedPackets = new AtomicLong(0);
+    private final AtomicLong backpressureEvents = new AtomicLong(0);
+    private final AtomicLong highWaterMark = new AtomicLong(0);
+
+    private volatile Consumer[] consumers = new Consumer[0];
+
+    /**
+     * Creates a new CaptureRingBuffer, preallocating every slot.
+     * @param capacity The number of slots; this is rounded up to the nearest power of two.
+     * @param slotSize The size of each slot in bytes, which should be the capture's snap length.
+     */
+    public CaptureRingBuffer(int capacity, int slotSize) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        backpressureThreshold = size - (size >> 2);
+        slotData = new byte[size][slotSize];
+        captureLengths = new int[size];
+        wireLengths = new int[size];
+        timestamps = new long[size];
+    }
+
+    /**
+     * This function works out how many slots of a given size fit into a memory budget.
+     * @param memoryBudget The number of bytes the buffer may use.
+     * @param slotSize The size of each slot in bytes.
+     * @return A capacity which can be passed to the constructor.
+     */
+    public static int capacityFor(long memoryBudget, int slotSize) {
+        long slots = Math.max(memoryBudget / Math.max(slotSize, 1), 64);
+        return (int) Math.min(Long.highestOneBit(slots), 1 << 20);
+    }
+
+    /**
+     * This function registers a new consumer. Consumers should be added before capture starts, as they only see
+     * packets which are published after they were registered.
+     * @return The new Consumer.
+     */
+    public synchronized Consumer addConsumer() {
+        Consumer consumer = new Consumer(publishedSequence.get());
+        Consumer[] updated = Arrays.copyOf(consumers, consumers.length + 1);
+        updated[consumers.length] = consumer;
+        consumers = updated;
+        return consumer;
+    }
+
+    /**
+     * This function claims the next free slot for the producer. It must only be called from the capture thread.
+     * @return The sequence of the claimed slot, or -1 if the buffer is full and the packet should be dropped.
+     */
+    public long claim() {
+        long sequence = nextSequence;
+        long depth = sequence - cachedGate;
+        // We only re-read the consumers' positions periodically, or once our cached view says we're filling up.
+        if (depth >= backpressureThreshold || (sequence & GATE_REFRESH_MASK) == 0) {
+            cachedGate = slowestConsumer(sequence);
+            depth = sequence - cachedGate;
+            if (depth > mask) {
+                droppedPackets.lazySet(droppedPackets.get() + 1);
+                return -1;
+            }
+            if (depth >= backpressureThreshold) { backpressureEvents.lazySet(backpressureEvents.get() + 1); }
+        }
+        if (depth + 1 > highWaterMark.get()) { highWaterMark.lazySet(depth + 1); }
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    /**
+     * This function returns the buffer behind a claimed slot, so the producer can copy the frame into it.
+     * @param sequence The sequence returned by claim().
+     * @return The slot's byte array.
+     */
+    public byte[] slot(long sequence) {
+        return slotData[(int) sequence & mask];
+    }
+
+    /**
+     * This function publishes a claimed slot, making it visible to every consumer.
+     * @param sequence The sequence returned by claim().
+     * @param captureLength The number of bytes copied into the slot.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     */
+    public void publish(long sequence, int captureLength, int wireLength, long timestampMicros) {
+        fill(sequence, captureLength, wireLength, timestampMicros);
+        publishThrough(sequence);
+    }
+
+    /**
+     * This function records a claimed slot's lengths and timestamp, without publishing it yet. A producer which
+     * receives packets in batches can fill each slot as it goes, then publish the whole batch with publishThrough().
+     * @param sequence The sequence returned by claim().
+     * @param captureLength The number of bytes copied into the slot.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     */
+    public void fill(long sequence, int captureLength, int wireLength, long timestampMicros) {
+        int index = (int) sequence & mask;
+        captureLengths[index] = captureLength;
+        wireLengths[index] = wireLength;
+        timestamps[index] = timestampMicros;
+    }
+
+    /**
+     * This function publishes every filled slot up to and including the given one, making them visible to every
+     * consumer at once.
+     * @param sequence The sequence of the last slot filled.
+     */
+    public void publishThrough(long sequence) {
+        // An ordered store is enough here; it guarantees the slots are written before the sequence is visible.
+        publishedSequence.lazySet(sequence + 1);
+    }
+
+    /**
+     * @return The number of slots in the buffer.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return The number of packets published so far.
+     */
+    public long publishedPackets() {
+        return publishedSequence.get();
+    }
+
+    /**
+     * @return The number of packets dropped because every slot was in use.
+     */
+    public long droppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /**
+     * @return The number of packets which arrived while the buffer was more than three-quarters full.
+     */
+    public long backpressureEvents() {
+        return backpressureEvents.get();
+    }
+
+    /**
+     * @return The largest number of slots that have been in use at once. This may over-estimate by a few dozen slots,
+     * as the producer only re-reads the consumers' positions every so often.
+     */
+    public long highWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * @return The number of packets waiting to be read by the slowest consumer.
+     */
+    public long depth() {
+        long published = publishedSequence.get();
+        return published - slowestConsumer(published);
+    }
+
+    // Finds the position of the slowest consumer, or the given sequence if there are no consumers.
+    private long slowestConsumer(long sequence) {
+        long minimum = sequence;
+        for (Consumer consumer : consumers) {
+            minimum = Math.min(minimum, consumer.sequence.get());
+        }
+        return minimum;
+    }
+
+    /**
+     * This class represents one reader of the buffer. Each Consumer must only be used by a single thread.
+     * Packets can be read a batch at a time with drain(), or one at a time with peekTimestamp() and take() (for
+     * merging several buffers), in which case their slots are only given back to the producer by release().
+     */
+    public class Consumer {
+        private final AtomicLong sequence; // The next sequence the producer may not overwrite.
+        private long position; // The next sequence this consumer will read.
+
+        private Consumer(long start) {
+            sequence = new AtomicLong(start);
+            position = start;
+        }
+
+        /**
+         * This function hands every available packet (up to a limit) to the handler, then releases their slots.
+         * @param handler The SlotHandler to pass each packet to.
+         * @param limit The maximum number of packets to read in this call.
+         * @return The number of packets read.
+         */
+        public int drain(SlotHandler handler, int limit) {
+            long start = position;
+            long end = Math.min(publishedSequence.get(), start + limit);
+            for (long s = start; s < end; s++) {
+                int index = (int) s & mask;
+                handler.handleSlot(slotData[index], captureLengths[index], wireLengths[index], timestamps[index]);
+            }
+            // Releasing the whole batch at once keeps the producer from re-reading our position on every packet.
+            position = end;
+            release();
+            return (int) (end - start);
+        }
+
+        /**
+         * @return The timestamp of the next packet to be read, or -1 if none is waiting.
+         */
+        public long peekTimestamp() {
+            return position < publishedSequence.get() ? timestamps[(int) position & mask] : -1;
+        }
+
+        /**
+         * This function hands the next packet to the handler. Its slot is kept until release() is called.
+         * It must only be called once peekTimestamp() has shown a packet is waiting.
+         * @param handler The SlotHandler to pass the packet to.
+         */
+        public void take(SlotHandler handler) {
+            int index = (int) position & mask;
+            handler.handleSlot(slotData[index], captureLengths[index], wireLengths[index], timestamps[index]);
+            position++;
+        }
+
+        /**
+         * This function gives the slots of every packet read so far back to the producer.
+         */
+        public void release() {
+            sequence.lazySet(position);
+        }
+
+        /**
+         * @return The number of packets waiting to be read by this consumer.
+         */
+        public long backlog() {
+            return publishedSequence.get() - position;
+        }
+    }
+}
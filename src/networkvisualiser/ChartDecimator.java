@@ -0,0 +1,114 @@
+package networkvisualiser;
+
+/**
+ * This class reduces a series to a bounded number of points for the chart, however long the capture.
+ * The values are split into buckets (one for every two pixels of chart width), and each bucket is drawn as its
+ * minimum and maximum, in the order they occurred. Unlike averaging, this keeps every burst and lull visible, and the
+ * outline of the area drawn is the same as if every value had been plotted.
+ */
+public final class ChartDecimator {
+    private ChartDecimator() {
+    }
+
+    /**
+     * This class holds the points chosen to represent a series, in increasing order.
+     */
+    public static class Points {
+        private final int[] indices;
+        private final long[] values;
+        private int size = 0;
+
+        Points(int capacity) {
+            indices = new int[capacity];
+            values = new long[capacity];
+        }
+
+        private void add(int index, long value) {
+            indices[size] = index;
+            values[size] = value;
+            size++;
+        }
+
+        /**
+         * @return The number of points.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param point The index of the point.
+         * @return The index in the series of the value the point represents.
+         */
+        public int index(int point) {
+            return indices[point];
+        }
+
+        /**
+         * @param point The index of the point.
+         * @return The value at that index.
+         */
+        public long value(int point) {
+            return values[point];
+        }
+    }
+
+    /**
+     * This function picks the points to draw for a range of a series.
+     * @param data The series.
+     * @param from The index of the first value to draw.
+     * @param to The index after the last value to draw.
+     * @param buckets The most buckets to split the range into; at most two points are drawn per bucket.
+     * @return The points to draw. If the range fits, every value is returned unchanged.
+     */
+    public static Points minMax(long[] data, int from, int to, int buckets) {
+        int length = Math.max(to - from, 0);
+        buckets = Math.max(buckets, 1);
+        if (length <= buckets * 2) {
+            Points points = new Points(length);
+            for (int index = from; index < to; index++) { points.add(index, data[index]); }
+            return points;
+        }
+
+        Points points = new Points(buckets * 2);
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            // Spread the remainder across the buckets, so every bucket is within one second of the same width.
+            int start = from + (int) ((long) length * bucket / buckets);
+            int end = from + (int) ((long) length * (bucket + 1) / buckets);
+            int minimum = start;
+            int maximum = start;
+            for (int index = start + 1; index < end; index++) {
+                if (data[index] < data[minimum]) { minimum = index; }
+                if (data[index] > data[maximum]) { maximum = index; }
+            }
+            // Keep the points in time order, so the line doesn't double back on itself.
+            int first = Math.min(minimum, maximum);
+            int last = Math.max(minimum, maximum);
+            points.add(first, data[first]);
+            if (last != first) { points.add(last, data[last]); }
+        }
+        return points;
+    }
+
+    /**
+     * This function picks a tick unit which gives a readable number of labels on an axis: 1, 2 or 5 times a power of
+     * ten, or a whole number of minutes or hours once the range is long enough.
+     * @param range The range of the axis, in seconds.
+     * @param ticks Roughly how many ticks are wanted.
+     * @return The tick unit, in seconds.
+     */
+    public static double tickUnit(double range, int ticks) {
+        double rough = Math.max(range / Math.max(ticks, 1), 1);
+        // Long captures read best in minutes and hours, rather than in powers of ten seconds.
+        long[] timeUnits = {60, 120, 300, 600, 900, 1800, 3600, 7200, 10800, 21600, 43200, 86400};
+        if (rough >= 45 && rough <= 86400) {
+            for (long unit : timeUnits) {
+                if (unit >= rough) { return unit; }
+            }
+        }
+        double magnitude = Math.pow(10, Math.floor(Math.log10(rough)));
+        double normalised = rough / magnitude;
+        double step = normalised <= 1 ? 1 : normalised <= 2 ? 2 : normalised <= 5 ? 5 : 10;
+        return step * magnitude;
+    }
+}
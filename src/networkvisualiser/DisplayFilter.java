@@ -0,0 +1,401 @@
+package networkvisualiser;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a Wireshark-style display filter, such as "tcp.flags.rst && ip.src == 10.0.0.5 && frame.len > 1000".
+ * The expression is parsed once, and compiled into a tree of small lambdas, each specialised for its field, operator
+ * and constant; no syntax tree is walked per packet. Filters run against the columns the PacketStore decoded when the
+ * packets arrived, so packets are never dissected again (or paged back in from disk) to be filtered.
+ *
+ * Fields follow Wireshark's names, over the protocols PacketProcessor covers:
+ *  - Protocols: eth, arp, ip, tcp, udp, http, rtp, rtcp, sdp
+ *  - frame.number, frame.len, frame.cap_len, frame.interface_id
+ *  - ip.src, ip.dst, ip.addr (either), compared with addresses such as 10.0.0.5 or subnets such as 10.0.0.0/8
+ *  - tcp.srcport, tcp.dstport, tcp.port (either), and the same for udp
+ *  - tcp.flags, and tcp.flags.fin, .syn, .rst (or .reset), .push, .ack and .urg
+ * Comparisons are ==, !=, <, <=, >, >= (or eq, ne, lt, le, gt, ge), combined with && (and), || (or), ! (not) and
+ * brackets. A field on its own is true if the packet has it; a TCP flag on its own is true if it is set. As in
+ * Wireshark, "ip.addr == x" matches if either address is x, while "ip.addr != x" matches only if neither is.
+ */
+public class DisplayFilter {
+    /**
+     * This interface is a compiled filter, or any part of one.
+     */
+    public interface PacketPredicate {
+        /**
+         * @param store The store holding the packet.
+         * @param index The index of the packet.
+         * @return Whether the packet matches.
+         */
+        boolean test(PacketStore store, int index);
+    }
+
+    // Reads a field's value from the store's columns.
+    private interface Column {
+        long read(PacketStore store, int index);
+    }
+
+    // A field that can be used in a filter: the protocols it needs, and the column(s) it is read from.
+    private static class Field {
+        final int required;
+        final Column[] columns;
+        final boolean address;
+        final boolean flag;
+
+        Field(int required, boolean address, boolean flag, Column... columns) {
+            this.required = required;
+            this.address = address;
+            this.flag = flag;
+            this.columns = columns;
+        }
+    }
+
+    private static final Map<String, Integer> PROTOCOLS = new HashMap<>();
+    private static final Map<String, Field> FIELDS = new HashMap<>();
+
+    static {
+        PROTOCOLS.put("eth", Protocols.ETHERNET);
+        PROTOCOLS.put("arp", Protocols.ARP);
+        PROTOCOLS.put("ip", Protocols.IP4);
+        PROTOCOLS.put("tcp", Protocols.TCP);
+        PROTOCOLS.put("udp", Protocols.UDP);
+        PROTOCOLS.put("http", Protocols.HTTP);
+        PROTOCOLS.put("rtp", Protocols.RTP);
+        PROTOCOLS.put("rtcp", Protocols.RTCP_RECEIVER_REPORT | Protocols.RTCP_SENDER_REPORT);
+        PROTOCOLS.put("sdp", Protocols.SDP);
+
+        FIELDS.put("frame.number", new Field(0, false, false, (store, index) -> index + 1));
+        FIELDS.put("frame.len", new Field(0, false, false, PacketStore::wireLength));
+        FIELDS.put("frame.cap_len", new Field(0, false, false, PacketStore::captureLength));
+        FIELDS.put("frame.interface_id", new Field(0, false, false, PacketStore::interfaceId));
+
+        Column source = (store, index) -> store.sourceAddress(index) & 0xFFFFFFFFL;
+        Column destination = (store, index) -> store.destinationAddress(index) & 0xFFFFFFFFL;
+        FIELDS.put("ip.src", new Field(Protocols.IP4, true, false, source));
+        FIELDS.put("ip.dst", new Field(Protocols.IP4, true, false, destination));
+        FIELDS.put("ip.addr", new Field(Protocols.IP4, true, false, source, destination));
+
+        Column sourcePort = PacketStore::sourcePort;
+        Column destinationPort = PacketStore::destinationPort;
+        for (String transport : new String[]{"tcp", "udp"}) {
+            int required = PROTOCOLS.get(transport);
+            FIELDS.put(transport + ".srcport", new Field(required, false, false, sourcePort));
+            FIELDS.put(transport + ".dstport", new Field(required, false, false, destinationPort));
+            FIELDS.put(transport + ".port", new Field(required, false, false, sourcePort, destinationPort));
+        }
+
+        FIELDS.put("tcp.flags", new Field(Protocols.TCP, false, false, PacketStore::tcpFlags));
+        String[][] flags = {{"fin"}, {"syn"}, {"rst", "reset"}, {"push"}, {"ack"}, {"urg"}};
+        for (int bit = 0; bit < flags.length; bit++) {
+            int shift = bit;
+            Field flag = new Field(Protocols.TCP, false, true, (store, index) -> (store.tcpFlags(index) >> shift) & 1);
+            for (String name : flags[bit]) { FIELDS.put("tcp.flags." + name, flag); }
+        }
+    }
+
+    private final String expression;
+    private final PacketPredicate predicate;
+
+    private DisplayFilter(String expression, PacketPredicate predicate) {
+        this.expression = expression;
+        this.predicate = predicate;
+    }
+
+    /**
+     * This function parses and compiles a filter.
+     * @param expression The filter, such as "tcp.port == 80 && !http".
+     * @return The compiled filter.
+     * @throws ParseException If the filter isn't valid; the offset is where the problem was found.
+     */
+    public static DisplayFilter compile(String expression) throws ParseException {
+        Parser parser = new Parser(expression);
+        PacketPredicate predicate = parser.parseOr();
+        if (parser.peek() != null) { throw parser.error("Unexpected '" + parser.peek() + "'"); }
+        return new DisplayFilter(expression, predicate);
+    }
+
+    /**
+     * @param store The store holding the packet.
+     * @param index The index of the packet.
+     * @return Whether the packet matches the filter.
+     */
+    public boolean matches(PacketStore store, int index) {
+        return predicate.test(store, index);
+    }
+
+    /**
+     * This function adds the packets in a range which match the filter to a set.
+     * @param store The store holding the packets.
+     * @param from The index of the first packet.
+     * @param to The index after the last packet.
+     * @param matches The set to add to; it must not hold any packets from this range onwards.
+     */
+    public void filter(PacketStore store, int from, int to, PacketBitmap matches) {
+        PacketPredicate compiled = predicate;
+        for (int i = from; i < to; i++) {
+            if (compiled.test(store, i)) { matches.add(i); }
+        }
+    }
+
+    /**
+     * @return The filter, as it was written.
+     */
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * This class finds the packets in a store which match a filter, for use with ParallelAnalysis.
+     */
+    public static class Matches implements ParallelAnalysis.Accumulator<Matches> {
+        private final DisplayFilter filter;
+        private final PacketBitmap matches = new PacketBitmap();
+
+        /**
+         * @param displayFilter The filter to match against.
+         */
+        public Matches(DisplayFilter displayFilter) {
+            filter = displayFilter;
+        }
+
+        @Override
+        public void accumulate(PacketStore store, int from, int to) {
+            filter.filter(store, from, to, matches);
+        }
+
+        @Override
+        public void merge(Matches later) {
+            matches.append(later.matches);
+        }
+
+        /**
+         * @return The matching packets.
+         */
+        public PacketBitmap matches() {
+            return matches;
+        }
+    }
+
+    /**
+     * This class is a recursive descent parser, which builds the predicates as it goes.
+     * Each rule handles one level of precedence, from || (the loosest) down to single comparisons.
+     */
+    private static class Parser {
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private int position = 0;
+
+        Parser(String expression) throws ParseException {
+            // Split the expression into words (fields, numbers and addresses), operators and brackets.
+            int i = 0;
+            while (i < expression.length()) {
+                char c = expression.charAt(i);
+                int start = i;
+                if (Character.isWhitespace(c)) { i++; continue; }
+                if (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '/') {
+                    while (i < expression.length() && (Character.isLetterOrDigit(expression.charAt(i))
+                            || "_./".indexOf(expression.charAt(i)) >= 0)) { i++; }
+                }
+                else if (expression.startsWith("&&", i) || expression.startsWith("||", i)
+                        || expression.startsWith("==", i) || expression.startsWith("!=", i)
+                        || expression.startsWith("<=", i) || expression.startsWith(">=", i)) { i += 2; }
+                else if ("!<>()".indexOf(c) >= 0) { i++; }
+                else { throw new ParseException("Unexpected character '" + c + "' at position " + (i + 1), i); }
+                tokens.add(expression.substring(start, i));
+                offsets.add(start);
+            }
+        }
+
+        String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        String next() throws ParseException {
+            if (position == tokens.size()) { throw error("The filter ends too soon"); }
+            return tokens.get(position++);
+        }
+
+        // Consumes the next token if it is one of the given words.
+        boolean accept(String... words) {
+            String token = peek();
+            for (String word : words) {
+                if (word.equalsIgnoreCase(token)) {
+                    position++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        ParseException error(String message) {
+            int offset = position < offsets.size() ? offsets.get(position) : -1;
+            return new ParseException(message + (offset >= 0 ? " at position " + (offset + 1) : ""),
+                    Math.max(offset, 0));
+        }
+
+        PacketPredicate parseOr() throws ParseException {
+            PacketPredicate left = parseAnd();
+            while (accept("||", "or")) {
+                PacketPredicate first = left;
+                PacketPredicate second = parseAnd();
+                left = (store, index) -> first.test(store, index) || second.test(store, index);
+            }
+            return left;
+        }
+
+        PacketPredicate parseAnd() throws ParseException {
+            PacketPredicate left = parseNot();
+            while (accept("&&", "and")) {
+                PacketPredicate first = left;
+                PacketPredicate second = parseNot();
+                left = (store, index) -> first.test(store, index) && second.test(store, index);
+            }
+            return left;
+        }
+
+        PacketPredicate parseNot() throws ParseException {
+            if (accept("!", "not")) {
+                PacketPredicate operand = parseNot();
+                return (store, index) -> !operand.test(store, index);
+            }
+            return parsePrimary();
+        }
+
+        PacketPredicate parsePrimary() throws ParseException {
+            if (accept("(")) {
+                PacketPredicate inner = parseOr();
+                if (!accept(")")) { throw error("Expected ')'"); }
+                return inner;
+            }
+            String name = next().toLowerCase();
+
+            // A protocol on its own.
+            Integer protocol = PROTOCOLS.get(name);
+            if (protocol != null) {
+                int mask = protocol;
+                return (store, index) -> (store.protocols(index) & mask) != 0;
+            }
+
+            Field field = FIELDS.get(name);
+            if (field == null) {
+                position--;
+                throw error("Unknown field '" + name + "'");
+            }
+            String operator = comparison(peek());
+            if (operator == null) {
+                // A field on its own: is it there (or for a flag, is it set)?
+                int required = field.required;
+                if (field.flag) {
+                    Column column = field.columns[0];
+                    return (store, index) -> store.has(index, required) && column.read(store, index) != 0;
+                }
+                return (store, index) -> store.has(index, required);
+            }
+            position++;
+            return compare(field, operator);
+        }
+
+        // Builds the predicate for a comparison, specialised for the operator and the constant.
+        PacketPredicate compare(Field field, String operator) throws ParseException {
+            long value;
+            long mask = -1;
+            String literal = next();
+            if (field.address) {
+                long[] parsed = parseAddress(literal);
+                value = parsed[0];
+                mask = parsed[1];
+            }
+            else {
+                value = parseNumber(literal);
+            }
+
+            PacketPredicate test = null;
+            for (Column column : field.columns) {
+                PacketPredicate single = compareColumn(column, operator, value, mask);
+                if (test == null) { test = single; }
+                else {
+                    // Several columns (such as either port): any may match, except for != which none may fail.
+                    PacketPredicate first = test;
+                    test = operator.equals("!=")
+                            ? (store, index) -> first.test(store, index) && single.test(store, index)
+                            : (store, index) -> first.test(store, index) || single.test(store, index);
+                }
+            }
+            PacketPredicate comparison = test;
+            int required = field.required;
+            if (required == 0) { return comparison; }
+            return (store, index) -> store.has(index, required) && comparison.test(store, index);
+        }
+
+        static PacketPredicate compareColumn(Column column, String operator, long value, long mask) {
+            if (mask != -1) {
+                // A subnet: only the network part of the address is compared.
+                long network = value & mask;
+                if (operator.equals("==")) { return (store, index) -> (column.read(store, index) & mask) == network; }
+                if (operator.equals("!=")) { return (store, index) -> (column.read(store, index) & mask) != network; }
+            }
+            switch (operator) {
+                case "==": return (store, index) -> column.read(store, index) == value;
+                case "!=": return (store, index) -> column.read(store, index) != value;
+                case "<": return (store, index) -> column.read(store, index) < value;
+                case "<=": return (store, index) -> column.read(store, index) <= value;
+                case ">": return (store, index) -> column.read(store, index) > value;
+                default: return (store, index) -> column.read(store, index) >= value;
+            }
+        }
+
+        // Maps each way of writing a comparison to its symbol, or returns null if the token isn't one.
+        static String comparison(String token) {
+            if (token == null) { return null; }
+            switch (token.toLowerCase()) {
+                case "==": case "eq": return "==";
+                case "!=": case "ne": return "!=";
+                case "<": case "lt": return "<";
+                case "<=": case "le": return "<=";
+                case ">": case "gt": return ">";
+                case ">=": case "ge": return ">=";
+                default: return null;
+            }
+        }
+
+        long parseNumber(String literal) throws ParseException {
+            try {
+                if (literal.equalsIgnoreCase("true")) { return 1; }
+                if (literal.equalsIgnoreCase("false")) { return 0; }
+                if (literal.startsWith("0x") || literal.startsWith("0X")) { return Long.parseLong(literal.substring(2), 16); }
+                return Long.parseLong(literal);
+            } catch (NumberFormatException e) {
+                position--;
+                throw error("Expected a number, not '" + literal + "'");
+            }
+        }
+
+        // Parses "10.0.0.5" or "10.0.0.0/8" into the address and the mask of the bits to compare.
+        long[] parseAddress(String literal) throws ParseException {
+            String[] parts = literal.split("/", -1);
+            String[] octets = parts[0].split("\\.", -1);
+            try {
+                if (parts.length > 2 || octets.length != 4) { throw new NumberFormatException(); }
+                long address = 0;
+                for (String octet : octets) {
+                    int value = Integer.parseInt(octet);
+                    if (value < 0 || value > 255) { throw new NumberFormatException(); }
+                    address = (address << 8) | value;
+                }
+                int prefix = parts.length == 2 ? Integer.parseInt(parts[1]) : 32;
+                if (prefix < 0 || prefix > 32) { throw new NumberFormatException(); }
+                long mask = prefix == 32 ? -1 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+                return new long[]{address, mask};
+            } catch (NumberFormatException e) {
+                position--;
+                throw error("Expected an IPv4 address, not '" + literal + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class tracks every TCP and UDP flow in a capture, keyed on its 5-tuple.
+ * A flow's key is normalised so both directions map to the same entry, and packed into two longs; flows are found
+ * through an open-addressing hash table of primitive arrays, so no objects or strings are created per packet.
+ * TCP flows also run a small state machine, so that the handshakes, resets and separate connections (including a
+ * port pair being reused) can all be counted in the same single pass.
+ * Only the thread which stores packets may update it, but the counters may be read from any thread.
+ */
+public class FlowTable implements PacketObserver {
+    // The states of a TCP connection, as far as we can see it from the packets.
+    public static final byte STATE_NONE = 0; // Not TCP, or nothing seen yet.
+    public static final byte STATE_MIDSTREAM = 1; // The connection was already open when the capture started.
+    public static final byte STATE_SYN_SENT = 2;
+    public static final byte STATE_SYN_RECEIVED = 3;
+    public static final byte STATE_ESTABLISHED = 4;
+    public static final byte STATE_CLOSING = 5; // One side has sent a FIN.
+    public static final byte STATE_CLOSED = 6; // Both sides have sent a FIN.
+    public static final byte STATE_RESET = 7;
+
+    private static final int INITIAL_FLOWS = 1024;
+
+    // The hash table: each slot holds a flow ID plus one, so that zero means the slot is empty.
+    private int[] slots = new int[INITIAL_FLOWS * 2];
+
+    // The flows themselves, in the order they were first seen. A flow's ID is its index in these arrays.
+    private long[] keyAddresses = new long[INITIAL_FLOWS]; // The two addresses, lower endpoint first.
+    private long[] keyPorts = new long[INITIAL_FLOWS]; // The IP protocol and the two ports.
+    private byte[] states = new byte[INITIAL_FLOWS];
+    private byte[] initiators = new byte[INITIAL_FLOWS]; // Which direction sent the first SYN.
+    private byte[] finishedDirections = new byte[INITIAL_FLOWS]; // A bit for each direction that has sent a FIN.
+    private int[] connectionCounts = new int[INITIAL_FLOWS];
+    private long[] byteCounts = new long[INITIAL_FLOWS];
+    private long[] packetCounts = new long[INITIAL_FLOWS];
+    private int[] firstPackets = new int[INITIAL_FLOWS];
+    private int[] lastPackets = new int[INITIAL_FLOWS];
+    private byte[] applications = new byte[INITIAL_FLOWS]; // The verdict of an ApplicationClassifier, if one is used.
+    private volatile int flowCount = 0; // Written after a new flow's fields, so readers see whole flows.
+    private int lastDirection; // The direction of the last packet added: 0 from the lower endpoint, 1 towards it.
+
+    // Totals across every flow.
+    private volatile long connections = 0;
+    private volatile long handshakes = 0;
+    private volatile long resets = 0;
+
+    /**
+     * This method adds a stored packet to its flow. It also records the flow in the fields, for later observers.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        fields.flowId = add(index, fields.protocols, fields.sourceAddress, fields.destinationAddress,
+                fields.sourcePort, fields.destinationPort, fields.tcpFlags, fields.wireLength);
+        fields.flowDirection = lastDirection;
+    }
+
+    /**
+     * This function adds a single packet to its flow.
+     * @param index The index of the packet in the store.
+     * @param protocols The packet's protocol bitmask (see Protocols).
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param sourcePort The TCP/UDP source port.
+     * @param destinationPort The TCP/UDP destination port.
+     * @param tcpFlags The TCP flags (see Protocols).
+     * @param wireLength The original length of the packet on the wire.
+     * @return The flow's ID, or -1 if the packet isn't TCP or UDP over IPv4.
+     */
+    public int add(int index, int protocols, int sourceAddress, int destinationAddress, int sourcePort,
+                   int destinationPort, int tcpFlags, int wireLength) {
+        boolean tcp = (protocols & Protocols.TCP) != 0;
+        if ((protocols & Protocols.IP4) == 0 || (!tcp && (protocols & Protocols.UDP) == 0)) { return -1; }
+
+        // Normalise the key, so that both directions of a flow find the same entry.
+        long source = ((sourceAddress & 0xFFFFFFFFL) << 16) | sourcePort;
+        long destination = ((destinationAddress & 0xFFFFFFFFL) << 16) | destinationPort;
+        int direction = source <= destination ? 0 : 1;
+        long lower = direction == 0 ? source : destination;
+        long upper = direction == 0 ? destination : source;
+        long addresses = ((lower >>> 16) << 32) | (upper >>> 16);
+        long ports = ((long) (tcp ? FrameDecoder.IP_PROTOCOL_TCP : FrameDecoder.IP_PROTOCOL_UDP) << 32)
+                | ((lower & 0xFFFF) << 16) | (upper & 0xFFFF);
+
+        int flow = findOrCreate(addresses, ports, index);
+        byteCounts[flow] += wireLength;
+        packetCounts[flow]++;
+        lastPackets[flow] = index;
+        if (tcp) { advanceState(flow, tcpFlags, direction); }
+        lastDirection = direction;
+        return flow;
+    }
+
+    // Moves a TCP flow through its state machine for one packet.
+    private void advanceState(int flow, int flags, int direction) {
+        byte state = states[flow];
+        boolean syn = (flags & Protocols.TCP_SYN) != 0;
+        boolean ack = (flags & Protocols.TCP_ACK) != 0;
+
+        if ((flags & Protocols.TCP_RST) != 0) {
+            if (state != STATE_RESET) {
+                if (state == STATE_NONE) { startConnection(flow); }
+                states[flow] = STATE_RESET;
+                resets = resets + 1;
+            }
+        }
+        else if (syn && !ack) {
+            // A SYN starts a new connection, unless it is a retransmission of the one we've just seen. That includes
+            // one sent after the SYN-ACK, if the SYN-ACK was lost before it reached the initiator.
+            boolean opening = state == STATE_SYN_SENT || state == STATE_SYN_RECEIVED;
+            if (!opening || initiators[flow] != direction) {
+                startConnection(flow);
+                initiators[flow] = (byte) direction;
+                finishedDirections[flow] = 0;
+                states[flow] = STATE_SYN_SENT;
+            }
+        }
+        else if (syn) {
+            if (state == STATE_SYN_SENT && initiators[flow] != direction) { states[flow] = STATE_SYN_RECEIVED; }
+            else if (state == STATE_NONE) {
+                // We missed the SYN, but this is still the start of a connection.
+                startConnection(flow);
+                initiators[flow] = (byte) (1 - direction);
+                states[flow] = STATE_SYN_RECEIVED;
+            }
+        }
+        else if (state == STATE_SYN_RECEIVED && ack && initiators[flow] == direction) {
+            states[flow] = STATE_ESTABLISHED;
+            handshakes = handshakes + 1;
+        }
+        else if (state == STATE_NONE) {
+            // The connection was already open before the capture started.
+            startConnection(flow);
+            states[flow] = STATE_MIDSTREAM;
+        }
+
+        // A FIN closes one direction; once both have closed, so has the connection.
+        if ((flags & Protocols.TCP_FIN) != 0 && states[flow] != STATE_RESET) {
+            finishedDirections[flow] |= (byte) (1 << direction);
+            states[flow] = finishedDirections[flow] == 3 ? STATE_CLOSED : STATE_CLOSING;
+        }
+    }
+
+    private void startConnection(int flow) {
+        connectionCounts[flow]++;
+        connections = connections + 1;
+    }
+
+    // Finds a flow in the hash table by linear probing, adding it if it is new.
+    private int findOrCreate(long addresses, long ports, int index) {
+        int mask = slots.length - 1;
+        int slot = hash(addresses, ports) & mask;
+        while (slots[slot] != 0) {
+            int flow = slots[slot] - 1;
+            if (keyAddresses[flow] == addresses && keyPorts[flow] == ports) { return flow; }
+            slot = (slot + 1) & mask;
+        }
+
+        int flow = flowCount;
+        if (flow == keyAddresses.length) { growFlows(); }
+        keyAddresses[flow] = addresses;
+        keyPorts[flow] = ports;
+        firstPackets[flow] = index;
+        slots[slot] = flow + 1;
+        flowCount = flow + 1;
+        // Keep the table at most half full, so probe sequences stay short.
+        if (flowCount * 2 > slots.length) { rehash(slots.length * 2); }
+        return flow;
+    }
+
+    // Mixes both halves of the key, so that similar addresses and ports spread across the table.
+    private static int hash(long addresses, long ports) {
+        long h = addresses * 0x9E3779B97F4A7C15L + ports;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return (int) h;
+    }
+
+    private void rehash(int capacity) {
+        int[] resized = new int[capacity];
+        int mask = capacity - 1;
+        for (int flow = 0; flow < flowCount; flow++) {
+            int slot = hash(keyAddresses[flow], keyPorts[flow]) & mask;
+            while (resized[slot] != 0) { slot = (slot + 1) & mask; }
+            resized[slot] = flow + 1;
+        }
+        slots = resized;
+    }
+
+    private void growFlows() {
+        int capacity = keyAddresses.length * 2;
+        keyAddresses = Arrays.copyOf(keyAddresses, capacity);
+        keyPorts = Arrays.copyOf(keyPorts, capacity);
+        states = Arrays.copyOf(states, capacity);
+        initiators = Arrays.copyOf(initiators, capacity);
+        finishedDirections = Arrays.copyOf(finishedDirections, capacity);
+        connectionCounts = Arrays.copyOf(connectionCounts, capacity);
+        byteCounts = Arrays.copyOf(byteCounts, capacity);
+        packetCounts = Arrays.copyOf(packetCounts, capacity);
+        firstPackets = Arrays.copyOf(firstPackets, capacity);
+        lastPackets = Arrays.copyOf(lastPackets, capacity);
+        applications = Arrays.copyOf(applications, capacity);
+    }
+
+    /**
+     * This function writes the table to a session (see SessionFile), including its hash table, so that it is ready to
+     * use as soon as it is loaded.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        int count = flowCount;
+        out.writeInt(count);
+        out.writeInts(slots, slots.length);
+        out.writeLongs(keyAddresses, count);
+        out.writeLongs(keyPorts, count);
+        out.writeBytes(states, count);
+        out.writeBytes(initiators, count);
+        out.writeBytes(finishedDirections, count);
+        out.writeInts(connectionCounts, count);
+        out.writeLongs(byteCounts, count);
+        out.writeLongs(packetCounts, count);
+        out.writeInts(firstPackets, count);
+        out.writeInts(lastPackets, count);
+        out.writeBytes(applications, count);
+        out.writeLong(connections);
+        out.writeLong(handshakes);
+        out.writeLong(resets);
+    }
+
+    /**
+     * This function reads the table back from a session. The table must be new.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        int count = in.readInt();
+        int capacity = Math.max(count, INITIAL_FLOWS);
+        slots = in.readInts(0);
+        keyAddresses = in.readLongs(capacity);
+        keyPorts = in.readLongs(capacity);
+        states = in.readBytes(capacity);
+        initiators = in.readBytes(capacity);
+        finishedDirections = in.readBytes(capacity);
+        connectionCounts = in.readInts(capacity);
+        byteCounts = in.readLongs(capacity);
+        packetCounts = in.readLongs(capacity);
+        firstPackets = in.readInts(capacity);
+        lastPackets = in.readInts(capacity);
+        applications = in.readBytes(capacity);
+        connections = in.readLong();
+        handshakes = in.readLong();
+        resets = in.readLong();
+        flowCount = count;
+    }
+
+    /**
+     * This function finds the flow a packet belongs to, without adding it. Unlike add(), it may be called from any
+     * thread; a flow which is being added at the same time may not be found yet.
+     * @param protocols The packet's protocol bitmask (see Protocols).
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param sourcePort The TCP/UDP source port.
+     * @param destinationPort The TCP/UDP destination port.
+     * @return The flow's ID, or -1 if it hasn't been seen (or the packet isn't TCP or UDP over IPv4).
+     */
+    public int find(int protocols, int sourceAddress, int destinationAddress, int sourcePort, int destinationPort) {
+        boolean tcp = (protocols & Protocols.TCP) != 0;
+        if ((protocols & Protocols.IP4) == 0 || (!tcp && (protocols & Protocols.UDP) == 0)) { return -1; }
+        long source = ((sourceAddress & 0xFFFFFFFFL) << 16) | sourcePort;
+        long destination = ((destinationAddress & 0xFFFFFFFFL) << 16) | destinationPort;
+        long lower = Math.min(source, destination);
+        long upper = Math.max(source, destination);
+        long addresses = ((lower >>> 16) << 32) | (upper >>> 16);
+        long ports = ((long) (tcp ? FrameDecoder.IP_PROTOCOL_TCP : FrameDecoder.IP_PROTOCOL_UDP) << 32)
+                | ((lower & 0xFFFF) << 16) | (upper & 0xFFFF);
+
+        // Reading the count first makes every flow below it visible, along with arrays at least that long.
+        int count = flowCount;
+        int[] table = slots;
+        long[] flowAddresses = keyAddresses;
+        long[] flowPorts = keyPorts;
+        int mask = table.length - 1;
+        int slot = hash(addresses, ports) & mask;
+        while (table[slot] != 0) {
+            int flow = table[slot] - 1;
+            if (flow < count && flow < flowAddresses.length && flowAddresses[flow] == addresses
+                    && flowPorts[flow] == ports) { return flow; }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * This function works out which way a packet travels within its flow, as add() records it.
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param sourcePort The TCP/UDP source port.
+     * @param destinationPort The TCP/UDP destination port.
+     * @return 0 if it was sent from the flow's lower endpoint, and 1 if it was sent to it.
+     */
+    public static int direction(int sourceAddress, int destinationAddress, int sourcePort, int destinationPort) {
+        long source = ((sourceAddress & 0xFFFFFFFFL) << 16) | sourcePort;
+        long destination = ((destinationAddress & 0xFFFFFFFFL) << 16) | destinationPort;
+        return source <= destination ? 0 : 1;
+    }
+
+    /**
+     * @return The number of flows (TCP and UDP) seen.
+     */
+    public int flowCount() {
+        return flowCount;
+    }
+
+    /**
+     * @return The number of TCP connections seen, counting each reuse of a port pair separately.
+     */
+    public long connections() {
+        return connections;
+    }
+
+    /**
+     * @return The number of completed three-way handshakes.
+     */
+    public long handshakes() {
+        return handshakes;
+    }
+
+    /**
+     * @return The number of TCP connections which were reset.
+     */
+    public long resets() {
+        return resets;
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return Whether the flow is TCP (rather than UDP).
+     */
+    public boolean isTcp(int flow) {
+        return (keyPorts[flow] >>> 32) == FrameDecoder.IP_PROTOCOL_TCP;
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The flow's current TCP state (one of the STATE_ constants).
+     */
+    public byte state(int flow) {
+        return states[flow];
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The number of bytes sent in both directions.
+     */
+    public long bytes(int flow) {
+        return byteCounts[flow];
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The number of packets sent in both directions.
+     */
+    public long packets(int flow) {
+        return packetCounts[flow];
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The index in the store of the flow's first packet.
+     */
+    public int firstPacket(int flow) {
+        return firstPackets[flow];
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The index in the store of the flow's latest packet.
+     */
+    public int lastPacket(int flow) {
+        return lastPackets[flow];
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The application using the flow (see ApplicationClassifier), or OTHER if it hasn't been classified.
+     */
+    public byte application(int flow) {
+        return applications[flow];
+    }
+
+    /**
+     * This function records which application is using a flow. Only the thread which stores packets may call it.
+     * @param flow The flow's ID.
+     * @param application The application (see ApplicationClassifier).
+     */
+    public void setApplication(int flow, byte application) {
+        applications[flow] = application;
+    }
+
+    /**
+     * @param flow The flow's ID.
+     * @return The number of TCP connections seen on this flow's port pair.
+     */
+    public int connectionCount(int flow) {
+        return connectionCounts[flow];
+    }
+
+    /**
+     * This function describes a flow's endpoints, starting with whichever side opened the connection (if known).
+     * @param flow The flow's ID.
+     * @return A String such as '10.0.0.5:51234 and 93.184.216.34:80'.
+     */
+    public String describe(int flow) {
+        String lower = FrameDecoder.formatAddress((int) (keyAddresses[flow] >>> 32)) + ":"
+                + ((keyPorts[flow] >>> 16) & 0xFFFF);
+        String upper = FrameDecoder.formatAddress((int) keyAddresses[flow]) + ":" + (keyPorts[flow] & 0xFFFF);
+        return initiators[flow] == 1 ? upper + " and " + lower : lower + " and " + upper;
+    }
+
+    /**
+     * This function lists every TCP flow. It builds one string per flow, so it is only meant for showing to the user.
+     * @return A list with one entry for each pair of endpoints.
+     */
+    public ArrayList<String> listConnections() {
+        int count = flowCount;
+        ArrayList<String> list = new ArrayList<>();
+        for (int flow = 0; flow < count; flow++) {
+            if (isTcp(flow)) {
+                int reused = connectionCounts[flow];
+                list.add(describe(flow) + (reused > 1 ? " (" + reused + " connections)" : ""));
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,230 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class decodes raw Ethernet frames into a PacketFields, without creating any header objects.
+ * It covers the same protocols as PacketProcessor: Ethernet, ARP, IPv4, TCP and UDP are parsed from their headers,
+ * while HTTP, RTP, RTCP and SDP are recognised from their payloads in the same way jNetPcap's heuristics do.
+ * All reads are absolute, so the same buffer can be decoded from several threads at once.
+ */
+public final class FrameDecoder {
+    static final int ETHERNET_HEADER_LENGTH = 14;
+    static final int ETHERTYPE_IP4 = 0x0800;
+    static final int ETHERTYPE_ARP = 0x0806;
+    static final int ETHERTYPE_VLAN = 0x8100;
+    static final int IP_PROTOCOL_TCP = 6;
+    static final int IP_PROTOCOL_UDP = 17;
+
+    // The request methods we recognise at the start of an HTTP payload.
+    private static final byte[][] HTTP_METHODS = { ascii("GET "), ascii("POST "), ascii("PUT "), ascii("HEAD "),
+            ascii("DELETE "), ascii("OPTIONS "), ascii("PATCH "), ascii("CONNECT "), ascii("TRACE ") };
+    private static final byte[] HTTP_RESPONSE = ascii("HTTP/1.");
+    private static final byte[] SDP_VERSION = ascii("v=0");
+
+    private FrameDecoder() {}
+
+    /**
+     * This function decodes a frame, filling in the protocol bitmask and key fields.
+     * @param frame The buffer holding the frame.
+     * @param offset Where the frame starts within the buffer.
+     * @param length The number of bytes of the frame which were captured.
+     * @param fields The PacketFields to fill in; it is reset first.
+     */
+    public static void decode(ByteBuffer frame, int offset, int length, PacketFields fields) {
+        fields.reset();
+        fields.frame = frame;
+        fields.frameOffset = offset;
+        int end = offset + length;
+        if (length < ETHERNET_HEADER_LENGTH) { return; }
+        fields.protocols |= Protocols.ETHERNET;
+
+        // Layer 2 - Ethernet, skipping over a VLAN tag if there is one.
+        int position = offset + 12;
+        int etherType = frame.getShort(position) & 0xFFFF;
+        if (etherType == ETHERTYPE_VLAN && position + 6 <= end) {
+            position += 4;
+            etherType = frame.getShort(position) & 0xFFFF;
+        }
+        position += 2;
+
+        if (etherType == ETHERTYPE_ARP) {
+            fields.protocols |= Protocols.ARP;
+            return;
+        }
+        if (etherType != ETHERTYPE_IP4 || position + 20 > end) { return; }
+        // Anything claiming to be IPv4 without the version to match is malformed, so none of it can be trusted.
+        if ((frame.get(position) & 0xF0) >> 4 != 4) { return; }
+
+        // Layer 3 - IPv4
+        int headerLength = (frame.get(position) & 0x0F) * 4;
+        int totalLength = frame.getShort(position + 2) & 0xFFFF;
+        int fragmentOffset = frame.getShort(position + 6) & 0x1FFF;
+        int protocol = frame.get(position + 9) & 0xFF;
+        fields.protocols |= Protocols.IP4;
+        fields.sourceAddress = frame.getInt(position + 12);
+        fields.destinationAddress = frame.getInt(position + 16);
+        int transport = position + headerLength;
+        int transportEnd = position + Math.max(totalLength, headerLength);
+        // Only the first fragment carries the transport header.
+        if (fragmentOffset != 0 || headerLength < 20) { return; }
+
+        // Layer 4 - TCP
+        if (protocol == IP_PROTOCOL_TCP && transport + 20 <= end) {
+            // A TCP header is at least 20 bytes, so a shorter data offset would put the payload inside the header.
+            int tcpHeaderLength = (frame.get(transport + 12) & 0xF0) >> 2;
+            if (tcpHeaderLength < 20) { return; }
+            fields.protocols |= Protocols.TCP;
+            fields.sourcePort = frame.getShort(transport) & 0xFFFF;
+            fields.destinationPort = frame.getShort(transport + 2) & 0xFFFF;
+            fields.sequenceNumber = frame.getInt(transport + 4) & 0xFFFFFFFFL;
+            fields.acknowledgmentNumber = frame.getInt(transport + 8) & 0xFFFFFFFFL;
+            fields.tcpFlags = frame.get(transport + 13) & 0x3F;
+            fields.window = frame.getShort(transport + 14) & 0xFFFF;
+            fields.payloadOffset = transport + tcpHeaderLength - offset;
+            fields.payloadLength = Math.max(transportEnd - (offset + fields.payloadOffset), 0);
+            decodeTcpPayload(frame, offset + fields.payloadOffset, Math.min(end, transportEnd), fields);
+        }
+        // Layer 4 - UDP
+        else if (protocol == IP_PROTOCOL_UDP && transport + 8 <= end) {
+            fields.protocols |= Protocols.UDP;
+            fields.sourcePort = frame.getShort(transport) & 0xFFFF;
+            fields.destinationPort = frame.getShort(transport + 2) & 0xFFFF;
+            fields.payloadOffset = transport + 8 - offset;
+            // The UDP length can't be trusted beyond the IP datagram holding it.
+            int udpLength = Math.min(frame.getShort(transport + 4) & 0xFFFF, transportEnd - transport);
+            fields.payloadLength = Math.max(udpLength - 8, 0);
+            decodeUdpPayload(frame, offset + fields.payloadOffset, Math.min(end, transportEnd), fields);
+        }
+    }
+
+    // Layer 7 over TCP - HTTP, or SDP carried in a SIP message.
+    private static void decodeTcpPayload(ByteBuffer frame, int start, int end, PacketFields fields) {
+        if (start >= end) { return; }
+        if (startsWith(frame, start, end, HTTP_RESPONSE)) {
+            fields.protocols |= Protocols.HTTP;
+            return;
+        }
+        for (byte[] method : HTTP_METHODS) {
+            if (startsWith(frame, start, end, method)) {
+                fields.protocols |= Protocols.HTTP;
+                return;
+            }
+        }
+        if (findSdp(frame, start, end) >= 0) { fields.protocols |= Protocols.SDP; }
+    }
+
+    // Layer 7 over UDP - RTP, RTCP, or SDP carried in a SIP message.
+    private static void decodeUdpPayload(ByteBuffer frame, int start, int end, PacketFields fields) {
+        if (end - start < 8) { return; }
+        int first = frame.get(start) & 0xFF;
+        int second = frame.get(start + 1) & 0xFF;
+        // RTP and RTCP are both version 2, and only run between unprivileged ports.
+        if ((first >> 6) == 2 && fields.sourcePort >= 1024 && fields.destinationPort >= 1024) {
+            if (second == 200) {
+                fields.protocols |= Protocols.RTCP_SENDER_REPORT;
+                return;
+            }
+            if (second == 201) {
+                fields.protocols |= Protocols.RTCP_RECEIVER_REPORT;
+                return;
+            }
+            // Payload types 72 to 76 would collide with RTCP, so they aren't valid RTP.
+            int payloadType = second & 0x7F;
+            if (end - start >= 12 && (payloadType < 72 || payloadType > 76)) {
+                fields.protocols |= Protocols.RTP;
+                return;
+            }
+        }
+        if (findSdp(frame, start, end) >= 0) { fields.protocols |= Protocols.SDP; }
+    }
+
+    /**
+     * This function finds the start of an SDP body, which is either at the start of the payload or after the blank
+     * line that ends a SIP message's headers.
+     * @param frame The buffer holding the frame.
+     * @param start Where the payload starts.
+     * @param end Where the captured payload ends.
+     * @return The position of the SDP body, or -1 if there isn't one.
+     */
+    static int findSdp(ByteBuffer frame, int start, int end) {
+        if (startsWith(frame, start, end, SDP_VERSION)) { return start; }
+        // SIP messages start with a letter; this avoids searching through binary payloads.
+        if (start >= end || !Character.isLetter(frame.get(start))) { return -1; }
+        for (int i = start; i + 3 < end; i++) {
+            if (frame.get(i) == '\r' && frame.get(i + 1) == '\n'
+                    && frame.get(i + 2) == '\r' && frame.get(i + 3) == '\n') {
+                return startsWith(frame, i + 4, end, SDP_VERSION) ? i + 4 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This function formats an IPv4 address held as an int.
+     * @param address The address, in network order.
+     * @return A String such as "127.0.0.1".
+     */
+    public static String formatAddress(int address) {
+        return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "."
+                + (address & 0xFF);
+    }
+
+    /**
+     * This function formats six bytes of a buffer as a MAC address.
+     * @param frame The buffer holding the address.
+     * @param position Where the address starts.
+     * @return A String such as "00:1b:21:3a:4f:10".
+     */
+    public static String formatMac(ByteBuffer frame, int position) {
+        StringBuilder mac = new StringBuilder(17);
+        for (int i = 0; i < 6; i++) {
+            if (i > 0) { mac.append(':'); }
+            int value = frame.get(position + i) & 0xFF;
+            mac.append(Character.forDigit(value >> 4, 16)).append(Character.forDigit(value & 0x0F, 16));
+        }
+        return mac.toString();
+    }
+
+    /**
+     * This function reads a line of ASCII text, stopping at the end of the line or the end of the data.
+     * @param frame The buffer holding the text.
+     * @param start Where the line starts.
+     * @param end Where the captured data ends.
+     * @return The line, without its line ending.
+     */
+    public static String readLine(ByteBuffer frame, int start, int end) {
+        StringBuilder line = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            byte b = frame.get(i);
+            if (b == '\r' || b == '\n') { break; }
+            line.append((char) (b & 0xFF));
+        }
+        return line.toString();
+    }
+
+    /**
+     * This function returns where the network layer (ARP or IP) starts, allowing for a VLAN tag.
+     * @param frame The buffer holding the frame.
+     * @param offset Where the frame starts.
+     * @return The position just after the Ethernet header.
+     */
+    public static int networkOffset(ByteBuffer frame, int offset) {
+        int etherType = frame.getShort(offset + 12) & 0xFFFF;
+        return offset + (etherType == ETHERTYPE_VLAN ? ETHERNET_HEADER_LENGTH + 4 : ETHERNET_HEADER_LENGTH);
+    }
+
+    // Checks whether the data at a position starts with the given bytes.
+    static boolean startsWith(ByteBuffer frame, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) { return false; }
+        for (int i = 0; i < prefix.length; i++) {
+            if (frame.get(start + i) != prefix[i]) { return false; }
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,444 @@
+package networkvisualiser;
+
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapIf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This class runs the tool without a GUI, for servers and scheduled jobs. It reads a capture file, or captures live on
+ * one or more interfaces, then writes the chosen reports as JSON or CSV files and exits.
+ * Every option is given as an argument, so nothing is asked for on the console, and no JavaFX class is ever loaded, so
+ * it starts quickly. The packets are never kept: they are streamed through the same observers the GUI uses (see
+ * PacketStore), each of which uses memory in proportion to the flows or a fixed amount, not the packets, so captures
+ * far larger than memory can be analysed.
+ */
+public class HeadlessAnalysis {
+    static final String[] REPORTS = { "summary", "throughput", "flows", "talkers", "tcp", "applications", "metrics" };
+    static final int MAX_THROUGHPUT_ROWS = 100_000; // Longer captures are reported at a coarser resolution.
+    static final long RING_BUFFER_MEMORY = 64L * 1024 * 1024; // How much memory each interface's ring buffer may use.
+    private static final String[] STATE_NAMES = { "none", "midstream", "syn-sent", "syn-received", "established",
+            "closing", "closed", "reset" };
+
+    // The options, as given on the command line.
+    static Path captureFile;
+    static String interfaces;
+    static long durationSeconds = -1; // How long to capture live for, or -1 to capture until stopped.
+    static long packetLimit = Long.MAX_VALUE;
+    static List<String> reports = Arrays.asList(REPORTS);
+    static String format = ReportWriter.JSON;
+    static Path outputDirectory = Paths.get("reports");
+    static CaptureProfile profile = CaptureProfile.FULL;
+    static int snapLength = 0; // The snap length to capture live with, or 0 to use the profile's.
+
+    // Every packet goes through the observers and is then let go of.
+    static PacketStore packets = new PacketStore(false);
+    static FlowTable flows = new FlowTable();
+    static ApplicationClassifier applications = new ApplicationClassifier(flows);
+    static ThroughputHistory throughput = new ThroughputHistory();
+    static TopTalkers talkers = new TopTalkers();
+    static UniqueCounts uniqueCounts = new UniqueCounts();
+    static TcpAnalytics tcpAnalytics = new TcpAnalytics();
+
+    // Whatever is producing packets, so it can be stopped early (such as by Ctrl+C).
+    static CaptureFile file;
+    static final CountDownLatch fileRead = new CountDownLatch(1); // Released once the reader has let go of the file.
+    static NetworkVisualiser.PcapThread[] pcapCaptures;
+    static CaptureRingBuffer[] ringBuffers;
+    static NetworkVisualiser.MergeThread analysis;
+    static boolean finished = false;
+
+    /**
+     * The main function. Responsible for reading the options, running the analysis, and writing the reports.
+     * @param args The options; run with --help to list them.
+     */
+    public static void main(String[] args) {
+        if (!parseArguments(args)) {
+            printUsage();
+            System.exit(2);
+        }
+
+        // The same observers as the GUI, in the same order, apart from those which keep something per packet.
+        packets.addObserver(flows);
+        packets.classifyApplications(applications);
+        packets.addObserver(throughput);
+        packets.addObserver(talkers);
+        packets.addObserver(uniqueCounts);
+        packets.addObserver(tcpAnalytics);
+        Metrics.gauge("store.packets", packets::size);
+        Metrics.counter("applications.decidedFlows", applications::decidedFlows);
+
+        // If the job is stopped early, whatever has been analysed so far is still reported.
+        Runtime.getRuntime().addShutdownHook(new Thread(HeadlessAnalysis::finish, "Reports"));
+        long start = System.nanoTime();
+        boolean started = captureFile != null ? readFile() : captureLive();
+        if (!started) {
+            // There is nothing to report, so the shutdown hook mustn't write empty reports.
+            synchronized (HeadlessAnalysis.class) { finished = true; }
+            System.exit(1);
+        }
+        System.out.printf("Analysed %d packets in %.2f seconds.\n", packets.size(), (System.nanoTime() - start) / 1e9);
+        finish();
+    }
+
+    // Reads the options. Returns false if they aren't valid.
+    private static boolean parseArguments(String[] args) {
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--file": captureFile = Paths.get(args[++i]); break;
+                    case "--interface": interfaces = args[++i]; break;
+                    case "--duration": durationSeconds = Long.parseLong(args[++i]); break;
+                    case "--packets": packetLimit = Long.parseLong(args[++i]); break;
+                    case "--report": reports = Arrays.asList(args[++i].split(",")); break;
+                    case "--format": format = args[++i]; break;
+                    case "--output": outputDirectory = Paths.get(args[++i]); break;
+                    case "--profile": profile = CaptureProfile.named(args[++i]); break;
+                    case "--snaplen": snapLength = Integer.parseInt(args[++i]); break;
+                    default:
+                        if (!args[i].equals("--help")) { System.err.println("Unknown option: " + args[i]); }
+                        return false;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Missing or invalid value for the last option.");
+            return false;
+        }
+        if ((captureFile == null) == (interfaces == null)) {
+            System.err.println("Give either --file or --interface.");
+            return false;
+        }
+        if (profile == null) {
+            System.err.println("Unknown capture profile; the profiles are 'full' and 'headers'.");
+            return false;
+        }
+        if (snapLength < 0) {
+            System.err.println("Invalid snap length: " + snapLength);
+            return false;
+        }
+        if (snapLength > 0) { profile = profile.withSnapLength(snapLength); }
+        if (!format.equals(ReportWriter.JSON) && !format.equals(ReportWriter.CSV)) {
+            System.err.println("Unknown format: " + format);
+            return false;
+        }
+        for (String report : reports) {
+            if (!Arrays.asList(REPORTS).contains(report)) {
+                System.err.println("Unknown report: " + report);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: HeadlessAnalysis (--file <capture> | --interface <devices>) [options]");
+        System.err.println("  --file <path>         Read a .pcap or .pcapng file.");
+        System.err.println("  --interface <list>    Capture live on devices, by number or name, separated by commas.");
+        System.err.println("  --duration <seconds>  Stop capturing live after this long.");
+        System.err.println("  --packets <count>     Stop after this many packets.");
+        System.err.println("  --report <list>       Reports to write, separated by commas (default: all of "
+                + String.join(",", REPORTS) + ").");
+        System.err.println("  --format <json|csv>   The format of the reports (default: json).");
+        System.err.println("  --output <directory>  Where to write the reports (default: reports).");
+        System.err.println("  --profile <name>      Capture live keeping whole packets (full, the default) or just");
+        System.err.println("                        their headers (headers), which keeps up with busier links.");
+        System.err.println("  --snaplen <bytes>     Capture live keeping at most this many bytes of each packet.");
+    }
+
+    // Streams a capture file through the observers, on this thread.
+    private static boolean readFile() {
+        try {
+            file = new CaptureFile(captureFile);
+        } catch (IOException e) {
+            System.err.println("Error while opening capture file: " + e.getMessage());
+            return false;
+        }
+        System.out.printf("Reading %s (%s, %d bytes)\n", captureFile, file.isPcapNg() ? "pcapng" : "pcap",
+                file.size());
+        try {
+            file.read(packets, packetLimit);
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            fileRead.countDown();
+        }
+        return true;
+    }
+
+    // Captures on every chosen device, through the same threads and ring buffers as the GUI, until the duration or
+    // packet limit is reached, or the job is stopped.
+    private static boolean captureLive() {
+        StringBuilder errorBuffer = new StringBuilder();
+        List<PcapIf> allDevices = new ArrayList<>();
+        if (Pcap.findAllDevs(allDevices, errorBuffer) != Pcap.OK || allDevices.isEmpty()) {
+            System.err.println("Can't read list of devices, error is " + errorBuffer);
+            return false;
+        }
+
+        // Devices may be given by their number in the list, or by name.
+        List<String> names = new ArrayList<>();
+        for (String choice : interfaces.split(",")) {
+            String name = null;
+            for (int d = 0; d < allDevices.size(); d++) {
+                if (choice.equals(allDevices.get(d).getName()) || choice.equals(String.valueOf(d))) {
+                    name = allDevices.get(d).getName();
+                }
+            }
+            if (name == null) {
+                System.err.println("No such device: " + choice);
+                return false;
+            }
+            if (!names.contains(name)) { names.add(name); }
+        }
+
+        Pcap[] pcaps = new Pcap[names.size()];
+        for (int d = 0; d < pcaps.length; d++) {
+            pcaps[d] = profile.open(names.get(d), errorBuffer);
+            if (pcaps[d] == null) {
+                System.err.println("Error while opening " + names.get(d) + " for capture: " + errorBuffer);
+                for (int opened = 0; opened < d; opened++) { pcaps[opened].close(); }
+                return false;
+            }
+        }
+        packets.setInterfaceNames(names.toArray(new String[0]));
+
+        ringBuffers = new CaptureRingBuffer[pcaps.length];
+        CaptureRingBuffer.Consumer[] consumers = new CaptureRingBuffer.Consumer[pcaps.length];
+        for (int d = 0; d < pcaps.length; d++) {
+            ringBuffers[d] = new CaptureRingBuffer(
+                    CaptureRingBuffer.capacityFor(RING_BUFFER_MEMORY, profile.snapLength), profile.snapLength);
+            consumers[d] = ringBuffers[d].addConsumer();
+        }
+        analysis = new NetworkVisualiser.MergeThread(consumers, packets);
+        analysis.packetLimit = packetLimit;
+        analysis.start();
+        pcapCaptures = new NetworkVisualiser.PcapThread[pcaps.length];
+        for (int d = 0; d < pcaps.length; d++) {
+            pcapCaptures[d] = new NetworkVisualiser.PcapThread(pcaps[d], ringBuffers[d], profile);
+            pcapCaptures[d].setName("Capture-" + names.get(d));
+            pcapCaptures[d].start();
+        }
+        for (int d = 0; d < pcaps.length; d++) {
+            NetworkVisualiser.PcapThread capture = pcapCaptures[d];
+            String prefix = "capture." + names.get(d) + ".";
+            Metrics.counter(prefix + "received", () -> capture.statistics().getRecv());
+            Metrics.counter(prefix + "kernelDropped", () -> capture.statistics().getDrop());
+            Metrics.counter(prefix + "interfaceDropped", () -> capture.statistics().getIfDrop());
+            Metrics.counter(prefix + "bufferDropped", ringBuffers[d]::droppedPackets);
+        }
+        System.out.println("Capturing on " + String.join(", ", names)
+                + (durationSeconds >= 0 ? " for " + durationSeconds + " seconds" : "") + ".");
+
+        // Wait until the duration is up, or enough packets have been analysed.
+        long deadline = durationSeconds >= 0 ? System.nanoTime() + durationSeconds * 1_000_000_000L : Long.MAX_VALUE;
+        while (System.nanoTime() < deadline && packets.size() < packetLimit) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        stopCapture();
+        return true;
+    }
+
+    // Stops whatever is producing packets, and waits for everything captured so far to be analysed.
+    private static void stopCapture() {
+        if (file != null) {
+            // The reader updates the observers on the main thread, so the reports must wait for it to stop.
+            file.stopReading();
+            try {
+                fileRead.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        if (analysis == null || !analysis.isAlive()) { return; }
+        for (NetworkVisualiser.PcapThread capture : pcapCaptures) { capture.stopCapture(); }
+        try {
+            for (NetworkVisualiser.PcapThread capture : pcapCaptures) { capture.join(); }
+            analysis.stopAnalysis();
+            analysis.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        for (NetworkVisualiser.PcapThread capture : pcapCaptures) { capture.close(); }
+    }
+
+    // Writes every report asked for, once, whether the analysis finished or was stopped.
+    private static synchronized void finish() {
+        if (finished) { return; }
+        finished = true;
+        stopCapture();
+        try {
+            Files.createDirectories(outputDirectory);
+            for (String report : reports) {
+                Path path = outputDirectory.resolve(report + "." + format);
+                writeReport(report, path);
+                System.out.println("Wrote " + path);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while writing the reports: " + e.getMessage());
+        }
+    }
+
+    private static void writeReport(String report, Path path) throws IOException {
+        switch (report) {
+            case "summary": writeSummary(path); break;
+            case "throughput": writeThroughput(path); break;
+            case "flows": writeFlows(path); break;
+            case "talkers": writeTalkers(path); break;
+            case "tcp": writeTcp(path); break;
+            case "applications": writeApplications(path); break;
+            case "metrics": writeMetrics(path); break;
+        }
+    }
+
+    // The totals for the whole capture, in a single row.
+    private static void writeSummary(Path path) throws IOException {
+        // Protocol totals are summed from the coarsest tier of the history, which covers a year in a few thousand rows.
+        long[] protocolPackets = new long[Protocols.COUNT];
+        ThroughputHistory.Tier tier = throughput.tier(throughput.tierCount() - 1);
+        if (throughput.startingSecond() >= 0) {
+            for (long bucket = throughput.startingSecond() / tier.resolution();
+                 bucket <= throughput.latestSecond() / tier.resolution(); bucket++) {
+                for (int bit = 0; bit < Protocols.COUNT; bit++) {
+                    protocolPackets[bit] += tier.protocolPackets(bucket, 1 << bit);
+                }
+            }
+        }
+
+        ArrayList<String> columns = new ArrayList<>(Arrays.asList("packets", "bytes", "firstSecond", "lastSecond",
+                "flows", "connections", "handshakes", "resets", "uniqueSources", "uniqueDestinations",
+                "uniqueFlows"));
+        ArrayList<Object> values = new ArrayList<>(Arrays.asList(throughput.totalPackets(), throughput.totalBytes(),
+                throughput.startingSecond(), throughput.latestSecond(), flows.flowCount(), flows.connections(),
+                flows.handshakes(), flows.resets(), uniqueCounts.sources(), uniqueCounts.destinations(),
+                uniqueCounts.flows()));
+        for (int bit = 0; bit < Protocols.COUNT; bit++) {
+            columns.add(Protocols.name(bit) + " packets");
+            values.add(protocolPackets[bit]);
+        }
+        try (ReportWriter writer = new ReportWriter(path, format, columns.toArray(new String[0]))) {
+            writer.row(values.toArray());
+        }
+    }
+
+    // The bytes and packets over time, per application, at the finest resolution that fits in MAX_THROUGHPUT_ROWS.
+    private static void writeThroughput(Path path) throws IOException {
+        String[] columns = new String[4 + ApplicationClassifier.COUNT];
+        columns[0] = "second";
+        columns[1] = "resolution";
+        columns[2] = "bytes";
+        columns[3] = "packets";
+        for (int application = 0; application < ApplicationClassifier.COUNT; application++) {
+            columns[4 + application] = ApplicationClassifier.name(application) + " bytes";
+        }
+        try (ReportWriter writer = new ReportWriter(path, format, columns)) {
+            long first = throughput.startingSecond();
+            long latest = throughput.latestSecond();
+            if (first < 0) { return; }
+            ThroughputHistory.Tier tier = throughput.tier(throughput.chooseTier(first, latest + 1,
+                    MAX_THROUGHPUT_ROWS));
+            int resolution = tier.resolution();
+            for (long bucket = Math.max(first, tier.oldestSecond(latest)) / resolution; bucket <= latest / resolution;
+                 bucket++) {
+                Object[] values = new Object[columns.length];
+                values[0] = bucket * resolution;
+                values[1] = resolution;
+                values[2] = tier.bytes(bucket);
+                values[3] = tier.packets(bucket);
+                for (int application = 0; application < ApplicationClassifier.COUNT; application++) {
+                    values[4 + application] = tier.applicationBytes(bucket, application);
+                }
+                writer.row(values);
+            }
+        }
+    }
+
+    // Every TCP and UDP flow, in the order they were first seen.
+    private static void writeFlows(Path path) throws IOException {
+        try (ReportWriter writer = new ReportWriter(path, format, "flow", "protocol", "endpoints", "application",
+                "state", "connections", "packets", "bytes", "firstPacket", "lastPacket")) {
+            int count = flows.flowCount();
+            for (int flow = 0; flow < count; flow++) {
+                boolean tcp = flows.isTcp(flow);
+                writer.row(flow, tcp ? "tcp" : "udp", flows.describe(flow),
+                        ApplicationClassifier.name(flows.application(flow)),
+                        tcp ? STATE_NAMES[flows.state(flow)] : null, tcp ? flows.connectionCount(flow) : null,
+                        flows.packets(flow), flows.bytes(flow), flows.firstPacket(flow), flows.lastPacket(flow));
+            }
+        }
+    }
+
+    // The busiest sources, destinations and pairs, by bytes and by packets.
+    private static void writeTalkers(Path path) throws IOException {
+        String[] kinds = { "source", "destination", "pair" };
+        try (ReportWriter writer = new ReportWriter(path, format, "kind", "weight", "rank", "talker", "value",
+                "total")) {
+            for (int kind = 0; kind < kinds.length; kind++) {
+                for (boolean bytes : new boolean[] {true, false}) {
+                    TopTalkers.Ranking ranking = talkers.ranking(kind, bytes);
+                    for (int entry = 0; entry < ranking.size(); entry++) {
+                        writer.row(kinds[kind], bytes ? "bytes" : "packets", entry + 1, ranking.label(entry),
+                                ranking.weight(entry), ranking.totalWeight());
+                    }
+                }
+            }
+        }
+    }
+
+    // The TCP performance measurements, in a single row.
+    private static void writeTcp(Path path) throws IOException {
+        LatencyHistogram synToSynAck = tcpAnalytics.synToSynAck();
+        LatencyHistogram synAckToAck = tcpAnalytics.synAckToAck();
+        try (ReportWriter writer = new ReportWriter(path, format, "dataSegments", "retransmissions",
+                "retransmissionRate", "outOfOrder", "duplicateAcknowledgments", "zeroWindows", "handshakes",
+                "synToSynAckMeanMicros", "synToSynAckP50Micros", "synToSynAckP99Micros", "synAckToAckMeanMicros",
+                "synAckToAckP50Micros", "synAckToAckP99Micros")) {
+            writer.row(tcpAnalytics.dataSegments(), tcpAnalytics.retransmissions(), tcpAnalytics.retransmissionRate(),
+                    tcpAnalytics.outOfOrder(), tcpAnalytics.duplicateAcknowledgments(), tcpAnalytics.zeroWindows(),
+                    synAckToAck.count(), synToSynAck.meanMicros(), synToSynAck.percentileMicros(50),
+                    synToSynAck.percentileMicros(99), synAckToAck.meanMicros(), synAckToAck.percentileMicros(50),
+                    synAckToAck.percentileMicros(99));
+        }
+    }
+
+    // The flows, packets and bytes of each application, totalled from the flow table.
+    private static void writeApplications(Path path) throws IOException {
+        long[] flowCounts = new long[ApplicationClassifier.COUNT];
+        long[] packetCounts = new long[ApplicationClassifier.COUNT];
+        long[] byteCounts = new long[ApplicationClassifier.COUNT];
+        int count = flows.flowCount();
+        for (int flow = 0; flow < count; flow++) {
+            int application = flows.application(flow);
+            flowCounts[application]++;
+            packetCounts[application] += flows.packets(flow);
+            byteCounts[application] += flows.bytes(flow);
+        }
+        try (ReportWriter writer = new ReportWriter(path, format, "application", "flows", "packets", "bytes")) {
+            for (int application = 0; application < ApplicationClassifier.COUNT; application++) {
+                writer.row(ApplicationClassifier.name(application), flowCounts[application],
+                        packetCounts[application], byteCounts[application]);
+            }
+        }
+    }
+
+    // The tool's own metrics, as shown on the GUI's 'Diagnostics' tab, but unformatted.
+    private static void writeMetrics(Path path) throws IOException {
+        try (ReportWriter writer = new ReportWriter(path, format, "metric", "value")) {
+            for (Map.Entry<String, Object> metric : Metrics.values().entrySet()) {
+                writer.row(metric.getKey(), metric.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class finds the heaviest keys in a stream, such as the addresses sending the most bytes, in fixed memory.
+ * Every key's weight is counted in a Count-Min Sketch: a few rows of counters, where each key adds to one counter per
+ * row and its estimate is the smallest of them. Collisions can only make an estimate too high, by at most about
+ * e / WIDTH of the total weight (and with 98% certainty, as there are four rows). Counters are only raised as far as
+ * the key's new estimate ("conservative update"), which keeps the error well under that in practice.
+ * Alongside the sketch, a min-heap holds the keys with the highest estimates; a key which overtakes the smallest of
+ * them takes its place. Each update costs the same however many distinct keys the stream has.
+ * This class isn't thread safe; see TopTalkers for how it is shared with the UI.
+ */
+public class HeavyHitters {
+    static final int DEPTH = 4; // Rows in the sketch.
+    static final int WIDTH = 2048; // Counters per row; a power of two.
+
+    private final long[] sketch = new long[DEPTH * WIDTH];
+    private long totalWeight = 0;
+
+    // The min-heap of the heaviest keys, with the smallest estimate at the root.
+    private final int capacity;
+    private final long[] heapKeys;
+    private final long[] heapWeights;
+    private final int[] heapSlots; // Where each heap entry's key is in the index.
+    private int heapSize = 0;
+
+    // An open-addressing index from a key to its place in the heap; each slot holds a heap position plus one.
+    private final int[] index;
+
+    /**
+     * Creates a new, empty HeavyHitters.
+     * @param capacity The number of heaviest keys to keep.
+     */
+    public HeavyHitters(int capacity) {
+        this.capacity = capacity;
+        heapKeys = new long[capacity];
+        heapWeights = new long[capacity];
+        heapSlots = new int[capacity];
+        // Keep the index at most a quarter full, so probe sequences stay short.
+        index = new int[Integer.highestOneBit(capacity * 4 - 1) << 1];
+    }
+
+    /**
+     * This function adds weight to a key.
+     * @param key The key.
+     * @param weight The weight to add, which must not be negative.
+     */
+    public void add(long key, long weight) {
+        totalWeight += weight;
+
+        // Each row's counter is picked by combining two hashes of the key.
+        long hash = mix(key);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sketch[row * WIDTH + ((first + row * second) & (WIDTH - 1))]);
+        }
+        estimate += weight;
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = row * WIDTH + ((first + row * second) & (WIDTH - 1));
+            if (sketch[counter] < estimate) { sketch[counter] = estimate; }
+        }
+
+        // Then the heap is brought up to date, if the key is (or now belongs) in it.
+        int slot = find(key);
+        if (index[slot] != 0) {
+            int position = index[slot] - 1;
+            heapWeights[position] = estimate;
+            siftDown(position);
+        }
+        else if (heapSize < capacity) {
+            int position = heapSize++;
+            heapKeys[position] = key;
+            heapWeights[position] = estimate;
+            heapSlots[position] = slot;
+            index[slot] = position + 1;
+            siftUp(position);
+        }
+        else if (estimate > heapWeights[0]) {
+            // The key replaces the lightest one in the heap.
+            remove(heapSlots[0]);
+            slot = find(key);
+            heapKeys[0] = key;
+            heapWeights[0] = estimate;
+            heapSlots[0] = slot;
+            index[slot] = 1;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * This function returns the heaviest keys, heaviest first.
+     * @return A new array of the keys.
+     */
+    public long[] keys() {
+        Integer[] order = order();
+        long[] keys = new long[heapSize];
+        for (int i = 0; i < heapSize; i++) { keys[i] = heapKeys[order[i]]; }
+        return keys;
+    }
+
+    /**
+     * This function returns the estimated weights of the heaviest keys, in the same order as keys().
+     * @return A new array of the weights.
+     */
+    public long[] weights() {
+        Integer[] order = order();
+        long[] weights = new long[heapSize];
+        for (int i = 0; i < heapSize; i++) { weights[i] = heapWeights[order[i]]; }
+        return weights;
+    }
+
+    /**
+     * @return The total weight added, across every key.
+     */
+    public long totalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * This function writes the sketch and the heap to a session (see SessionFile).
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        out.writeLongs(sketch, sketch.length);
+        out.writeLong(totalWeight);
+        out.writeInt(heapSize);
+        out.writeLongs(heapKeys, capacity);
+        out.writeLongs(heapWeights, capacity);
+        out.writeInts(heapSlots, capacity);
+        out.writeInts(index, index.length);
+    }
+
+    /**
+     * This function reads the sketch and the heap back from a session, replacing what this one holds.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read, or was saved with a different capacity.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        in.readLongs(sketch);
+        totalWeight = in.readLong();
+        heapSize = in.readInt();
+        in.readLongs(heapKeys);
+        in.readLongs(heapWeights);
+        in.readInts(heapSlots);
+        in.readInts(index);
+    }
+
+    // The heap positions, heaviest first.
+    private Integer[] order() {
+        Integer[] order = new Integer[heapSize];
+        for (int i = 0; i < heapSize; i++) { order[i] = i; }
+        Arrays.sort(order, (a, b) -> Long.compare(heapWeights[b], heapWeights[a]));
+        return order;
+    }
+
+    // Finds the index slot holding a key, or the empty slot where it would go.
+    private int find(long key) {
+        int mask = index.length - 1;
+        int slot = (int) mix(key) & mask;
+        while (index[slot] != 0 && heapKeys[index[slot] - 1] != key) { slot = (slot + 1) & mask; }
+        return slot;
+    }
+
+    // Empties an index slot, shifting back any later entries in the same probe sequence so they can still be found.
+    private void remove(int slot) {
+        int mask = index.length - 1;
+        index[slot] = 0;
+        int next = (slot + 1) & mask;
+        while (index[next] != 0) {
+            int position = index[next] - 1;
+            int home = (int) mix(heapKeys[position]) & mask;
+            // An entry may move back into the gap unless its home slot lies between the gap and where it is now.
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                index[slot] = index[next];
+                heapSlots[position] = slot;
+                index[next] = 0;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (heapWeights[parent] <= heapWeights[position]) { return; }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = position * 2 + 1;
+            int right = left + 1;
+            if (left < heapSize && heapWeights[left] < heapWeights[smallest]) { smallest = left; }
+            if (right < heapSize && heapWeights[right] < heapWeights[smallest]) { smallest = right; }
+            if (smallest == position) { return; }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    // Swaps two heap entries, keeping the index pointing at them.
+    private void swap(int a, int b) {
+        long key = heapKeys[a]; heapKeys[a] = heapKeys[b]; heapKeys[b] = key;
+        long weight = heapWeights[a]; heapWeights[a] = heapWeights[b]; heapWeights[b] = weight;
+        int slot = heapSlots[a]; heapSlots[a] = heapSlots[b]; heapSlots[b] = slot;
+        index[heapSlots[a]] = a + 1;
+        index[heapSlots[b]] = b + 1;
+    }
+
+    // A 64-bit finaliser, so that similar keys (such as neighbouring addresses) spread evenly.
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        return h;
+    }
+}
@@ -0,0 +1,89 @@
+package networkvisualiser;
+
+import java.io.IOException;
+
+/**
+ * This class estimates how many distinct keys a stream holds, such as unique addresses, in a fixed 4 KB.
+ * Each key is hashed; the first PRECISION bits pick a register, and the register keeps the longest run of leading
+ * zeros seen in the rest of the hash. Long runs are rare, so the registers together say roughly how many distinct
+ * hashes have been seen, to within about 1.6% (1.04 / sqrt(REGISTERS)). Adding a key twice changes nothing.
+ * Two estimators can be merged by keeping the larger of each register, which gives exactly the estimator for both
+ * streams together, so chunks counted on separate threads (or separate time windows) can be combined afterwards.
+ * Registers are single bytes which only ever grow, so another thread may read an estimate while keys are added.
+ */
+public class HyperLogLog {
+    static final int PRECISION = 12;
+    static final int REGISTERS = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS); // Corrects the bias of the raw estimate.
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * This function adds a key.
+     * @param key The key; keys which are equal are only counted once.
+     */
+    public void add(long key) {
+        long hash = mix(key);
+        int register = (int) (hash >>> (64 - PRECISION));
+        // The remaining bits, with a one on the end so the run of zeros always stops.
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) { registers[register] = (byte) rank; }
+    }
+
+    /**
+     * This function adds every key counted by another estimator to this one.
+     * @param other The other estimator.
+     */
+    public void merge(HyperLogLog other) {
+        for (int register = 0; register < REGISTERS; register++) {
+            if (other.registers[register] > registers[register]) { registers[register] = other.registers[register]; }
+        }
+    }
+
+    /**
+     * This function writes the registers to a session (see SessionFile).
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        out.writeBytes(registers, REGISTERS);
+    }
+
+    /**
+     * This function reads the registers back from a session, replacing the ones this estimator holds.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        in.readBytes(registers);
+    }
+
+    /**
+     * @return The estimated number of distinct keys added.
+     */
+    public long estimate() {
+        double sum = 0;
+        int empty = 0;
+        for (int register = 0; register < REGISTERS; register++) {
+            sum += Math.scalb(1.0, -registers[register]);
+            if (registers[register] == 0) { empty++; }
+        }
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        // With few keys, most registers are still empty, and counting them is more accurate.
+        if (estimate <= 2.5 * REGISTERS && empty > 0) {
+            estimate = REGISTERS * Math.log((double) REGISTERS / empty);
+        }
+        return Math.round(estimate);
+    }
+
+    // A 64-bit finaliser, so that similar keys (such as neighbouring addresses) give unrelated hashes.
+    static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 33;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        h *= 0x94D049BB133111EBL;
+        h ^= h >>> 32;
+        return h;
+    }
+}
@@ -0,0 +1,155 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * This class records how long something takes, such as handling a packet or generating part of the UI, cheaply enough
+ * to be left on for every call.
+ * Durations are counted into log-linear buckets: each power of two of nanoseconds is split into SUB_BUCKETS equal
+ * parts, so a percentile is known to within 1 / SUB_BUCKETS of its value however long the durations are, and recording
+ * is a few shifts and one atomic increment. Nothing is allocated after the histogram is created.
+ * Any number of threads may record at once, and it may be read from any thread while they do.
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maximumNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * This function records a single duration.
+     * @param nanos The duration, in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) { nanos = 0; }
+        counts.incrementAndGet(bucket(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        maximumNanos.accumulate(nanos);
+    }
+
+    /**
+     * This function records the time since something started.
+     * @param startNanos The value of System.nanoTime() when it started.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * This function runs a piece of work and records how long it took.
+     * @param work The work to run.
+     * @param <T> The type of its result.
+     * @return The result of the work.
+     */
+    public <T> T time(Supplier<T> work) {
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            recordSince(start);
+        }
+    }
+
+    /**
+     * This function writes the histogram to a session (see SessionFile). Nothing may be recorded while it does.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        long[] snapshot = new long[BUCKETS];
+        for (int bucket = 0; bucket < BUCKETS; bucket++) { snapshot[bucket] = counts.get(bucket); }
+        out.writeLongs(snapshot, BUCKETS);
+        out.writeLong(count.sum());
+        out.writeLong(totalNanos.sum());
+        out.writeLong(maximumNanos.get());
+    }
+
+    /**
+     * This function reads a histogram back from a session, adding it to whatever this one has recorded (which is
+     * nothing, if it is new).
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        long[] snapshot = new long[BUCKETS];
+        in.readLongs(snapshot);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) { counts.addAndGet(bucket, snapshot[bucket]); }
+        count.add(in.readLong());
+        totalNanos.add(in.readLong());
+        maximumNanos.accumulate(in.readLong());
+    }
+
+    /**
+     * @return The number of durations recorded.
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return The mean duration, in microseconds, or 0 if nothing has been recorded.
+     */
+    public double meanMicros() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : totalNanos.sum() / 1000.0 / recorded;
+    }
+
+    /**
+     * @return The longest duration, in microseconds.
+     */
+    public double maximumMicros() {
+        return maximumNanos.get() / 1000.0;
+    }
+
+    /**
+     * This function estimates a percentile, from the middle of the bucket it falls in.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The duration, in microseconds, which that percentage of durations were no longer than.
+     */
+    public double percentileMicros(double percentile) {
+        // The counts are read one at a time while others record, so the total is taken from the buckets themselves.
+        long[] snapshot = new long[BUCKETS];
+        long recorded = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            recorded += snapshot[bucket];
+        }
+        if (recorded == 0) { return 0; }
+        long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                double middle = (lowerBound(bucket) + lowerBound(bucket + 1)) / 2.0;
+                return Math.min(middle, maximumNanos.get()) / 1000.0;
+            }
+        }
+        return maximumMicros();
+    }
+
+    // Durations below SUB_BUCKETS nanoseconds get a bucket each; above that, the highest bit picks the power of two,
+    // and the SUB_BUCKET_BITS beneath it pick the part.
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) { return (int) nanos; }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int part = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + part;
+    }
+
+    // The shortest duration which falls in a bucket.
+    private static double lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) { return bucket; }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int part = bucket % SUB_BUCKETS;
+        return Math.scalb(1.0 + (double) part / SUB_BUCKETS, exponent);
+    }
+}
@@ -0,0 +1,191 @@
+package networkvisualiser;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * This class holds every metric the tool keeps about itself, so that it can be seen where packets are lost and where
+ * time goes: counters (such as packets received and dropped), gauges (such as queue depth and memory used) and
+ * latency histograms (see LatencyHistogram).
+ * Counters and gauges are read from their source whenever they are looked at, so keeping them costs nothing; only
+ * histograms do any work as the tool runs. Everything is shown on the 'Diagnostics' tab, and published over JMX as
+ * the MBean "networkvisualiser:type=Metrics", so it can also be watched from JConsole or VisualVM.
+ * Metrics are named "area.metric", and listed in name order.
+ */
+public class Metrics {
+    static final String OBJECT_NAME = "networkvisualiser:type=Metrics";
+    private static final String[] HISTOGRAM_FIGURES = { "count", "meanMicros", "p50Micros", "p99Micros", "maxMicros" };
+
+    private static final Map<String, LongSupplier> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    /**
+     * This function registers a counter, a total which only ever grows. Registering a name again replaces it.
+     * @param name The name of the counter.
+     * @param source Reads the current total.
+     */
+    public static void counter(String name, LongSupplier source) {
+        counters.put(name, source);
+    }
+
+    /**
+     * This function registers a gauge, a value which rises and falls. Registering a name again replaces it.
+     * @param name The name of the gauge.
+     * @param source Reads the current value.
+     */
+    public static void gauge(String name, LongSupplier source) {
+        gauges.put(name, source);
+    }
+
+    /**
+     * This function finds a latency histogram, creating it the first time it is asked for. Code which records on every
+     * packet should keep hold of the histogram, rather than look it up each time.
+     * @param name The name of the histogram.
+     * @return The histogram.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * This function describes every metric, one per line, for the 'Diagnostics' tab.
+     * @return The lines, counters first, then gauges, then histograms.
+     */
+    public static ArrayList<String> describe() {
+        ArrayList<String> lines = new ArrayList<>();
+        counters.forEach((name, source) -> lines.add(String.format("%s: %,d", name, read(source))));
+        gauges.forEach((name, source) -> lines.add(String.format("%s: %,d", name, read(source))));
+        histograms.forEach((name, histogram) -> lines.add(String.format(
+                "%s: %,d calls, mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us", name, histogram.count(),
+                histogram.meanMicros(), histogram.percentileMicros(50), histogram.percentileMicros(99),
+                histogram.maximumMicros())));
+        return lines;
+    }
+
+    /**
+     * This function reads every metric as a raw value, for machine-readable reports. Histograms are split into the same
+     * figures as their JMX attributes, such as "name.p99Micros".
+     * @return The values by name, counters first, then gauges, then histograms.
+     */
+    public static Map<String, Object> values() {
+        Map<String, Object> values = new LinkedHashMap<>();
+        counters.forEach((name, source) -> values.put(name, read(source)));
+        gauges.forEach((name, source) -> values.put(name, read(source)));
+        for (String name : histograms.keySet()) {
+            for (String figure : HISTOGRAM_FIGURES) { values.put(name + "." + figure, value(name + "." + figure)); }
+        }
+        return values;
+    }
+
+    /**
+     * This function publishes the metrics over JMX. It may be called more than once.
+     */
+    public static void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) { server.registerMBean(new MetricsBean(), name); }
+        } catch (JMException e) {
+            System.err.println("Error while publishing metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    // A source may belong to something which has since been closed, in which case it reads as 0.
+    private static long read(LongSupplier source) {
+        try {
+            return source.getAsLong();
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    // Looks up a JMX attribute: a counter or gauge by name, or a histogram's figure as "name.figure".
+    private static Object value(String attribute) {
+        if (counters.containsKey(attribute)) { return read(counters.get(attribute)); }
+        if (gauges.containsKey(attribute)) { return read(gauges.get(attribute)); }
+        int dot = attribute.lastIndexOf('.');
+        LatencyHistogram histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+        if (histogram == null) { return null; }
+        switch (attribute.substring(dot + 1)) {
+            case "count": return histogram.count();
+            case "meanMicros": return histogram.meanMicros();
+            case "p50Micros": return histogram.percentileMicros(50);
+            case "p99Micros": return histogram.percentileMicros(99);
+            case "maxMicros": return histogram.maximumMicros();
+            default: return null;
+        }
+    }
+
+    /**
+     * This class publishes the metrics as read-only JMX attributes. Metrics can be registered at any time, so the
+     * attributes are listed afresh whenever they are asked for.
+     */
+    private static class MetricsBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = value(attribute);
+            if (value == null) { throw new AttributeNotFoundException(attribute); }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Object value = value(attribute);
+                if (value != null) { list.add(new Attribute(attribute, value)); }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counters.keySet()) { attributes.add(attribute(name, "long", "Counter")); }
+            for (String name : gauges.keySet()) { attributes.add(attribute(name, "long", "Gauge")); }
+            for (String name : histograms.keySet()) {
+                attributes.add(attribute(name + ".count", "long", "Calls recorded"));
+                attributes.add(attribute(name + ".meanMicros", "double", "Mean latency in microseconds"));
+                attributes.add(attribute(name + ".p50Micros", "double", "Median latency in microseconds"));
+                attributes.add(attribute(name + ".p99Micros", "double", "99th percentile latency in microseconds"));
+                attributes.add(attribute(name + ".maxMicros", "double", "Longest latency in microseconds"));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "NetworkVisualiser capture and analysis metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+}
@@ -0,0 +1,548 @@
+package networkvisualiser;
+
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapIf;
+import org.jnetpcap.PcapStat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.locks.LockSupport;
+
+public class NetworkVisualiser extends Application {
+    static Scanner userInput = new Scanner(System.in); // For now, we will have a static scanner for input.
+    static PacketStore packets = new PacketStore(); // Stores all the packets captured on this instance, decoded once.
+    static ThroughputHistory throughput = new ThroughputHistory(); // Throughput over time, in constant memory.
+    static FlowTable flows = new FlowTable(); // Every TCP/UDP flow, with connection state, kept up to date.
+    static TopTalkers talkers = new TopTalkers(); // The busiest addresses and conversations, in constant memory.
+    static UniqueCounts uniqueCounts = new UniqueCounts(); // Estimated distinct hosts and flows, in constant memory.
+    static PacketIndex index = new PacketIndex(); // Bitmaps of the packets with each protocol, flag, address and port.
+    static TcpAnalytics tcpAnalytics = new TcpAnalytics(); // Handshake round trips, retransmissions and windows.
+    static ApplicationClassifier applications = new ApplicationClassifier(flows); // Web, VoIP, video, bulk.
+    static final long RING_BUFFER_MEMORY = 64L * 1024 * 1024; // How much memory each interface's ring buffer may use.
+    static final long STREAM_MEMORY = 64L * 1024 * 1024; // How much TCP stream data reassembly may hold on to.
+    static TcpReassembler streams = new TcpReassembler(packets, flows, STREAM_MEMORY); // Every TCP byte stream.
+
+    // Live captures are saved to rotating pcap segments, so only the most recent packets need to stay in memory.
+    static final String SEGMENT_DIRECTORY = "captures";
+    static final long SEGMENT_BYTES = 256L * 1024 * 1024; // A new segment is started at this size...
+    static final long SEGMENT_SECONDS = 10 * 60; // ...or after this long.
+    static final long RETAINED_MEMORY = 256L * 1024 * 1024; // How many bytes of recent packets are kept in memory.
+
+    // The capture runs in the background while the GUI is open, so we keep hold of its threads to stop it later.
+    // Each interface has its own capture thread and ring buffer; one merge thread feeds them all into the store.
+    static String[] interfaceNames;
+    static CaptureRingBuffer[] ringBuffers;
+    static PcapThread[] pcapCaptures;
+    static MergeThread analysis;
+    static FileThread fileReader; // Only used when reading a capture file, rather than capturing live.
+    static PcapSegmentWriter segmentWriter; // Only used when capturing live.
+    static Path sessionPath; // Where the analysed capture is saved once it stops, so it can be reopened instantly.
+    static boolean sessionOpened = false; // Whether a saved session was opened, rather than a capture.
+
+    /**
+     * The main function. Responsible for starting the program by selecting one or more NICs and starting a capture,
+     * then generating the UI, which follows the capture live.
+     * If a capture file (.pcap or .pcapng) is given as the first argument, it is read instead, through the same path.
+     * A live capture keeps whole packets by default; "--profile headers" keeps only their headers, and "--snaplen"
+     * sets how many bytes of each packet are kept.
+     * A session file (see SessionFile) may be given instead of a capture, and opens without reading any packets.
+     */
+    public static void main(String[] args) {
+        // Statistics are gathered as packets are stored, rather than by rescanning the capture afterwards.
+        // The flow table goes first, as it records each packet's flow for the observers after it, then the classifier,
+        // which labels each packet with its flow's application, so the throughput history can chart each one.
+        packets.addObserver(flows);
+        packets.classifyApplications(applications);
+        packets.addObserver(throughput);
+        packets.addObserver(talkers);
+        packets.addObserver(uniqueCounts);
+        packets.addObserver(index);
+        packets.addObserver(tcpAnalytics);
+        packets.reassembleStreams(streams);
+
+        // The tool's own metrics are shown on the 'Diagnostics' tab, and published over JMX.
+        Metrics.gauge("store.packets", packets::size);
+        Metrics.gauge("store.memoryFootprint", packets::memoryFootprint);
+        Metrics.gauge("streams.memoryUsed", streams::memoryUsed);
+        Metrics.counter("streams.retransmissions", streams::retransmissions);
+        Metrics.counter("streams.overlaps", streams::overlaps);
+        Metrics.counter("streams.outOfOrder", streams::outOfOrder);
+        Metrics.counter("streams.gaps", streams::gaps);
+        Metrics.counter("streams.evictions", streams::evictions);
+        Metrics.counter("applications.decidedFlows", applications::decidedFlows);
+        Metrics.registerMBean();
+
+        // A live capture can keep whole packets, or just their headers; see CaptureProfile.
+        CaptureProfile profile = CaptureProfile.FULL;
+        String snapLength = null;
+        List<String> remaining = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--profile") && i + 1 < args.length) { profile = CaptureProfile.named(args[++i]); }
+            else if (args[i].equals("--snaplen") && i + 1 < args.length) { snapLength = args[++i]; }
+            else { remaining.add(args[i]); }
+        }
+        if (profile == null) {
+            System.err.println("Unknown capture profile; the profiles are 'full' and 'headers'.");
+            return;
+        }
+        try {
+            if (snapLength != null) { profile = profile.withSnapLength(Integer.parseInt(snapLength)); }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid snap length: " + snapLength);
+            return;
+        }
+        args = remaining.toArray(new String[0]);
+
+        if (args.length > 0) {
+            readCaptureFile(args);
+            return;
+        }
+
+        StringBuilder errorBuffer = new StringBuilder(); // Used to store any error messages.
+        List<PcapIf> allDevices = new ArrayList<>(); // Stores the list of NICs.
+
+        // Find all NICs and store them in our ArrayList.
+        int r = Pcap.findAllDevs(allDevices, errorBuffer);
+        if (r != Pcap.OK || allDevices.isEmpty()) { // If something goes wrong, output the StringBuffer.
+            System.err.printf("Can't read list of devices, error is %s",
+                    errorBuffer.toString());
+            return;
+        }
+        System.out.println("Network devices found:");
+
+        // Output all the device information.
+        int i = 0;
+        for (PcapIf device : allDevices) {
+            String description = (device.getDescription() != null) ? device
+                    .getDescription() : "No description available";
+            System.out.printf("#%d: %s [%s]\n", i++, device.getName(),
+                    description);
+        }
+        // Allow the user to select one or more devices, such as "0" or "0 2".
+        System.out.println("Enter the numbers of the devices to capture on, separated by spaces:");
+        List<PcapIf> selected = new ArrayList<>();
+        for (String choice : userInput.nextLine().trim().split("[\\s,]+")) {
+            try {
+                PcapIf device = allDevices.get(Integer.parseInt(choice));
+                if (!selected.contains(device)) { selected.add(device); }
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                System.err.println("Ignoring '" + choice + "', which isn't a device number.");
+            }
+        }
+        if (selected.isEmpty()) {
+            System.err.println("No devices were selected.");
+            return;
+        }
+
+        System.out.println("Capture profile: " + profile);
+
+        // Start a connection on each device.
+        Pcap[] pcaps = new Pcap[selected.size()];
+        interfaceNames = new String[selected.size()];
+        for (int d = 0; d < selected.size(); d++) {
+            PcapIf device = selected.get(d);
+            interfaceNames[d] = device.getName();
+            System.out.printf("'%s' was selected!\n",
+                    (device.getDescription() != null) ? device.getDescription()
+                            : device.getName());
+            pcaps[d] = profile.open(device.getName(), errorBuffer);
+            // If an error occurs, pcap will be null.
+            if (pcaps[d] == null) {
+                System.err.print("Error while opening device for capture: "
+                        + errorBuffer.toString());
+                for (int opened = 0; opened < d; opened++) { pcaps[opened].close(); }
+                return;
+            }
+        }
+        packets.setInterfaceNames(interfaceNames);
+
+        // Every packet is saved to disk in the background, and older ones are paged back in when they are viewed.
+        try {
+            String prefix = String.format("capture-%1$tY%1$tm%1$td-%1$tH%1$tM%1$tS", new Date());
+            segmentWriter = new PcapSegmentWriter(packets, Paths.get(SEGMENT_DIRECTORY), prefix, SEGMENT_BYTES,
+                    SEGMENT_SECONDS);
+            sessionPath = Paths.get(SEGMENT_DIRECTORY, prefix + SessionFile.EXTENSION);
+        } catch (IOException e) {
+            System.err.println("Error while creating the capture directory: " + e.getMessage());
+            for (Pcap pcap : pcaps) { pcap.close(); }
+            return;
+        }
+        packets.spillTo(segmentWriter, RETAINED_MEMORY);
+        segmentWriter.start();
+
+        // Each capture thread hands packets to the merge thread through its own preallocated ring buffer, so the
+        // interfaces never wait on one another.
+        ringBuffers = new CaptureRingBuffer[pcaps.length];
+        CaptureRingBuffer.Consumer[] consumers = new CaptureRingBuffer.Consumer[pcaps.length];
+        for (int d = 0; d < pcaps.length; d++) {
+            ringBuffers[d] = new CaptureRingBuffer(
+                    CaptureRingBuffer.capacityFor(RING_BUFFER_MEMORY, profile.snapLength), profile.snapLength);
+            consumers[d] = ringBuffers[d].addConsumer();
+        }
+        analysis = new MergeThread(consumers, packets);
+        analysis.start();
+
+        // Start a Pcap capturing thread per device.
+        pcapCaptures = new PcapThread[pcaps.length];
+        for (int d = 0; d < pcaps.length; d++) {
+            pcapCaptures[d] = new PcapThread(pcaps[d], ringBuffers[d], profile);
+            pcapCaptures[d].setName("Capture-" + interfaceNames[d]);
+            pcapCaptures[d].start();
+        }
+
+        // Packets can be lost in the kernel, in the NIC, or in our ring buffer, so each is counted separately.
+        for (int d = 0; d < pcaps.length; d++) {
+            PcapThread capture = pcapCaptures[d];
+            CaptureRingBuffer buffer = ringBuffers[d];
+            String prefix = "capture." + interfaceNames[d] + ".";
+            Metrics.counter(prefix + "received", () -> capture.statistics().getRecv());
+            Metrics.counter(prefix + "kernelDropped", () -> capture.statistics().getDrop());
+            Metrics.counter(prefix + "interfaceDropped", () -> capture.statistics().getIfDrop());
+            Metrics.counter(prefix + "bufferDropped", buffer::droppedPackets);
+            Metrics.gauge(prefix + "queueDepth", buffer::depth);
+        }
+        Metrics.counter("segments.written", segmentWriter::written);
+
+        // Open the GUI straight away. It follows the capture until the user stops it, or closes the window.
+        launch(args);
+        stopCapture();
+
+        // Close our connections.
+        for (PcapThread capture : pcapCaptures) { capture.close(); }
+    }
+
+    /**
+     * This function opens a capture file and reads it in the background, while the GUI follows it as it would a live
+     * capture. Once the whole file has been read, the analysis is saved as a session beside it; the next time the
+     * file is opened, the session is opened in its place, unless the file has changed since.
+     * @param args The program's arguments, the first of which is the file.
+     */
+    static void readCaptureFile(String[] args) {
+        Path path = Paths.get(args[0]);
+        if (SessionFile.isSession(path)) {
+            openSession(path, args);
+            return;
+        }
+        if (SessionFile.isCurrent(SessionFile.sessionFor(path), path)) {
+            openSession(SessionFile.sessionFor(path), args);
+            return;
+        }
+
+        CaptureFile file;
+        try {
+            file = new CaptureFile(path);
+        } catch (IOException e) {
+            System.err.println("Error while opening capture file: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Reading %s (%s, %d bytes)\n", args[0], file.isPcapNg() ? "pcapng" : "pcap", file.size());
+
+        sessionPath = SessionFile.sessionFor(path);
+        fileReader = new FileThread(file, packets);
+        fileReader.start();
+        launch(args);
+        stopCapture();
+    }
+
+    /**
+     * This function opens a saved session, then shows the GUI. The session holds every analysis the GUI draws from,
+     * so no packets are read or decoded; they are only paged in from the session as they are looked at.
+     * @param path The session file.
+     * @param args The program's arguments.
+     */
+    static void openSession(Path path, String[] args) {
+        long start = System.nanoTime();
+        try {
+            SessionFile.open(path, packets, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+        } catch (IOException e) {
+            System.err.println("Error while opening session: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Opened %s (%d packets) in %.2f seconds\n", path, packets.size(),
+                (System.nanoTime() - start) / 1e9);
+        sessionOpened = true;
+        launch(args);
+    }
+
+    /**
+     * This function saves everything analysed so far as a session, so it can be reopened without reading the capture
+     * again. Nothing may be stored while it runs, so it is only called once the capture has stopped.
+     */
+    static void saveSession() {
+        long start = System.nanoTime();
+        try {
+            SessionFile.save(sessionPath, packets, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+        } catch (IOException e) {
+            System.err.println("Error while saving the session: " + e.getMessage());
+            return;
+        }
+        System.out.printf("Saved the session to %s in %.2f seconds\n", sessionPath.toAbsolutePath(),
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * This function (safely) stops the capture and waits for the threads to terminate. It may be called more than
+     * once, and from any thread other than the JavaFX Application Thread, as it can wait for the capture timeout.
+     */
+    static synchronized void stopCapture() {
+        if (fileReader != null) {
+            if (!fileReader.isAlive()) { return; }
+            fileReader.stopReading();
+            try {
+                fileReader.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (sessionOpened || !analysis.isAlive()) { return; }
+        // The merge thread is stopped last, so it can drain whatever is left in the buffers.
+        for (PcapThread pcapCapture : pcapCaptures) { pcapCapture.stopCapture(); }
+        try {
+            for (PcapThread pcapCapture : pcapCaptures) { pcapCapture.join(); }
+            analysis.stopAnalysis();
+            analysis.join();
+            segmentWriter.finish();
+            segmentWriter.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+
+        // Example processing: total amount of data captured.
+        for (int d = 0; d < ringBuffers.length; d++) {
+            System.out.println(interfaceNames[d] + ": captured " + ringBuffers[d].publishedPackets()
+                    + " packets, dropped " + ringBuffers[d].droppedPackets() + " ("
+                    + ringBuffers[d].backpressureEvents() + " arrived while the buffer was nearly full).");
+            PcapStat statistics = pcapCaptures[d].statistics();
+            System.out.println("  libpcap received " + statistics.getRecv() + ", and dropped " + statistics.getDrop()
+                    + " in the kernel and " + statistics.getIfDrop() + " in the interface.");
+        }
+        System.out.println("You captured " + throughput.totalBytes() + " bytes worth of data!");
+        System.out.println("Saved " + segmentWriter.written() + " packets to " + segmentWriter.segmentCount()
+                + " file(s) in " + segmentWriter.directory().toAbsolutePath());
+        saveSession();
+    }
+
+    /**
+     * This function will start the JavaFX Application Thread, and show the GUI to the user.
+     * Since we delegated generating the GUI to the UserInterface class, we just call all the necessary functions here.
+     */
+    @Override
+    public void start(Stage stage){
+        // Create a new UserInterface.
+        UserInterface UI = new UserInterface();
+
+        // Call all its' functions. The chart and packet list start with whatever has been captured so far.
+        UI.generateChart(throughput);
+        UI.generatePacketSelector(packets);
+        UI.generateLayer4Information(packets, flows, uniqueCounts, index, tcpAnalytics);
+        UI.generateTopTalkers(talkers);
+        UI.generateDiagnostics();
+        UI.generateCaptureControls(interfaceNames, ringBuffers, NetworkVisualiser::stopCapture);
+
+        // New packets are pushed to the UI in batches, a few times a second.
+        new UserInterfaceHandler.LiveUpdate(UI).start();
+
+        // A capture file ends by itself, so the UI is told when the whole file has been read.
+        if (fileReader != null) {
+            Thread waiter = new Thread(() -> {
+                try {
+                    fileReader.join();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Platform.runLater(UI::captureStopped);
+            });
+            waiter.setDaemon(true);
+            waiter.start();
+        }
+        // A session is complete as soon as it is open.
+        if (sessionOpened) { Platform.runLater(UI::captureStopped); }
+
+        // Set the 'stage' object, adjust some options, and show the GUI.
+        stage.setScene(UI.getRoot());
+        stage.setTitle("NetworkVisualiser - Work In Progress");
+        stage.setMinHeight(600);
+        stage.setMinWidth(600);
+        stage.show();
+    }
+
+    /**
+     * This thread is responsible for capturing packets.
+     * By multi-threading, the user can stop the capture whenever they wish, while the GUI stays responsive.
+     */
+    static class PcapThread extends Thread {
+        Pcap pcap;
+        CaptureRingBuffer ringBuffer;
+        CaptureProfile profile;
+        PcapStat statistics = new PcapStat();
+        boolean closed = false;
+        volatile boolean stopped = false;
+
+        // The constructor merely sets member variables.
+        public PcapThread(Pcap pcapObject, CaptureRingBuffer buffer, CaptureProfile captureProfile) {
+            pcap = pcapObject;
+            ringBuffer = buffer;
+            profile = captureProfile;
+        }
+
+        // When the thread is started, capture begins. Packets are read a batch at a time until capture is stopped;
+        // a dispatch with nothing to read returns once the profile's timeout expires, so we just go round again.
+        public void run(){
+            PacketHandler handler = new PacketHandler(ringBuffer);
+            while (!stopped) {
+                int result = handler.dispatch(pcap, profile.batchPackets);
+                if (result == -2) { break; } // Pcap.breakloop() was called.
+                if (result < 0) {
+                    System.err.println("Error while capturing: " + pcap.getErr());
+                    break;
+                }
+            }
+        }
+
+        // A special function to stop capture safely, before terminating the thread.
+        public void stopCapture(){
+            stopped = true;
+            pcap.breakloop();
+        }
+
+        // Reads libpcap's counters for this interface. Once the connection is closed, the last ones read are kept.
+        public synchronized PcapStat statistics(){
+            if (!closed) { pcap.stats(statistics); }
+            return statistics;
+        }
+
+        // Closes the connection, once capture has stopped.
+        public synchronized void close(){
+            closed = true;
+            pcap.close();
+        }
+    }
+
+    /**
+     * This thread is responsible for reading packets out of every interface's ring buffer, so that the capture threads
+     * never wait, and for merging them into the store in timestamp order.
+     * The head of each buffer is the earliest packet from that interface, so the earliest head is always stored next.
+     * When one interface has nothing waiting, a packet from it could still arrive with an earlier timestamp, so the
+     * other heads are held back until they are MERGE_WINDOW_MICROS old; a quiet interface delays the merge by at most
+     * that much, and only a packet held up by libpcap for longer than that can be stored out of order.
+     */
+    static class MergeThread extends Thread implements CaptureRingBuffer.SlotHandler {
+        static final int BATCH_SIZE = 1024; // The most packets read from the buffers before their slots are released.
+        static final long MERGE_WINDOW_MICROS = 250_000; // How long to wait for a quiet interface to catch up.
+        CaptureRingBuffer.Consumer[] consumers;
+        PacketStore packets;
+        int currentInterface; // The interface of the packet being stored.
+        long packetLimit = Long.MAX_VALUE; // Packets beyond this many are let go of without being stored.
+        volatile boolean running = true;
+
+        // The constructor merely sets member variables.
+        public MergeThread(CaptureRingBuffer.Consumer[] bufferConsumers, PacketStore store) {
+            super("Merge");
+            consumers = bufferConsumers;
+            packets = store;
+        }
+
+        // Keep merging the buffers until we are stopped and nothing is left in them.
+        public void run(){
+            while (running || backlog() > 0) {
+                int merged = mergeBatch(System.currentTimeMillis() * 1000 - MERGE_WINDOW_MICROS);
+                // The slots are only handed back once the whole batch is stored.
+                for (CaptureRingBuffer.Consumer consumer : consumers) { consumer.release(); }
+                if (merged == 0) {
+                    LockSupport.parkNanos(100_000); // Nothing to do, so back off briefly.
+                }
+            }
+        }
+
+        // Stores up to a batch of packets, earliest first, stopping early at packets newer than the horizon while an
+        // interface has nothing waiting.
+        int mergeBatch(long horizonMicros) {
+            int merged = 0;
+            while (merged < BATCH_SIZE) {
+                int earliest = -1;
+                long earliestTimestamp = Long.MAX_VALUE;
+                boolean waiting = false;
+                for (int i = 0; i < consumers.length; i++) {
+                    long timestamp = consumers[i].peekTimestamp();
+                    if (timestamp < 0) { waiting = true; }
+                    else if (timestamp < earliestTimestamp) {
+                        earliest = i;
+                        earliestTimestamp = timestamp;
+                    }
+                }
+                if (earliest < 0) { break; }
+                // Once stopped, nothing more will arrive, so everything left can be stored.
+                if (waiting && running && earliestTimestamp > horizonMicros) { break; }
+                currentInterface = earliest;
+                consumers[earliest].take(this);
+                merged++;
+            }
+            return merged;
+        }
+
+        // The number of packets waiting across all the buffers.
+        long backlog() {
+            long total = 0;
+            for (CaptureRingBuffer.Consumer consumer : consumers) { total += consumer.backlog(); }
+            return total;
+        }
+
+        // Each packet is copied out of its slot (as the slot will be reused once released) and decoded into the store.
+        @Override
+        public void handleSlot(byte[] data, int captureLength, int wireLength, long timestampMicros) {
+            if (packets.size() >= packetLimit) { return; }
+            packets.append(data, captureLength, wireLength, timestampMicros, currentInterface);
+        }
+
+        // Once capture has stopped, this lets the thread finish merging and terminate.
+        public void stopAnalysis(){
+            running = false;
+        }
+    }
+
+    /**
+     * This thread is responsible for reading a capture file into the store.
+     * It stands in for both the capture and analysis threads, as the file can be read straight into the store.
+     */
+    static class FileThread extends Thread {
+        CaptureFile file;
+        PacketStore packets;
+        volatile boolean stopped = false;
+
+        // The constructor merely sets member variables.
+        public FileThread(CaptureFile captureFile, PacketStore store) {
+            file = captureFile;
+            packets = store;
+        }
+
+        // Read the whole file (unless stopped), close it, then save the session if the whole file was read.
+        public void run(){
+            long start = System.nanoTime();
+            file.read(packets);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Read %d packets in %.2f seconds (%d skipped, as they weren't Ethernet).\n",
+                    file.packetsRead(), seconds, file.packetsSkipped());
+            try {
+                file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (!stopped) { saveSession(); }
+        }
+
+        // A special function to stop reading safely, before terminating the thread.
+        public void stopReading(){
+            stopped = true;
+            file.stopReading();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class is an append-only store for raw packet bytes, kept off the Java heap.
+ * Memory is allocated in large direct chunks, and a packet never straddles two chunks, so every packet can be read
+ * back from a single buffer. Packets are identified by the offset returned when they were appended.
+ * Older chunks may be released once their packets are kept elsewhere (such as on disk), to bound memory use.
+ * Only one thread may append, but any number of threads may read.
+ */
+public class PacketArena {
+    static final int CHUNK_SIZE = 64 * 1024 * 1024; // 64 MB per chunk; much larger than any single frame.
+    static final int CHUNK_SHIFT = 26; // log2(CHUNK_SIZE), so offsets can be split into chunk and position.
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private ByteBuffer current; // The chunk currently being appended to.
+    private long used = 0; // The number of bytes of packet data stored.
+    private int releasedChunks = 0; // Chunks below this have been released.
+    private volatile int residentChunks = 0;
+
+    /**
+     * Creates a new, empty PacketArena.
+     */
+    public PacketArena() {
+    }
+
+    /**
+     * Creates a PacketArena over chunks which are already filled, such as ones mapped from a session file. Offsets
+     * into them work just as they did in the arena they were saved from, and any further packets go in new chunks.
+     * The chunks aren't counted by allocated(), as they are the operating system's to page in and out.
+     * @param filled The chunks, in order, each holding packets from position 0.
+     * @param usedBytes The number of bytes of packet data they hold.
+     */
+    public PacketArena(ByteBuffer[] filled, long usedBytes) {
+        chunks = filled.clone();
+        used = usedBytes;
+    }
+
+    /**
+     * This function appends bytes from an array.
+     * @param data The array holding the packet.
+     * @param length The number of bytes to store.
+     * @return The offset of the stored packet, used to read it back.
+     */
+    public long append(byte[] data, int length) {
+        ByteBuffer chunk = reserve(length);
+        long offset = offsetOf(chunk.position());
+        chunk.put(data, 0, length);
+        used += length;
+        return offset;
+    }
+
+    /**
+     * This function appends bytes from another buffer, without changing that buffer's position.
+     * @param source The buffer holding the packet.
+     * @param position Where the packet starts in the source buffer.
+     * @param length The number of bytes to store.
+     * @return The offset of the stored packet, used to read it back.
+     */
+    public long append(ByteBuffer source, int position, int length) {
+        ByteBuffer chunk = reserve(length);
+        long offset = offsetOf(chunk.position());
+        ByteBuffer view = source.duplicate();
+        view.limit(position + length);
+        view.position(position);
+        chunk.put(view);
+        used += length;
+        return offset;
+    }
+
+    /**
+     * This function returns the chunk which holds a packet. It is shared, so callers must only use absolute reads.
+     * @param offset The packet's offset.
+     * @return The chunk's buffer, or null if it has been released.
+     */
+    public ByteBuffer buffer(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * This function returns where a packet starts within the buffer returned by buffer().
+     * @param offset The packet's offset.
+     * @return The position of the packet in its chunk.
+     */
+    public static int position(long offset) {
+        return (int) (offset & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * This function returns a read-only view of a single packet, positioned at its first byte.
+     * @param offset The packet's offset.
+     * @param length The number of bytes stored for the packet.
+     * @return A new ByteBuffer covering just the packet, or null if its chunk has been released.
+     */
+    public ByteBuffer slice(long offset, int length) {
+        ByteBuffer chunk = buffer(offset);
+        if (chunk == null) { return null; }
+        ByteBuffer view = chunk.asReadOnlyBuffer();
+        int start = position(offset);
+        view.limit(start + length);
+        view.position(start);
+        return view.slice();
+    }
+
+    /**
+     * @param offset The packet's offset.
+     * @return Whether the packet is still held in memory.
+     */
+    public boolean isResident(long offset) {
+        return buffer(offset) != null;
+    }
+
+    /**
+     * This function releases the chunks holding packets before an offset, keeping at least the most recent bytes.
+     * Released chunks are freed once no reader still holds them; their packets must be read from elsewhere.
+     * @param offset Chunks wholly before the one holding this offset may be released.
+     * @param retainedBytes How much of the most recently appended data to keep, regardless.
+     */
+    public synchronized void releaseBefore(long offset, long retainedBytes) {
+        ByteBuffer[] all = chunks;
+        int keep = (int) ((retainedBytes + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        int limit = Math.min((int) (offset >>> CHUNK_SHIFT), all.length - 1 - keep);
+        for (int chunk = releasedChunks; chunk < limit; chunk++) {
+            all[chunk] = null;
+        }
+        if (limit > releasedChunks) {
+            residentChunks -= limit - releasedChunks;
+            releasedChunks = limit;
+        }
+    }
+
+    /**
+     * @return The number of bytes of packet data stored.
+     */
+    public long used() {
+        return used;
+    }
+
+    /**
+     * @return The number of bytes allocated off-heap, not counting released chunks.
+     */
+    public long allocated() {
+        return (long) residentChunks * CHUNK_SIZE;
+    }
+
+    // Makes sure the current chunk has room for a packet, starting a new chunk if it doesn't.
+    private ByteBuffer reserve(int length) {
+        if (length > CHUNK_SIZE) { throw new IllegalArgumentException("Packet is larger than an arena chunk"); }
+        if (current == null || current.remaining() < length) {
+            current = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            // Chunks are released from another thread, so the array is replaced under the same lock.
+            synchronized (this) {
+                ByteBuffer[] updated = Arrays.copyOf(chunks, chunks.length + 1);
+                updated[chunks.length] = current;
+                chunks = updated;
+                residentChunks++;
+            }
+        }
+        return current;
+    }
+
+    // Turns a position in the current chunk into an offset.
+    private long offsetOf(int position) {
+        return ((long) (chunks.length - 1) << CHUNK_SHIFT) | position;
+    }
+}
@@ -0,0 +1,397 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a compressed set of packet indices, used to answer filters without scanning the store.
+ * Indices are split into blocks of 65536 by their upper 16 bits, and each block is stored in whichever form is
+ * smaller: a sorted array of its lower 16 bits while it holds at most 4096 packets, or a 65536 bit bitmap once it
+ * holds more. Sparse sets (a rare flag) and dense sets (every TCP packet) both stay compact, and AND, OR and NOT work
+ * a whole block at a time.
+ * Indices must be added in increasing order, as they are while packets are stored. Sets returned by the operations are
+ * new, and are never changed afterwards.
+ */
+public class PacketBitmap {
+    static final int BLOCK_BITS = 16;
+    static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+    static final int ARRAY_LIMIT = 4096; // Beyond this, a block's bitmap (8 KB) is smaller than its array.
+    static final int WORDS = BLOCK_SIZE / 64;
+
+    private int[] keys = new int[1]; // The upper bits of each block's indices, in increasing order.
+    private Block[] blocks = new Block[1];
+    private int blockCount = 0;
+    private long cardinality = 0;
+    private volatile long[] ranks; // The number of indices before each block, built when first needed by select().
+
+    /**
+     * Creates a new, empty PacketBitmap.
+     */
+    public PacketBitmap() {
+    }
+
+    /**
+     * This function returns the set of every index from 0 up to a limit, for use with NOT.
+     * @param size The number of indices.
+     * @return A new PacketBitmap holding 0 to size - 1.
+     */
+    public static PacketBitmap range(int size) {
+        PacketBitmap result = new PacketBitmap();
+        for (int key = 0; (long) key * BLOCK_SIZE < size; key++) {
+            int count = (int) Math.min(BLOCK_SIZE, size - (long) key * BLOCK_SIZE);
+            long[] words = new long[WORDS];
+            Arrays.fill(words, 0, count / 64, -1L);
+            if (count % 64 != 0) { words[count / 64] = (1L << (count % 64)) - 1; }
+            result.appendBlock(key, Block.of(words, count));
+        }
+        return result;
+    }
+
+    /**
+     * This function adds an index, which must be larger than any already added.
+     * @param index The index of a packet.
+     */
+    public void add(int index) {
+        int key = index >>> BLOCK_BITS;
+        if (blockCount == 0 || keys[blockCount - 1] != key) { appendBlock(key, new Block()); }
+        blocks[blockCount - 1].add(index & (BLOCK_SIZE - 1));
+        cardinality++;
+        ranks = null;
+    }
+
+    /**
+     * @return The number of indices in the set.
+     */
+    public long cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @param index The index of a packet.
+     * @return Whether the set holds it.
+     */
+    public boolean contains(int index) {
+        int block = Arrays.binarySearch(keys, 0, blockCount, index >>> BLOCK_BITS);
+        return block >= 0 && blocks[block].contains(index & (BLOCK_SIZE - 1));
+    }
+
+    /**
+     * This function finds the nth smallest index in the set, so a list can show a set without copying it out.
+     * @param rank The position in the set, from 0.
+     * @return The index at that position.
+     */
+    public int select(long rank) {
+        if (rank < 0 || rank >= cardinality) { throw new IndexOutOfBoundsException("Rank " + rank + " of " + cardinality); }
+        if (ranks == null) {
+            long[] counts = new long[blockCount];
+            long total = 0;
+            for (int block = 0; block < blockCount; block++) {
+                counts[block] = total;
+                total += blocks[block].cardinality;
+            }
+            ranks = counts;
+        }
+        // The last block starting at or before the rank holds it.
+        int block = Arrays.binarySearch(ranks, rank);
+        if (block < 0) { block = -block - 2; }
+        while (block + 1 < blockCount && ranks[block + 1] <= rank) { block++; }
+        return (keys[block] << BLOCK_BITS) | blocks[block].select((int) (rank - ranks[block]));
+    }
+
+    /**
+     * This function copies the set out as an array.
+     * @return A new array of the indices, in increasing order.
+     */
+    public int[] toArray() {
+        int[] indices = new int[(int) cardinality];
+        int position = 0;
+        for (int block = 0; block < blockCount; block++) {
+            position = blocks[block].copyTo(keys[block] << BLOCK_BITS, indices, position);
+        }
+        return indices;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set of the indices in both sets.
+     */
+    public PacketBitmap and(PacketBitmap other) {
+        PacketBitmap result = new PacketBitmap();
+        int a = 0;
+        int b = 0;
+        while (a < blockCount && b < other.blockCount) {
+            if (keys[a] < other.keys[b]) { a++; }
+            else if (keys[a] > other.keys[b]) { b++; }
+            else {
+                long[] words = blocks[a].words();
+                long[] otherWords = other.blocks[b].words();
+                for (int word = 0; word < WORDS; word++) { words[word] &= otherWords[word]; }
+                result.appendWords(keys[a], words);
+                a++;
+                b++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set of the indices in either set.
+     */
+    public PacketBitmap or(PacketBitmap other) {
+        PacketBitmap result = new PacketBitmap();
+        int a = 0;
+        int b = 0;
+        while (a < blockCount || b < other.blockCount) {
+            if (b == other.blockCount || (a < blockCount && keys[a] < other.keys[b])) {
+                result.appendBlock(keys[a], blocks[a].copy());
+                a++;
+            }
+            else if (a == blockCount || keys[a] > other.keys[b]) {
+                result.appendBlock(other.keys[b], other.blocks[b].copy());
+                b++;
+            }
+            else {
+                long[] words = blocks[a].words();
+                long[] otherWords = other.blocks[b].words();
+                for (int word = 0; word < WORDS; word++) { words[word] |= otherWords[word]; }
+                result.appendWords(keys[a], words);
+                a++;
+                b++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other Another set.
+     * @return A new set of the indices in this set, but not the other.
+     */
+    public PacketBitmap andNot(PacketBitmap other) {
+        PacketBitmap result = new PacketBitmap();
+        int b = 0;
+        for (int a = 0; a < blockCount; a++) {
+            while (b < other.blockCount && other.keys[b] < keys[a]) { b++; }
+            if (b == other.blockCount || other.keys[b] != keys[a]) {
+                result.appendBlock(keys[a], blocks[a].copy());
+                continue;
+            }
+            long[] words = blocks[a].words();
+            long[] otherWords = other.blocks[b].words();
+            for (int word = 0; word < WORDS; word++) { words[word] &= ~otherWords[word]; }
+            result.appendWords(keys[a], words);
+        }
+        return result;
+    }
+
+    /**
+     * @param size The number of packets, which the complement is taken within.
+     * @return A new set of the indices from 0 to size - 1 which are not in this set.
+     */
+    public PacketBitmap not(int size) {
+        return range(size).andNot(this);
+    }
+
+    /**
+     * This function adds every index in another set, which must all be at least as large as any in this one. It is
+     * how sets built for consecutive ranges of packets are joined; the other set must not be used afterwards.
+     * @param later The set to add.
+     */
+    public void append(PacketBitmap later) {
+        for (int block = 0; block < later.blockCount; block++) {
+            if (blockCount > 0 && keys[blockCount - 1] == later.keys[block]) {
+                // Both sets have part of this block, so it is rebuilt from the two halves.
+                long[] words = blocks[blockCount - 1].words();
+                long[] laterWords = later.blocks[block].words();
+                for (int word = 0; word < WORDS; word++) { words[word] |= laterWords[word]; }
+                blockCount--;
+                cardinality -= blocks[blockCount].cardinality;
+                appendWords(later.keys[block], words);
+            }
+            else {
+                appendBlock(later.keys[block], later.blocks[block]);
+            }
+        }
+    }
+
+    /**
+     * This function copies the set, so that it can be read while the original is still being added to.
+     * @return A new PacketBitmap with the same indices.
+     */
+    public PacketBitmap copy() {
+        PacketBitmap result = new PacketBitmap();
+        for (int block = 0; block < blockCount; block++) { result.appendBlock(keys[block], blocks[block].copy()); }
+        return result;
+    }
+
+    /**
+     * This function writes the set to a session (see SessionFile), block by block, each in the form it is kept in.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        out.writeInts(keys, blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            Block saved = blocks[block];
+            out.writeInt(saved.cardinality);
+            if (saved.bits != null) { out.writeLongs(saved.bits, WORDS); }
+            else { out.writeShorts(saved.values, saved.cardinality); }
+        }
+    }
+
+    /**
+     * This function reads a set back from a session.
+     * @param in The session being read.
+     * @return A new PacketBitmap, which may be added to as before it was saved.
+     * @throws IOException If the session can't be read.
+     */
+    static PacketBitmap load(SessionFile.Input in) throws IOException {
+        PacketBitmap result = new PacketBitmap();
+        int[] loadedKeys = in.readInts(0);
+        result.keys = new int[Math.max(loadedKeys.length, 1)];
+        result.blocks = new Block[result.keys.length];
+        for (int key : loadedKeys) {
+            Block block = new Block();
+            block.cardinality = in.readInt();
+            if (block.cardinality > ARRAY_LIMIT) {
+                block.values = null;
+                block.bits = new long[WORDS];
+                in.readLongs(block.bits);
+            }
+            else {
+                block.values = in.readShorts(4);
+            }
+            result.appendBlock(key, block);
+        }
+        return result;
+    }
+
+    // Adds a block after the last one, if it isn't empty.
+    private void appendBlock(int key, Block block) {
+        if (blockCount == keys.length) {
+            keys = Arrays.copyOf(keys, blockCount * 2);
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+        }
+        keys[blockCount] = key;
+        blocks[blockCount] = block;
+        blockCount++;
+        cardinality += block.cardinality;
+        ranks = null;
+    }
+
+    // Adds a block from a bitmap, in whichever form suits it.
+    private void appendWords(int key, long[] words) {
+        int count = 0;
+        for (long word : words) { count += Long.bitCount(word); }
+        if (count > 0) { appendBlock(key, Block.of(words, count)); }
+    }
+
+    /**
+     * This class is one block of 65536 indices, held as a sorted array or as a bitmap.
+     */
+    private static class Block {
+        private short[] values = new short[4]; // Sorted, and compared unsigned; null once the block is a bitmap.
+        private long[] bits; // One bit per index; null while the block is an array.
+        private int cardinality = 0;
+
+        // Builds a block from a bitmap, converting it to an array if it is sparse enough.
+        static Block of(long[] words, int count) {
+            Block block = new Block();
+            block.cardinality = count;
+            if (count > ARRAY_LIMIT) {
+                block.values = null;
+                block.bits = words;
+                return block;
+            }
+            block.values = new short[count];
+            int position = 0;
+            for (int word = 0; word < WORDS; word++) {
+                long remaining = words[word];
+                while (remaining != 0) {
+                    block.values[position++] = (short) (word * 64 + Long.numberOfTrailingZeros(remaining));
+                    remaining &= remaining - 1;
+                }
+            }
+            return block;
+        }
+
+        void add(int value) {
+            if (bits != null) {
+                bits[value >>> 6] |= 1L << value;
+            }
+            else if (cardinality < ARRAY_LIMIT) {
+                if (cardinality == values.length) { values = Arrays.copyOf(values, Math.max(cardinality * 2, 4)); }
+                values[cardinality] = (short) value;
+            }
+            else {
+                // The array has grown as large as a bitmap would be, so it becomes one.
+                bits = words();
+                values = null;
+                bits[value >>> 6] |= 1L << value;
+            }
+            cardinality++;
+        }
+
+        boolean contains(int value) {
+            if (bits != null) { return (bits[value >>> 6] & (1L << value)) != 0; }
+            int low = 0;
+            int high = cardinality - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int found = values[middle] & 0xFFFF;
+                if (found < value) { low = middle + 1; }
+                else if (found > value) { high = middle - 1; }
+                else { return true; }
+            }
+            return false;
+        }
+
+        int select(int rank) {
+            if (bits == null) { return values[rank] & 0xFFFF; }
+            for (int word = 0; word < WORDS; word++) {
+                int count = Long.bitCount(bits[word]);
+                if (rank < count) {
+                    long remaining = bits[word];
+                    for (int skip = 0; skip < rank; skip++) { remaining &= remaining - 1; }
+                    return word * 64 + Long.numberOfTrailingZeros(remaining);
+                }
+                rank -= count;
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        int copyTo(int base, int[] indices, int position) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) { indices[position++] = base | (values[i] & 0xFFFF); }
+                return position;
+            }
+            for (int word = 0; word < WORDS; word++) {
+                long remaining = bits[word];
+                while (remaining != 0) {
+                    indices[position++] = base | (word * 64 + Long.numberOfTrailingZeros(remaining));
+                    remaining &= remaining - 1;
+                }
+            }
+            return position;
+        }
+
+        // A new bitmap of the block's indices, whichever form the block is in.
+        long[] words() {
+            if (bits != null) { return bits.clone(); }
+            long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                int value = values[i] & 0xFFFF;
+                words[value >>> 6] |= 1L << value;
+            }
+            return words;
+        }
+
+        Block copy() {
+            Block block = new Block();
+            block.cardinality = cardinality;
+            block.values = values == null ? null : Arrays.copyOf(values, cardinality);
+            block.bits = bits == null ? null : bits.clone();
+            return block;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package networkvisualiser;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.protocol.lan.Ethernet;
+import org.jnetpcap.protocol.network.Arp;
+import org.jnetpcap.protocol.network.Ip4;
+import org.jnetpcap.protocol.tcpip.Http;
+import org.jnetpcap.protocol.tcpip.Tcp;
+import org.jnetpcap.protocol.tcpip.Udp;
+import org.jnetpcap.protocol.voip.RtcpReceiverReport;
+import org.jnetpcap.protocol.voip.RtcpSenderReport;
+import org.jnetpcap.protocol.voip.Rtp;
+import org.jnetpcap.protocol.voip.Sdp;
+
+import java.util.Arrays;
+
+/**
+ * This class dissects JPackets in a single pass over their header table.
+ * Each header is bound to a reusable header object (one of each type, per thread), and the protocol bitmask and key
+ * fields are extracted into a reusable PacketFields; nothing is allocated per packet. After dissect() returns, the
+ * header accessors give the headers of that packet, until the next call.
+ */
+public class PacketDissector {
+    // Each thread gets its own dissector, as the header objects are rebound for every packet.
+    private static final ThreadLocal<PacketDissector> LOCAL = ThreadLocal.withInitial(PacketDissector::new);
+
+    private final Ethernet ethernet = new Ethernet();
+    private final Arp arp = new Arp();
+    private final Ip4 ip = new Ip4();
+    private final Tcp tcp = new Tcp();
+    private final Udp udp = new Udp();
+    private final Http http = new Http();
+    private final Rtp rtp = new Rtp();
+    private final RtcpReceiverReport receiverReport = new RtcpReceiverReport();
+    private final RtcpSenderReport senderReport = new RtcpSenderReport();
+    private final Sdp sdp = new Sdp();
+
+    // The headers in the same order as the bits in Protocols, and a lookup from jNetPcap's header IDs to those bits.
+    private final JHeader[] headers = { ethernet, arp, ip, tcp, udp, http, rtp, receiverReport, senderReport, sdp };
+    private final int[] bitForId;
+    private final PacketFields fields = new PacketFields();
+
+    private PacketDissector() {
+        int maximumId = 0;
+        for (JHeader header : headers) { maximumId = Math.max(maximumId, header.getId()); }
+        bitForId = new int[maximumId + 1];
+        Arrays.fill(bitForId, -1);
+        for (int bit = 0; bit < headers.length; bit++) { bitForId[headers[bit].getId()] = bit; }
+    }
+
+    /**
+     * @return The dissector belonging to the calling thread.
+     */
+    public static PacketDissector get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * This function dissects a packet, walking its header table once.
+     * @param packet The packet to dissect.
+     * @return The packet's fields. This is reused, so it is only valid until the next call on this thread.
+     */
+    public PacketFields dissect(JPacket packet) {
+        fields.reset();
+        fields.timestampMicros = packet.getCaptureHeader().timestampInMicros();
+        fields.captureLength = packet.getCaptureHeader().caplen();
+        fields.wireLength = packet.getCaptureHeader().wirelen();
+
+        // Bind the first header of each protocol we know about. Tunnelled (inner) headers are ignored.
+        int count = packet.getHeaderCount();
+        for (int i = 0; i < count; i++) {
+            int id = packet.getHeaderIdByIndex(i);
+            int bit = id < bitForId.length ? bitForId[id] : -1;
+            if (bit < 0 || (fields.protocols & (1 << bit)) != 0) { continue; }
+            packet.getHeaderByIndex(i, headers[bit]);
+            fields.protocols |= 1 << bit;
+        }
+
+        // Extract the key fields from the bound headers.
+        if (fields.has(Protocols.IP4)) {
+            fields.sourceAddress = ip.sourceToInt();
+            fields.destinationAddress = ip.destinationToInt();
+        }
+        if (fields.has(Protocols.TCP)) {
+            fields.sourcePort = tcp.source();
+            fields.destinationPort = tcp.destination();
+            fields.tcpFlags = tcp.flags() & 0x3F;
+            fields.sequenceNumber = tcp.seq();
+            fields.acknowledgmentNumber = tcp.ack();
+            fields.window = tcp.window();
+        }
+        else if (fields.has(Protocols.UDP)) {
+            fields.sourcePort = udp.source();
+            fields.destinationPort = udp.destination();
+        }
+        return fields;
+    }
+
+    /**
+     * This function finds the protocol bit (see Protocols) for one of jNetPcap's header IDs.
+     * @param headerId The ID, as returned by JHeader.getId().
+     * @return The bit's mask, or 0 if the dissector doesn't handle that header.
+     */
+    public int maskFor(int headerId) {
+        int bit = headerId >= 0 && headerId < bitForId.length ? bitForId[headerId] : -1;
+        return bit < 0 ? 0 : 1 << bit;
+    }
+
+    // The headers of the last packet dissected. Each is only valid if the packet contains that protocol.
+    public Ethernet ethernet() { return ethernet; }
+    public Arp arp() { return arp; }
+    public Ip4 ip() { return ip; }
+    public Tcp tcp() { return tcp; }
+    public Udp udp() { return udp; }
+    public Http http() { return http; }
+    public Rtp rtp() { return rtp; }
+    public Sdp sdp() { return sdp; }
+}
@@ -0,0 +1,73 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds the fields extracted from a single packet when it is decoded.
+ * One instance is reused for every packet, so decoding doesn't allocate; the values are only valid until the next
+ * packet is decoded into it.
+ */
+public class PacketFields {
+    // Capture information.
+    public long timestampMicros;
+    public int captureLength;
+    public int wireLength;
+    public int interfaceId; // Which capture interface the packet arrived on.
+
+    // Which protocols are present (see Protocols), and their key fields.
+    public int protocols;
+    public int sourceAddress; // IPv4 addresses are kept as ints, in network order.
+    public int destinationAddress;
+    public int sourcePort;
+    public int destinationPort;
+    public int tcpFlags;
+    public long sequenceNumber;
+    public long acknowledgmentNumber;
+    public int window;
+
+    // The buffer the frame was decoded from, and where it starts. Observers may read the frame through these while the
+    // packet is being stored, but must not keep hold of them, as the buffer may be reused for the next packet.
+    public ByteBuffer frame;
+    public int frameOffset;
+
+    // Where the transport payload starts (relative to the start of the frame), and how long it is.
+    // The length comes from the headers, so it may be longer than what was actually captured.
+    public int payloadOffset;
+    public int payloadLength;
+
+    // The packet's flow, filled in by a FlowTable observing the store (-1 if there isn't one). The direction is 0 if
+    // the packet was sent from the flow's lower endpoint, and 1 if it was sent to it.
+    public int flowId = -1;
+    public int flowDirection;
+
+    // The application using the packet's flow, filled in by an ApplicationClassifier (see its constants).
+    public int application;
+
+    /**
+     * This function clears every field, ready for the next packet.
+     */
+    public void reset() {
+        protocols = 0;
+        sourceAddress = 0;
+        destinationAddress = 0;
+        sourcePort = 0;
+        destinationPort = 0;
+        tcpFlags = 0;
+        sequenceNumber = 0;
+        acknowledgmentNumber = 0;
+        window = 0;
+        payloadOffset = 0;
+        payloadLength = 0;
+        flowId = -1;
+        flowDirection = 0;
+        application = ApplicationClassifier.OTHER;
+    }
+
+    /**
+     * @param mask One or more protocol bits.
+     * @return Whether the packet contains all the given protocols.
+     */
+    public boolean has(int mask) {
+        return (protocols & mask) == mask;
+    }
+}
@@ -0,0 +1,100 @@
+package networkvisualiser;
+
+import org.jnetpcap.JBufferHandler;
+import org.jnetpcap.Pcap;
+import org.jnetpcap.PcapHeader;
+import org.jnetpcap.nio.JBuffer;
+import org.jnetpcap.packet.PcapPacket;
+import org.jnetpcap.protocol.JProtocol;
+
+import java.util.Arrays;
+
+/**
+ * This class is responsible for handling packets as they arrive.
+ * It runs on the libpcap callback thread, so it does as little as possible: each packet is copied into a slot of
+ * the CaptureRingBuffer, and all analysis happens on the other side of the buffer.
+ * It works on libpcap's raw buffer, rather than a PcapPacket, so jNetPcap never allocates or scans a packet for us.
+ * Packets arrive in batches, one Pcap.dispatch() at a time, and each batch is published to the analysis side at once
+ * by publishBatch(), so the consumers see one sequence update per batch rather than one per packet.
+ */
+public class PacketHandler implements JBufferHandler<Object> {
+    // Shared by every interface's handler; it is safe to record from several capture threads at once.
+    static final LatencyHistogram DISPATCH_TIMES = Metrics.histogram("capture.dispatch");
+    static final int MAX_BATCH_FRACTION = 4; // A batch may use at most this fraction of the ring buffer's slots.
+    CaptureRingBuffer ringBuffer;
+    long lastFilled = -1; // The sequence of the last slot filled in this batch, or -1 if none has been.
+
+    /**
+     * Creates a new PacketHandler, which publishes into the specified ring buffer.
+     * @param ringBufferReference The buffer shared with the analysis side.
+     */
+    public PacketHandler(CaptureRingBuffer ringBufferReference) {
+        ringBuffer = ringBufferReference;
+    }
+
+    /**
+     * This function captures one batch of packets: it hands up to batchPackets packets to nextPacket(), then
+     * publishes them all. It must only be called from the capture thread.
+     * A batch never takes more than a quarter of the ring buffer, as the analysis side can't start on it until it is
+     * published; a batch filling the whole buffer would leave the next one dropping packets while it catches up.
+     * @param pcap The open capture.
+     * @param batchPackets The most packets to read in this call.
+     * @return The value returned by Pcap.dispatch(): the number of packets read, 0 if the timeout expired first, -1
+     * on an error, or -2 if Pcap.breakloop() was called.
+     */
+    public int dispatch(Pcap pcap, int batchPackets) {
+        long start = System.nanoTime();
+        int batch = Math.max(Math.min(batchPackets, ringBuffer.capacity() / MAX_BATCH_FRACTION), 1);
+        int result = pcap.dispatch(batch, this, null);
+        publishBatch();
+        if (result > 0) { DISPATCH_TIMES.recordSince(start); }
+        return result;
+    }
+
+    /**
+     * This method handles what should occur every time a new packet is received.
+     * @param header The packet's capture header, with its lengths and timestamp.
+     * @param buffer The packet's bytes. libpcap reuses this memory, so it must be copied.
+     * @param o Not used.
+     */
+    @Override
+    public void nextPacket(PcapHeader header, JBuffer buffer, Object o) {
+        // If every slot is in use, the ring buffer counts the drop and we move on.
+        long sequence = ringBuffer.claim();
+        if (sequence < 0) { return; }
+
+        // Copy the frame into the preallocated slot. The wire length is kept even when the packet was cut to the
+        // snap length, so byte counts stay accurate.
+        byte[] slot = ringBuffer.slot(sequence);
+        int captureLength = Math.min(header.caplen(), slot.length);
+        buffer.getByteArray(0, slot, 0, captureLength);
+        ringBuffer.fill(sequence, captureLength, header.wirelen(), header.timestampInMicros());
+        lastFilled = sequence;
+    }
+
+    /**
+     * This function publishes every packet filled since the last batch to the analysis side.
+     */
+    public void publishBatch() {
+        if (lastFilled < 0) { return; }
+        ringBuffer.publishThrough(lastFilled);
+        lastFilled = -1;
+    }
+
+    /**
+     * This function turns a copied frame back into a decoded packet, for code which still works with JPackets.
+     * @param data The buffer holding the frame.
+     * @param captureLength The number of bytes of the frame which were captured.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @return A new PcapPacket which owns its own copy of the frame.
+     */
+    public static PcapPacket rebuildPacket(byte[] data, int captureLength, int wireLength, long timestampMicros) {
+        PcapHeader header = new PcapHeader(captureLength, wireLength);
+        header.hdr_sec(timestampMicros / 1000000);
+        header.hdr_usec((int) (timestampMicros % 1000000));
+        PcapPacket packet = new PcapPacket(header, Arrays.copyOf(data, captureLength));
+        packet.scan(JProtocol.ETHERNET_ID);
+        return packet;
+    }
+}
@@ -0,0 +1,298 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class indexes packets by protocol, TCP flag, IPv4 address and TCP/UDP port as they are stored, so that
+ * filters are answered from PacketBitmaps rather than by scanning the store. Each value of each attribute has its own
+ * bitmap of the packets which have it; a filter is then a handful of AND, OR and NOT operations, which take time in
+ * proportion to the bitmaps rather than to the capture.
+ * Addresses are found through an open-addressing hash table of primitive arrays, and ports through a direct array,
+ * so indexing a packet creates no objects unless it brings a new address or port.
+ * Only the thread which stores packets may update it. Queries may be made from any thread, and return copies.
+ */
+public class PacketIndex implements PacketObserver {
+    private static final int INITIAL_ADDRESSES = 1024;
+
+    private final PacketBitmap[] protocols = new PacketBitmap[Protocols.COUNT]; // Indexed by protocol bit.
+    private final PacketBitmap[] tcpFlags = new PacketBitmap[6]; // Indexed by flag bit, FIN to URG.
+    private final PacketBitmap[] sourcePorts = new PacketBitmap[65536];
+    private final PacketBitmap[] destinationPorts = new PacketBitmap[65536];
+
+    // The hash table of addresses: each slot holds an address's position in the arrays below plus one.
+    private int[] slots = new int[INITIAL_ADDRESSES * 2];
+    private int[] addresses = new int[INITIAL_ADDRESSES];
+    private PacketBitmap[] sources = new PacketBitmap[INITIAL_ADDRESSES];
+    private PacketBitmap[] destinations = new PacketBitmap[INITIAL_ADDRESSES];
+    private int addressCount = 0;
+
+    private int size = 0; // The number of packets indexed.
+
+    /**
+     * Creates a new, empty PacketIndex.
+     */
+    public PacketIndex() {
+        for (int bit = 0; bit < protocols.length; bit++) { protocols[bit] = new PacketBitmap(); }
+        for (int bit = 0; bit < tcpFlags.length; bit++) { tcpFlags[bit] = new PacketBitmap(); }
+    }
+
+    /**
+     * This method indexes a stored packet.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        add(index, fields.protocols, fields.sourceAddress, fields.destinationAddress, fields.sourcePort,
+                fields.destinationPort, fields.tcpFlags);
+    }
+
+    /**
+     * This function indexes a single packet. Packets must be added in the order they were stored.
+     * @param index The index of the packet in the store.
+     * @param protocolMask The packet's protocol bitmask (see Protocols).
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param sourcePort The TCP/UDP source port.
+     * @param destinationPort The TCP/UDP destination port.
+     * @param flags The TCP flags (see Protocols).
+     */
+    public synchronized void add(int index, int protocolMask, int sourceAddress, int destinationAddress,
+                                 int sourcePort, int destinationPort, int flags) {
+        size = index + 1;
+        // Only the bits that are set are visited.
+        for (int remaining = protocolMask; remaining != 0; remaining &= remaining - 1) {
+            protocols[Integer.numberOfTrailingZeros(remaining)].add(index);
+        }
+        if ((protocolMask & Protocols.IP4) == 0) { return; }
+        addressEntry(sourceAddress, true).add(index);
+        addressEntry(destinationAddress, false).add(index);
+
+        if ((protocolMask & (Protocols.TCP | Protocols.UDP)) == 0) { return; }
+        portEntry(sourcePorts, sourcePort).add(index);
+        portEntry(destinationPorts, destinationPort).add(index);
+        if ((protocolMask & Protocols.TCP) != 0) {
+            for (int remaining = flags; remaining != 0; remaining &= remaining - 1) {
+                tcpFlags[Integer.numberOfTrailingZeros(remaining)].add(index);
+            }
+        }
+    }
+
+    /**
+     * This function writes the index to a session (see SessionFile): every bitmap, and the table of addresses.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    synchronized void save(SessionFile.Output out) throws IOException {
+        out.writeInt(size);
+        for (PacketBitmap bitmap : protocols) { bitmap.save(out); }
+        for (PacketBitmap bitmap : tcpFlags) { bitmap.save(out); }
+        savePorts(out, sourcePorts);
+        savePorts(out, destinationPorts);
+        out.writeInt(addressCount);
+        out.writeInts(slots, slots.length);
+        out.writeInts(addresses, addressCount);
+        for (int entry = 0; entry < addressCount; entry++) {
+            saveEntry(out, sources[entry]);
+            saveEntry(out, destinations[entry]);
+        }
+    }
+
+    /**
+     * This function reads the index back from a session. The index must be new.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    synchronized void load(SessionFile.Input in) throws IOException {
+        size = in.readInt();
+        for (int bit = 0; bit < protocols.length; bit++) { protocols[bit] = PacketBitmap.load(in); }
+        for (int bit = 0; bit < tcpFlags.length; bit++) { tcpFlags[bit] = PacketBitmap.load(in); }
+        loadPorts(in, sourcePorts);
+        loadPorts(in, destinationPorts);
+        int count = in.readInt();
+        slots = in.readInts(0);
+        addresses = in.readInts(Math.max(count, INITIAL_ADDRESSES));
+        sources = new PacketBitmap[addresses.length];
+        destinations = new PacketBitmap[addresses.length];
+        for (int entry = 0; entry < count; entry++) {
+            sources[entry] = loadEntry(in);
+            destinations[entry] = loadEntry(in);
+        }
+        addressCount = count;
+    }
+
+    // Only the ports which have been seen are written, each with its number.
+    private static void savePorts(SessionFile.Output out, PacketBitmap[] ports) throws IOException {
+        int count = 0;
+        for (PacketBitmap bitmap : ports) { if (bitmap != null) { count++; } }
+        out.writeInt(count);
+        for (int port = 0; port < ports.length; port++) {
+            if (ports[port] == null) { continue; }
+            out.writeInt(port);
+            ports[port].save(out);
+        }
+    }
+
+    private static void loadPorts(SessionFile.Input in, PacketBitmap[] ports) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int port = in.readInt();
+            if (port < 0 || port >= ports.length) { throw new IOException("Not a usable session: a port is corrupt"); }
+            ports[port] = PacketBitmap.load(in);
+        }
+    }
+
+    // An address may have been seen in only one direction, in which case the other has no bitmap.
+    private static void saveEntry(SessionFile.Output out, PacketBitmap bitmap) throws IOException {
+        out.writeInt(bitmap == null ? 0 : 1);
+        if (bitmap != null) { bitmap.save(out); }
+    }
+
+    private static PacketBitmap loadEntry(SessionFile.Input in) throws IOException {
+        return in.readInt() == 0 ? null : PacketBitmap.load(in);
+    }
+
+    /**
+     * @return The number of packets indexed, which NOT is taken within.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Every packet indexed.
+     */
+    public synchronized PacketBitmap all() {
+        return PacketBitmap.range(size);
+    }
+
+    /**
+     * @param protocol A single protocol bit (see Protocols).
+     * @return The packets which contain that protocol.
+     */
+    public synchronized PacketBitmap protocol(int protocol) {
+        return protocols[Integer.numberOfTrailingZeros(protocol)].copy();
+    }
+
+    /**
+     * @param flag A single TCP flag (see Protocols).
+     * @return The TCP packets which have that flag set.
+     */
+    public synchronized PacketBitmap tcpFlag(int flag) {
+        return tcpFlags[Integer.numberOfTrailingZeros(flag)].copy();
+    }
+
+    /**
+     * @param address An IPv4 address, in network order.
+     * @return The packets sent from that address.
+     */
+    public synchronized PacketBitmap sourceAddress(int address) {
+        int entry = findAddress(address);
+        return entry < 0 || sources[entry] == null ? new PacketBitmap() : sources[entry].copy();
+    }
+
+    /**
+     * @param address An IPv4 address, in network order.
+     * @return The packets sent to that address.
+     */
+    public synchronized PacketBitmap destinationAddress(int address) {
+        int entry = findAddress(address);
+        return entry < 0 || destinations[entry] == null ? new PacketBitmap() : destinations[entry].copy();
+    }
+
+    /**
+     * @param address An IPv4 address, in network order.
+     * @return The packets sent from or to that address.
+     */
+    public synchronized PacketBitmap address(int address) {
+        return sourceAddress(address).or(destinationAddress(address));
+    }
+
+    /**
+     * @param port A TCP/UDP port.
+     * @return The TCP and UDP packets sent from that port.
+     */
+    public synchronized PacketBitmap sourcePort(int port) {
+        return sourcePorts[port] == null ? new PacketBitmap() : sourcePorts[port].copy();
+    }
+
+    /**
+     * @param port A TCP/UDP port.
+     * @return The TCP and UDP packets sent to that port.
+     */
+    public synchronized PacketBitmap destinationPort(int port) {
+        return destinationPorts[port] == null ? new PacketBitmap() : destinationPorts[port].copy();
+    }
+
+    /**
+     * @param port A TCP/UDP port.
+     * @return The TCP and UDP packets sent from or to that port.
+     */
+    public synchronized PacketBitmap port(int port) {
+        return sourcePort(port).or(destinationPort(port));
+    }
+
+    private static PacketBitmap portEntry(PacketBitmap[] ports, int port) {
+        if (ports[port] == null) { ports[port] = new PacketBitmap(); }
+        return ports[port];
+    }
+
+    // Finds an address's bitmap in one direction, adding the address if it is new.
+    private PacketBitmap addressEntry(int address, boolean source) {
+        int entry = findAddress(address);
+        if (entry < 0) { entry = insertAddress(address); }
+        // The arrays may be replaced as they grow, so the direction is only picked once the address is in.
+        PacketBitmap[] direction = source ? sources : destinations;
+        if (direction[entry] == null) { direction[entry] = new PacketBitmap(); }
+        return direction[entry];
+    }
+
+    // Finds an address in the hash table by linear probing.
+    private int findAddress(int address) {
+        int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (addresses[entry] == address) { return entry; }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insertAddress(int address) {
+        int entry = addressCount;
+        if (entry == addresses.length) {
+            int capacity = entry * 2;
+            addresses = Arrays.copyOf(addresses, capacity);
+            sources = Arrays.copyOf(sources, capacity);
+            destinations = Arrays.copyOf(destinations, capacity);
+        }
+        addresses[entry] = address;
+        addressCount = entry + 1;
+        int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while (slots[slot] != 0) { slot = (slot + 1) & mask; }
+        slots[slot] = entry + 1;
+        // Keep the table at most half full, so probe sequences stay short.
+        if (addressCount * 2 > slots.length) { rehash(slots.length * 2); }
+        return entry;
+    }
+
+    private void rehash(int capacity) {
+        int[] resized = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry = 0; entry < addressCount; entry++) {
+            int slot = hash(addresses[entry]) & mask;
+            while (resized[slot] != 0) { slot = (slot + 1) & mask; }
+            resized[slot] = entry + 1;
+        }
+        slots = resized;
+    }
+
+    // Spreads neighbouring addresses across the table.
+    private static int hash(int address) {
+        int h = address * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
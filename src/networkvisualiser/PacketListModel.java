@@ -0,0 +1,159 @@
+package networkvisualiser;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is a virtual list of packet summaries, used as the items of the packet selector.
+ * It either lists every packet in the store, or only those in a PacketBitmap, such as the result of a filter.
+ * No summaries are generated up front: the ListView only asks for the rows it is showing, and each row is
+ * generated when first asked for. Recently shown rows are kept in a bounded cache, and the rows just beyond the
+ * visible ones (in the direction the user is scrolling) are generated ahead of time on a background thread.
+ */
+public class PacketListModel extends ObservableListBase<String> {
+    static final int CACHE_SIZE = 4096; // The most rendered rows we keep hold of.
+    static final int PREFETCH_ROWS = 256; // How many rows ahead of the last one shown we generate in advance.
+
+    // A single background thread is plenty, as it only ever works a little ahead of the user.
+    private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PacketListPrefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final PacketStore store;
+    private final PacketBitmap packets; // The packets listed, or null to list every packet.
+    private final Map<Integer, String> cache = new LinkedHashMap<Integer, String>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final AtomicBoolean prefetchPending = new AtomicBoolean(false);
+    private int size = 0;
+    private int lastRequested = 0;
+    private volatile int direction = 1; // 1 when scrolling down, -1 when scrolling up.
+
+    /**
+     * Creates a new, empty PacketListModel over a store. Call setSize() as packets arrive.
+     * @param packetStore The store holding the packets.
+     */
+    public PacketListModel(PacketStore packetStore) {
+        store = packetStore;
+        packets = null;
+    }
+
+    /**
+     * Creates a new PacketListModel showing some of the packets in a store. Rows are looked up in the set as they are
+     * shown, so even a set of millions of packets is listed straight away. The set may grow (on the JavaFX thread), as
+     * long as setSize() is called afterwards.
+     * @param packetStore The store holding the packets.
+     * @param selection The packets to list, in order.
+     */
+    public PacketListModel(PacketStore packetStore, PacketBitmap selection) {
+        store = packetStore;
+        packets = selection;
+        size = (int) selection.cardinality();
+    }
+
+    /**
+     * This function returns the summary for a row, generating it if it isn't cached.
+     * @param row The row in the list.
+     * @return The row's text.
+     */
+    @Override
+    public String get(int row) {
+        if (row < 0 || row >= size) { throw new IndexOutOfBoundsException("Row " + row + " of " + size); }
+        // Work out which way the user is scrolling, then make sure the rows that way are being prepared.
+        if (row != lastRequested) { direction = row > lastRequested ? 1 : -1; }
+        lastRequested = row;
+
+        String text;
+        synchronized (cache) { text = cache.get(row); }
+        if (text == null) {
+            text = render(packetIndex(row));
+            synchronized (cache) { cache.put(row, text); }
+        }
+        schedulePrefetch(row);
+        return text;
+    }
+
+    /**
+     * @return The number of rows in the list.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This function grows the list to cover newly stored packets. It must be called on the JavaFX thread.
+     * @param newSize The number of rows the list should have.
+     */
+    public void setSize(int newSize) {
+        if (newSize <= size) { return; }
+        int oldSize = size;
+        size = newSize;
+        beginChange();
+        nextAdd(oldSize, newSize);
+        endChange();
+    }
+
+    /**
+     * This function maps a row of the list to a packet in the store.
+     * @param row The row in the list.
+     * @return The index of the packet in the store.
+     */
+    public int packetIndex(int row) {
+        return packets == null ? row : packets.select(row);
+    }
+
+    /**
+     * @return The store this list shows packets from.
+     */
+    public PacketStore store() {
+        return store;
+    }
+
+    // Generates the text for a row, from the packet it shows. When capturing on several interfaces, each row says which
+    // one the packet arrived on, and when flows are classified, each recognised packet says which application sent it.
+    private String render(int index) {
+        String origin = store.interfaceCount() > 1 ? " [" + store.interfaceName(store.interfaceId(index)) + "]" : "";
+        ApplicationClassifier applications = store.applications();
+        int application = applications != null ? applications.classify(store, index) : ApplicationClassifier.OTHER;
+        String label = application == ApplicationClassifier.OTHER ? ""
+                : ApplicationClassifier.name(application) + " | ";
+        return "Packet " + (index + 1) + origin + ": " + store.wireLength(index) + " bytes | " + label
+                + PacketProcessor.generatePacketSummary(store, index);
+    }
+
+    // Hands the rows beyond this one to the background thread, unless it is already busy.
+    private void schedulePrefetch(int row) {
+        if (!prefetchPending.compareAndSet(false, true)) { return; }
+        // The rows are mapped to packets here, as a selection may only be read on the JavaFX thread.
+        int step = direction;
+        int count = 0;
+        while (count < PREFETCH_ROWS && row + (count + 1) * step >= 0 && row + (count + 1) * step < size) { count++; }
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) { indices[i] = packetIndex(row + (i + 1) * step); }
+        PREFETCHER.execute(() -> {
+            try {
+                for (int i = 0; i < indices.length; i++) {
+                    int next = row + (i + 1) * step;
+                    boolean cached;
+                    synchronized (cache) { cached = cache.containsKey(next); }
+                    if (cached) { continue; }
+                    String text = render(indices[i]);
+                    synchronized (cache) { cache.put(next, text); }
+                }
+            } finally {
+                prefetchPending.set(false);
+            }
+        });
+    }
+}
@@ -0,0 +1,14 @@
+package networkvisualiser;
+
+/**
+ * This interface is implemented by anything which wants to analyse packets incrementally, as they are stored.
+ * Observers are called on the thread that appends to the PacketStore, once per packet, so they must be quick.
+ */
+public interface PacketObserver {
+    /**
+     * This method is called every time a packet is added to the store.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields. These are only valid for the duration of the call.
+     */
+    void packetAdded(int index, PacketFields fields);
+}
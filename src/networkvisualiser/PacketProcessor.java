@@ -0,0 +1,658 @@
+package networkvisualiser;
+
+import org.jnetpcap.packet.JHeader;
+import org.jnetpcap.packet.JPacket;
+import org.jnetpcap.protocol.lan.Ethernet;
+import org.jnetpcap.protocol.network.Arp;
+import org.jnetpcap.protocol.tcpip.Http;
+import org.jnetpcap.protocol.voip.Rtp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * This class is responsible for performing analysis on a list of captured packets.
+ * Each function works either on a list of JPackets, or on a PacketStore where every packet has already been decoded.
+ * The PacketStore functions record how long they take (see Metrics), under "analysis.<function>".
+ */
+public class PacketProcessor {
+    // Summaries are generated for every row shown, so their histogram is kept rather than looked up each time.
+    static final LatencyHistogram SUMMARY_TIMES = Metrics.histogram("analysis.generatePacketSummary");
+    static final int MAX_LINE_LENGTH = 2048; // The longest HTTP request or status line read for a summary.
+
+    /**
+     * This function returns the total size - in bytes - of the list of packets.
+     * @param packets The list of packets.
+     * @return The total size of all the packets, in bytes.
+     */
+    public static long totalSize(ArrayList<JPacket> packets){
+        long size = 0;
+        for(JPacket p : packets){
+            size = size + p.getTotalSize();
+        }
+        return size;
+    }
+
+    /**
+     * This function returns the total size - in bytes - of every packet in a store, as seen on the wire.
+     * @param store The store of packets.
+     * @return The total size of all the packets, in bytes.
+     */
+    public static long totalSize(PacketStore store){
+        return timed("totalSize", () -> summariseProtocols(store).bytes());
+    }
+
+    /**
+     * This function counts the packets in a store per protocol and per TCP flag, in one parallel pass.
+     * When several of these counts are needed, it is cheaper to call this once than each function separately.
+     * @param store The store of packets.
+     * @return A summary of the whole store.
+     */
+    public static ParallelAnalysis.ProtocolSummary summariseProtocols(PacketStore store){
+        return timed("summariseProtocols", () -> ParallelAnalysis.run(store, ParallelAnalysis.ProtocolSummary::new));
+    }
+
+    /**
+     * This function returns the amount of bytes transferred per second covered in a packet list.
+     * @param packets The list of packets to check.
+     * @param startingSecond The first seconds value in the packet list, so data is adjusted.
+     * @return A hash table with pairs of seconds and total data in bytes.
+     */
+    public static Hashtable<Long, Long> dataPerSecond (ArrayList<JPacket> packets, Long startingSecond){
+        Hashtable<Long, Long> data = new Hashtable<>();
+        for(JPacket p : packets){
+            // We normalise the seconds values relative to the start of the capture.
+            Long second = p.getCaptureHeader().seconds() - startingSecond;
+            if (data.containsKey(second)){
+                data.put(second, data.get(second) + p.getTotalSize());
+            }
+            else{
+                data.put(second, (long) p.getTotalSize());
+            }
+        }
+        return data; // In this format, we can easily import it into a graph.
+    }
+
+    /**
+     * This function returns the amount of bytes transferred per second covered in a packet store.
+     * @param store The store of packets to check.
+     * @param startingSecond The first seconds value in the store, so data is adjusted. Earlier packets are left out.
+     * @return A hash table with pairs of seconds and total data in bytes.
+     */
+    public static Hashtable<Long, Long> dataPerSecond (PacketStore store, long startingSecond){
+        long start = System.nanoTime();
+        // The seconds are totalled in parallel, then only the seconds with packets are put in the table.
+        ParallelAnalysis.SecondHistogram histogram = ParallelAnalysis.run(store,
+                () -> new ParallelAnalysis.SecondHistogram(startingSecond));
+        Hashtable<Long, Long> data = new Hashtable<>();
+        for(int second = 0; second < histogram.length(); second++){
+            if(histogram.packets(second) > 0) { data.put((long) second, histogram.bytes(second)); }
+        }
+        Metrics.histogram("analysis.dataPerSecond").recordSince(start);
+        return data;
+    }
+
+    /**
+     * This function builds per-second totals for a whole store in one pass, for analysing a capture after the fact.
+     * During a capture, the ThroughputHistory registered with the store already keeps throughput up to date.
+     * @param store The store of packets to check.
+     * @return A ThroughputAggregator holding the bytes and packets for every second of the capture.
+     */
+    public static ThroughputAggregator aggregateThroughput(PacketStore store){
+        long start = System.nanoTime();
+        ThroughputAggregator aggregator = new ThroughputAggregator();
+        int count = store.size();
+        for(int i = 0; i < count; i++){
+            aggregator.add(store.timestamp(i), store.wireLength(i));
+        }
+        Metrics.histogram("analysis.aggregateThroughput").recordSince(start);
+        return aggregator;
+    }
+
+    /**
+     * This function return the number of packets received per second covered in a packet list.
+     * @param packets The list of packets to check.
+     * @param startingSecond The first seconds value in the packet list, so data is adjusted.
+     * @return A hash table with pairs of seconds and packets received.
+     */
+    public static Hashtable<Long, Integer> packetsPerSecond (ArrayList<JPacket> packets, Long startingSecond){
+        Hashtable<Long, Integer> data = new Hashtable<>();
+        for(JPacket p : packets){
+            // We normalise the seconds values relative to the start of the capture.
+            Long second = p.getCaptureHeader().seconds() - startingSecond;
+            if (data.containsKey(second)){
+                data.put(second, data.get(second) + 1);
+            }
+            else{
+                data.put(second, 1);
+            }
+        }
+        return data; // In this format, we can easily import it into a graph.
+    }
+
+    /**
+     * This function return the number of packets received per second covered in a packet store.
+     * @param store The store of packets to check.
+     * @param startingSecond The first seconds value in the store, so data is adjusted. Earlier packets are left out.
+     * @return A hash table with pairs of seconds and packets received.
+     */
+    public static Hashtable<Long, Integer> packetsPerSecond (PacketStore store, long startingSecond){
+        long start = System.nanoTime();
+        ParallelAnalysis.SecondHistogram histogram = ParallelAnalysis.run(store,
+                () -> new ParallelAnalysis.SecondHistogram(startingSecond));
+        Hashtable<Long, Integer> data = new Hashtable<>();
+        for(int second = 0; second < histogram.length(); second++){
+            if(histogram.packets(second) > 0) { data.put((long) second, (int) histogram.packets(second)); }
+        }
+        Metrics.histogram("analysis.packetsPerSecond").recordSince(start);
+        return data;
+    }
+
+    /**
+     * This function returns all packets from a list which have a specified header.
+     * @param packets The list of packets to check.
+     * @param header The header to search for.
+     * @return A list containing all packets which have the given header.
+     */
+    public static ArrayList<JPacket> findPacketsWithHeader(ArrayList<JPacket> packets, JHeader header){
+        ArrayList<JPacket> matchingPackets = new ArrayList<>();
+        PacketDissector dissector = PacketDissector.get();
+        int mask = dissector.maskFor(header.getId());
+        for(JPacket p : packets){
+            // Headers the dissector knows come from its single pass; anything else is looked up by ID, without binding.
+            boolean matches = mask != 0 ? dissector.dissect(p).has(mask) : p.hasHeader(header.getId());
+            if(matches) { matchingPackets.add(p); }
+        }
+        return matchingPackets;
+    }
+
+    /**
+     * This function returns the index of every packet in a store which has all the specified protocols.
+     * @param store The store of packets to check.
+     * @param protocolMask One or more protocol bits (see Protocols).
+     * @return An array holding the index of each matching packet, in capture order.
+     */
+    public static int[] findPacketsWithHeader(PacketStore store, int protocolMask){
+        return timed("findPacketsWithHeader",
+                () -> ParallelAnalysis.run(store, () -> new ParallelAnalysis.IndexCollector(protocolMask)).indices());
+    }
+
+    /**
+     * This function returns a one-line string which summarises the packet, based on the headers.
+     * @param packet The packet to produce a summary for.
+     * @return A String, containing the summary.
+     */
+    public static String generatePacketSummary(JPacket packet){
+        String summary = "";
+        // The packet is dissected once; the headers we need are then read from the dissector's reusable objects.
+        PacketDissector dissector = PacketDissector.get();
+        PacketFields fields = dissector.dissect(packet);
+
+        // To provide the most useful summary, we must start at layer 7 and work downwards, capturing the first
+        // header we find.
+        // TODO: Additional comments and other protocols.
+
+        // Layer 7 - HTTP
+        // 'HTTP 200 OK' / 'HTTP GET /sites/...'
+        if(fields.has(Protocols.HTTP)){
+            Http header = dissector.http();
+            if(header.isResponse()){
+                String responseCode = header.fieldValue(Http.Response.ResponseCode);
+                String responseMessage = header.fieldValue(Http.Response.ResponseCodeMsg);
+                String response = responseCode + " " + responseMessage;
+                summary += "HTTP " + response;
+            }
+            else{
+                String requestMethod = header.fieldValue(Http.Request.RequestMethod);
+                String requestURL = header.fieldValue(Http.Request.RequestUrl);
+                String request = requestMethod + requestURL;
+                summary += "HTTP " + request;
+            }
+        }
+        // Layer 7 - RTP
+        // 'RTP - 30 bytes | Sequence 10884 Timestamp 185608827'
+        else if(fields.has(Protocols.RTP)){
+            Rtp header = dissector.rtp();
+            summary += "RTP - " + header.size() + " bytes | Sequence " + header.sequence() + " Timestamp "
+                    + header.timestamp();
+        }
+        // Layer 7 - RTCP-RR
+        // TODO: Find the fields in a ReceiverReport.
+        else if(fields.has(Protocols.RTCP_RECEIVER_REPORT)){
+            summary = "RTCP Receiver Report";
+        }
+        // Layer 7 - RTCP-SR
+        // TODO: Find the fields in a SenderReport.
+        else if(fields.has(Protocols.RTCP_SENDER_REPORT)){
+            summary = "RTCP Sender Report";
+        }
+        // Layer 7 - SDP
+        // 'SDP - audio 10142 RTP/AVP 18 0 8 101'
+        else if(fields.has(Protocols.SDP)){
+            summary = "SDP - " + dissector.sdp().getDescription();
+        }
+        // Layer 4 - UDP
+        // 'UDP - 52 bytes'
+        else if(fields.has(Protocols.UDP)){
+            summary = "UDP - " + dissector.udp().length() + " bytes";
+        }
+        // Layer 4 - TCP
+        // 'TCP Acknowledgment | 127.0.0.1:80 --> 127.0.0.1:1923'
+        else if(fields.has(Protocols.TCP)){
+            summary += "TCP ";
+            if((fields.tcpFlags & Protocols.TCP_ACK) != 0){ summary += "Acknowledgment "; }
+            if((fields.tcpFlags & Protocols.TCP_PSH) != 0){ summary += "Push "; }
+            if((fields.tcpFlags & Protocols.TCP_SYN) != 0){ summary += "Synchronisation "; }
+            if((fields.tcpFlags & Protocols.TCP_URG) != 0){ summary += "Urgent "; }
+            if((fields.tcpFlags & Protocols.TCP_RST) != 0){ summary += "Reset "; }
+            if((fields.tcpFlags & Protocols.TCP_FIN) != 0){ summary += "Final "; }
+            String sourceIP = FrameDecoder.formatAddress(fields.sourceAddress);
+            String destinationIP = FrameDecoder.formatAddress(fields.destinationAddress);
+            summary += ("| " + sourceIP + ":" + fields.sourcePort + " --> " + destinationIP + ":" + fields.destinationPort);
+        }
+        // Layer 3 - IP
+        // 'IP - 127.0.0.1 --> 127.0.0.1'
+        else if(fields.has(Protocols.IP4)){
+            String sourceIP = FrameDecoder.formatAddress(fields.sourceAddress);
+            String destinationIP = FrameDecoder.formatAddress(fields.destinationAddress);
+            summary += "IP - " + sourceIP + " --> " + destinationIP;
+        }
+        // Layer 2 - ARP
+        // 'ARP Request - ab:cd:ef:gh looking for 127.0.0.1'
+        else if (fields.has(Protocols.ARP)){
+            summary = "ARP ";
+            Arp header = dissector.arp();
+            String sourceMAC = org.jnetpcap.packet.format.FormatUtils.mac(header.sha());
+            // Is it a request or a reply?
+            if(header.operation() == 1) {
+                summary += "Request - ";
+                String targetIP = org.jnetpcap.packet.format.FormatUtils.ip(header.tpa());
+                summary += sourceMAC + " looking for " + targetIP;
+            }
+            else{
+                summary += "Reply - ";
+                String sourceIP = org.jnetpcap.packet.format.FormatUtils.ip(header.spa());
+                summary += sourceIP + " is " + sourceMAC;
+            }
+        }
+        // Layer 2 - Ethernet
+        // 'Ethernet [LAN] 54 bytes ab:cd:ef:gh --> ab:cd:ef:gh'
+        else if (fields.has(Protocols.ETHERNET)){
+            Ethernet header = dissector.ethernet();
+            int size = header.getPayloadLength();
+            String sourceMAC = org.jnetpcap.packet.format.FormatUtils.mac(header.source());
+            String destinationMAC = org.jnetpcap.packet.format.FormatUtils.mac(header.destination());
+            summary = "Ethernet [LAN] " + size + " bytes " + sourceMAC + " --> " + destinationMAC;
+        }
+        return summary;
+    }
+
+    /**
+     * This function returns a one-line string which summarises a stored packet, in the same format as above.
+     * The protocols were found when the packet was stored, so only the fields shown are read from its bytes.
+     * @param store The store holding the packet.
+     * @param index The index of the packet.
+     * @return A String, containing the summary.
+     */
+    public static String generatePacketSummary(PacketStore store, int index){
+        long start = System.nanoTime();
+        try {
+            return summarise(store, index);
+        } finally {
+            SUMMARY_TIMES.recordSince(start);
+        }
+    }
+
+    // Builds the summary for generatePacketSummary, which times it.
+    private static String summarise(PacketStore store, int index){
+        int protocols = store.protocols(index);
+        // Older packets may have been paged out to disk, in which case they are read back in first.
+        ByteBuffer frame = store.frameBuffer(index);
+        int start = store.framePosition(index);
+        if(frame == null){
+            frame = store.frame(index);
+            start = 0;
+        }
+        int end = start + store.captureLength(index);
+        PacketFields fields = new PacketFields();
+        if((protocols & (Protocols.HTTP | Protocols.RTP | Protocols.SDP | Protocols.UDP)) != 0){
+            FrameDecoder.decode(frame, start, store.captureLength(index), fields);
+        }
+        int payload = start + fields.payloadOffset;
+
+        // Layer 7 - HTTP
+        // 'HTTP 200 OK' / 'HTTP GET /sites/...'
+        if((protocols & Protocols.HTTP) != 0){
+            String firstLine = FrameDecoder.readLine(frame, payload, end);
+            // A long request line may carry on into the following segments, in which case it is read from the stream.
+            TcpReassembler streams = store.streams();
+            if(streams != null && firstLine.length() == end - payload){
+                TcpReassembler.StreamView stream = streams.view(fields, MAX_LINE_LENGTH);
+                if(!stream.isEmpty()) { firstLine = stream.readLine(stream.start(), MAX_LINE_LENGTH); }
+            }
+            if(firstLine.startsWith("HTTP/")){
+                // Responses start with the version, so we skip over it: 'HTTP/1.1 200 OK'.
+                int space = firstLine.indexOf(' ');
+                return "HTTP " + (space < 0 ? "" : firstLine.substring(space + 1));
+            }
+            // Requests end with the version, so we drop it: 'GET /sites/... HTTP/1.1'.
+            int version = firstLine.lastIndexOf(" HTTP/");
+            return "HTTP " + (version < 0 ? firstLine : firstLine.substring(0, version));
+        }
+        // Layer 7 - RTP
+        // 'RTP - 30 bytes | Sequence 10884 Timestamp 185608827'
+        if((protocols & Protocols.RTP) != 0){
+            int size = 12 + 4 * (frame.get(payload) & 0x0F);
+            int sequence = frame.getShort(payload + 2) & 0xFFFF;
+            long timestamp = frame.getInt(payload + 4) & 0xFFFFFFFFL;
+            return "RTP - " + size + " bytes | Sequence " + sequence + " Timestamp " + timestamp;
+        }
+        // Layer 7 - RTCP-RR
+        if((protocols & Protocols.RTCP_RECEIVER_REPORT) != 0){
+            return "RTCP Receiver Report";
+        }
+        // Layer 7 - RTCP-SR
+        if((protocols & Protocols.RTCP_SENDER_REPORT) != 0){
+            return "RTCP Sender Report";
+        }
+        // Layer 7 - SDP
+        // 'SDP - audio 10142 RTP/AVP 18 0 8 101'
+        if((protocols & Protocols.SDP) != 0){
+            // The media description is the value of the first 'm=' line.
+            int body = FrameDecoder.findSdp(frame, payload, end);
+            for(int i = body; i >= 0 && i + 2 < end; i++){
+                if(frame.get(i) == '\n' && frame.get(i + 1) == 'm' && frame.get(i + 2) == '='){
+                    return "SDP - " + FrameDecoder.readLine(frame, i + 3, end);
+                }
+            }
+            return "SDP - ";
+        }
+        // Layer 4 - UDP
+        // 'UDP - 52 bytes'
+        if((protocols & Protocols.UDP) != 0){
+            return "UDP - " + (fields.payloadLength + 8) + " bytes";
+        }
+        // Layer 4 - TCP
+        // 'TCP Acknowledgment | 127.0.0.1:80 --> 127.0.0.1:1923'
+        if((protocols & Protocols.TCP) != 0){
+            int flags = store.tcpFlags(index);
+            StringBuilder summary = new StringBuilder("TCP ");
+            if((flags & Protocols.TCP_ACK) != 0){ summary.append("Acknowledgment "); }
+            if((flags & Protocols.TCP_PSH) != 0){ summary.append("Push "); }
+            if((flags & Protocols.TCP_SYN) != 0){ summary.append("Synchronisation "); }
+            if((flags & Protocols.TCP_URG) != 0){ summary.append("Urgent "); }
+            if((flags & Protocols.TCP_RST) != 0){ summary.append("Reset "); }
+            if((flags & Protocols.TCP_FIN) != 0){ summary.append("Final "); }
+            summary.append("| ").append(FrameDecoder.formatAddress(store.sourceAddress(index))).append(':')
+                    .append(store.sourcePort(index)).append(" --> ")
+                    .append(FrameDecoder.formatAddress(store.destinationAddress(index))).append(':')
+                    .append(store.destinationPort(index));
+            return summary.toString();
+        }
+        // Layer 3 - IP
+        // 'IP - 127.0.0.1 --> 127.0.0.1'
+        if((protocols & Protocols.IP4) != 0){
+            return "IP - " + FrameDecoder.formatAddress(store.sourceAddress(index)) + " --> "
+                    + FrameDecoder.formatAddress(store.destinationAddress(index));
+        }
+        // Layer 2 - ARP
+        // 'ARP Request - ab:cd:ef:gh looking for 127.0.0.1'
+        if((protocols & Protocols.ARP) != 0){
+            int arp = FrameDecoder.networkOffset(frame, start);
+            if(arp + 28 > end){ return "ARP"; }
+            String sourceMAC = FrameDecoder.formatMac(frame, arp + 8);
+            // Is it a request or a reply?
+            if((frame.getShort(arp + 6) & 0xFFFF) == 1){
+                return "ARP Request - " + sourceMAC + " looking for " + FrameDecoder.formatAddress(frame.getInt(arp + 24));
+            }
+            return "ARP Reply - " + FrameDecoder.formatAddress(frame.getInt(arp + 14)) + " is " + sourceMAC;
+        }
+        // Layer 2 - Ethernet
+        // 'Ethernet [LAN] 54 bytes ab:cd:ef:gh --> ab:cd:ef:gh'
+        if((protocols & Protocols.ETHERNET) != 0){
+            int size = store.wireLength(index) - FrameDecoder.ETHERNET_HEADER_LENGTH;
+            return "Ethernet [LAN] " + size + " bytes " + FrameDecoder.formatMac(frame, start + 6) + " --> "
+                    + FrameDecoder.formatMac(frame, start);
+        }
+        return "";
+    }
+
+    /**
+     * This function returns the number of TCP packets which have the RST flag.
+     * @param packetList The list of packets to check through.
+     * @return An integer with the number of reset connections.
+     */
+    public static int resetTCPConnections(ArrayList<JPacket> packetList){
+        return countTCPFlag(packetList, Protocols.TCP_RST);
+    }
+
+    /**
+     * This function returns the number of TCP packets in a store which have the RST flag.
+     * @param store The store of packets to check through.
+     * @return An integer with the number of reset connections.
+     */
+    public static int resetTCPConnections(PacketStore store){
+        return timed("resetTCPConnections", () -> countTCPFlag(store, Protocols.TCP_RST));
+    }
+
+    /**
+     * This function returns the amount of TCP packets which have the URG flag set.
+     * @param packetList The list of packets to check through.
+     * @return An integer with the number of 'urgent' packets.
+     */
+    public static int urgentTCPPackets(ArrayList<JPacket> packetList){
+        return countTCPFlag(packetList, Protocols.TCP_URG);
+    }
+
+    /**
+     * This function returns the amount of TCP packets in a store which have the URG flag set.
+     * @param store The store of packets to check through.
+     * @return An integer with the number of 'urgent' packets.
+     */
+    public static int urgentTCPPackets(PacketStore store){
+        return timed("urgentTCPPackets", () -> countTCPFlag(store, Protocols.TCP_URG));
+    }
+
+    // Counts the TCP packets in a list which have the given flag set, dissecting each packet once.
+    private static int countTCPFlag(ArrayList<JPacket> packetList, int flag){
+        int count = 0;
+        PacketDissector dissector = PacketDissector.get();
+        for(JPacket p : packetList){
+            PacketFields fields = dissector.dissect(p);
+            if(fields.has(Protocols.TCP) && (fields.tcpFlags & flag) != 0) { count++; }
+        }
+        return count;
+    }
+
+    // Counts the TCP packets in a store which have the given flag set.
+    private static int countTCPFlag(PacketStore store, int flag){
+        return (int) summariseProtocols(store).packetsWithFlag(flag);
+    }
+
+    public static ArrayList<String> listTCPConnections(ArrayList<JPacket> packetList){
+        // The idea is to find the number of TCP unique pairs. For this, we'll need a Set, and the IP/TCP headers.
+        Set<String> pairs = new HashSet<String>();
+        PacketDissector dissector = PacketDissector.get();
+        for(JPacket p : packetList){
+            PacketFields fields = dissector.dissect(p);
+            if(!fields.has(Protocols.TCP | Protocols.IP4)) { continue; }
+            int source = fields.sourcePort;
+            int destination = fields.destinationPort;
+            String sourceIP = FrameDecoder.formatAddress(fields.sourceAddress);
+            String destinationIP = FrameDecoder.formatAddress(fields.destinationAddress);
+            if(!pairs.contains(destinationIP + ":" + destination + " and " + sourceIP + ":" + source)) {
+                pairs.add(sourceIP + ":" + source + " and " + destinationIP + ":" + destination);
+            }
+            // TODO: Is this a reset packet? If so, that means another connection may be established.
+            // To check this, we'd need to see if a three-way handshake occurs.
+        }
+        return new ArrayList<String>(pairs);
+    }
+
+    /**
+     * This function lists the unique TCP connections in a store, as 'ip:port and ip:port' strings.
+     * @param store The store of packets to check through.
+     * @return A list with one entry for each pair of endpoints.
+     */
+    public static ArrayList<String> listTCPConnections(PacketStore store){
+        // Endpoints are packed into longs and deduplicated per chunk, so strings are only built for unique pairs.
+        return timed("listTCPConnections",
+                () -> ParallelAnalysis.run(store, ParallelAnalysis.ConnectionSet::new).list());
+    }
+
+    /**
+     * This function builds a flow table for a whole store in one linear pass, using only the stored columns.
+     * During a capture it is cheaper to register a FlowTable with the store, so it is kept up to date as packets arrive.
+     * @param store The store of packets to check through.
+     * @return A FlowTable with every TCP and UDP flow, and the connection, handshake and reset counts.
+     */
+    public static FlowTable buildFlowTable(PacketStore store){
+        long start = System.nanoTime();
+        FlowTable flows = new FlowTable();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            flows.add(i, store.protocols(i), store.sourceAddress(i), store.destinationAddress(i), store.sourcePort(i),
+                    store.destinationPort(i), store.tcpFlags(i), store.wireLength(i));
+        }
+        Metrics.histogram("analysis.buildFlowTable").recordSince(start);
+        return flows;
+    }
+
+    /**
+     * This function finds the packets in a range of a store which match a display filter, in one parallel pass.
+     * @param store The store of packets to check through.
+     * @param filter The compiled filter.
+     * @param from The index of the first packet.
+     * @param to The index after the last packet.
+     * @return The matching packets.
+     */
+    public static PacketBitmap filterPackets(PacketStore store, DisplayFilter filter, int from, int to){
+        return timed("filterPackets",
+                () -> ParallelAnalysis.run(store, from, to, () -> new DisplayFilter.Matches(filter)).matches());
+    }
+
+    /**
+     * This function indexes a whole store in one linear pass, so that filters can then be answered without scanning.
+     * During a capture it is cheaper to register a PacketIndex with the store, so it is kept up to date as packets arrive.
+     * @param store The store of packets to index.
+     * @return A PacketIndex of every packet's protocols, TCP flags, addresses and ports.
+     */
+    public static PacketIndex buildPacketIndex(PacketStore store){
+        long start = System.nanoTime();
+        PacketIndex index = new PacketIndex();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            index.add(i, store.protocols(i), store.sourceAddress(i), store.destinationAddress(i), store.sourcePort(i),
+                    store.destinationPort(i), store.tcpFlags(i));
+        }
+        Metrics.histogram("analysis.buildPacketIndex").recordSince(start);
+        return index;
+    }
+
+    /**
+     * This function estimates the number of distinct addresses and flows in a store, in one parallel pass.
+     * Unlike listTCPConnections, nothing is kept per flow, so it stays quick (and small) during a flood or a scan.
+     * @param store The store of packets to check through.
+     * @return The estimated distinct source addresses, destination addresses and TCP/UDP flows.
+     */
+    public static UniqueCounts countUnique(PacketStore store){
+        return timed("countUnique", () -> ParallelAnalysis.run(store, UniqueCounts::new));
+    }
+
+    /**
+     * This function ranks who is communicating the most across a whole store, in one linear pass.
+     * During a capture it is cheaper to register a TopTalkers with the store, so it is kept up to date as packets arrive.
+     * @param store The store of packets to check through.
+     * @return A TopTalkers with the busiest sources, destinations and address pairs.
+     */
+    public static TopTalkers findTopTalkers(PacketStore store){
+        long start = System.nanoTime();
+        TopTalkers talkers = new TopTalkers();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            talkers.add(store.protocols(i), store.sourceAddress(i), store.destinationAddress(i), store.wireLength(i));
+        }
+        Metrics.histogram("analysis.findTopTalkers").recordSince(start);
+        return talkers;
+    }
+
+    /**
+     * This function reassembles every TCP stream in a store, in one linear pass. During a capture it is cheaper to
+     * attach a TcpReassembler to the store, so the streams are kept up to date as packets arrive.
+     * @param store The store of packets to reassemble.
+     * @param memoryBudget How many bytes of stream data may be held across every stream.
+     * @return A TcpReassembler holding the most recently active streams.
+     */
+    public static TcpReassembler reassembleStreams(PacketStore store, long memoryBudget){
+        long start = System.nanoTime();
+        // The segments' sequence numbers aren't kept in columns, so each TCP packet with a payload is decoded again.
+        FlowTable flows = new FlowTable();
+        TcpReassembler streams = new TcpReassembler(store, flows, memoryBudget);
+        PacketFields fields = new PacketFields();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            if(!store.has(i, Protocols.TCP)) { continue; }
+            store.decode(i, fields);
+            flows.packetAdded(i, fields);
+            streams.packetAdded(i, fields);
+        }
+        Metrics.histogram("analysis.reassembleStreams").recordSince(start);
+        return streams;
+    }
+
+    /**
+     * This function measures TCP performance across a whole store, in one linear pass. During a capture it is cheaper
+     * to register a TcpAnalytics with the store, so the measurements are kept up to date as packets arrive.
+     * @param store The store of packets to check through.
+     * @return A TcpAnalytics with the handshake round trips, retransmissions, duplicate ACKs and zero windows.
+     */
+    public static TcpAnalytics analyseTcp(PacketStore store){
+        long start = System.nanoTime();
+        // Sequence numbers and windows aren't kept in columns, so each TCP packet is decoded again.
+        FlowTable flows = new FlowTable();
+        TcpAnalytics analytics = new TcpAnalytics();
+        PacketFields fields = new PacketFields();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            if(!store.has(i, Protocols.TCP)) { continue; }
+            store.decode(i, fields);
+            flows.packetAdded(i, fields);
+            analytics.packetAdded(i, fields);
+        }
+        Metrics.histogram("analysis.analyseTcp").recordSince(start);
+        return analytics;
+    }
+
+    /**
+     * This function sorts every flow in a store by the application using it (web, VoIP, video or bulk), in one linear
+     * pass. During a capture it is cheaper to attach an ApplicationClassifier to the store, so each flow is decided
+     * as it starts, and every packet is labelled as it arrives.
+     * @param store The store of packets to classify.
+     * @return An ApplicationClassifier which can label any packet in the store.
+     */
+    public static ApplicationClassifier classifyApplications(PacketStore store){
+        long start = System.nanoTime();
+        // Payload lengths aren't kept in columns, so each TCP and UDP packet is decoded again.
+        FlowTable flows = new FlowTable();
+        ApplicationClassifier classifier = new ApplicationClassifier(flows);
+        PacketFields fields = new PacketFields();
+        int size = store.size();
+        for(int i = 0; i < size; i++){
+            if(!store.has(i, Protocols.TCP) && !store.has(i, Protocols.UDP)) { continue; }
+            store.decode(i, fields);
+            flows.packetAdded(i, fields);
+            classifier.packetAdded(i, fields);
+        }
+        Metrics.histogram("analysis.classifyApplications").recordSince(start);
+        return classifier;
+    }
+
+    // Runs one of the passes over a store, recording how long it took under "analysis.<pass>".
+    private static <T> T timed(String pass, Supplier<T> work){
+        return Metrics.histogram("analysis." + pass).time(work);
+    }
+}
@@ -0,0 +1,550 @@
+package networkvisualiser;
+
+import org.jnetpcap.packet.JPacket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This class stores every captured packet in a compact, columnar form.
+ * Each packet is decoded exactly once when it is appended; its key fields go into primitive arrays (one per field),
+ * and its raw bytes go into an off-heap PacketArena. Packets are identified by their index, in capture order.
+ * If a PcapSegmentWriter is attached, frames which have been written to disk may be let go of, and are paged back in
+ * from their segment when they are read.
+ * A store may instead be made which doesn't keep its packets at all, only passing each one to its observers, so that
+ * captures larger than memory can be analysed as a stream (see HeadlessAnalysis). None of the per-packet functions may
+ * be used on such a store.
+ * A store which keeps its packets can be saved in a session (see SessionFile), and loaded back without decoding them.
+ * Only one thread may append, but any number of threads may read packets below size().
+ */
+public class PacketStore {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // One array per field. Ports are unsigned 16-bit values, so a char is exactly the right size.
+    private long[] timestamps = new long[INITIAL_CAPACITY]; // Microseconds since the epoch.
+    private int[] wireLengths = new int[INITIAL_CAPACITY];
+    private int[] captureLengths = new int[INITIAL_CAPACITY];
+    private int[] protocols = new int[INITIAL_CAPACITY];
+    private int[] sourceAddresses = new int[INITIAL_CAPACITY];
+    private int[] destinationAddresses = new int[INITIAL_CAPACITY];
+    private char[] sourcePorts = new char[INITIAL_CAPACITY];
+    private char[] destinationPorts = new char[INITIAL_CAPACITY];
+    private byte[] tcpFlags = new byte[INITIAL_CAPACITY];
+    private byte[] interfaceIds = new byte[INITIAL_CAPACITY]; // Which capture interface each packet arrived on.
+    private long[] frameOffsets = new long[INITIAL_CAPACITY];
+
+    private PacketArena arena = new PacketArena(); // Replaced by the frames' mapping when a session is loaded.
+    private final PacketFields fields = new PacketFields(); // Reused for every packet that is appended.
+    private volatile int size = 0; // Written after each packet's fields, so readers never see a half-stored packet.
+    private PacketObserver[] observers = new PacketObserver[0];
+    private PcapSegmentWriter segmentWriter; // Holds every frame on disk, if attached.
+    private long retainedBytes = Long.MAX_VALUE; // How many bytes of the most recent frames are kept in memory.
+    private String[] interfaceNames = new String[0]; // The names of the capture interfaces, by ID.
+    private TcpReassembler streams; // Reassembles each TCP stream, if attached.
+    private ApplicationClassifier applications; // Labels each flow with its application, if attached.
+    private final boolean retaining; // Whether packets are kept, or only passed to the observers.
+    private ByteBuffer scratch; // Holds the packet being decoded, when packets aren't kept.
+    private ByteBuffer lastSource; // The last buffer decoded in place, and a big-endian view of it.
+    private ByteBuffer sourceView;
+
+    /**
+     * Creates a new, empty PacketStore which keeps every packet.
+     */
+    public PacketStore() {
+        this(true);
+    }
+
+    /**
+     * Creates a new, empty PacketStore.
+     * @param retainPackets Whether to keep every packet, or only pass each one to the observers as it arrives. A store
+     * which keeps nothing uses the same memory however long the capture is.
+     */
+    public PacketStore(boolean retainPackets) {
+        retaining = retainPackets;
+    }
+
+    /**
+     * This function stores a packet held in an array, such as a slot of the CaptureRingBuffer.
+     * @param data The array holding the frame.
+     * @param captureLength The number of bytes of the frame which were captured.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @return The index of the new packet.
+     */
+    public int append(byte[] data, int captureLength, int wireLength, long timestampMicros) {
+        return append(data, captureLength, wireLength, timestampMicros, 0);
+    }
+
+    /**
+     * This function stores a packet held in an array, recording which capture interface it arrived on.
+     * @param data The array holding the frame.
+     * @param captureLength The number of bytes of the frame which were captured.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @param interfaceId The capture interface, from 0 (see setInterfaceNames()).
+     * @return The index of the new packet.
+     */
+    public int append(byte[] data, int captureLength, int wireLength, long timestampMicros, int interfaceId) {
+        if (!retaining) {
+            // The array may be reused as soon as this returns, so the frame is copied into a buffer of our own.
+            if (scratch == null || scratch.capacity() < captureLength) {
+                scratch = ByteBuffer.allocate(Math.max(captureLength, PcapSegmentWriter.SNAP_LENGTH));
+            }
+            scratch.put(0, data, 0, captureLength);
+            return observe(scratch, 0, captureLength, wireLength, timestampMicros, interfaceId);
+        }
+        return store(arena.append(data, captureLength), captureLength, wireLength, timestampMicros, interfaceId);
+    }
+
+    /**
+     * This function stores a packet held in a buffer, such as a memory-mapped capture file.
+     * @param source The buffer holding the frame.
+     * @param position Where the frame starts in the buffer.
+     * @param captureLength The number of bytes of the frame which were captured.
+     * @param wireLength The original length of the packet on the wire.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @return The index of the new packet.
+     */
+    public int append(ByteBuffer source, int position, int captureLength, int wireLength, long timestampMicros) {
+        if (!retaining) {
+            // Frames are always read big-endian, whatever order the buffer is read in (such as a pcap file's headers).
+            if (source != lastSource) {
+                lastSource = source;
+                sourceView = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+            }
+            return observe(sourceView, position, captureLength, wireLength, timestampMicros, 0);
+        }
+        return store(arena.append(source, position, captureLength), captureLength, wireLength, timestampMicros, 0);
+    }
+
+    // Decodes a packet (from its copy in the arena) and writes its fields into the columns.
+    private int store(long frameOffset, int captureLength, int wireLength, long timestampMicros, int interfaceId) {
+        int index = size;
+        if (index == timestamps.length) { grow(); }
+
+        FrameDecoder.decode(arena.buffer(frameOffset), PacketArena.position(frameOffset), captureLength, fields);
+        fields.timestampMicros = timestampMicros;
+        fields.captureLength = captureLength;
+        fields.wireLength = wireLength;
+        fields.interfaceId = interfaceId;
+
+        timestamps[index] = timestampMicros;
+        wireLengths[index] = wireLength;
+        captureLengths[index] = captureLength;
+        protocols[index] = fields.protocols;
+        sourceAddresses[index] = fields.sourceAddress;
+        destinationAddresses[index] = fields.destinationAddress;
+        sourcePorts[index] = (char) fields.sourcePort;
+        destinationPorts[index] = (char) fields.destinationPort;
+        tcpFlags[index] = (byte) fields.tcpFlags;
+        interfaceIds[index] = (byte) interfaceId;
+        frameOffsets[index] = frameOffset;
+        size = index + 1;
+
+        // Let every observer analyse the packet while its fields are still decoded.
+        for (PacketObserver observer : observers) {
+            observer.packetAdded(index, fields);
+        }
+        return index;
+    }
+
+    // Decodes a packet where it lies and passes it to the observers, without keeping anything.
+    private int observe(ByteBuffer frame, int position, int captureLength, int wireLength, long timestampMicros,
+                        int interfaceId) {
+        int index = size;
+        FrameDecoder.decode(frame, position, captureLength, fields);
+        fields.timestampMicros = timestampMicros;
+        fields.captureLength = captureLength;
+        fields.wireLength = wireLength;
+        fields.interfaceId = interfaceId;
+        size = index + 1;
+        for (PacketObserver observer : observers) {
+            observer.packetAdded(index, fields);
+        }
+        return index;
+    }
+
+    /**
+     * This function registers an observer, which will be told about every packet stored from now on.
+     * Observers must be added before packets start arriving, from the thread which appends to the store.
+     * @param observer The PacketObserver to add.
+     */
+    public void addObserver(PacketObserver observer) {
+        observers = Arrays.copyOf(observers, observers.length + 1);
+        observers[observers.length - 1] = observer;
+    }
+
+    /**
+     * This function attaches a TcpReassembler, registering it as an observer, so that TCP payloads can be read as
+     * streams (such as by generatePacketSummary, for messages split across segments). It must be added after the
+     * FlowTable it relies on.
+     * @param reassembler The TcpReassembler to attach.
+     */
+    public void reassembleStreams(TcpReassembler reassembler) {
+        addObserver(reassembler);
+        streams = reassembler;
+    }
+
+    /**
+     * @return The attached TcpReassembler, or null if TCP streams aren't being reassembled.
+     */
+    public TcpReassembler streams() {
+        return streams;
+    }
+
+    /**
+     * This function attaches an ApplicationClassifier, registering it as an observer, so that packets can be labelled
+     * with the application using them (such as in the packet list). It must be added after the FlowTable it relies on,
+     * and before any observer which reads the label from the packet's fields.
+     * @param classifier The ApplicationClassifier to attach.
+     */
+    public void classifyApplications(ApplicationClassifier classifier) {
+        addObserver(classifier);
+        applications = classifier;
+    }
+
+    /**
+     * @return The attached ApplicationClassifier, or null if flows aren't being classified.
+     */
+    public ApplicationClassifier applications() {
+        return applications;
+    }
+
+    /**
+     * This function names the interfaces a capture is taken from, so packets can be labelled with where they arrived.
+     * It must be called before packets start arriving.
+     * @param names The names of the interfaces, in order of their IDs.
+     */
+    public void setInterfaceNames(String... names) {
+        interfaceNames = names.clone();
+    }
+
+    /**
+     * @return The number of interfaces the capture is taken from (0 if they weren't named, such as for a file).
+     */
+    public int interfaceCount() {
+        return interfaceNames.length;
+    }
+
+    /**
+     * @param interfaceId The ID of a capture interface.
+     * @return The interface's name.
+     */
+    public String interfaceName(int interfaceId) {
+        return interfaceId < interfaceNames.length ? interfaceNames[interfaceId] : "#" + interfaceId;
+    }
+
+    /**
+     * This function attaches a writer which saves every frame to disk, so that older frames needn't stay in memory.
+     * It must be called before the writer is started.
+     * @param writer The writer following this store.
+     * @param retained How many bytes of the most recent frames to keep in memory; the rest are paged in when read.
+     */
+    public void spillTo(PcapSegmentWriter writer, long retained) {
+        segmentWriter = writer;
+        retainedBytes = retained;
+    }
+
+    /**
+     * This function is called by the attached PcapSegmentWriter once packets are safely on disk.
+     * @param count The number of packets written; every packet below this index is on disk.
+     */
+    void framesWritten(int count) {
+        if (count > 0) { arena.releaseBefore(frameOffsets[count - 1], retainedBytes); }
+    }
+
+    // Doubles the size of every column.
+    private void grow() {
+        int capacity = timestamps.length * 2;
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        wireLengths = Arrays.copyOf(wireLengths, capacity);
+        captureLengths = Arrays.copyOf(captureLengths, capacity);
+        protocols = Arrays.copyOf(protocols, capacity);
+        sourceAddresses = Arrays.copyOf(sourceAddresses, capacity);
+        destinationAddresses = Arrays.copyOf(destinationAddresses, capacity);
+        sourcePorts = Arrays.copyOf(sourcePorts, capacity);
+        destinationPorts = Arrays.copyOf(destinationPorts, capacity);
+        tcpFlags = Arrays.copyOf(tcpFlags, capacity);
+        interfaceIds = Arrays.copyOf(interfaceIds, capacity);
+        frameOffsets = Arrays.copyOf(frameOffsets, capacity);
+    }
+
+    /**
+     * This function writes the store to a session: every column, then every frame. The frames are packed into chunks
+     * the same way the arena packs them, so that each chunk can be mapped on its own when the session is loaded;
+     * frames which have been let go of are paged back in to be written.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        if (!retaining) { throw new IllegalStateException("A store which doesn't keep its packets can't be saved"); }
+        int count = size;
+
+        // Work out where each frame will go, and how full each chunk will be, before anything is written.
+        long[] offsets = new long[count];
+        int[] chunkLengths = new int[1];
+        int chunk = 0;
+        for (int i = 0; i < count; i++) {
+            int length = captureLengths[i];
+            if (chunkLengths[chunk] + length > PacketArena.CHUNK_SIZE) {
+                chunk++;
+                if (chunk == chunkLengths.length) { chunkLengths = Arrays.copyOf(chunkLengths, chunk * 2); }
+            }
+            offsets[i] = ((long) chunk << PacketArena.CHUNK_SHIFT) | chunkLengths[chunk];
+            chunkLengths[chunk] += length;
+        }
+
+        out.writeInt(count);
+        out.writeLongs(timestamps, count);
+        out.writeInts(wireLengths, count);
+        out.writeInts(captureLengths, count);
+        out.writeInts(protocols, count);
+        out.writeInts(sourceAddresses, count);
+        out.writeInts(destinationAddresses, count);
+        out.writeChars(sourcePorts, count);
+        out.writeChars(destinationPorts, count);
+        out.writeBytes(tcpFlags, count);
+        out.writeBytes(interfaceIds, count);
+        out.writeLongs(offsets, count);
+        out.writeInt(interfaceNames.length);
+        for (String name : interfaceNames) { out.writeString(name); }
+
+        int chunkCount = count == 0 ? 0 : chunk + 1;
+        out.writeInt(chunkCount);
+        int packet = 0;
+        for (int written = 0; written < chunkCount; written++) {
+            out.writeInt(chunkLengths[written]);
+            for (; packet < count && (offsets[packet] >>> PacketArena.CHUNK_SHIFT) == written; packet++) {
+                ByteBuffer buffer = frameBuffer(packet);
+                if (buffer != null) { out.writeRaw(buffer, framePosition(packet), captureLengths[packet]); }
+                else { out.writeRaw(frame(packet), 0, captureLengths[packet]); }
+            }
+        }
+    }
+
+    /**
+     * This function reads a store back from a session. The columns are copied into arrays, but the frames are left in
+     * the file, and mapped as the chunks of a new arena; they are only read from disk when they are looked at.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        if (!retaining || size > 0) {
+            throw new IllegalStateException("A session can only be loaded into a new store");
+        }
+        int count = in.readInt();
+        int capacity = Math.max(count, INITIAL_CAPACITY);
+        timestamps = in.readLongs(capacity);
+        wireLengths = in.readInts(capacity);
+        captureLengths = in.readInts(capacity);
+        protocols = in.readInts(capacity);
+        sourceAddresses = in.readInts(capacity);
+        destinationAddresses = in.readInts(capacity);
+        sourcePorts = in.readChars(capacity);
+        destinationPorts = in.readChars(capacity);
+        tcpFlags = in.readBytes(capacity);
+        interfaceIds = in.readBytes(capacity);
+        frameOffsets = in.readLongs(capacity);
+        interfaceNames = new String[in.readInt()];
+        for (int i = 0; i < interfaceNames.length; i++) { interfaceNames[i] = in.readString(); }
+
+        ByteBuffer[] chunks = new ByteBuffer[in.readInt()];
+        long used = 0;
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            int length = in.readInt();
+            chunks[chunk] = in.mapRaw(length);
+            used += length;
+        }
+        arena = new PacketArena(chunks, used);
+        size = count;
+    }
+
+    /**
+     * @return The number of packets stored (or, if packets aren't kept, passed to the observers).
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Whether any packets have been stored.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return Whether packets are kept, so that they can be read back.
+     */
+    public boolean isRetaining() {
+        return retaining;
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The capture timestamp, in microseconds since the epoch.
+     */
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The capture timestamp, in whole seconds since the epoch.
+     */
+    public long second(int index) {
+        return timestamps[index] / 1000000;
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The original length of the packet on the wire, in bytes.
+     */
+    public int wireLength(int index) {
+        return wireLengths[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The number of bytes of the packet which were captured.
+     */
+    public int captureLength(int index) {
+        return captureLengths[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The bitmask of protocols the packet contains (see Protocols).
+     */
+    public int protocols(int index) {
+        return protocols[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @param mask One or more protocol bits (see Protocols).
+     * @return Whether the packet contains all the given protocols.
+     */
+    public boolean has(int index, int mask) {
+        return (protocols[index] & mask) == mask;
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The IPv4 source address as an int, or 0 if the packet isn't IPv4.
+     */
+    public int sourceAddress(int index) {
+        return sourceAddresses[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The IPv4 destination address as an int, or 0 if the packet isn't IPv4.
+     */
+    public int destinationAddress(int index) {
+        return destinationAddresses[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The TCP/UDP source port, or 0 if there isn't one.
+     */
+    public int sourcePort(int index) {
+        return sourcePorts[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The TCP/UDP destination port, or 0 if there isn't one.
+     */
+    public int destinationPort(int index) {
+        return destinationPorts[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The TCP flags (see Protocols), or 0 if the packet isn't TCP.
+     */
+    public int tcpFlags(int index) {
+        return tcpFlags[index];
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return The ID of the capture interface the packet arrived on (see interfaceName()).
+     */
+    public int interfaceId(int index) {
+        return interfaceIds[index] & 0xFF;
+    }
+
+    /**
+     * This function returns the chunk of the arena holding a packet's bytes. Only absolute reads may be used on it.
+     * @param index The index of the packet.
+     * @return The shared buffer; the packet starts at framePosition(index). This is null if the packet has been let go
+     * of (see isResident()), in which case frame() pages it back in.
+     */
+    public ByteBuffer frameBuffer(int index) {
+        return arena.buffer(frameOffsets[index]);
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return Where the packet starts within frameBuffer(index).
+     */
+    public int framePosition(int index) {
+        return PacketArena.position(frameOffsets[index]);
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return Whether the packet's bytes are still held in memory.
+     */
+    public boolean isResident(int index) {
+        return arena.isResident(frameOffsets[index]);
+    }
+
+    /**
+     * @param index The index of the packet.
+     * @return A new view of the packet's captured bytes, starting at position 0; read from disk if it isn't resident.
+     */
+    public ByteBuffer frame(int index) {
+        ByteBuffer view = arena.slice(frameOffsets[index], captureLengths[index]);
+        return view != null ? view : segmentWriter.readFrame(index, captureLengths[index]);
+    }
+
+    /**
+     * This function decodes a packet again into the given PacketFields, for the fields which aren't kept in columns.
+     * @param index The index of the packet.
+     * @param out The PacketFields to fill in.
+     */
+    public void decode(int index, PacketFields out) {
+        ByteBuffer chunk = frameBuffer(index);
+        if (chunk != null) { FrameDecoder.decode(chunk, framePosition(index), captureLengths[index], out); }
+        else { FrameDecoder.decode(frame(index), 0, captureLengths[index], out); }
+        out.timestampMicros = timestamps[index];
+        out.captureLength = captureLengths[index];
+        out.wireLength = wireLengths[index];
+        out.interfaceId = interfaceId(index);
+    }
+
+    /**
+     * This function rebuilds a full jNetPcap packet, for when the user wants to see every header in detail.
+     * @param index The index of the packet.
+     * @return A new JPacket holding a copy of the packet.
+     */
+    public JPacket packet(int index) {
+        byte[] data = new byte[captureLengths[index]];
+        frame(index).get(data);
+        return PacketHandler.rebuildPacket(data, captureLengths[index], wireLengths[index], timestamps[index]);
+    }
+
+    /**
+     * @return An estimate of the memory used, in bytes, including the off-heap packet data.
+     */
+    public long memoryFootprint() {
+        long perPacket = 8 + 4 + 4 + 4 + 4 + 4 + 2 + 2 + 1 + 1 + 8;
+        return perPacket * timestamps.length + arena.allocated();
+    }
+}
@@ -0,0 +1,372 @@
+package networkvisualiser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+/**
+ * This class runs analyses over a PacketStore in parallel.
+ * The store is split into chunks of consecutive packets, and each chunk is read into its own accumulator on the
+ * common ForkJoinPool. Accumulators are then merged pairwise, always the earlier chunk with the later one, so results
+ * which depend on capture order (such as which direction of a connection was seen first) match a sequential pass.
+ * Several statistics can be gathered by one accumulator, so a single pass over the columns serves them all.
+ */
+public class ParallelAnalysis {
+    static final int CHUNK_PACKETS = 64 * 1024; // Chunks smaller than this aren't worth splitting further.
+
+    /**
+     * This interface is for the partial results of an analysis, which are built per chunk and then combined.
+     * @param <A> The accumulator's own type, so it can be merged with others of its kind.
+     */
+    public interface Accumulator<A extends Accumulator<A>> {
+        /**
+         * This function adds a range of packets to the accumulator.
+         * @param store The store holding the packets.
+         * @param from The index of the first packet.
+         * @param to The index after the last packet.
+         */
+        void accumulate(PacketStore store, int from, int to);
+
+        /**
+         * This function adds another accumulator's results to this one.
+         * @param later An accumulator which covered the packets immediately after this one's.
+         */
+        void merge(A later);
+    }
+
+    /**
+     * This function runs an analysis over every packet in a store.
+     * @param store The store of packets.
+     * @param factory Creates an empty accumulator for each chunk.
+     * @return The merged accumulator, covering the whole store.
+     */
+    public static <A extends Accumulator<A>> A run(PacketStore store, Supplier<A> factory) {
+        return run(store, 0, store.size(), factory);
+    }
+
+    /**
+     * This function runs an analysis over a range of packets in a store.
+     * @param store The store of packets.
+     * @param from The index of the first packet.
+     * @param to The index after the last packet.
+     * @param factory Creates an empty accumulator for each chunk.
+     * @return The merged accumulator, covering the whole range.
+     */
+    public static <A extends Accumulator<A>> A run(PacketStore store, int from, int to, Supplier<A> factory) {
+        return ForkJoinPool.commonPool().invoke(new ChunkTask<>(store, from, to, factory));
+    }
+
+    // Splits a range in half until it is small enough, then merges the halves in order.
+    private static class ChunkTask<A extends Accumulator<A>> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+        private final PacketStore store;
+        private final int from;
+        private final int to;
+        private final Supplier<A> factory;
+
+        ChunkTask(PacketStore store, int from, int to, Supplier<A> factory) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+            this.factory = factory;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= CHUNK_PACKETS) {
+                A accumulator = factory.get();
+                accumulator.accumulate(store, from, to);
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask<A> earlier = new ChunkTask<>(store, from, middle, factory);
+            earlier.fork();
+            A later = new ChunkTask<>(store, middle, to, factory).compute();
+            A result = earlier.join();
+            result.merge(later);
+            return result;
+        }
+    }
+
+    /**
+     * This class counts packets and bytes, per protocol and per TCP flag.
+     */
+    public static class ProtocolSummary implements Accumulator<ProtocolSummary> {
+        private long packets = 0;
+        private long bytes = 0;
+        private final long[] protocolPackets = new long[Protocols.COUNT]; // Indexed by protocol bit.
+        private final long[] tcpFlagPackets = new long[6]; // Indexed by flag bit, FIN to URG.
+
+        @Override
+        public void accumulate(PacketStore store, int from, int to) {
+            for (int i = from; i < to; i++) {
+                bytes += store.wireLength(i);
+                int protocols = store.protocols(i);
+                // Only the bits that are set are visited.
+                while (protocols != 0) {
+                    protocolPackets[Integer.numberOfTrailingZeros(protocols)]++;
+                    protocols &= protocols - 1;
+                }
+                if (store.has(i, Protocols.TCP)) {
+                    int flags = store.tcpFlags(i);
+                    while (flags != 0) {
+                        tcpFlagPackets[Integer.numberOfTrailingZeros(flags)]++;
+                        flags &= flags - 1;
+                    }
+                }
+            }
+            packets += to - from;
+        }
+
+        @Override
+        public void merge(ProtocolSummary later) {
+            packets += later.packets;
+            bytes += later.bytes;
+            for (int bit = 0; bit < protocolPackets.length; bit++) {
+                protocolPackets[bit] += later.protocolPackets[bit];
+            }
+            for (int bit = 0; bit < tcpFlagPackets.length; bit++) {
+                tcpFlagPackets[bit] += later.tcpFlagPackets[bit];
+            }
+        }
+
+        /**
+         * @return The number of packets covered.
+         */
+        public long packets() { return packets; }
+
+        /**
+         * @return The total size of the packets on the wire, in bytes.
+         */
+        public long bytes() { return bytes; }
+
+        /**
+         * @param protocol A single protocol bit (see Protocols).
+         * @return The number of packets containing that protocol.
+         */
+        public long packetsWith(int protocol) {
+            return protocolPackets[Integer.numberOfTrailingZeros(protocol)];
+        }
+
+        /**
+         * @param flag A single TCP flag (see Protocols).
+         * @return The number of TCP packets with that flag set.
+         */
+        public long packetsWithFlag(int flag) {
+            return tcpFlagPackets[Integer.numberOfTrailingZeros(flag)];
+        }
+    }
+
+    /**
+     * This class totals bytes and packets per second, relative to a given starting second.
+     * Packets from before the starting second, or after the store's last packet, are left out. Each chunk only covers
+     * the seconds its own packets fall in, so memory stays in proportion to the capture's length however many chunks
+     * there are, and one packet with a corrupt timestamp can't make every chunk cover years.
+     */
+    public static class SecondHistogram implements Accumulator<SecondHistogram> {
+        private final long startingSecond;
+        private long base = -1; // The second the arrays start at, relative to the starting second, or -1 if empty.
+        private long[] bytes = new long[0];
+        private long[] packets = new long[0];
+
+        /**
+         * Creates a new, empty SecondHistogram.
+         * @param firstSecond The second (since the epoch) which becomes second 0.
+         */
+        public SecondHistogram(long firstSecond) {
+            startingSecond = firstSecond;
+        }
+
+        @Override
+        public void accumulate(PacketStore store, int from, int to) {
+            if (to <= from) { return; }
+            long lastSecond = Math.min(store.second(store.size() - 1) - startingSecond, Integer.MAX_VALUE - 1);
+            for (int i = from; i < to; i++) {
+                long second = store.second(i) - startingSecond;
+                if (second < 0 || second > lastSecond) { continue; }
+                ensure(second, second);
+                bytes[(int) (second - base)] += store.wireLength(i);
+                packets[(int) (second - base)]++;
+            }
+        }
+
+        @Override
+        public void merge(SecondHistogram later) {
+            if (later.base < 0) { return; }
+            ensure(later.base, later.base + later.bytes.length - 1);
+            int offset = (int) (later.base - base);
+            for (int second = 0; second < later.bytes.length; second++) {
+                bytes[offset + second] += later.bytes[second];
+                packets[offset + second] += later.packets[second];
+            }
+        }
+
+        // Makes room for the seconds from low to high, relative to the starting second.
+        private void ensure(long low, long high) {
+            if (base >= 0 && low >= base && high < base + bytes.length) { return; }
+            if (base < 0) { base = low; }
+            long newBase = Math.min(base, low);
+            long needed = Math.max(high + 1, base + bytes.length) - newBase;
+            // Packets mostly arrive in order, so the arrays double when they grow at the end.
+            if (newBase == base) { needed = Math.max(needed, Math.min(bytes.length * 2L, Integer.MAX_VALUE - base)); }
+            int capacity = (int) needed;
+            long[] newBytes = new long[capacity];
+            long[] newPackets = new long[capacity];
+            System.arraycopy(bytes, 0, newBytes, (int) (base - newBase), bytes.length);
+            System.arraycopy(packets, 0, newPackets, (int) (base - newBase), packets.length);
+            bytes = newBytes;
+            packets = newPackets;
+            base = newBase;
+        }
+
+        /**
+         * @return The number of seconds covered, up to the last one with a packet.
+         */
+        public int length() {
+            int length = packets.length;
+            while (length > 0 && packets[length - 1] == 0) { length--; }
+            return length == 0 ? 0 : (int) base + length;
+        }
+
+        /**
+         * @param second The second, relative to the starting second.
+         * @return The bytes seen in that second.
+         */
+        public long bytes(int second) {
+            return second >= base && second - base < bytes.length ? bytes[(int) (second - base)] : 0;
+        }
+
+        /**
+         * @param second The second, relative to the starting second.
+         * @return The packets seen in that second.
+         */
+        public long packets(int second) {
+            return second >= base && second - base < packets.length ? packets[(int) (second - base)] : 0;
+        }
+    }
+
+    /**
+     * This class collects the index of every packet which has all of a set of protocols, in capture order.
+     */
+    public static class IndexCollector implements Accumulator<IndexCollector> {
+        private final int mask;
+        private int[] indices = new int[16];
+        private int count = 0;
+
+        /**
+         * Creates a new, empty IndexCollector.
+         * @param protocolMask One or more protocol bits (see Protocols).
+         */
+        public IndexCollector(int protocolMask) {
+            mask = protocolMask;
+        }
+
+        @Override
+        public void accumulate(PacketStore store, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (store.has(i, mask)) { add(i); }
+            }
+        }
+
+        @Override
+        public void merge(IndexCollector later) {
+            if (count + later.count > indices.length) {
+                indices = Arrays.copyOf(indices, Math.max(count + later.count, indices.length * 2));
+            }
+            System.arraycopy(later.indices, 0, indices, count, later.count);
+            count += later.count;
+        }
+
+        private void add(int index) {
+            if (count == indices.length) { indices = Arrays.copyOf(indices, count * 2); }
+            indices[count++] = index;
+        }
+
+        /**
+         * @return A new array holding the matching indices.
+         */
+        public int[] indices() {
+            return Arrays.copyOf(indices, count);
+        }
+    }
+
+    /**
+     * This class finds the unique pairs of TCP endpoints, remembering which way round each pair was first seen.
+     */
+    public static class ConnectionSet implements Accumulator<ConnectionSet> {
+        // Each pair is keyed with the lower endpoint first; the value is true if the lower endpoint sent first.
+        private final Map<EndpointPair, Boolean> pairs = new LinkedHashMap<>();
+
+        @Override
+        public void accumulate(PacketStore store, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (!store.has(i, Protocols.TCP)) { continue; }
+                long source = ((store.sourceAddress(i) & 0xFFFFFFFFL) << 16) | store.sourcePort(i);
+                long destination = ((store.destinationAddress(i) & 0xFFFFFFFFL) << 16) | store.destinationPort(i);
+                boolean sourceFirst = source <= destination;
+                pairs.putIfAbsent(sourceFirst ? new EndpointPair(source, destination)
+                        : new EndpointPair(destination, source), sourceFirst);
+            }
+        }
+
+        @Override
+        public void merge(ConnectionSet later) {
+            for (Map.Entry<EndpointPair, Boolean> pair : later.pairs.entrySet()) {
+                pairs.putIfAbsent(pair.getKey(), pair.getValue());
+            }
+        }
+
+        /**
+         * @return The number of unique pairs.
+         */
+        public int size() {
+            return pairs.size();
+        }
+
+        /**
+         * @return One 'ip:port and ip:port' string per pair, with the endpoint seen sending first on the left.
+         */
+        public ArrayList<String> list() {
+            ArrayList<String> connections = new ArrayList<>(pairs.size());
+            for (Map.Entry<EndpointPair, Boolean> pair : pairs.entrySet()) {
+                String lower = formatEndpoint(pair.getKey().lower);
+                String upper = formatEndpoint(pair.getKey().upper);
+                connections.add(pair.getValue() ? lower + " and " + upper : upper + " and " + lower);
+            }
+            return connections;
+        }
+
+        private static String formatEndpoint(long endpoint) {
+            return FrameDecoder.formatAddress((int) (endpoint >>> 16)) + ":" + (endpoint & 0xFFFF);
+        }
+    }
+
+    // Two endpoints, each an IPv4 address and port packed into a long.
+    private static final class EndpointPair {
+        final long lower;
+        final long upper;
+
+        EndpointPair(long lower, long upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof EndpointPair && ((EndpointPair) other).lower == lower
+                    && ((EndpointPair) other).upper == upper;
+        }
+
+        @Override
+        public int hashCode() {
+            // Endpoints differ mostly in their low bits, so both are mixed thoroughly before folding to an int.
+            long hash = (lower * 0x9E3779B97F4A7C15L) ^ upper;
+            hash *= 0xC2B2AE3D27D4EB4FL;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This thread writes every packet in a PacketStore to disk, as a series of pcap segment files.
+ * It follows the store in the background, so capture and analysis never wait for the disk. Packets are gathered into
+ * a large direct buffer and written a batch at a time, and a new segment is started once the current one reaches a
+ * size or time limit. The file offset of every packet is kept, so the store can let go of older frames and page them
+ * back in from the segments when they are needed.
+ */
+public class PcapSegmentWriter extends Thread {
+    static final int BUFFER_SIZE = 1024 * 1024; // Records are batched into this much memory before each write.
+    static final int BATCH_PACKETS = 4096; // The most packets written before the store is told they are on disk.
+    static final int SNAP_LENGTH = 65535;
+    static final int LINKTYPE_ETHERNET = 1;
+    static final int PCAP_HEADER_LENGTH = 24;
+    static final int RECORD_HEADER_LENGTH = 16;
+    static final int OPEN_READERS = 16; // The most segments kept open for paging packets back in.
+
+    // A packet's location is its segment number and file offset, packed into a long.
+    static final int OFFSET_BITS = 40;
+    static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private final PacketStore store;
+    private final Path directory;
+    private final String prefix;
+    private final long maximumSegmentBytes;
+    private final long maximumSegmentMicros;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+    // The segment being written.
+    private FileChannel segment;
+    private int segmentNumber = -1;
+    private long segmentBytes = 0;
+    private long segmentStartMicros = 0;
+
+    private long[] locations = new long[1024]; // Where each packet's record starts, indexed by packet.
+    private volatile int written = 0; // Packets below this are on disk; written after their locations.
+    private volatile boolean running = true;
+    // Segments opened to page packets back in, least recently used first. Only a few are kept open, so a long
+    // capture doesn't run out of file descriptors.
+    private final Map<Integer, FileChannel> readers = new LinkedHashMap<Integer, FileChannel>(OPEN_READERS, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, FileChannel> eldest) {
+            if (size() <= OPEN_READERS) { return false; }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    /**
+     * Creates a new writer for a store. Call start() to begin writing.
+     * @param packetStore The store to write packets from.
+     * @param segmentDirectory The directory to write segments to; it is created if it doesn't exist.
+     * @param segmentPrefix The start of each segment's file name, which is followed by its number.
+     * @param segmentBytes The size at which a new segment is started.
+     * @param segmentSeconds The capture time at which a new segment is started.
+     * @throws IOException If the directory can't be created.
+     */
+    public PcapSegmentWriter(PacketStore packetStore, Path segmentDirectory, String segmentPrefix, long segmentBytes,
+                             long segmentSeconds) throws IOException {
+        super("PcapSegmentWriter");
+        setDaemon(true);
+        store = packetStore;
+        directory = Files.createDirectories(segmentDirectory);
+        prefix = segmentPrefix;
+        maximumSegmentBytes = segmentBytes;
+        maximumSegmentMicros = segmentSeconds * 1000000;
+    }
+
+    // Keep writing until we are stopped and every stored packet is on disk.
+    public void run() {
+        try {
+            while (running || written < store.size()) {
+                int available = store.size();
+                if (available == written) {
+                    LockSupport.parkNanos(1_000_000); // Nothing to do, so back off briefly.
+                    continue;
+                }
+                int end = Math.min(available, written + BATCH_PACKETS);
+                for (int index = written; index < end; index++) {
+                    writePacket(index);
+                }
+                flush();
+                written = end;
+                store.framesWritten(end);
+            }
+            if (segment != null) { segment.close(); }
+        } catch (IOException e) {
+            // The store keeps every frame it hasn't been told are on disk, so nothing is lost from memory.
+            System.err.println("Error while writing capture segments, no more packets will be saved.");
+            e.printStackTrace();
+        }
+    }
+
+    // Adds a packet's record to the buffer, starting a new segment first if the current one is full.
+    private void writePacket(int index) throws IOException {
+        int length = store.captureLength(index);
+        long timestamp = store.timestamp(index);
+        int recordLength = RECORD_HEADER_LENGTH + length;
+        if (segment == null || (segmentBytes + recordLength > maximumSegmentBytes && segmentBytes > PCAP_HEADER_LENGTH)
+                || timestamp - segmentStartMicros >= maximumSegmentMicros) {
+            nextSegment(timestamp);
+        }
+        if (buffer.remaining() < recordLength) { flush(); }
+
+        putRecordHeader(buffer, timestamp, length, store.wireLength(index));
+        ByteBuffer frame = store.frameBuffer(index).duplicate();
+        int position = store.framePosition(index);
+        frame.limit(position + length);
+        frame.position(position);
+        buffer.put(frame);
+
+        if (index == locations.length) { locations = Arrays.copyOf(locations, locations.length * 2); }
+        locations[index] = ((long) segmentNumber << OFFSET_BITS) | segmentBytes;
+        segmentBytes += recordLength;
+    }
+
+    // Finishes the current segment, and starts the next with a pcap header.
+    private void nextSegment(long timestamp) throws IOException {
+        flush();
+        if (segment != null) { segment.close(); }
+        segmentNumber++;
+        segment = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        putFileHeader(buffer);
+        segmentBytes = PCAP_HEADER_LENGTH;
+        segmentStartMicros = timestamp;
+    }
+
+    // Writes out whatever is in the buffer.
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * This function reads a packet back in from the segment it was written to.
+     * @param index The index of the packet, which must be below written().
+     * @param captureLength The number of bytes captured for the packet.
+     * @return A new buffer holding just the packet.
+     */
+    public ByteBuffer readFrame(int index, int captureLength) {
+        if (index >= written) { throw new IllegalStateException("Packet " + index + " has not been written yet"); }
+        long location = locations[index];
+        ByteBuffer frame = ByteBuffer.allocate(captureLength);
+        // The read holds the lock, so another thread can't close the segment under it by opening a different one.
+        synchronized (this) {
+            try {
+                FileChannel channel = reader((int) (location >>> OFFSET_BITS));
+                long offset = (location & OFFSET_MASK) + RECORD_HEADER_LENGTH;
+                while (frame.hasRemaining()) {
+                    if (channel.read(frame, offset + frame.position()) < 0) {
+                        throw new IOException("Segment ended before packet " + index);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    // Opens a segment for reading, or returns it if it is already open. The caller must hold the lock.
+    private FileChannel reader(int number) throws IOException {
+        FileChannel channel = readers.get(number);
+        if (channel == null) {
+            channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ);
+            readers.put(number, channel);
+        }
+        return channel;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve(String.format("%s-%05d.pcap", prefix, number));
+    }
+
+    /**
+     * This function lets the thread finish writing what has been stored, then terminate. Any segments opened to page
+     * packets back in are closed; they are opened again if more packets are read.
+     */
+    public void finish() {
+        running = false;
+        synchronized (this) {
+            for (FileChannel channel : readers.values()) { closeQuietly(channel); }
+            readers.clear();
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The number of packets written to disk.
+     */
+    public int written() {
+        return written;
+    }
+
+    /**
+     * @return The number of segments started.
+     */
+    public int segmentCount() {
+        return segmentNumber + 1;
+    }
+
+    /**
+     * @return The directory the segments are written to.
+     */
+    public Path directory() {
+        return directory;
+    }
+
+    /**
+     * This function writes some packets from a store to a new pcap file, for example to export them.
+     * @param file The file to write; it is replaced if it exists.
+     * @param packetStore The store holding the packets.
+     * @param indices The indices of the packets to write.
+     * @throws IOException If the file can't be written.
+     */
+    public static void exportPackets(Path file, PacketStore packetStore, int... indices) throws IOException {
+        ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            putFileHeader(output);
+            for (int index : indices) {
+                ByteBuffer frame = packetStore.frame(index);
+                if (output.remaining() < RECORD_HEADER_LENGTH + frame.remaining()) {
+                    output.flip();
+                    while (output.hasRemaining()) { channel.write(output); }
+                    output.clear();
+                }
+                putRecordHeader(output, packetStore.timestamp(index), frame.remaining(),
+                        packetStore.wireLength(index));
+                output.put(frame);
+            }
+            output.flip();
+            while (output.hasRemaining()) { channel.write(output); }
+        }
+    }
+
+    // The pcap global header: microsecond timestamps, Ethernet frames.
+    private static void putFileHeader(ByteBuffer output) {
+        output.putInt(0xA1B2C3D4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+                .putInt(SNAP_LENGTH).putInt(LINKTYPE_ETHERNET);
+    }
+
+    private static void putRecordHeader(ByteBuffer output, long timestampMicros, int captureLength, int wireLength) {
+        output.putInt((int) (timestampMicros / 1000000)).putInt((int) (timestampMicros % 1000000))
+                .putInt(captureLength).putInt(wireLength);
+    }
+}
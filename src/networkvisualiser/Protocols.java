@@ -0,0 +1,42 @@
+package networkvisualiser;
+
+/**
+ * This class holds the bit flags used to describe which protocols a packet contains, and which TCP flags it has set.
+ * Packets are decoded once, and from then on the analysis works with these bitmasks instead of header objects.
+ */
+public final class Protocols {
+    // Protocol bits, from layer 2 upwards.
+    public static final int ETHERNET = 1;
+    public static final int ARP = 1 << 1;
+    public static final int IP4 = 1 << 2;
+    public static final int TCP = 1 << 3;
+    public static final int UDP = 1 << 4;
+    public static final int HTTP = 1 << 5;
+    public static final int RTP = 1 << 6;
+    public static final int RTCP_RECEIVER_REPORT = 1 << 7;
+    public static final int RTCP_SENDER_REPORT = 1 << 8;
+    public static final int SDP = 1 << 9;
+    public static final int COUNT = 10; // The number of protocol bits above.
+
+    // TCP flag bits, as they appear in the TCP header.
+    public static final int TCP_FIN = 1;
+    public static final int TCP_SYN = 1 << 1;
+    public static final int TCP_RST = 1 << 2;
+    public static final int TCP_PSH = 1 << 3;
+    public static final int TCP_ACK = 1 << 4;
+    public static final int TCP_URG = 1 << 5;
+
+    private static final String[] NAMES = { "Ethernet", "ARP", "IPv4", "TCP", "UDP", "HTTP", "RTP",
+            "RTCP Receiver Report", "RTCP Sender Report", "SDP" };
+
+    private Protocols() {}
+
+    /**
+     * This function returns a readable name for a single protocol bit.
+     * @param bit The index of the bit, from 0 to COUNT - 1.
+     * @return The name of the protocol.
+     */
+    public static String name(int bit) {
+        return NAMES[bit];
+    }
+}
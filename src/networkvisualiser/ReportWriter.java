@@ -0,0 +1,126 @@
+package networkvisualiser;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class writes a report as a table, one row at a time, in a machine-readable format: either JSON (an array with
+ * an object per row, keyed on the column names) or CSV (a header line, then a line per row).
+ * Rows are written as they are given, so a report of millions of rows never has to be held in memory.
+ * Values may be Strings, Numbers, Booleans or null.
+ */
+public class ReportWriter implements Closeable {
+    public static final String JSON = "json";
+    public static final String CSV = "csv";
+
+    private final Writer out;
+    private final boolean json;
+    private final String[] columns;
+    private long rows = 0;
+
+    /**
+     * Creates a new report file, and writes its header.
+     * @param file The file to write, which is replaced if it exists.
+     * @param format The format: JSON or CSV.
+     * @param columnNames The name of each column.
+     * @throws IOException If the file can't be written.
+     */
+    public ReportWriter(Path file, String format, String... columnNames) throws IOException {
+        if (!format.equals(JSON) && !format.equals(CSV)) {
+            throw new IllegalArgumentException("Unknown report format: " + format);
+        }
+        out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 64 * 1024);
+        json = format.equals(JSON);
+        columns = columnNames;
+        if (json) {
+            out.write('[');
+        }
+        else {
+            for (int column = 0; column < columns.length; column++) {
+                if (column > 0) { out.write(','); }
+                writeCsv(columns[column]);
+            }
+            out.write('\n');
+        }
+    }
+
+    /**
+     * This function writes a row.
+     * @param values One value per column, in the same order as the column names.
+     * @throws IOException If the file can't be written.
+     */
+    public void row(Object... values) throws IOException {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values, but got " + values.length);
+        }
+        if (json) {
+            out.write(rows == 0 ? "\n  {" : ",\n  {");
+            for (int column = 0; column < columns.length; column++) {
+                if (column > 0) { out.write(", "); }
+                writeJsonString(columns[column]);
+                out.write(": ");
+                writeJson(values[column]);
+            }
+            out.write('}');
+        }
+        else {
+            for (int column = 0; column < columns.length; column++) {
+                if (column > 0) { out.write(','); }
+                if (values[column] instanceof String) { writeCsv((String) values[column]); }
+                else if (values[column] != null) { out.write(values[column].toString()); }
+            }
+            out.write('\n');
+        }
+        rows++;
+    }
+
+    /**
+     * This function finishes the report, and closes the file.
+     * @throws IOException If the file can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (json) { out.write(rows == 0 ? "]\n" : "\n]\n"); }
+        out.close();
+    }
+
+    // Numbers which JSON can't represent, such as NaN, are written as null.
+    private void writeJson(Object value) throws IOException {
+        if (value == null) { out.write("null"); }
+        else if (value instanceof String) { writeJsonString((String) value); }
+        else if (value instanceof Double && !Double.isFinite((Double) value)) { out.write("null"); }
+        else { out.write(value.toString()); }
+    }
+
+    private void writeJsonString(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') { out.write('\\'); out.write(c); }
+            else if (c == '\n') { out.write("\\n"); }
+            else if (c == '\r') { out.write("\\r"); }
+            else if (c == '\t') { out.write("\\t"); }
+            else if (c < 0x20) { out.write(String.format("\\u%04x", (int) c)); }
+            else { out.write(c); }
+        }
+        out.write('"');
+    }
+
+    // A value is only quoted if it has to be: if it holds a comma, a quote or a line break.
+    private void writeCsv(String value) throws IOException {
+        boolean quoted = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                || value.indexOf('\r') >= 0;
+        if (!quoted) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        out.write(value.replace("\"", "\"\""));
+        out.write('"');
+    }
+}
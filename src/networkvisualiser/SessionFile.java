@@ -0,0 +1,488 @@
+package networkvisualiser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class saves an analysed capture as a session file, and opens it again, so that a capture is only decoded and
+ * analysed once however many times it is looked at.
+ * A session holds everything the UI draws from: the store's columns and frames, the flow table, the throughput
+ * history, the packet index, the top talkers, the unique counts and the TCP measurements. Each of these writes its
+ * own primitive arrays, one after another, so opening a session is a series of bulk copies out of a memory-mapped
+ * file rather than a pass over the packets; the frames aren't copied at all, as the store reads them straight out of
+ * the mapping. Sections are tagged, so a file which has been cut short or written by another version is refused.
+ * State which only matters while packets are still arriving isn't saved: stream reassembly, the application
+ * classifier's working state (its verdicts are kept in the flow table), and TcpAnalytics' per-stream sequence numbers.
+ * A session is meant to be looked at rather than added to, so those analyses start afresh if it is.
+ */
+public class SessionFile {
+    public static final String EXTENSION = ".nvsession";
+    static final int MAGIC = 0x4E565345; // 'NVSE'
+    static final int VERSION = 1;
+
+    // The tag written before each section.
+    static final int SECTION_STORE = 1;
+    static final int SECTION_FLOWS = 2;
+    static final int SECTION_THROUGHPUT = 3;
+    static final int SECTION_INDEX = 4;
+    static final int SECTION_TALKERS = 5;
+    static final int SECTION_UNIQUE_COUNTS = 6;
+    static final int SECTION_TCP = 7;
+    static final int SECTION_END = 0x454E4421; // 'END!'
+
+    /**
+     * This function saves an analysed capture. The file is written under a temporary name, then moved into place, so
+     * a session which was cut short is never opened.
+     * The capture must have stopped, as nothing may be stored while the session is written.
+     * @param path The session file, which is replaced if it exists.
+     * @param store The store, which must keep its packets.
+     * @param flows The flow table kept up to date with the store.
+     * @param throughput The throughput history kept up to date with the store.
+     * @param index The packet index kept up to date with the store.
+     * @param talkers The top talkers kept up to date with the store.
+     * @param uniqueCounts The unique counts kept up to date with the store.
+     * @param tcpAnalytics The TCP measurements kept up to date with the store.
+     * @throws IOException If the file can't be written.
+     */
+    public static void save(Path path, PacketStore store, FlowTable flows, ThroughputHistory throughput,
+                            PacketIndex index, TopTalkers talkers, UniqueCounts uniqueCounts,
+                            TcpAnalytics tcpAnalytics) throws IOException {
+        long start = System.nanoTime();
+        Path partial = path.resolveSibling(path.getFileName() + ".partial");
+        try (Output out = new Output(partial)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(SECTION_STORE);
+            store.save(out);
+            out.writeInt(SECTION_FLOWS);
+            flows.save(out);
+            out.writeInt(SECTION_THROUGHPUT);
+            throughput.save(out);
+            out.writeInt(SECTION_INDEX);
+            index.save(out);
+            out.writeInt(SECTION_TALKERS);
+            talkers.save(out);
+            out.writeInt(SECTION_UNIQUE_COUNTS);
+            uniqueCounts.save(out);
+            out.writeInt(SECTION_TCP);
+            tcpAnalytics.save(out);
+            out.writeInt(SECTION_END);
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        Files.move(partial, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Metrics.histogram("session.save").recordSince(start);
+    }
+
+    /**
+     * This function opens a session, loading it into new, empty analyses. They are then exactly as they were when
+     * the session was saved, and the UI can be generated from them straight away.
+     * If the file turns out to be corrupt part-way through, the analyses are left partly loaded, and must not be used.
+     * @param path The session file.
+     * @param store A new store, which nothing has been stored in.
+     * @param flows A new flow table.
+     * @param throughput A new throughput history.
+     * @param index A new packet index.
+     * @param talkers A new TopTalkers.
+     * @param uniqueCounts A new UniqueCounts.
+     * @param tcpAnalytics A new TcpAnalytics.
+     * @throws IOException If the file can't be read, or isn't a session saved by this version.
+     */
+    public static void open(Path path, PacketStore store, FlowTable flows, ThroughputHistory throughput,
+                            PacketIndex index, TopTalkers talkers, UniqueCounts uniqueCounts,
+                            TcpAnalytics tcpAnalytics) throws IOException {
+        long start = System.nanoTime();
+        try (Input in = new Input(path)) {
+            in.expect(MAGIC, path + " is not a session file");
+            in.expect(VERSION, path + " was saved by a different version");
+            in.expect(SECTION_STORE, "the packets are missing");
+            store.load(in);
+            in.expect(SECTION_FLOWS, "the flow table is missing");
+            flows.load(in);
+            in.expect(SECTION_THROUGHPUT, "the throughput history is missing");
+            throughput.load(in);
+            in.expect(SECTION_INDEX, "the packet index is missing");
+            index.load(in);
+            in.expect(SECTION_TALKERS, "the top talkers are missing");
+            talkers.load(in);
+            in.expect(SECTION_UNIQUE_COUNTS, "the unique counts are missing");
+            uniqueCounts.load(in);
+            in.expect(SECTION_TCP, "the TCP measurements are missing");
+            tcpAnalytics.load(in);
+            in.expect(SECTION_END, "the file was cut short");
+        }
+        Metrics.histogram("session.open").recordSince(start);
+    }
+
+    /**
+     * @param capture A capture file.
+     * @return Where the capture's session is saved: beside it, with EXTENSION added to its name.
+     */
+    public static Path sessionFor(Path capture) {
+        return capture.resolveSibling(capture.getFileName() + EXTENSION);
+    }
+
+    /**
+     * @param path A file given to the tool.
+     * @return Whether it is a session file, rather than a capture, going by its name.
+     */
+    public static boolean isSession(Path path) {
+        return path.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * This function checks whether a capture's session can be opened in place of reading the capture: it must exist,
+     * be newer than the capture, and have been saved by this version.
+     * @param session The session file.
+     * @param capture The capture it was saved from.
+     * @return Whether the session is up to date.
+     */
+    public static boolean isCurrent(Path session, Path capture) {
+        try {
+            if (!Files.isRegularFile(session)
+                    || Files.getLastModifiedTime(session).compareTo(Files.getLastModifiedTime(capture)) < 0) {
+                return false;
+            }
+            try (Input in = new Input(session)) {
+                return in.size() >= 8 && in.readInt() == MAGIC && in.readInt() == VERSION;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * This class writes the primitive values and arrays of a session, in order, through a buffer.
+     * Arrays are written with their length first, so they can be read back without knowing it.
+     */
+    static class Output implements Closeable {
+        static final int BUFFER_SIZE = 1024 * 1024;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void writeInt(int value) throws IOException {
+            room(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void writeLong(long value) throws IOException {
+            room(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void writeBytes(byte[] values, int count) throws IOException {
+            writeInt(count);
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, room(1));
+                buffer.put(values, done, n);
+                done += n;
+            }
+        }
+
+        void writeShorts(short[] values, int count) throws IOException {
+            writeInt(count);
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, room(Short.BYTES) / Short.BYTES);
+                buffer.asShortBuffer().put(values, done, n);
+                buffer.position(buffer.position() + n * Short.BYTES);
+                done += n;
+            }
+        }
+
+        void writeChars(char[] values, int count) throws IOException {
+            writeInt(count);
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, room(Character.BYTES) / Character.BYTES);
+                buffer.asCharBuffer().put(values, done, n);
+                buffer.position(buffer.position() + n * Character.BYTES);
+                done += n;
+            }
+        }
+
+        void writeInts(int[] values, int count) throws IOException {
+            writeInt(count);
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, room(Integer.BYTES) / Integer.BYTES);
+                buffer.asIntBuffer().put(values, done, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                done += n;
+            }
+        }
+
+        void writeLongs(long[] values, int count) throws IOException {
+            writeInt(count);
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, room(Long.BYTES) / Long.BYTES);
+                buffer.asLongBuffer().put(values, done, n);
+                buffer.position(buffer.position() + n * Long.BYTES);
+                done += n;
+            }
+        }
+
+        void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeBytes(bytes, bytes.length);
+        }
+
+        /**
+         * This function writes bytes as they are, without a length, such as a frame.
+         * @param source The buffer holding the bytes; its position isn't changed.
+         * @param position Where the bytes start in the buffer.
+         * @param length The number of bytes.
+         */
+        void writeRaw(ByteBuffer source, int position, int length) throws IOException {
+            ByteBuffer view = source.duplicate();
+            for (int done = 0; done < length; ) {
+                int n = Math.min(length - done, room(1));
+                view.limit(position + done + n);
+                view.position(position + done);
+                buffer.put(view);
+                done += n;
+            }
+        }
+
+        // Makes room in the buffer for at least a number of bytes, and returns how many bytes there are room for.
+        private int room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) { flush(); }
+            return buffer.remaining();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) { channel.write(buffer); }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                channel.force(false);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * This class reads a session back, in the order it was written, out of a memory-mapped window of the file.
+     * Arrays are copied out of the mapping in bulk; frames are mapped separately, and left where they are.
+     */
+    static class Input implements Closeable {
+        static final long MAP_WINDOW = 1L << 30; // How much of the file is mapped at a time.
+        static final int PIECE = 64 * 1024 * 1024; // The most bytes of an array copied at a time.
+        static final int SMALL_ARRAY = 64; // Arrays up to this long are read a value at a time, without a view.
+
+        private final FileChannel channel;
+        private final long fileSize;
+        private MappedByteBuffer window;
+        private long windowStart = 0;
+        private long position = 0;
+
+        Input(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            fileSize = channel.size();
+        }
+
+        long size() {
+            return fileSize;
+        }
+
+        // Reads a value which must be there, such as a section's tag.
+        void expect(int value, String problem) throws IOException {
+            if (position + Integer.BYTES > fileSize || readInt() != value) {
+                throw new IOException("Not a usable session: " + problem);
+            }
+        }
+
+        int readInt() throws IOException {
+            int at = map(Integer.BYTES);
+            return window.getInt(at);
+        }
+
+        long readLong() throws IOException {
+            int at = map(Long.BYTES);
+            return window.getLong(at);
+        }
+
+        String readString() throws IOException {
+            return new String(readBytes(0), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param minimumLength The shortest array to return, such as an initial capacity.
+         * @return A new array holding the values written, followed by zeros up to the minimum length.
+         */
+        byte[] readBytes(int minimumLength) throws IOException {
+            int count = readCount();
+            byte[] values = new byte[Math.max(count, minimumLength)];
+            readBytes(values, count);
+            return values;
+        }
+
+        short[] readShorts(int minimumLength) throws IOException {
+            int count = readCount();
+            short[] values = new short[Math.max(count, minimumLength)];
+            if (count <= SMALL_ARRAY) {
+                int at = map(count * Short.BYTES);
+                for (int i = 0; i < count; i++) { values[i] = window.getShort(at + i * Short.BYTES); }
+                return values;
+            }
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, PIECE / Short.BYTES);
+                take(n * Short.BYTES).asShortBuffer().get(values, done, n);
+                done += n;
+            }
+            return values;
+        }
+
+        char[] readChars(int minimumLength) throws IOException {
+            int count = readCount();
+            char[] values = new char[Math.max(count, minimumLength)];
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, PIECE / Character.BYTES);
+                take(n * Character.BYTES).asCharBuffer().get(values, done, n);
+                done += n;
+            }
+            return values;
+        }
+
+        int[] readInts(int minimumLength) throws IOException {
+            int count = readCount();
+            int[] values = new int[Math.max(count, minimumLength)];
+            readInts(values, count);
+            return values;
+        }
+
+        long[] readLongs(int minimumLength) throws IOException {
+            int count = readCount();
+            long[] values = new long[Math.max(count, minimumLength)];
+            readLongs(values, count);
+            return values;
+        }
+
+        /**
+         * This function reads an array into one which already exists, as for arrays whose size is fixed.
+         * @param values The array, which must be exactly as long as the one written.
+         */
+        void readBytes(byte[] values) throws IOException {
+            readBytes(values, fixedCount(values.length));
+        }
+
+        void readInts(int[] values) throws IOException {
+            readInts(values, fixedCount(values.length));
+        }
+
+        void readLongs(long[] values) throws IOException {
+            readLongs(values, fixedCount(values.length));
+        }
+
+        private void readBytes(byte[] values, int count) throws IOException {
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, PIECE);
+                window.get(map(n), values, done, n);
+                done += n;
+            }
+        }
+
+        private void readInts(int[] values, int count) throws IOException {
+            if (count <= SMALL_ARRAY) {
+                int at = map(count * Integer.BYTES);
+                for (int i = 0; i < count; i++) { values[i] = window.getInt(at + i * Integer.BYTES); }
+                return;
+            }
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, PIECE / Integer.BYTES);
+                take(n * Integer.BYTES).asIntBuffer().get(values, done, n);
+                done += n;
+            }
+        }
+
+        private void readLongs(long[] values, int count) throws IOException {
+            if (count <= SMALL_ARRAY) {
+                int at = map(count * Long.BYTES);
+                for (int i = 0; i < count; i++) { values[i] = window.getLong(at + i * Long.BYTES); }
+                return;
+            }
+            for (int done = 0; done < count; ) {
+                int n = Math.min(count - done, PIECE / Long.BYTES);
+                take(n * Long.BYTES).asLongBuffer().get(values, done, n);
+                done += n;
+            }
+        }
+
+        /**
+         * This function maps bytes written by Output.writeRaw(), without copying them.
+         * @param length The number of bytes.
+         * @return A new read-only, big-endian buffer holding just those bytes, which stays valid after the file is
+         * closed.
+         */
+        ByteBuffer mapRaw(int length) throws IOException {
+            if (position + length > fileSize) { throw new IOException("Not a usable session: the file was cut short"); }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return mapped;
+        }
+
+        private int readCount() throws IOException {
+            int count = readInt();
+            if (count < 0 || count > fileSize - position) {
+                throw new IOException("Not a usable session: an array is corrupt");
+            }
+            return count;
+        }
+
+        // Arrays of a fixed size are only the wrong size if the session was saved with different settings.
+        private int fixedCount(int expected) throws IOException {
+            if (readCount() != expected) {
+                throw new IOException("Not a usable session: it was saved with other settings");
+            }
+            return expected;
+        }
+
+        // Returns a little-endian view of the next bytes, which must be read before take() or map() is called again.
+        private ByteBuffer take(int length) throws IOException {
+            int at = map(length);
+            ByteBuffer view = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            view.limit(at + length);
+            view.position(at);
+            return view;
+        }
+
+        // Makes sure the next bytes are mapped, moving the window if they aren't, and returns where they start in it.
+        private int map(int length) throws IOException {
+            if (position + length > fileSize) { throw new IOException("Not a usable session: the file was cut short"); }
+            if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+                long size = Math.min(Math.max(MAP_WINDOW, length), fileSize - position);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                windowStart = position;
+            }
+            int at = (int) (position - windowStart);
+            position += length;
+            return at;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class measures how well TCP connections are performing, as packets are stored: the handshake round trip
+ * times, and how often segments are retransmitted or arrive out of order, ACKs are duplicated, and receivers advertise
+ * a zero window. These are the first numbers to look at when a service slows down.
+ * Each direction of each flow keeps only a few primitives (the highest sequence number sent, and the last ACK and
+ * window), in arrays indexed by flow ID, so nothing is allocated per packet. The totals are kept in counters, and the
+ * round trip times in LatencyHistograms, so they take the same memory however long the capture runs.
+ * It relies on the flow IDs a FlowTable records in each packet's fields, so it must be registered after one. Only the
+ * thread which stores packets may update it, but the results may be read from any thread.
+ */
+public class TcpAnalytics implements PacketObserver {
+    // A segment below the highest sequence number sent is taken as out of order, rather than a retransmission, if it
+    // arrives this soon after the highest one; a retransmission can't be sent any sooner than the round trip time.
+    static final long REORDER_WINDOW_MICROS = 3000;
+    private static final int INITIAL_FLOWS = 1024;
+
+    // The stages of a handshake, as far as it has got.
+    private static final byte HANDSHAKE_NONE = 0;
+    private static final byte HANDSHAKE_SYN = 1;
+    private static final byte HANDSHAKE_SYN_ACK = 2;
+    private static final byte HANDSHAKE_DONE = 3;
+
+    // Per flow: how far the latest handshake has got, which direction opened it, and when each step was seen.
+    private byte[] handshakeStages = new byte[INITIAL_FLOWS];
+    private byte[] openers = new byte[INITIAL_FLOWS];
+    private long[] stepTimes = new long[INITIAL_FLOWS];
+
+    // Per stream (flow ID * 2 + direction): the sequence number just past the highest byte sent, when that was sent,
+    // and the last ACK number and window sent. Sequence numbers are compared as differences, so wrapping is harmless.
+    private boolean[] sending = new boolean[INITIAL_FLOWS * 2];
+    private int[] highestSequences = new int[INITIAL_FLOWS * 2];
+    private long[] highestTimes = new long[INITIAL_FLOWS * 2];
+    private boolean[] acknowledging = new boolean[INITIAL_FLOWS * 2];
+    private int[] lastAcknowledgments = new int[INITIAL_FLOWS * 2];
+    private int[] lastWindows = new int[INITIAL_FLOWS * 2];
+
+    private final LatencyHistogram synToSynAck = new LatencyHistogram();
+    private final LatencyHistogram synAckToAck = new LatencyHistogram();
+    private volatile long dataSegments = 0;
+    private volatile long retransmissions = 0;
+    private volatile long outOfOrder = 0;
+    private volatile long duplicateAcknowledgments = 0;
+    private volatile long zeroWindows = 0;
+
+    /**
+     * This method analyses a stored TCP packet.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields, including the flow a FlowTable found for it.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        if ((fields.protocols & Protocols.TCP) == 0 || fields.flowId < 0) { return; }
+        add(fields.flowId, fields.flowDirection, fields.timestampMicros, fields.tcpFlags, fields.sequenceNumber,
+                fields.acknowledgmentNumber, fields.window, fields.payloadLength);
+    }
+
+    /**
+     * This function analyses a single TCP packet.
+     * @param flow The packet's flow ID (see FlowTable).
+     * @param direction 0 if it was sent from the flow's lower endpoint, and 1 if it was sent to it.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @param flags The TCP flags (see Protocols).
+     * @param sequenceNumber The sequence number.
+     * @param acknowledgmentNumber The acknowledgment number.
+     * @param window The advertised window, unscaled.
+     * @param payloadLength The length of the TCP payload, from the headers.
+     */
+    public void add(int flow, int direction, long timestampMicros, int flags, long sequenceNumber,
+                    long acknowledgmentNumber, int window, int payloadLength) {
+        if (flow >= handshakeStages.length) { grow(flow + 1); }
+        int stream = flow * 2 + direction;
+        boolean syn = (flags & Protocols.TCP_SYN) != 0;
+        boolean ack = (flags & Protocols.TCP_ACK) != 0;
+        boolean reset = (flags & Protocols.TCP_RST) != 0;
+
+        if (!reset) { followHandshake(flow, direction, timestampMicros, syn, ack); }
+
+        // SYNs and FINs take up a sequence number each, as though they were a byte of data.
+        int length = payloadLength + (syn ? 1 : 0) + ((flags & Protocols.TCP_FIN) != 0 ? 1 : 0);
+        int sequence = (int) sequenceNumber;
+        if (length > 0 && !reset) {
+            dataSegments = dataSegments + 1;
+            int end = sequence + length;
+            // A SYN starts the sequence numbers afresh, unless it repeats the last one.
+            if (!sending[stream] || (syn && end != highestSequences[stream])) {
+                sending[stream] = true;
+                highestSequences[stream] = end;
+                highestTimes[stream] = timestampMicros;
+            }
+            else if (end - highestSequences[stream] > 0) {
+                highestSequences[stream] = end;
+                highestTimes[stream] = timestampMicros;
+            }
+            else if (timestampMicros - highestTimes[stream] < REORDER_WINDOW_MICROS) {
+                outOfOrder = outOfOrder + 1;
+            }
+            else {
+                retransmissions = retransmissions + 1;
+            }
+        }
+
+        if (!ack || reset) { return; }
+        int acknowledgment = (int) acknowledgmentNumber;
+        // A zero window means the receiver can't take any more data until it has caught up.
+        if (window == 0 && !syn) { zeroWindows = zeroWindows + 1; }
+        // A duplicate ACK repeats the last one exactly, with nothing else in it, which is how a receiver reports that
+        // a segment is missing.
+        if (acknowledging[stream] && length == 0 && acknowledgment == lastAcknowledgments[stream]
+                && window == lastWindows[stream]) {
+            duplicateAcknowledgments = duplicateAcknowledgments + 1;
+        }
+        acknowledging[stream] = true;
+        lastAcknowledgments[stream] = acknowledgment;
+        lastWindows[stream] = window;
+    }
+
+    // Times each step of the handshake: the SYN, the SYN-ACK in reply, and the ACK that completes it.
+    private void followHandshake(int flow, int direction, long timestampMicros, boolean syn, boolean ack) {
+        byte stage = handshakeStages[flow];
+        if (syn && !ack) {
+            // A retransmitted SYN is timed from the first, as the connection was waiting since then. One sent after
+            // the SYN-ACK (because the SYN-ACK was lost) leaves the SYN-ACK's timing alone.
+            boolean opening = stage == HANDSHAKE_SYN || stage == HANDSHAKE_SYN_ACK;
+            if (!opening || openers[flow] != direction) {
+                handshakeStages[flow] = HANDSHAKE_SYN;
+                openers[flow] = (byte) direction;
+                stepTimes[flow] = timestampMicros;
+            }
+        }
+        else if (syn) {
+            if (stage == HANDSHAKE_SYN && openers[flow] != direction) {
+                synToSynAck.record((timestampMicros - stepTimes[flow]) * 1000);
+                handshakeStages[flow] = HANDSHAKE_SYN_ACK;
+                stepTimes[flow] = timestampMicros;
+            }
+        }
+        else if (stage == HANDSHAKE_SYN_ACK && ack && openers[flow] == direction) {
+            synAckToAck.record((timestampMicros - stepTimes[flow]) * 1000);
+            handshakeStages[flow] = HANDSHAKE_DONE;
+        }
+    }
+
+    /**
+     * This function writes the measurements to a session (see SessionFile). The state of each stream isn't written,
+     * as it only matters for packets still to come, and is as large as the flow table.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        synToSynAck.save(out);
+        synAckToAck.save(out);
+        out.writeLong(dataSegments);
+        out.writeLong(retransmissions);
+        out.writeLong(outOfOrder);
+        out.writeLong(duplicateAcknowledgments);
+        out.writeLong(zeroWindows);
+    }
+
+    /**
+     * This function reads the measurements back from a session. They must be new. Any packets added afterwards are
+     * measured as though their streams had only just started.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        synToSynAck.load(in);
+        synAckToAck.load(in);
+        dataSegments = in.readLong();
+        retransmissions = in.readLong();
+        outOfOrder = in.readLong();
+        duplicateAcknowledgments = in.readLong();
+        zeroWindows = in.readLong();
+    }
+
+    private void grow(int needed) {
+        int capacity = Math.max(needed, handshakeStages.length * 2);
+        handshakeStages = Arrays.copyOf(handshakeStages, capacity);
+        openers = Arrays.copyOf(openers, capacity);
+        stepTimes = Arrays.copyOf(stepTimes, capacity);
+        sending = Arrays.copyOf(sending, capacity * 2);
+        highestSequences = Arrays.copyOf(highestSequences, capacity * 2);
+        highestTimes = Arrays.copyOf(highestTimes, capacity * 2);
+        acknowledging = Arrays.copyOf(acknowledging, capacity * 2);
+        lastAcknowledgments = Arrays.copyOf(lastAcknowledgments, capacity * 2);
+        lastWindows = Arrays.copyOf(lastWindows, capacity * 2);
+    }
+
+    /**
+     * @return The times from each SYN to the SYN-ACK answering it.
+     */
+    public LatencyHistogram synToSynAck() { return synToSynAck; }
+
+    /**
+     * @return The times from each SYN-ACK to the ACK completing the handshake.
+     */
+    public LatencyHistogram synAckToAck() { return synAckToAck; }
+
+    /**
+     * @return The number of segments carrying data (or a SYN or FIN).
+     */
+    public long dataSegments() { return dataSegments; }
+
+    /**
+     * @return The number of segments which repeated data already sent.
+     */
+    public long retransmissions() { return retransmissions; }
+
+    /**
+     * @return The number of segments which arrived after data sent later than them.
+     */
+    public long outOfOrder() { return outOfOrder; }
+
+    /**
+     * @return The number of duplicate ACKs, each of which suggests a segment was lost.
+     */
+    public long duplicateAcknowledgments() { return duplicateAcknowledgments; }
+
+    /**
+     * @return The number of packets advertising a zero window.
+     */
+    public long zeroWindows() { return zeroWindows; }
+
+    /**
+     * @return The percentage of data segments which were retransmissions.
+     */
+    public double retransmissionRate() {
+        long segments = dataSegments;
+        return segments == 0 ? 0 : 100.0 * retransmissions / segments;
+    }
+}
@@ -0,0 +1,580 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class reassembles the byte stream each side of every TCP connection sends, so that application protocols can
+ * be read across segment boundaries (an HTTP request line split over two packets, for example).
+ * Segments are put in sequence order per direction of each flow. Retransmitted bytes are dropped, overlaps are
+ * trimmed, and segments which arrive early wait until the gap before them is filled. Nothing is copied: each segment
+ * is kept as a reference to its payload in the PacketStore (the packet, and where its new bytes start), and a
+ * StreamView reads the bytes straight out of the store's frames.
+ * The payload referenced by every stream together is kept within a memory budget. Once it is exceeded, the streams
+ * which have been quiet the longest are let go of, a whole direction of a flow at a time; a stream carries on from
+ * where it was, but its earlier bytes can no longer be read.
+ * A gap which is never filled (a packet dropped by the kernel or the ring buffer) would otherwise hold up its stream
+ * for good, so once too many bytes are waiting behind one, the stream skips over it and carries on.
+ * It relies on the flow IDs a FlowTable records in each packet's fields, so it must be registered after one. Only the
+ * thread which stores packets may update it, but views may be taken from any thread.
+ */
+public class TcpReassembler implements PacketObserver {
+    static final int SEGMENT_OVERHEAD = 32; // The bytes used to keep track of each segment, counted against the budget.
+    private static final int INITIAL_STREAMS = 2048; // Two per flow, one for each direction.
+    private static final int INITIAL_SEGMENTS = 4096;
+    static final long MAX_PENDING_BYTES = 4L * 1024 * 1024; // The most bytes a stream may hold waiting on a gap...
+    static final int PENDING_SHARE = 8; // ...or this fraction of the budget, if that is smaller.
+
+    private final PacketStore store;
+    private final FlowTable flows;
+    private final long budget;
+    private final long pendingLimit;
+    private long memoryUsed = 0;
+
+    // Each stream (one direction of a flow, flow ID * 2 + direction) has its own state, in parallel arrays.
+    private boolean[] synchronised = new boolean[INITIAL_STREAMS]; // Whether we know which sequence number is next.
+    private int[] nextSequences = new int[INITIAL_STREAMS]; // Compared as differences, so wrapping is harmless.
+    private long[] streamEnds = new long[INITIAL_STREAMS]; // The stream offset of the next byte expected.
+    private long[] streamStarts = new long[INITIAL_STREAMS]; // The stream offset of the first byte still held.
+    private int[] firstSegments = new int[INITIAL_STREAMS]; // The segments held in order, as a linked list.
+    private int[] lastSegments = new int[INITIAL_STREAMS];
+    private int[] pendingSegments = new int[INITIAL_STREAMS]; // Segments waiting on a gap, in sequence order.
+    private int[] pendingTails = new int[INITIAL_STREAMS]; // The last of them, so in-order arrivals append at once.
+    private long[] pendingBytes = new long[INITIAL_STREAMS];
+    // The streams holding any segments, least recently active first, as a doubly linked list.
+    private int[] olderStreams = new int[INITIAL_STREAMS];
+    private int[] newerStreams = new int[INITIAL_STREAMS];
+    private int oldestStream = -1;
+    private int newestStream = -1;
+    private int streamCapacity = 0; // Streams below this have been initialised.
+
+    // The segments themselves, in a pool of parallel arrays; free segments are linked through segmentNext.
+    private int[] segmentPackets = new int[INITIAL_SEGMENTS];
+    private int[] segmentStarts = new int[INITIAL_SEGMENTS]; // Where the segment's bytes start within its frame.
+    private int[] segmentLengths = new int[INITIAL_SEGMENTS];
+    private int[] segmentSequences = new int[INITIAL_SEGMENTS];
+    private long[] segmentOffsets = new long[INITIAL_SEGMENTS]; // The stream offset of the first byte.
+    private int[] segmentNext = new int[INITIAL_SEGMENTS];
+    private int freeSegment = -1;
+    private int segmentCount = 0; // Segments below this have been used at some point.
+
+    // Totals across every stream.
+    private long retransmissions = 0;
+    private long overlaps = 0;
+    private long outOfOrder = 0;
+    private long gaps = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a new TcpReassembler.
+     * @param packetStore The store the segments are kept in.
+     * @param flowTable The flow table registered with the store before this, which gives each packet its flow.
+     * @param memoryBudget How many bytes of stream data (and segment bookkeeping) may be held across every stream.
+     */
+    public TcpReassembler(PacketStore packetStore, FlowTable flowTable, long memoryBudget) {
+        store = packetStore;
+        flows = flowTable;
+        budget = memoryBudget;
+        pendingLimit = Math.min(MAX_PENDING_BYTES, memoryBudget / PENDING_SHARE);
+    }
+
+    /**
+     * This method adds a stored packet's payload to its stream.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields, including the flow a FlowTable found for it.
+     */
+    @Override
+    public synchronized void packetAdded(int index, PacketFields fields) {
+        if ((fields.protocols & Protocols.TCP) == 0 || fields.flowId < 0) { return; }
+        int stream = fields.flowId * 2 + fields.flowDirection;
+        if (stream >= streamCapacity) { growStreams(stream + 1); }
+        int sequence = (int) fields.sequenceNumber;
+
+        // A SYN takes up one sequence number, and the data starts after it. A SYN with a different sequence number
+        // is a new connection reusing the port pair, so its stream starts afresh.
+        if ((fields.tcpFlags & Protocols.TCP_SYN) != 0) {
+            if (!synchronised[stream] || nextSequences[stream] != sequence + 1) {
+                releaseAll(stream, true);
+                streamStarts[stream] = streamEnds[stream];
+                synchronised[stream] = true;
+                nextSequences[stream] = sequence + 1;
+            }
+            return;
+        }
+        int captured = Math.min(fields.payloadLength, fields.captureLength - fields.payloadOffset);
+        if (captured <= 0) { return; }
+        // If the capture started mid-connection, the stream starts with the first data we see.
+        if (!synchronised[stream]) {
+            synchronised[stream] = true;
+            nextSequences[stream] = sequence;
+        }
+
+        touch(stream);
+        add(stream, index, fields.payloadOffset, sequence, captured);
+        // Bytes beyond the snap length were sent, but can't be read, so the stream carries on after a gap.
+        if (captured < fields.payloadLength && nextSequences[stream] == sequence + captured) {
+            skip(stream, fields.payloadLength - captured);
+        }
+        while (memoryUsed > budget && oldestStream >= 0) { evict(stream); }
+    }
+
+    // Puts a segment into its stream, trimming any bytes we already have.
+    private void add(int stream, int packet, int start, int sequence, int length) {
+        int behind = nextSequences[stream] - sequence;
+        if (behind >= length) {
+            retransmissions++; // Every byte has already been seen.
+            return;
+        }
+        if (behind > 0) {
+            overlaps++; // Only the end of the segment is new.
+            start += behind;
+            sequence += behind;
+            length -= behind;
+        }
+        int segment = allocateSegment(packet, start, sequence, length);
+        memoryUsed += length + SEGMENT_OVERHEAD;
+        if (sequence != nextSequences[stream]) {
+            outOfOrder++;
+            insertPending(stream, segment);
+            // If the gap still hasn't been filled by now, the bytes in it were most likely dropped, so we skip it.
+            if (pendingBytes[stream] > pendingLimit) {
+                skip(stream, segmentSequences[pendingSegments[stream]] - nextSequences[stream]);
+                deliverPending(stream);
+            }
+            return;
+        }
+        deliver(stream, segment);
+        deliverPending(stream);
+    }
+
+    // Delivers the segments which arrived early, once the gap before them has been filled.
+    private void deliverPending(int stream) {
+        while (pendingSegments[stream] >= 0) {
+            int pending = pendingSegments[stream];
+            int overlap = nextSequences[stream] - segmentSequences[pending];
+            if (overlap < 0) { break; }
+            pendingSegments[stream] = segmentNext[pending];
+            pendingBytes[stream] -= segmentLengths[pending];
+            if (pendingSegments[stream] < 0) { pendingTails[stream] = -1; }
+            if (overlap >= segmentLengths[pending]) {
+                release(stream, pending);
+                continue;
+            }
+            segmentStarts[pending] += overlap;
+            segmentSequences[pending] += overlap;
+            segmentLengths[pending] -= overlap;
+            memoryUsed -= overlap;
+            deliver(stream, pending);
+        }
+    }
+
+    // Appends a segment which starts at the next expected sequence number to the end of the stream.
+    private void deliver(int stream, int segment) {
+        segmentOffsets[segment] = streamEnds[stream];
+        segmentNext[segment] = -1;
+        if (firstSegments[stream] < 0) { firstSegments[stream] = segment; }
+        else { segmentNext[lastSegments[stream]] = segment; }
+        lastSegments[stream] = segment;
+        streamEnds[stream] += segmentLengths[segment];
+        nextSequences[stream] += segmentLengths[segment];
+    }
+
+    // Keeps a segment which arrived early, in sequence order, until the gap before it is filled.
+    private void insertPending(int stream, int segment) {
+        int next = nextSequences[stream];
+        int distance = segmentSequences[segment] - next;
+        pendingBytes[stream] += segmentLengths[segment];
+        // Behind a gap, segments still mostly arrive in order, so they usually go straight on the end.
+        int tail = pendingTails[stream];
+        if (tail >= 0 && segmentSequences[tail] - next <= distance) {
+            segmentNext[segment] = -1;
+            segmentNext[tail] = segment;
+            pendingTails[stream] = segment;
+            return;
+        }
+        int previous = -1;
+        int current = pendingSegments[stream];
+        while (current >= 0 && segmentSequences[current] - next <= distance) {
+            previous = current;
+            current = segmentNext[current];
+        }
+        segmentNext[segment] = current;
+        if (previous < 0) { pendingSegments[stream] = segment; }
+        else { segmentNext[previous] = segment; }
+        if (current < 0) { pendingTails[stream] = segment; }
+    }
+
+    // Moves a stream past bytes which will never be seen. What came before can't be joined to what comes after, so
+    // it is let go of, and the stream's bytes start again after the gap.
+    private void skip(int stream, int length) {
+        gaps++;
+        releaseAll(stream, false);
+        nextSequences[stream] += length;
+        streamEnds[stream] += length;
+        streamStarts[stream] = streamEnds[stream];
+    }
+
+    // Lets go of segments until the budget is met: the stream quiet for longest first, and the one being added to
+    // last, in which case its oldest bytes go first, then any segments it has waiting on a gap.
+    private void evict(int current) {
+        int stream = oldestStream;
+        int segment = firstSegments[stream];
+        if (stream != current || ((segment < 0 || segment == lastSegments[stream]) && pendingSegments[stream] >= 0)) {
+            evictions++;
+            // Segments waiting on a gap go too, so the stream picks up from whatever arrives next.
+            if (pendingSegments[stream] >= 0) { synchronised[stream] = false; }
+            releaseAll(stream, true);
+            streamStarts[stream] = streamEnds[stream];
+            return;
+        }
+        if (segment < 0 || segment == lastSegments[stream]) {
+            // Nothing more can go without losing the segment just added; the budget is simply too small for it.
+            unlink(stream);
+            return;
+        }
+        firstSegments[stream] = segmentNext[segment];
+        streamStarts[stream] = segmentOffsets[segmentNext[segment]];
+        release(stream, segment);
+    }
+
+    // Lets go of every segment a stream holds, and optionally those waiting on a gap.
+    private void releaseAll(int stream, boolean pendingToo) {
+        for (int segment = firstSegments[stream]; segment >= 0; ) {
+            int next = segmentNext[segment];
+            release(stream, segment);
+            segment = next;
+        }
+        firstSegments[stream] = -1;
+        lastSegments[stream] = -1;
+        if (pendingToo) {
+            for (int segment = pendingSegments[stream]; segment >= 0; ) {
+                int next = segmentNext[segment];
+                release(stream, segment);
+                segment = next;
+            }
+            pendingSegments[stream] = -1;
+            pendingTails[stream] = -1;
+            pendingBytes[stream] = 0;
+        }
+        if (firstSegments[stream] < 0 && pendingSegments[stream] < 0) { unlink(stream); }
+    }
+
+    private int allocateSegment(int packet, int start, int sequence, int length) {
+        int segment = freeSegment;
+        if (segment >= 0) { freeSegment = segmentNext[segment]; }
+        else {
+            if (segmentCount == segmentPackets.length) { growSegments(); }
+            segment = segmentCount++;
+        }
+        segmentPackets[segment] = packet;
+        segmentStarts[segment] = start;
+        segmentSequences[segment] = sequence;
+        segmentLengths[segment] = length;
+        segmentNext[segment] = -1;
+        return segment;
+    }
+
+    private void release(int stream, int segment) {
+        memoryUsed -= segmentLengths[segment] + SEGMENT_OVERHEAD;
+        segmentNext[segment] = freeSegment;
+        freeSegment = segment;
+    }
+
+    // Marks a stream as the most recently active, so it is the last to be let go of.
+    private void touch(int stream) {
+        if (newestStream == stream) { return; }
+        unlink(stream);
+        olderStreams[stream] = newestStream;
+        newerStreams[stream] = -1;
+        if (newestStream >= 0) { newerStreams[newestStream] = stream; }
+        else { oldestStream = stream; }
+        newestStream = stream;
+    }
+
+    // Takes a stream out of the activity list, if it is in it.
+    private void unlink(int stream) {
+        int older = olderStreams[stream];
+        int newer = newerStreams[stream];
+        if (older < 0 && newer < 0 && oldestStream != stream) { return; }
+        if (older >= 0) { newerStreams[older] = newer; }
+        else { oldestStream = newer; }
+        if (newer >= 0) { olderStreams[newer] = older; }
+        else { newestStream = older; }
+        olderStreams[stream] = -1;
+        newerStreams[stream] = -1;
+    }
+
+    private void growStreams(int needed) {
+        int capacity = Math.max(needed, synchronised.length);
+        if (capacity > synchronised.length) {
+            capacity = Math.max(capacity, synchronised.length * 2);
+            synchronised = Arrays.copyOf(synchronised, capacity);
+            nextSequences = Arrays.copyOf(nextSequences, capacity);
+            streamEnds = Arrays.copyOf(streamEnds, capacity);
+            streamStarts = Arrays.copyOf(streamStarts, capacity);
+            firstSegments = Arrays.copyOf(firstSegments, capacity);
+            lastSegments = Arrays.copyOf(lastSegments, capacity);
+            pendingSegments = Arrays.copyOf(pendingSegments, capacity);
+            pendingTails = Arrays.copyOf(pendingTails, capacity);
+            pendingBytes = Arrays.copyOf(pendingBytes, capacity);
+            olderStreams = Arrays.copyOf(olderStreams, capacity);
+            newerStreams = Arrays.copyOf(newerStreams, capacity);
+        }
+        // New streams start with empty lists.
+        Arrays.fill(firstSegments, streamCapacity, capacity, -1);
+        Arrays.fill(lastSegments, streamCapacity, capacity, -1);
+        Arrays.fill(pendingSegments, streamCapacity, capacity, -1);
+        Arrays.fill(pendingTails, streamCapacity, capacity, -1);
+        Arrays.fill(olderStreams, streamCapacity, capacity, -1);
+        Arrays.fill(newerStreams, streamCapacity, capacity, -1);
+        streamCapacity = capacity;
+    }
+
+    private void growSegments() {
+        int capacity = segmentPackets.length * 2;
+        segmentPackets = Arrays.copyOf(segmentPackets, capacity);
+        segmentStarts = Arrays.copyOf(segmentStarts, capacity);
+        segmentLengths = Arrays.copyOf(segmentLengths, capacity);
+        segmentSequences = Arrays.copyOf(segmentSequences, capacity);
+        segmentOffsets = Arrays.copyOf(segmentOffsets, capacity);
+        segmentNext = Arrays.copyOf(segmentNext, capacity);
+    }
+
+    /**
+     * This function takes a view of one direction of a flow's stream, as it is now.
+     * @param flow The flow's ID (see FlowTable).
+     * @param direction 0 for the bytes sent from the flow's lower endpoint, 1 for those sent to it.
+     * @return The view, which is empty if nothing is held for the stream.
+     */
+    public StreamView view(int flow, int direction) {
+        return view(flow, direction, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * This function takes a view of part of one direction of a flow's stream, as it is now. Only the segments in the
+     * range are looked at, so this is cheaper than viewing a long stream in full.
+     * @param flow The flow's ID (see FlowTable).
+     * @param direction 0 for the bytes sent from the flow's lower endpoint, 1 for those sent to it.
+     * @param from The stream offset to start from.
+     * @param length The most bytes to include.
+     * @return The view, which is empty if none of the range is held.
+     */
+    public synchronized StreamView view(int flow, int direction, long from, long length) {
+        int stream = flow * 2 + direction;
+        if (flow < 0 || stream >= streamCapacity) { return StreamView.EMPTY; }
+        long start = Math.max(from, streamStarts[stream]);
+        long end = Math.min(from + Math.min(length, Long.MAX_VALUE - from), streamEnds[stream]);
+        if (start >= end) { return StreamView.EMPTY; }
+
+        // Only the segments' positions are copied; their bytes stay where they are in the store.
+        int first = firstSegments[stream];
+        while (first >= 0 && segmentOffsets[first] + segmentLengths[first] <= start) { first = segmentNext[first]; }
+        int count = 0;
+        for (int segment = first; segment >= 0 && segmentOffsets[segment] < end; segment = segmentNext[segment]) {
+            count++;
+        }
+        int[] packets = new int[count];
+        int[] starts = new int[count];
+        long[] offsets = new long[count + 1];
+        int position = 0;
+        for (int segment = first; position < count; segment = segmentNext[segment]) {
+            packets[position] = segmentPackets[segment];
+            starts[position] = segmentStarts[segment];
+            offsets[position] = segmentOffsets[segment];
+            offsets[position + 1] = segmentOffsets[segment] + segmentLengths[segment];
+            position++;
+        }
+        int endSequence = nextSequences[stream] - (int) (streamEnds[stream] - end);
+        return new StreamView(store, start, end, endSequence, packets, starts, offsets);
+    }
+
+    /**
+     * This function takes a view of the stream a packet was sent in, starting from the packet's first byte.
+     * @param fields The packet's decoded fields; the flow is looked up from its addresses and ports.
+     * @param length The most bytes to include.
+     * @return The view, which is empty if the packet isn't TCP, or its bytes are no longer held.
+     */
+    public StreamView view(PacketFields fields, int length) {
+        if ((fields.protocols & Protocols.TCP) == 0) { return StreamView.EMPTY; }
+        int flow = flows.find(fields.protocols, fields.sourceAddress, fields.destinationAddress, fields.sourcePort,
+                fields.destinationPort);
+        int direction = FlowTable.direction(fields.sourceAddress, fields.destinationAddress, fields.sourcePort,
+                fields.destinationPort);
+        if (flow < 0) { return StreamView.EMPTY; }
+        return view(flow, direction, offsetOf(flow * 2 + direction, (int) fields.sequenceNumber), length);
+    }
+
+    // Converts a sequence number to a stream offset, relative to the end of the stream.
+    private synchronized long offsetOf(int stream, int sequence) {
+        return stream < streamCapacity ? streamEnds[stream] + (sequence - nextSequences[stream]) : -1;
+    }
+
+    /**
+     * @return The bytes of stream data (and segment bookkeeping) held across every stream.
+     */
+    public synchronized long memoryUsed() { return memoryUsed; }
+
+    /**
+     * @return The number of segments whose bytes had all been seen already.
+     */
+    public synchronized long retransmissions() { return retransmissions; }
+
+    /**
+     * @return The number of segments which partly repeated bytes already seen.
+     */
+    public synchronized long overlaps() { return overlaps; }
+
+    /**
+     * @return The number of segments which arrived before the bytes preceding them.
+     */
+    public synchronized long outOfOrder() { return outOfOrder; }
+
+    /**
+     * @return The number of times bytes were missing from a stream (beyond the snap length, or never received).
+     */
+    public synchronized long gaps() { return gaps; }
+
+    /**
+     * @return The number of streams let go of to stay within the memory budget.
+     */
+    public synchronized long evictions() { return evictions; }
+
+    /**
+     * This class is a read-only view of a contiguous run of one stream's bytes, read straight out of the store's
+     * frames. Offsets count bytes from the start of the stream, so they stay the same as the stream grows.
+     * A view is fixed when it is taken, and should only be used by one thread.
+     */
+    public static class StreamView {
+        static final StreamView EMPTY = new StreamView(null, 0, 0, 0, new int[0], new int[0], new long[] { 0 });
+
+        private final PacketStore store;
+        private final long start;
+        private final long end;
+        private final int endSequence;
+        private final int count;
+        private final int[] packets; // The packet holding each segment.
+        private final int[] starts; // Where each segment's bytes start within its frame.
+        private final long[] offsets; // The stream offset of each segment, and then of the end.
+        // The frame of the last segment read, so a run of reads only looks it up (or pages it in) once.
+        private int cachedSegment = -1;
+        private ByteBuffer cachedFrame;
+        private int cachedPosition;
+
+        StreamView(PacketStore store, long start, long end, int endSequence, int[] packets, int[] starts,
+                   long[] offsets) {
+            this.store = store;
+            this.start = start;
+            this.end = end;
+            this.endSequence = endSequence;
+            this.count = packets.length;
+            this.packets = packets;
+            this.starts = starts;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return The stream offset of the first byte in the view.
+         */
+        public long start() { return start; }
+
+        /**
+         * @return The stream offset just after the last byte in the view.
+         */
+        public long end() { return end; }
+
+        /**
+         * @return Whether the view holds no bytes.
+         */
+        public boolean isEmpty() { return start >= end; }
+
+        /**
+         * This function converts a TCP sequence number from this stream into a stream offset.
+         * @param sequenceNumber The sequence number, which should be within 2 GB of the end of the stream.
+         * @return The offset of the byte with that sequence number.
+         */
+        public long offsetOf(long sequenceNumber) {
+            return end + ((int) sequenceNumber - endSequence);
+        }
+
+        /**
+         * @param offset A stream offset.
+         * @return The byte at that offset (0 to 255), or -1 if it isn't in the view.
+         */
+        public int get(long offset) {
+            if (offset < start || offset >= end) { return -1; }
+            int segment = segmentAt(offset);
+            return frameFor(segment).get(cachedPosition + starts[segment] + (int) (offset - offsets[segment])) & 0xFF;
+        }
+
+        /**
+         * This function copies bytes out of the view.
+         * @param offset The stream offset to start from.
+         * @param destination The array to copy into.
+         * @param at Where in the array to start.
+         * @param length The most bytes to copy.
+         * @return The number of bytes copied, which is fewer than asked for if the view ends first.
+         */
+        public int read(long offset, byte[] destination, int at, int length) {
+            int copied = 0;
+            while (copied < length && offset + copied >= start && offset + copied < end) {
+                long position = offset + copied;
+                int segment = segmentAt(position);
+                int within = (int) (position - offsets[segment]);
+                int available = (int) Math.min(offsets[segment + 1] - position, length - copied);
+                ByteBuffer frame = frameFor(segment);
+                frame.get(cachedPosition + starts[segment] + within, destination, at + copied, available);
+                copied += available;
+            }
+            return copied;
+        }
+
+        /**
+         * This function reads a line of ASCII text, stopping at the end of the line, the end of the view, or a limit.
+         * @param offset The stream offset the line starts at.
+         * @param limit The most characters to read.
+         * @return The line, without its line ending.
+         */
+        public String readLine(long offset, int limit) {
+            StringBuilder line = new StringBuilder();
+            for (long position = offset; position < end && line.length() < limit; position++) {
+                int b = get(position);
+                if (b < 0 || b == '\r' || b == '\n') { break; }
+                line.append((char) b);
+            }
+            return line.toString();
+        }
+
+        // Finds the segment holding an offset, by binary search.
+        private int segmentAt(long offset) {
+            if (cachedSegment >= 0 && offset >= offsets[cachedSegment] && offset < offsets[cachedSegment + 1]) {
+                return cachedSegment;
+            }
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (offsets[middle] <= offset) { low = middle; }
+                else { high = middle - 1; }
+            }
+            return low;
+        }
+
+        // Finds a segment's frame, paging it in from disk if it is no longer held in memory.
+        private ByteBuffer frameFor(int segment) {
+            if (segment != cachedSegment) {
+                int packet = packets[segment];
+                ByteBuffer frame = store.frameBuffer(packet);
+                if (frame != null) {
+                    cachedFrame = frame;
+                    cachedPosition = store.framePosition(packet);
+                }
+                else {
+                    cachedFrame = store.frame(packet);
+                    cachedPosition = 0;
+                }
+                cachedSegment = segment;
+            }
+            return cachedFrame;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package networkvisualiser;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps running per-second totals of bytes and packets, fed one packet at a time as they are stored.
+ * Totals are kept in primitive arrays indexed by the number of seconds since the first packet, so updates and
+ * queries never rescan the capture. Packets more than MAX_SECONDS after the first (such as those after a corrupt or
+ * missing timestamp) are left out of the per-second totals, so one bad timestamp can't exhaust memory; they are still
+ * counted in the overall totals.
+ * Only the thread which stores packets may update it, but snapshots may be taken from any thread.
+ */
+public class ThroughputAggregator implements PacketObserver {
+    private static final int INITIAL_SECONDS = 64;
+    static final long MAX_SECONDS = 31L * 24 * 60 * 60; // The longest span kept per second; a month is ~40 MB at most.
+
+    private long startingSecond = -1; // The second of the first packet, in seconds since the epoch.
+    private long[] bytesPerSecond = new long[INITIAL_SECONDS];
+    private long[] packetsPerSecond = new long[INITIAL_SECONDS];
+    private volatile long totalBytes = 0;
+    private volatile long totalPackets = 0;
+    private volatile int length = 0; // The number of seconds covered; written last, so snapshots see whole updates.
+
+    /**
+     * This method adds a packet to the totals for the second it was captured in.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        add(fields.timestampMicros, fields.wireLength);
+    }
+
+    /**
+     * This function adds a single packet to the totals.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @param wireLength The original length of the packet on the wire.
+     */
+    public void add(long timestampMicros, int wireLength) {
+        long second = timestampMicros / 1000000;
+        if (startingSecond < 0) { startingSecond = second; }
+        totalBytes = totalBytes + wireLength;
+        totalPackets = totalPackets + 1;
+        // Packets are almost always in order; anything from before the first packet is counted in the first second.
+        long offset = Math.max(second - startingSecond, 0);
+        if (offset >= MAX_SECONDS) { return; }
+        int relative = (int) offset;
+        if (relative >= bytesPerSecond.length) {
+            int capacity = (int) Math.min(Math.max(bytesPerSecond.length * 2, relative + 1), MAX_SECONDS);
+            bytesPerSecond = Arrays.copyOf(bytesPerSecond, capacity);
+            packetsPerSecond = Arrays.copyOf(packetsPerSecond, capacity);
+        }
+        bytesPerSecond[relative] += wireLength;
+        packetsPerSecond[relative]++;
+        length = Math.max(length, relative + 1);
+    }
+
+    /**
+     * This function takes a snapshot of the totals. It is O(1): the snapshot shares the aggregator's arrays, which
+     * only ever grow, so seconds which have finished will not change. The latest second may still be filling up.
+     * @return A new Snapshot.
+     */
+    public Snapshot snapshot() {
+        int seconds = length; // Read first, so the arrays below are at least this long.
+        return new Snapshot(startingSecond, seconds, bytesPerSecond, packetsPerSecond, totalBytes, totalPackets);
+    }
+
+    /**
+     * This class is a view of the totals at the moment the snapshot was taken.
+     */
+    public static class Snapshot {
+        private final long startingSecond;
+        private final int length;
+        private final long[] bytes;
+        private final long[] packets;
+        private final long totalBytes;
+        private final long totalPackets;
+
+        Snapshot(long startingSecond, int length, long[] bytes, long[] packets, long totalBytes, long totalPackets) {
+            this.startingSecond = startingSecond;
+            this.length = length;
+            this.bytes = bytes;
+            this.packets = packets;
+            this.totalBytes = totalBytes;
+            this.totalPackets = totalPackets;
+        }
+
+        /**
+         * @return The second of the first packet, in seconds since the epoch, or -1 if there were no packets.
+         */
+        public long startingSecond() {
+            return startingSecond;
+        }
+
+        /**
+         * @return The number of seconds covered, from the first packet to the latest.
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @param second The number of seconds since the first packet.
+         * @return The number of bytes transferred during that second.
+         */
+        public long bytes(int second) {
+            return bytes[second];
+        }
+
+        /**
+         * @param second The number of seconds since the first packet.
+         * @return The number of packets received during that second.
+         */
+        public long packets(int second) {
+            return packets[second];
+        }
+
+        /**
+         * @return The total number of bytes transferred.
+         */
+        public long totalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return The total number of packets received.
+         */
+        public long totalPackets() {
+            return totalPackets;
+        }
+    }
+}
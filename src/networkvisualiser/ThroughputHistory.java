@@ -0,0 +1,297 @@
+package networkvisualiser;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class keeps the throughput history of a capture at several resolutions, in a fixed amount of memory.
+ * Each tier is a ring of buckets: one second buckets for the last hour, ten seconds for the last day, a minute for the
+ * last week, ten minutes for the last month, and an hour for the last year. Every packet is added to the current
+ * bucket of each tier, and a bucket is cleared when the ring comes back round to it, so older history is only kept
+ * at the coarser resolutions. Each bucket holds bytes, packets, packets per protocol, and bytes per application (if
+ * an ApplicationClassifier is registered before it).
+ * Only the thread which stores packets may update it, but it may be read from any thread; a bucket being cleared
+ * while it is read may be seen part-way through, which only affects the newest bucket of a tier.
+ */
+public class ThroughputHistory implements PacketObserver {
+    static final int[] RESOLUTIONS = {1, 10, 60, 600, 3600}; // The seconds covered by each bucket, per tier.
+    static final int[] BUCKETS = {3600, 8640, 10080, 4464, 8784}; // An hour, a day, a week, a month, and a year.
+
+    private final Tier[] tiers = new Tier[RESOLUTIONS.length];
+    private volatile long startingSecond = -1; // The second of the first packet, in seconds since the epoch.
+    private volatile long latestSecond = -1; // The latest second with a packet.
+    private volatile long totalBytes = 0;
+    private volatile long totalPackets = 0;
+
+    /**
+     * Creates a new, empty ThroughputHistory.
+     */
+    public ThroughputHistory() {
+        for (int tier = 0; tier < tiers.length; tier++) {
+            tiers[tier] = new Tier(RESOLUTIONS[tier], BUCKETS[tier]);
+        }
+    }
+
+    /**
+     * This method adds a packet to the current bucket of every tier.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        add(fields.timestampMicros, fields.wireLength, fields.protocols, fields.application);
+    }
+
+    /**
+     * This function adds a single packet to the history.
+     * @param timestampMicros The capture timestamp, in microseconds since the epoch.
+     * @param wireLength The original length of the packet on the wire.
+     * @param protocols The packet's protocol bitmask (see Protocols).
+     * @param application The application using the packet's flow (see ApplicationClassifier).
+     */
+    public void add(long timestampMicros, int wireLength, int protocols, int application) {
+        long second = Math.max(timestampMicros / 1000000, 0);
+        for (Tier tier : tiers) {
+            tier.add(second, wireLength, protocols, application);
+        }
+        totalBytes = totalBytes + wireLength;
+        totalPackets = totalPackets + 1;
+        if (startingSecond < 0) { startingSecond = second; }
+        if (second > latestSecond) { latestSecond = second; }
+    }
+
+    /**
+     * This function writes the history to a session (see SessionFile): every bucket of every tier, and the totals.
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        out.writeLong(startingSecond);
+        out.writeLong(latestSecond);
+        out.writeLong(totalBytes);
+        out.writeLong(totalPackets);
+        for (Tier tier : tiers) {
+            out.writeLongs(tier.bucketIds, tier.buckets);
+            out.writeLongs(tier.bytes, tier.buckets);
+            out.writeLongs(tier.packets, tier.buckets);
+            out.writeLongs(tier.protocolPackets, tier.protocolPackets.length);
+            out.writeLongs(tier.applicationBytes, tier.applicationBytes.length);
+        }
+    }
+
+    /**
+     * This function reads the history back from a session. The history must be new.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read, or its tiers are a different size.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        startingSecond = in.readLong();
+        latestSecond = in.readLong();
+        totalBytes = in.readLong();
+        totalPackets = in.readLong();
+        for (Tier tier : tiers) {
+            in.readLongs(tier.bucketIds);
+            in.readLongs(tier.bytes);
+            in.readLongs(tier.packets);
+            in.readLongs(tier.protocolPackets);
+            in.readLongs(tier.applicationBytes);
+        }
+    }
+
+    /**
+     * This function picks the finest tier which still holds a range of time, and can draw it in at most a given
+     * number of buckets. If no tier holds the whole range, the tier which holds the most of it is picked.
+     * @param fromSecond The start of the range, in seconds since the epoch.
+     * @param toSecond The end of the range (exclusive), in seconds since the epoch.
+     * @param maximumBuckets The most buckets wanted for the range.
+     * @return The index of the tier.
+     */
+    public int chooseTier(long fromSecond, long toSecond, int maximumBuckets) {
+        long latest = latestSecond;
+        for (int tier = 0; tier < tiers.length; tier++) {
+            Tier candidate = tiers[tier];
+            if (candidate.oldestSecond(latest) <= fromSecond
+                    && (toSecond - fromSecond) / candidate.resolution <= maximumBuckets) {
+                return tier;
+            }
+        }
+        // Nothing holds the whole range at that resolution. The coarsest tier holds the most history, and draws it in
+        // the fewest buckets, so it will do.
+        return tiers.length - 1;
+    }
+
+    /**
+     * @param tier The index of the tier, from 0 (the finest) to tierCount() - 1.
+     * @return The tier.
+     */
+    public Tier tier(int tier) {
+        return tiers[tier];
+    }
+
+    /**
+     * @return The number of tiers.
+     */
+    public int tierCount() {
+        return tiers.length;
+    }
+
+    /**
+     * @return The second of the first packet, in seconds since the epoch, or -1 if there have been no packets.
+     */
+    public long startingSecond() {
+        return startingSecond;
+    }
+
+    /**
+     * @return The latest second with a packet, in seconds since the epoch, or -1 if there have been no packets.
+     */
+    public long latestSecond() {
+        return latestSecond;
+    }
+
+    /**
+     * @return The total number of bytes transferred.
+     */
+    public long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return The total number of packets received.
+     */
+    public long totalPackets() {
+        return totalPackets;
+    }
+
+    /**
+     * This class is one resolution of the history: a ring of equally sized buckets.
+     */
+    public static class Tier {
+        private final int resolution;
+        private final int buckets;
+        private final long[] bucketIds; // Which bucket (seconds since the epoch / resolution) each slot holds.
+        private final long[] bytes;
+        private final long[] packets;
+        private final long[] protocolPackets; // Protocols.COUNT counts per slot.
+        private final long[] applicationBytes; // ApplicationClassifier.COUNT totals per slot.
+
+        Tier(int resolution, int buckets) {
+            this.resolution = resolution;
+            this.buckets = buckets;
+            bucketIds = new long[buckets];
+            Arrays.fill(bucketIds, -1);
+            bytes = new long[buckets];
+            packets = new long[buckets];
+            protocolPackets = new long[buckets * Protocols.COUNT];
+            applicationBytes = new long[buckets * ApplicationClassifier.COUNT];
+        }
+
+        // Adds a packet to its bucket, claiming the bucket's slot from an older bucket if need be.
+        private void add(long second, int wireLength, int protocols, int application) {
+            long bucket = second / resolution;
+            int slot = (int) (bucket % buckets);
+            if (bucketIds[slot] != bucket) {
+                // A packet too old for this tier would overwrite newer history, so it is left out.
+                if (bucketIds[slot] > bucket) { return; }
+                bytes[slot] = 0;
+                packets[slot] = 0;
+                Arrays.fill(protocolPackets, slot * Protocols.COUNT, (slot + 1) * Protocols.COUNT, 0);
+                Arrays.fill(applicationBytes, slot * ApplicationClassifier.COUNT,
+                        (slot + 1) * ApplicationClassifier.COUNT, 0);
+                bucketIds[slot] = bucket;
+            }
+            bytes[slot] += wireLength;
+            packets[slot]++;
+            applicationBytes[slot * ApplicationClassifier.COUNT + application] += wireLength;
+            // Only the bits that are set are visited.
+            while (protocols != 0) {
+                protocolPackets[slot * Protocols.COUNT + Integer.numberOfTrailingZeros(protocols)]++;
+                protocols &= protocols - 1;
+            }
+        }
+
+        /**
+         * @return The number of seconds each bucket covers.
+         */
+        public int resolution() {
+            return resolution;
+        }
+
+        /**
+         * @param latestSecond The latest second with a packet, in seconds since the epoch.
+         * @return The first second this tier still holds.
+         */
+        public long oldestSecond(long latestSecond) {
+            return Math.max(latestSecond / resolution - buckets + 1, 0) * resolution;
+        }
+
+        /**
+         * @param bucket The bucket, as seconds since the epoch divided by the resolution.
+         * @return The bytes transferred during that bucket, or 0 if it is no longer held.
+         */
+        public long bytes(long bucket) {
+            int slot = (int) (bucket % buckets);
+            return bucketIds[slot] == bucket ? bytes[slot] : 0;
+        }
+
+        /**
+         * @param bucket The bucket, as seconds since the epoch divided by the resolution.
+         * @return The packets received during that bucket, or 0 if it is no longer held.
+         */
+        public long packets(long bucket) {
+            int slot = (int) (bucket % buckets);
+            return bucketIds[slot] == bucket ? packets[slot] : 0;
+        }
+
+        /**
+         * @param bucket The bucket, as seconds since the epoch divided by the resolution.
+         * @param protocol A single protocol bit (see Protocols).
+         * @return The packets containing that protocol during that bucket, or 0 if it is no longer held.
+         */
+        public long protocolPackets(long bucket, int protocol) {
+            int slot = (int) (bucket % buckets);
+            return bucketIds[slot] == bucket
+                    ? protocolPackets[slot * Protocols.COUNT + Integer.numberOfTrailingZeros(protocol)] : 0;
+        }
+
+        /**
+         * @param bucket The bucket, as seconds since the epoch divided by the resolution.
+         * @param application The application (see ApplicationClassifier).
+         * @return The bytes that application transferred during that bucket, or 0 if it is no longer held.
+         */
+        public long applicationBytes(long bucket, int application) {
+            int slot = (int) (bucket % buckets);
+            return bucketIds[slot] == bucket ? applicationBytes[slot * ApplicationClassifier.COUNT + application] : 0;
+        }
+
+        /**
+         * This function copies the average bytes per second of a range of buckets into an array, for drawing.
+         * @param firstBucket The first bucket.
+         * @param count The number of buckets.
+         * @return A new array, with one value per bucket.
+         */
+        public long[] bytesPerSecond(long firstBucket, int count) {
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = bytes(firstBucket + i) / resolution;
+            }
+            return values;
+        }
+
+        /**
+         * This function copies the average bytes per second one application sent over a range of buckets into an
+         * array, for drawing.
+         * @param application The application (see ApplicationClassifier).
+         * @param firstBucket The first bucket.
+         * @param count The number of buckets.
+         * @return A new array, with one value per bucket.
+         */
+        public long[] applicationBytesPerSecond(int application, long firstBucket, int count) {
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = applicationBytes(firstBucket + i, application) / resolution;
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package networkvisualiser;
+
+import java.io.IOException;
+
+/**
+ * This class tracks who is communicating the most: the heaviest source addresses, destination addresses and address
+ * pairs, by bytes and by packets. Each of the six rankings is a HeavyHitters, so memory stays the same however many
+ * addresses appear; a scan or a flood of spoofed sources can't make it grow. Address pairs are normalised, so both
+ * directions of a conversation count towards the same pair.
+ * Only the thread which stores packets may update it, but it may be read from any thread.
+ */
+public class TopTalkers implements PacketObserver {
+    // What a ranking is keyed on.
+    public static final int SOURCE = 0;
+    public static final int DESTINATION = 1;
+    public static final int PAIR = 2;
+
+    static final int TRACKED = 50; // The number of addresses (or pairs) kept in each ranking.
+
+    private final HeavyHitters[] byBytes = new HeavyHitters[3];
+    private final HeavyHitters[] byPackets = new HeavyHitters[3];
+
+    /**
+     * Creates a new, empty TopTalkers.
+     */
+    public TopTalkers() {
+        for (int kind = 0; kind < 3; kind++) {
+            byBytes[kind] = new HeavyHitters(TRACKED);
+            byPackets[kind] = new HeavyHitters(TRACKED);
+        }
+    }
+
+    /**
+     * This method adds a stored packet to every ranking, if it is IPv4.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        add(fields.protocols, fields.sourceAddress, fields.destinationAddress, fields.wireLength);
+    }
+
+    /**
+     * This function adds a single packet to every ranking.
+     * @param protocols The packet's protocol bitmask (see Protocols); packets without IPv4 are ignored.
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param wireLength The original length of the packet on the wire.
+     */
+    public synchronized void add(int protocols, int sourceAddress, int destinationAddress, int wireLength) {
+        if ((protocols & Protocols.IP4) == 0) { return; }
+        long source = sourceAddress & 0xFFFFFFFFL;
+        long destination = destinationAddress & 0xFFFFFFFFL;
+        long pair = source <= destination ? (source << 32) | destination : (destination << 32) | source;
+
+        byBytes[SOURCE].add(source, wireLength);
+        byBytes[DESTINATION].add(destination, wireLength);
+        byBytes[PAIR].add(pair, wireLength);
+        byPackets[SOURCE].add(source, 1);
+        byPackets[DESTINATION].add(destination, 1);
+        byPackets[PAIR].add(pair, 1);
+    }
+
+    /**
+     * This function writes every ranking to a session (see SessionFile).
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    synchronized void save(SessionFile.Output out) throws IOException {
+        for (int kind = 0; kind < 3; kind++) {
+            byBytes[kind].save(out);
+            byPackets[kind].save(out);
+        }
+    }
+
+    /**
+     * This function reads every ranking back from a session. The rankings must be new.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    synchronized void load(SessionFile.Input in) throws IOException {
+        for (int kind = 0; kind < 3; kind++) {
+            byBytes[kind].load(in);
+            byPackets[kind].load(in);
+        }
+    }
+
+    /**
+     * This function returns one of the rankings, as it stands.
+     * @param kind What the ranking is keyed on: SOURCE, DESTINATION or PAIR.
+     * @param bytes Whether to rank by bytes, rather than by packets.
+     * @return A copy of the ranking, heaviest first.
+     */
+    public synchronized Ranking ranking(int kind, boolean bytes) {
+        HeavyHitters hitters = bytes ? byBytes[kind] : byPackets[kind];
+        return new Ranking(kind, hitters.keys(), hitters.weights(), hitters.totalWeight());
+    }
+
+    /**
+     * This class is a copy of one ranking, which can be read without holding up the capture.
+     */
+    public static class Ranking {
+        private final int kind;
+        private final long[] keys;
+        private final long[] weights;
+        private final long totalWeight;
+
+        Ranking(int kind, long[] keys, long[] weights, long totalWeight) {
+            this.kind = kind;
+            this.keys = keys;
+            this.weights = weights;
+            this.totalWeight = totalWeight;
+        }
+
+        /**
+         * @return The number of entries.
+         */
+        public int size() {
+            return keys.length;
+        }
+
+        /**
+         * @param entry The position in the ranking, from 0 (the heaviest).
+         * @return The address, or both addresses of the pair, such as "10.0.0.1 <-> 10.0.0.2".
+         */
+        public String label(int entry) {
+            if (kind != PAIR) { return FrameDecoder.formatAddress((int) keys[entry]); }
+            return FrameDecoder.formatAddress((int) (keys[entry] >>> 32)) + " <-> "
+                    + FrameDecoder.formatAddress((int) keys[entry]);
+        }
+
+        /**
+         * @param entry The position in the ranking, from 0 (the heaviest).
+         * @return The estimated bytes or packets; this may be slightly too high, but never too low.
+         */
+        public long weight(int entry) {
+            return weights[entry];
+        }
+
+        /**
+         * @return The total bytes or packets, across every address.
+         */
+        public long totalWeight() {
+            return totalWeight;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package networkvisualiser;
+
+import java.io.IOException;
+
+/**
+ * This class estimates the number of distinct source addresses, destination addresses and TCP/UDP flows, in about
+ * 12 KB however much traffic there is (see HyperLogLog). A SYN flood or port scan creates millions of flows, which
+ * would take a great deal of memory to count exactly; this gives the same numbers to within a few percent.
+ * A flow is its 5-tuple, normalised so both directions count as the same flow, as they do in FlowTable.
+ * It can follow a capture as a PacketObserver, or count a stored capture in parallel through ParallelAnalysis; either
+ * way, counts for separate chunks or time windows can be merged. Only one thread may add packets, but the estimates
+ * may be read from any thread.
+ */
+public class UniqueCounts implements PacketObserver, ParallelAnalysis.Accumulator<UniqueCounts> {
+    private final HyperLogLog sources = new HyperLogLog();
+    private final HyperLogLog destinations = new HyperLogLog();
+    private final HyperLogLog flows = new HyperLogLog();
+
+    /**
+     * This method counts a stored packet's addresses and flow.
+     * @param index The index of the new packet in the store.
+     * @param fields The packet's decoded fields.
+     */
+    @Override
+    public void packetAdded(int index, PacketFields fields) {
+        add(fields.protocols, fields.sourceAddress, fields.destinationAddress, fields.sourcePort,
+                fields.destinationPort);
+    }
+
+    /**
+     * This function counts a single packet's addresses and flow.
+     * @param protocols The packet's protocol bitmask (see Protocols); packets without IPv4 are ignored.
+     * @param sourceAddress The IPv4 source address.
+     * @param destinationAddress The IPv4 destination address.
+     * @param sourcePort The TCP/UDP source port.
+     * @param destinationPort The TCP/UDP destination port.
+     */
+    public void add(int protocols, int sourceAddress, int destinationAddress, int sourcePort, int destinationPort) {
+        if ((protocols & Protocols.IP4) == 0) { return; }
+        sources.add(sourceAddress & 0xFFFFFFFFL);
+        destinations.add(destinationAddress & 0xFFFFFFFFL);
+
+        boolean tcp = (protocols & Protocols.TCP) != 0;
+        if (!tcp && (protocols & Protocols.UDP) == 0) { return; }
+        // Normalise the flow, lower endpoint first, and fold the 104 bits of the 5-tuple into one key.
+        long source = ((sourceAddress & 0xFFFFFFFFL) << 16) | sourcePort;
+        long destination = ((destinationAddress & 0xFFFFFFFFL) << 16) | destinationPort;
+        long lower = Math.min(source, destination);
+        long upper = Math.max(source, destination);
+        flows.add(HyperLogLog.mix(lower ^ (tcp ? 0 : 1L << 63)) ^ upper);
+    }
+
+    @Override
+    public void accumulate(PacketStore store, int from, int to) {
+        for (int i = from; i < to; i++) {
+            add(store.protocols(i), store.sourceAddress(i), store.destinationAddress(i), store.sourcePort(i),
+                    store.destinationPort(i));
+        }
+    }
+
+    @Override
+    public void merge(UniqueCounts later) {
+        sources.merge(later.sources);
+        destinations.merge(later.destinations);
+        flows.merge(later.flows);
+    }
+
+    /**
+     * This function writes the estimators to a session (see SessionFile).
+     * @param out The session being written.
+     * @throws IOException If the session can't be written.
+     */
+    void save(SessionFile.Output out) throws IOException {
+        sources.save(out);
+        destinations.save(out);
+        flows.save(out);
+    }
+
+    /**
+     * This function reads the estimators back from a session. The counts must be new.
+     * @param in The session being read.
+     * @throws IOException If the session can't be read.
+     */
+    void load(SessionFile.Input in) throws IOException {
+        sources.load(in);
+        destinations.load(in);
+        flows.load(in);
+    }
+
+    /**
+     * @return The estimated number of distinct IPv4 source addresses.
+     */
+    public long sources() { return sources.estimate(); }
+
+    /**
+     * @return The estimated number of distinct IPv4 destination addresses.
+     */
+    public long destinations() { return destinations.estimate(); }
+
+    /**
+     * @return The estimated number of distinct TCP and UDP flows.
+     */
+    public long flows() { return flows.estimate(); }
+}
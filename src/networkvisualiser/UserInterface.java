@@ -0,0 +1,633 @@
+package networkvisualiser;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.chart.AreaChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.PieChart;
+import javafx.scene.chart.XYChart;
+import javafx.scene.chart.XYChart.Data;
+import javafx.scene.control.*;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.*;
+import javafx.scene.text.Font;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * This class is responsible for generating all UI components.
+ * Each part of the UI is a separate function for modularity; updating one tab won't impact another.
+ */
+@SuppressWarnings("rawtypes")
+public class UserInterface{
+    TabPane mainContent; // Our root node in the scene graph, a TabPane.
+    GridPane chartPane = new GridPane(); // A GridPane is used for the 'Overall' tab.
+    GridPane layer4Pane = new GridPane(); // A GridPane is ued for the 'Layer 4' tab.
+    VBox talkersPane = new VBox(10); // A VBox is used for the 'Top Talkers' tab.
+    VBox diagnosticsPane = new VBox(10); // A VBox is used for the 'Diagnostics' tab.
+    Tab diagnosticsTab;
+    ObservableList<String> diagnosticRows;
+
+    // While a capture is running, we keep hold of the parts of the UI that are updated live.
+    PacketStore packetStore;
+    ThroughputHistory throughputData;
+    FlowTable flowTable;
+    UniqueCounts uniqueCounts;
+    PacketIndex packetIndex;
+    TcpAnalytics tcpAnalytics;
+    String[] captureInterfaces;
+    CaptureRingBuffer[] captureBuffers; // One per interface, in the same order as captureInterfaces.
+    TopTalkers topTalkers;
+    ChoiceBox<String> talkerKind;
+    ChoiceBox<String> talkerWeight;
+    ObservableList<String> talkerRows;
+    ListView<String> packetSelector;
+    PacketListModel packetRows;
+    TextField filterField;
+    DisplayFilter activeFilter; // The filter applied to the packet selector, or null to show every packet.
+    PacketBitmap filteredPackets; // The packets which match the filter, up to filteredUpTo.
+    int filteredUpTo = 0;
+    XYChart.Series<Number, Number> chartData;
+    ArrayList<XYChart.Series<Number, Number>> applicationData; // One series per application, from WEB onwards.
+    NumberAxis chartXAxis;
+    Label captureStatus;
+    boolean capturing = true;
+
+    // The range of seconds shown in the chart. While viewEnd is negative, the whole capture is shown as it grows.
+    int viewStart = 0;
+    int viewEnd = -1;
+    static final int MINIMUM_VIEW_SECONDS = 10; // The furthest the chart can be zoomed in.
+    static final int PIXELS_PER_BUCKET = 2; // Each bucket is drawn as two points, so this is a point per pixel.
+
+    /**
+     * The constructor for the class. Responsible for setting up the overall structure of the UI.
+     */
+    public UserInterface() {
+        // Set-up the 'Overall' tab.
+        RowConstraints equalSizing = new RowConstraints();
+        equalSizing.setPercentHeight(50);
+        chartPane.getRowConstraints().add(equalSizing);
+        ColumnConstraints fullWidth = new ColumnConstraints();
+        fullWidth.setPercentWidth(100);
+        chartPane.getColumnConstraints().add(fullWidth);
+        chartPane.setPadding(new Insets(10));
+        chartPane.setHgap(5);
+
+        // Set-up the 'Layer 4' tab.
+        layer4Pane.getRowConstraints().addAll(equalSizing, equalSizing);
+        ColumnConstraints twoSegments = new ColumnConstraints();
+        twoSegments.setPercentWidth(50);
+        twoSegments.setHgrow(Priority.ALWAYS);
+        layer4Pane.getColumnConstraints().addAll(twoSegments, twoSegments);
+        layer4Pane.setPadding(new Insets(5));
+
+        // Set-up the 'Top Talkers' tab.
+        talkersPane.setPadding(new Insets(10));
+
+        // Set-up the 'Diagnostics' tab.
+        diagnosticsPane.setPadding(new Insets(10));
+
+        // Generate the tab objects.
+        Tab tab1 = new Tab("Overall", chartPane);
+        Tab tab4 = new Tab("Layer 4"  , layer4Pane);
+        Tab tabTalkers = new Tab("Top Talkers", talkersPane);
+        diagnosticsTab = new Tab("Diagnostics", diagnosticsPane);
+
+        // Set up the TabPane.
+        mainContent = new TabPane();
+        mainContent.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+        mainContent.getTabs().addAll(tab1, tab4, tabTalkers, diagnosticsTab);
+    }
+
+    /**
+     * This function returns the root node in the UI.
+     * @return A Scene object, which has our TabPane set as its' content.
+     */
+    public Scene getRoot(){
+        return new Scene(mainContent,800, 600);
+    }
+
+    /**
+     * This function generates the packet selector for the 'Overall' tab.
+     * @param packetList The store of packets to generate a ListView for.
+     */
+    public void generatePacketSelector(PacketStore packetList){
+        long start = System.nanoTime();
+        // Create a ListView backed by a virtual list, so information is only generated for the packets on screen.
+        // The list grows as packets arrive (see updateLiveData).
+        packetStore = packetList;
+        packetRows = new PacketListModel(packetList);
+        packetRows.setSize(packetList.size());
+        packetSelector = new ListView<String>(packetRows);
+
+        // Set up event handling for the ListView.
+        packetSelector.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.PacketClick(packetSelector));
+
+        // A display filter above the list narrows it down; it is applied when the user presses Enter or 'Apply'.
+        filterField = new TextField();
+        filterField.setPromptText("Display filter, e.g. tcp.flags.rst && ip.src == 10.0.0.5 && frame.len > 1000");
+        UserInterfaceHandler.ApplyFilter applyFilter = new UserInterfaceHandler.ApplyFilter(this, filterField);
+        filterField.setOnAction(applyFilter);
+        Button applyButton = new Button("Apply");
+        applyButton.setOnAction(applyFilter);
+        applyButton.setStyle("-fx-font-size: 0.75em; ");
+        HBox filterBar = new HBox(5, filterField, applyButton);
+        filterBar.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(filterField, Priority.ALWAYS);
+
+        // Display the filter and the selector beneath the graph on the 'Overall' tab.
+        VBox selectorPane = new VBox(5, filterBar, packetSelector);
+        VBox.setVgrow(packetSelector, Priority.ALWAYS);
+        GridPane.setColumnIndex(selectorPane, 0);
+        GridPane.setRowIndex(selectorPane, 1);
+
+        // Add a Label to help the user...
+        Label instructions = new Label("Double click on a packet to view more information about it");
+        instructions.setFont(new Font(9));
+        GridPane.setColumnIndex(instructions, 0);
+        GridPane.setRowIndex(instructions, 2);
+
+        chartPane.getChildren().addAll(selectorPane, instructions);
+        Metrics.histogram("ui.generatePacketSelector").recordSince(start);
+    }
+
+    /**
+     * This function applies a display filter to the packet selector, or shows every packet again if it is blank.
+     * The filter is compiled once, run over the packets stored so far, and then over new packets as they arrive.
+     * @param expression The filter, as typed by the user.
+     * @return An error message if the filter isn't valid, or null if it was applied.
+     */
+    public String applyFilter(String expression){
+        DisplayFilter filter = null;
+        if(!expression.trim().isEmpty()){
+            try {
+                filter = DisplayFilter.compile(expression);
+            } catch (ParseException e) {
+                return e.getMessage();
+            }
+        }
+
+        // Swap in a new list model; the old one's rows no longer apply.
+        activeFilter = filter;
+        if(filter == null){
+            packetRows = new PacketListModel(packetStore);
+            packetRows.setSize(packetStore.size());
+        }
+        else {
+            // The packets already stored are filtered in parallel, and the rest as they arrive (see updateLiveData).
+            filteredUpTo = packetStore.size();
+            filteredPackets = PacketProcessor.filterPackets(packetStore, filter, 0, filteredUpTo);
+            packetRows = new PacketListModel(packetStore, filteredPackets);
+        }
+        packetSelector.setItems(packetRows);
+        return null;
+    }
+
+    /**
+     * This function generates the chart for the 'Overall' tab.
+     * @param throughput The throughput history to place into the chart.
+     */
+    public void generateChart(ThroughputHistory throughput){
+        long start = System.nanoTime();
+        // The data needed for the chart - the amount of data sent each second - is added as it arrives.
+        throughputData = throughput;
+
+        // Set up the x-axis and y-axis. The x-axis range and ticks are set whenever the chart is drawn.
+        // TODO: Adjust y-axis values to eliminate unnecessary space.
+        chartXAxis = new NumberAxis(0, 1, 1);
+        chartXAxis.setAutoRanging(false);
+        NumberAxis yAxis = new NumberAxis();
+        chartXAxis.setLabel("Time Since Capture Began (Seconds)");
+        yAxis.setLabel("Bytes Transferred");
+
+        // The series starts empty; see updateLiveData. Points are replaced as the chart is redrawn, so we don't animate.
+        AreaChart<Number, Number> packetChart = new AreaChart<>(chartXAxis, yAxis);
+        packetChart.setTitle("Network Activity");
+        packetChart.setAnimated(false);
+        chartData = new XYChart.Series<>();
+        chartData.setName("All Traffic");
+        packetChart.getData().add(chartData);
+        // Each recognised application gets its own series in front of the total; the rest of the total is 'Other'.
+        applicationData = new ArrayList<>();
+        for(int application = ApplicationClassifier.WEB; application < ApplicationClassifier.COUNT; application++){
+            XYChart.Series<Number, Number> series = new XYChart.Series<>();
+            series.setName(ApplicationClassifier.name(application));
+            applicationData.add(series);
+            packetChart.getData().add(series);
+        }
+
+        // The number of points drawn depends on the chart's width, so it is redrawn when resized.
+        // Scrolling zooms in and out around the cursor, and double-clicking shows the whole capture again.
+        chartXAxis.widthProperty().addListener((observable, oldWidth, newWidth) -> renderChart());
+        packetChart.addEventHandler(ScrollEvent.SCROLL, new UserInterfaceHandler.ChartZoom(this, chartXAxis));
+        packetChart.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.ChartZoomReset(this));
+
+        // Format the chart, and add to the pane responsible for the 'Overall' tab.
+        packetChart.setCreateSymbols(false);
+        packetChart.setLegendVisible(true);
+        GridPane.setColumnIndex(packetChart, 0);
+        GridPane.setRowIndex(packetChart, 0);
+        chartPane.getChildren().add(packetChart);
+        Metrics.histogram("ui.generateChart").recordSince(start);
+    }
+
+    /**
+     * This function generates the 'Layer 4' tab.
+     * @param packetList The store of packets to summarise.
+     * @param flows The flow table kept up to date with the store, which holds the connection statistics.
+     * @param unique The estimated distinct hosts and flows, kept up to date with the store.
+     * @param index The index of the store's packets, which the packet lists are drawn from.
+     * @param analytics The TCP performance measurements, kept up to date with the store.
+     */
+    public void generateLayer4Information(PacketStore packetList, FlowTable flows, UniqueCounts unique,
+                                          PacketIndex index, TcpAnalytics analytics){
+        long start = System.nanoTime();
+        // This may be called again once a capture stops, so we start from a clean slate.
+        layer4Pane.getChildren().clear();
+        flowTable = flows;
+        uniqueCounts = unique;
+        packetIndex = index;
+        tcpAnalytics = analytics;
+
+        // Handshake Round Trip Panel
+        // The round trip times come from histograms, so percentiles cost the same however many handshakes there are.
+        VBox handshakePanel = new VBox();
+        handshakePanel.setSpacing(10);
+        handshakePanel.getChildren().addAll(panelHeader("Handshake Round Trip"),
+                statisticLabel(describeRoundTrip("SYN to SYN-ACK", analytics.synToSynAck())),
+                statisticLabel(describeRoundTrip("SYN-ACK to ACK", analytics.synAckToAck())));
+        placePanel(handshakePanel, 0, 0);
+
+        // TCP Performance Panel
+        VBox performancePanel = new VBox();
+        performancePanel.setSpacing(10);
+        performancePanel.getChildren().addAll(panelHeader("TCP Performance"),
+                statisticLabel(String.format("%d retransmissions (%.2f%% of data segments)",
+                        analytics.retransmissions(), analytics.retransmissionRate())),
+                statisticLabel(analytics.outOfOrder() + " out-of-order segments"),
+                statisticLabel(analytics.duplicateAcknowledgments() + " duplicate ACKs"),
+                statisticLabel(analytics.zeroWindows() + " zero-window advertisements"));
+        placePanel(performancePanel, 1, 1);
+
+        // Every per-packet count on this tab comes from one parallel pass over the store.
+        ParallelAnalysis.ProtocolSummary summary = PacketProcessor.summariseProtocols(packetList);
+
+        // TCP vs. UDP Pie Chart
+        ObservableList<PieChart.Data> pieChartData =
+                FXCollections.observableArrayList(
+                        new PieChart.Data("TCP", summary.packetsWith(Protocols.TCP)),
+                        new PieChart.Data("UDP", summary.packetsWith(Protocols.UDP)));
+        final PieChart chart = new PieChart(pieChartData);
+        chart.setLegendVisible(false);
+        chart.setTitle("TCP vs. UDP");
+        layer4Pane.getChildren().add(chart);
+        GridPane.setColumnIndex(chart, 1);
+        GridPane.setRowIndex(chart, 0);
+
+        // Statistics Panel
+        VBox statisticsPanel = new VBox();
+        statisticsPanel.setSpacing(10);
+
+        Label tcpStatisticsHeader = new Label("TCP Statistics"); tcpStatisticsHeader.setUnderline(true);
+        tcpStatisticsHeader.setFont(new Font(16));
+        tcpStatisticsHeader.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(tcpStatisticsHeader, Priority.ALWAYS); tcpStatisticsHeader.setAlignment(Pos.CENTER);
+
+        // Connections, handshakes and resets all come from the flow table, which follows each connection's state.
+        // The list of connections is only built if the user asks to see it.
+        Label connectionCount = new Label(flows.connections() + " connections");
+        connectionCount.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(connectionCount, Priority.ALWAYS); connectionCount.setAlignment(Pos.CENTER);
+        Button showConnections = new Button("Show List of Connections");
+        showConnections.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.ConnectionListClick(flows::listConnections));
+
+        // Distinct hosts and flows are estimates, so they cost the same however many there are.
+        Label uniqueHosts = new Label("~" + unique.sources() + " sending hosts, ~" + unique.destinations()
+                + " receiving hosts, ~" + unique.flows() + " TCP/UDP flows");
+        uniqueHosts.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(uniqueHosts, Priority.ALWAYS); uniqueHosts.setAlignment(Pos.CENTER);
+        showConnections.setStyle("-fx-font-size: 0.75em; ");
+
+        Label threeWayHandshakes = new Label(flows.handshakes() + " three-way handshakes");
+        threeWayHandshakes.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(threeWayHandshakes, Priority.ALWAYS); threeWayHandshakes.setAlignment(Pos.CENTER);
+        Button showHandshakes = new Button("Show All Handshakes");
+        showHandshakes.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.PacketListClick(
+                "Handshake Packets", packetList, () -> index.tcpFlag(Protocols.TCP_SYN)));
+        showHandshakes.setStyle("-fx-font-size: 0.75em; ");
+
+        Label urgentPackets = new Label(summary.packetsWithFlag(Protocols.TCP_URG) + " urgent packets");
+        urgentPackets.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(urgentPackets, Priority.ALWAYS); urgentPackets.setAlignment(Pos.CENTER);
+        Button showUrgent = new Button("Show All Urgent Packets");
+        showUrgent.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.PacketListClick(
+                "Urgent Packets", packetList, () -> index.tcpFlag(Protocols.TCP_URG)));
+        showUrgent.setStyle("-fx-font-size: 0.75em; ");
+
+        Label resetConnections = new Label(flows.resets() + " reset connections");
+        resetConnections.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(resetConnections, Priority.ALWAYS); resetConnections.setAlignment(Pos.CENTER);
+        Button showResets = new Button("Show All Reset Packets");
+        showResets.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.PacketListClick(
+                "Reset Packets", packetList, () -> index.tcpFlag(Protocols.TCP_RST)));
+        showResets.setStyle("-fx-font-size: 0.75em; ");
+
+        statisticsPanel.getChildren().addAll(tcpStatisticsHeader, uniqueHosts, connectionCount, showConnections,
+                threeWayHandshakes, showHandshakes, urgentPackets, showUrgent, resetConnections, showResets);
+
+        layer4Pane.getChildren().add(statisticsPanel);
+        statisticsPanel.setAlignment(Pos.CENTER);
+        GridPane.setColumnIndex(statisticsPanel, 0);
+        GridPane.setRowIndex(statisticsPanel, 1);
+        GridPane.setFillHeight(statisticsPanel, true); GridPane.setFillWidth(statisticsPanel, true);
+        statisticsPanel.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+        Metrics.histogram("ui.generateLayer4Information").recordSince(start);
+    }
+
+    // Builds a header for one of the panels on the 'Layer 4' tab.
+    private static Label panelHeader(String text){
+        Label header = new Label(text); header.setUnderline(true);
+        header.setFont(new Font(16));
+        header.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(header, Priority.ALWAYS); header.setAlignment(Pos.CENTER);
+        return header;
+    }
+
+    // Builds a line of a panel on the 'Layer 4' tab, which fills its share of the panel's height.
+    private static Label statisticLabel(String text){
+        Label label = new Label(text);
+        label.setMaxSize(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        VBox.setVgrow(label, Priority.ALWAYS); label.setAlignment(Pos.CENTER);
+        return label;
+    }
+
+    // Puts a panel into a cell of the 'Layer 4' tab, filling it.
+    private void placePanel(VBox panel, int column, int row){
+        panel.setAlignment(Pos.CENTER);
+        layer4Pane.getChildren().add(panel);
+        GridPane.setColumnIndex(panel, column);
+        GridPane.setRowIndex(panel, row);
+        GridPane.setFillHeight(panel, true); GridPane.setFillWidth(panel, true);
+        panel.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+    }
+
+    // Describes one step of the handshake, such as 'SYN to SYN-ACK: 120 handshakes, median 1.2 ms, 99% within 8.0 ms'.
+    private static String describeRoundTrip(String step, LatencyHistogram times){
+        if(times.count() == 0) { return step + ": no handshakes seen yet"; }
+        return String.format("%s: %d handshakes, median %.2f ms, 99%% within %.2f ms, slowest %.2f ms", step,
+                times.count(), times.percentileMicros(50) / 1000, times.percentileMicros(99) / 1000,
+                times.maximumMicros() / 1000);
+    }
+
+    /**
+     * This function generates the 'Top Talkers' tab, which ranks the busiest addresses and conversations.
+     * @param talkers The rankings kept up to date with the store.
+     */
+    public void generateTopTalkers(TopTalkers talkers){
+        long start = System.nanoTime();
+        topTalkers = talkers;
+
+        // The user picks what to rank by; the list is redrawn straight away, and then as packets arrive.
+        talkerKind = new ChoiceBox<>(FXCollections.observableArrayList("Sources", "Destinations", "Conversations"));
+        talkerKind.setValue("Sources");
+        talkerKind.valueProperty().addListener((observable, oldValue, newValue) -> renderTopTalkers());
+        talkerWeight = new ChoiceBox<>(FXCollections.observableArrayList("Bytes", "Packets"));
+        talkerWeight.setValue("Bytes");
+        talkerWeight.valueProperty().addListener((observable, oldValue, newValue) -> renderTopTalkers());
+        HBox controls = new HBox(10, new Label("Rank"), talkerKind, new Label("by"), talkerWeight);
+        controls.setAlignment(Pos.CENTER_LEFT);
+
+        talkerRows = FXCollections.observableArrayList();
+        ListView<String> talkerList = new ListView<>(talkerRows);
+        VBox.setVgrow(talkerList, Priority.ALWAYS);
+        Label note = new Label("Counts are estimates, which may be slightly high but are never low");
+
+        talkersPane.getChildren().clear();
+        talkersPane.getChildren().addAll(controls, talkerList, note);
+        renderTopTalkers();
+        Metrics.histogram("ui.generateTopTalkers").recordSince(start);
+    }
+
+    /**
+     * This function redraws the 'Top Talkers' list from the chosen ranking.
+     */
+    public void renderTopTalkers(){
+        if(topTalkers == null) { return; }
+        int kind = talkerKind.getSelectionModel().getSelectedIndex();
+        boolean bytes = "Bytes".equals(talkerWeight.getValue());
+        TopTalkers.Ranking ranking = topTalkers.ranking(kind, bytes);
+
+        ArrayList<String> rows = new ArrayList<>(ranking.size());
+        for(int entry = 0; entry < ranking.size(); entry++){
+            double share = ranking.totalWeight() > 0 ? 100.0 * ranking.weight(entry) / ranking.totalWeight() : 0;
+            rows.add(String.format("%d. %s - %,d %s (%.1f%%)", entry + 1, ranking.label(entry), ranking.weight(entry),
+                    bytes ? "bytes" : "packets", share));
+        }
+        talkerRows.setAll(rows);
+    }
+
+    /**
+     * This function generates the 'Diagnostics' tab, which shows the tool's own metrics (see Metrics): how many packets
+     * were received and dropped, how full the buffers are, and how long each stage takes.
+     */
+    public void generateDiagnostics(){
+        long start = System.nanoTime();
+        diagnosticRows = FXCollections.observableArrayList();
+        ListView<String> metricList = new ListView<>(diagnosticRows);
+        VBox.setVgrow(metricList, Priority.ALWAYS);
+        Label note = new Label("Latencies are accurate to within about 6%. The same metrics are published over JMX as "
+                + Metrics.OBJECT_NAME);
+
+        diagnosticsPane.getChildren().clear();
+        diagnosticsPane.getChildren().addAll(metricList, note);
+        renderDiagnostics();
+        Metrics.histogram("ui.generateDiagnostics").recordSince(start);
+    }
+
+    /**
+     * This function redraws the 'Diagnostics' tab from the current metrics.
+     */
+    public void renderDiagnostics(){
+        if(diagnosticRows == null) { return; }
+        diagnosticRows.setAll(Metrics.describe());
+    }
+
+    /**
+     * This function generates the capture controls beneath the packet selector on the 'Overall' tab.
+     * @param interfaces The names of the interfaces being captured on (null when reading a file).
+     * @param buffers The ring buffer each interface is feeding, used to report dropped packets (null when reading a
+     *                file).
+     * @param stopCapture Stops the capture; this is run away from the JavaFX Application Thread.
+     */
+    public void generateCaptureControls(String[] interfaces, CaptureRingBuffer[] buffers, Runnable stopCapture){
+        long start = System.nanoTime();
+        captureInterfaces = interfaces;
+        captureBuffers = buffers;
+        captureStatus = new Label("Capturing...");
+        Button stopButton = new Button("Stop Capture");
+        stopButton.addEventHandler(MouseEvent.MOUSE_CLICKED, new UserInterfaceHandler.StopCaptureClick(this, stopCapture));
+        stopButton.setStyle("-fx-font-size: 0.75em; ");
+
+        HBox controls = new HBox(10, stopButton, captureStatus);
+        controls.setAlignment(Pos.CENTER_LEFT);
+        GridPane.setColumnIndex(controls, 0);
+        GridPane.setRowIndex(controls, 3);
+        chartPane.getChildren().add(controls);
+        Metrics.histogram("ui.generateCaptureControls").recordSince(start);
+    }
+
+    /**
+     * This function pushes any newly captured packets to the chart and the packet selector, in one batch.
+     * It is called a few times a second by UserInterfaceHandler.LiveUpdate.
+     */
+    public void updateLiveData(){
+        long start = System.nanoTime();
+        // Extend the packet selector to cover new packets. Rows are only generated once they are on screen.
+        int available = packetStore.size();
+        if(activeFilter == null){
+            packetRows.setSize(available);
+        }
+        else {
+            // Only the new packets need to be checked against the filter.
+            activeFilter.filter(packetStore, filteredUpTo, available, filteredPackets);
+            filteredUpTo = available;
+            packetRows.setSize((int) filteredPackets.cardinality());
+        }
+
+        // The chart is redrawn from the per-second totals, as the latest second (and the range shown) may have grown.
+        renderChart();
+        renderTopTalkers();
+        // The metrics are only read while they are on screen.
+        if(diagnosticsTab.isSelected()) { renderDiagnostics(); }
+
+        // Keep the user informed of how the capture is going.
+        if(captureStatus != null && captureBuffers == null){
+            // Reading a capture file, so nothing can be dropped.
+            captureStatus.setText((capturing ? "Reading file - " : "File read - ") + available + " packets");
+        }
+        else if(captureStatus != null){
+            long dropped = 0;
+            StringBuilder perInterface = new StringBuilder();
+            for (int i = 0; i < captureBuffers.length; i++) {
+                dropped += captureBuffers[i].droppedPackets();
+                perInterface.append(" | ").append(captureInterfaces[i]).append(": ")
+                        .append(captureBuffers[i].publishedPackets()).append(" packets, ")
+                        .append(captureBuffers[i].droppedPackets()).append(" dropped");
+            }
+            // With a single interface, the breakdown would only repeat the totals.
+            captureStatus.setText((capturing ? "Capturing - " : "Capture stopped - ") + available + " packets, "
+                    + dropped + " dropped" + (captureBuffers.length > 1 ? perInterface : ""));
+        }
+        Metrics.histogram("ui.updateLiveData").recordSince(start);
+    }
+
+    /**
+     * This function draws the chart for the seconds in view. The history tier whose resolution best fits the view is
+     * read, then reduced to about one point per pixel of width (see ChartDecimator), and the existing points are
+     * reused where possible. Longer views are drawn from coarser tiers, as bytes per second averaged over each bucket.
+     * The total and each application's share are drawn the same way, as separate series.
+     */
+    public void renderChart(){
+        if(throughputData == null) { return; }
+        long first = throughputData.startingSecond();
+        int length = capturedSeconds();
+        int from = viewEnd < 0 ? 0 : Math.min(viewStart, length);
+        int to = viewEnd < 0 ? length : Math.min(viewEnd, length);
+        double width = chartXAxis.getWidth() > 0 ? chartXAxis.getWidth() : 800;
+        int buckets = (int) Math.ceil(width / PIXELS_PER_BUCKET);
+
+        // Read the buckets covering the view from the chosen tier, then pick the points to draw.
+        ThroughputHistory.Tier tier = throughputData.tier(throughputData.chooseTier(first + from, first + to,
+                buckets * 2));
+        int resolution = tier.resolution();
+        long firstBucket = (first + from) / resolution;
+        int count = to > from ? (int) ((first + to - 1) / resolution - firstBucket + 1) : 0;
+        long[] values = tier.bytesPerSecond(firstBucket, count);
+        drawSeries(chartData, ChartDecimator.minMax(values, 0, count, buckets), firstBucket, resolution, first);
+        for(int application = ApplicationClassifier.WEB; application < ApplicationClassifier.COUNT; application++){
+            long[] sent = tier.applicationBytesPerSecond(application, firstBucket, count);
+            drawSeries(applicationData.get(application - ApplicationClassifier.WEB),
+                    ChartDecimator.minMax(sent, 0, count, buckets), firstBucket, resolution, first);
+        }
+
+        // The axis covers the view, with a tick unit that keeps the labels readable.
+        double lower = viewEnd < 0 ? 0 : viewStart;
+        double upper = viewEnd < 0 ? Math.max(length - 1, 1) : viewEnd - 1;
+        chartXAxis.setLowerBound(lower);
+        chartXAxis.setUpperBound(upper);
+        chartXAxis.setTickUnit(ChartDecimator.tickUnit(upper - lower, (int) Math.max(width / 80, 2)));
+    }
+
+    // Moves a series' existing points, then adds or removes points so there are the right number.
+    private void drawSeries(XYChart.Series<Number, Number> series, ChartDecimator.Points points, long firstBucket,
+                            int resolution, long first){
+        ObservableList<Data<Number, Number>> shown = series.getData();
+        int reused = Math.min(shown.size(), points.size());
+        for(int point = 0; point < reused; point++){
+            shown.get(point).setXValue((firstBucket + points.index(point)) * resolution - first);
+            shown.get(point).setYValue(points.value(point));
+        }
+        if(points.size() > reused){
+            ArrayList<Data<Number, Number>> added = new ArrayList<>(points.size() - reused);
+            for(int point = reused; point < points.size(); point++){
+                added.add(new Data<>((firstBucket + points.index(point)) * resolution - first, points.value(point)));
+            }
+            shown.addAll(added);
+        }
+        else if(shown.size() > reused){
+            shown.remove(reused, shown.size());
+        }
+    }
+
+    // The number of seconds from the first packet to the latest.
+    private int capturedSeconds(){
+        long first = throughputData.startingSecond();
+        return first < 0 ? 0 : (int) (throughputData.latestSecond() - first + 1);
+    }
+
+    /**
+     * This function zooms the chart in or out around a second.
+     * @param centre The second to zoom around, which stays in place.
+     * @param factor The amount to scale the range shown by; less than 1 zooms in.
+     */
+    public void zoomChart(double centre, double factor){
+        int length = capturedSeconds();
+        double lower = viewEnd < 0 ? 0 : viewStart;
+        double upper = viewEnd < 0 ? Math.max(length, 1) : viewEnd;
+        double range = Math.max((upper - lower) * factor, MINIMUM_VIEW_SECONDS);
+        double start = centre - (centre - lower) * range / (upper - lower);
+
+        // Zooming out past the whole capture goes back to following it.
+        if(range >= length){
+            resetChartZoom();
+            return;
+        }
+        viewStart = (int) Math.max(Math.round(start), 0);
+        viewEnd = (int) Math.min(viewStart + Math.round(range), length);
+        viewStart = Math.max(viewEnd - (int) Math.round(range), 0);
+        renderChart();
+    }
+
+    /**
+     * This function shows the whole capture in the chart again, following it as it grows.
+     */
+    public void resetChartZoom(){
+        viewStart = 0;
+        viewEnd = -1;
+        renderChart();
+    }
+
+    /**
+     * This function is called once the capture has stopped, to finish off the live parts of the UI.
+     */
+    public void captureStopped(){
+        capturing = false;
+        updateLiveData();
+        generateLayer4Information(packetStore, flowTable, uniqueCounts, packetIndex, tcpAnalytics);
+    }
+}
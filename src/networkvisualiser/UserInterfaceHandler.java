@@ -0,0 +1,375 @@
+package networkvisualiser;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.control.*;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+/**
+ * This class wil be responsible for handling GUI events.
+ * Instances of these EventHandlers are created by UserInterface.
+ */
+public class UserInterfaceHandler {
+    /**
+     * This class handles clicking on a packet in the packet selector on the 'Overall' tab of the UI.
+     */
+    public static class PacketClick implements EventHandler<MouseEvent>{
+        /**
+         * This class represents a custom Dialog to show the raw packet to the user.
+         */
+        private class PacketDialogBox extends Dialog{
+            /**
+             * The constructor sets up the design of the Dialog.
+             * @param packetNumber The number of the packet in the capture.
+             * @param store The store holding the packet.
+             * @param index The index of the packet in the store.
+             */
+            public PacketDialogBox(int packetNumber, PacketStore store, int index) {
+                // Set up header/title text.
+                this.setHeaderText("Packet " + packetNumber);
+                this.setTitle("Packet Information");
+
+                // We use a TextArea to show the raw packet text.
+                TextArea packetText = new TextArea();
+                packetText.setText(store.packet(index).toString());
+                packetText.setEditable(false);
+
+                // The packet can be saved on its own, as a pcap file.
+                Button exportButton = new Button("Export to File...");
+                exportButton.setOnAction(event -> {
+                    FileChooser chooser = new FileChooser();
+                    chooser.setTitle("Export Packet");
+                    chooser.setInitialFileName("packet-" + packetNumber + ".pcap");
+                    chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("pcap files", "*.pcap"));
+                    File file = chooser.showSaveDialog(this.getDialogPane().getScene().getWindow());
+                    if (file == null) { return; }
+                    try {
+                        PcapSegmentWriter.exportPackets(file.toPath(), store, index);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+
+                // We customise the Dialog further.
+                this.getDialogPane().setContent(new VBox(10, packetText, exportButton));
+                this.getDialogPane().setMinWidth(500);
+                this.getDialogPane().getButtonTypes().setAll(ButtonType.OK);
+            }
+        }
+
+        ListView list; // As we're in a separate class, we need a reference back to the ListView.
+
+        /**
+         * This constructor assigns our member variable.
+         * @param listObject The ListView this class will be attached to, which is backed by a PacketListModel.
+         */
+        public PacketClick(ListView listObject){
+            list = listObject;
+        }
+
+        /**
+         * This class handles when the ListView is clicked.
+         * @param event The generated MouseEvent.
+         */
+        @Override
+        public void handle(MouseEvent event) {
+            // If the user has clicked on an item, and have double-clicked...
+            if(!event.getTarget().toString().contains("null") && event.getButton().equals(MouseButton.PRIMARY)
+                && event.getClickCount() == 2){
+                // Instantiate dialog box for selected packet. The list's model says which packet each row shows;
+                // it is looked up each time, as a filter may have replaced it.
+                PacketListModel packets = (PacketListModel) list.getItems();
+                int indexSelected = packets.packetIndex(list.getSelectionModel().getSelectedIndex());
+                Dialog dialogBox = new PacketDialogBox(indexSelected + 1, packets.store(), indexSelected);
+
+                // Show the dialog box to the user.
+                dialogBox.showAndWait();
+            }
+        }
+    }
+
+    /**
+     * This class handles any button that resembles "Show Connections" across the GUI.
+     */
+    public static class ConnectionListClick implements EventHandler<MouseEvent>{
+        /**
+         * This class represents a custom Dialog to show a list of strings, which represent connections.
+         */
+        public class ConnectionListDialogBox extends Dialog{
+            /**
+             * This instantiates a new Dialog, using the supplied ArrayList of strings.
+             * @param connections The list of connections to show.
+             */
+            public ConnectionListDialogBox(ArrayList<String> connections){
+                // Set up header/title text.
+                this.setHeaderText("Connection List");
+                this.setTitle("Connection List");
+
+                // We use a ScrollPane so the Dialog doesn't extend vertically, and a VBox to position the items.
+                ScrollPane pane = new ScrollPane();
+                VBox stringList = new VBox();
+                pane.setContent(stringList);
+                pane.setPrefHeight(150);
+
+                // Create a Label for each item, and add it to the VBox.
+                for(String item : connections) {
+                    item.trim();
+                    Label text = new Label(item);
+                    stringList.getChildren().add(text);
+                }
+
+                // We customise the Dialog further.
+                this.getDialogPane().setContent(pane);
+                this.getDialogPane().setMinWidth(500);
+                this.getDialogPane().getButtonTypes().setAll(ButtonType.OK);
+
+            }
+        }
+
+        Supplier<ArrayList<String>> connections; // Lists the connections this EventHandler will pass to our Dialog.
+
+        /**
+         * This constructor assigns the variable needed to list the connections.
+         * The list is only built when the Button is clicked, as it can be very long.
+         * @param data Lists the connections, as an ArrayList of strings.
+         */
+        public ConnectionListClick(Supplier<ArrayList<String>> data){
+            this.connections = data;
+        }
+
+        /**
+         * This class handles when the Button is clicked.
+         * @param mouseEvent The mouseEvent which is generated.
+         */
+        @Override
+        public void handle(MouseEvent mouseEvent) {
+            // Create and show the Dialog.
+            Dialog dialogBox = new ConnectionListDialogBox(connections.get());
+            dialogBox.showAndWait();
+        }
+    }
+
+    /**
+     * This class handles any button that shows a filtered list of packets, such as "Show All Urgent Packets".
+     */
+    public static class PacketListClick implements EventHandler<MouseEvent>{
+        /**
+         * This class represents a custom Dialog to show a list of packets, which can be opened as they are in the
+         * packet selector.
+         */
+        public class PacketListDialogBox extends Dialog{
+            /**
+             * This instantiates a new Dialog, listing the given packets.
+             * @param title The title of the Dialog.
+             * @param packets The virtual list of the packets to show.
+             */
+            public PacketListDialogBox(String title, PacketListModel packets){
+                // Set up header/title text.
+                this.setHeaderText(title + " (" + packets.size() + " packets)");
+                this.setTitle(title);
+
+                // The list only generates the rows on screen, so it opens straight away however many packets match.
+                ListView<String> list = new ListView<>(packets);
+                list.setPrefHeight(300);
+                list.addEventHandler(MouseEvent.MOUSE_CLICKED, new PacketClick(list));
+
+                // We customise the Dialog further.
+                this.getDialogPane().setContent(list);
+                this.getDialogPane().setMinWidth(600);
+                this.getDialogPane().getButtonTypes().setAll(ButtonType.OK);
+            }
+        }
+
+        String title; // The title of the Dialog.
+        PacketStore store; // The store holding the packets.
+        Supplier<PacketBitmap> filter; // Finds the packets to show, when the Button is clicked.
+
+        /**
+         * This constructor assigns our member variables.
+         * @param dialogTitle The title of the Dialog.
+         * @param packetStore The store holding the packets.
+         * @param packets Finds the packets to show; it is asked again on every click, so new packets are included.
+         */
+        public PacketListClick(String dialogTitle, PacketStore packetStore, Supplier<PacketBitmap> packets){
+            title = dialogTitle;
+            store = packetStore;
+            filter = packets;
+        }
+
+        /**
+         * This class handles when the Button is clicked.
+         * @param mouseEvent The mouseEvent which is generated.
+         */
+        @Override
+        public void handle(MouseEvent mouseEvent) {
+            // Create and show the Dialog.
+            Dialog dialogBox = new PacketListDialogBox(title, new PacketListModel(store, filter.get()));
+            dialogBox.showAndWait();
+        }
+    }
+
+    /**
+     * This class applies the display filter typed above the packet selector, when the user presses Enter or 'Apply'.
+     */
+    public static class ApplyFilter implements EventHandler<ActionEvent>{
+        UserInterface ui; // The UI whose packet selector is filtered.
+        TextField field; // The TextField the filter is typed into.
+
+        /**
+         * This constructor assigns our two member variables.
+         * @param userInterface The UI whose packet selector is filtered.
+         * @param filterField The TextField the filter is typed into.
+         */
+        public ApplyFilter(UserInterface userInterface, TextField filterField){
+            ui = userInterface;
+            field = filterField;
+        }
+
+        /**
+         * This class handles when the filter is applied.
+         * @param event The ActionEvent which is generated.
+         */
+        @Override
+        public void handle(ActionEvent event) {
+            // An invalid filter is outlined in red, with the reason shown when the user hovers over it.
+            String error = ui.applyFilter(field.getText());
+            field.setStyle(error == null ? "" : "-fx-border-color: red;");
+            field.setTooltip(error == null ? null : new Tooltip(error));
+        }
+    }
+
+    /**
+     * This class handles clicking the "Stop Capture" button on the 'Overall' tab.
+     */
+    public static class StopCaptureClick implements EventHandler<MouseEvent>{
+        UserInterface ui; // We need to tell the UI once the capture has stopped.
+        Runnable stopCapture; // Stops the capture, and waits for it to finish.
+
+        /**
+         * This constructor assigns our two member variables.
+         * @param userInterface The UserInterface to update once the capture has stopped.
+         * @param stopAction Stops the capture.
+         */
+        public StopCaptureClick(UserInterface userInterface, Runnable stopAction){
+            ui = userInterface;
+            stopCapture = stopAction;
+        }
+
+        /**
+         * This class handles when the Button is clicked.
+         * @param mouseEvent The mouseEvent which is generated.
+         */
+        @Override
+        public void handle(MouseEvent mouseEvent) {
+            // Stopping the capture can wait for the capture timeout, so it is done away from the UI thread.
+            ((Button) mouseEvent.getSource()).setDisable(true);
+            Thread stopper = new Thread(() -> {
+                stopCapture.run();
+                Platform.runLater(ui::captureStopped);
+            });
+            stopper.setDaemon(true);
+            stopper.start();
+        }
+    }
+
+    /**
+     * This class zooms the chart on the 'Overall' tab in and out, when the user scrolls over it.
+     */
+    public static class ChartZoom implements EventHandler<ScrollEvent>{
+        static final double ZOOM_STEP = 0.8; // Each notch of the scroll wheel shows this fraction of the range.
+        UserInterface ui; // We need to tell the UI to redraw the chart.
+        NumberAxis axis; // The axis is used to find which second the cursor is over.
+
+        /**
+         * This constructor assigns our two member variables.
+         * @param userInterface The UserInterface which owns the chart.
+         * @param xAxis The chart's x-axis.
+         */
+        public ChartZoom(UserInterface userInterface, NumberAxis xAxis){
+            ui = userInterface;
+            axis = xAxis;
+        }
+
+        /**
+         * This class handles when the user scrolls over the chart.
+         * @param event The generated ScrollEvent.
+         */
+        @Override
+        public void handle(ScrollEvent event) {
+            if(event.getDeltaY() == 0) { return; }
+            // Zoom around the second under the cursor, so it stays where it is.
+            double centre = axis.getValueForDisplay(axis.sceneToLocal(event.getSceneX(), event.getSceneY()).getX())
+                    .doubleValue();
+            ui.zoomChart(centre, event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP);
+            event.consume();
+        }
+    }
+
+    /**
+     * This class shows the whole capture in the chart again, when the user double-clicks on it.
+     */
+    public static class ChartZoomReset implements EventHandler<MouseEvent>{
+        UserInterface ui; // We need to tell the UI to redraw the chart.
+
+        /**
+         * This constructor assigns our member variable.
+         * @param userInterface The UserInterface which owns the chart.
+         */
+        public ChartZoomReset(UserInterface userInterface){
+            ui = userInterface;
+        }
+
+        /**
+         * This class handles when the chart is clicked.
+         * @param event The generated MouseEvent.
+         */
+        @Override
+        public void handle(MouseEvent event) {
+            if(event.getButton().equals(MouseButton.PRIMARY) && event.getClickCount() == 2){
+                ui.resetChartZoom();
+            }
+        }
+    }
+
+    /**
+     * This class pushes newly captured packets to the UI, at a capped rate.
+     * JavaFX calls handle() on every frame, but we only update the UI a few times a second, so that each update
+     * carries a large batch of packets rather than many tiny ones.
+     */
+    public static class LiveUpdate extends AnimationTimer {
+        static final long UPDATE_INTERVAL = 100_000_000L; // 100ms (in nanoseconds), so 10 updates a second.
+        UserInterface ui;
+        long lastUpdate = 0;
+
+        /**
+         * This constructor assigns the UI to update.
+         * @param userInterface The UserInterface to push packets to.
+         */
+        public LiveUpdate(UserInterface userInterface){
+            ui = userInterface;
+        }
+
+        /**
+         * This method is called by JavaFX on every frame.
+         * @param now The time of the current frame, in nanoseconds.
+         */
+        @Override
+        public void handle(long now) {
+            if(now - lastUpdate < UPDATE_INTERVAL) { return; }
+            lastUpdate = now;
+            ui.updateLiveData();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package networkvisualiser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CaptureRingBufferTest {
+    // Claims and publishes a packet, whose first byte and timestamp are both its number.
+    private static long publish(CaptureRingBuffer ring, int number) {
+        long sequence = ring.claim();
+        if (sequence >= 0) {
+            ring.slot(sequence)[0] = (byte) number;
+            ring.publish(sequence, 1, 60, number);
+        }
+        return sequence;
+    }
+
+    private static List<Long> drain(CaptureRingBuffer.Consumer consumer, int limit) {
+        List<Long> timestamps = new ArrayList<>();
+        consumer.drain((data, captureLength, wireLength, timestampMicros) -> {
+            assertEquals((byte) timestampMicros, data[0]);
+            timestamps.add(timestampMicros);
+        }, limit);
+        return timestamps;
+    }
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(16, new CaptureRingBuffer(10, 64).capacity());
+        assertEquals(16, new CaptureRingBuffer(16, 64).capacity());
+        assertEquals(1024, CaptureRingBuffer.capacityFor(1024 * 64, 64));
+        assertEquals(64, CaptureRingBuffer.capacityFor(0, 64));
+    }
+
+    @Test
+    void fullRingDropsAndCountsBackpressure() {
+        CaptureRingBuffer ring = new CaptureRingBuffer(16, 64);
+        CaptureRingBuffer.Consumer consumer = ring.addConsumer();
+        for (int i = 0; i < 16; i++) { assertEquals(i, publish(ring, i)); }
+        assertEquals(-1, publish(ring, 16));
+        assertEquals(-1, publish(ring, 17));
+
+        assertEquals(16, ring.publishedPackets());
+        assertEquals(2, ring.droppedPackets());
+        // The packets claimed with 12 or more of the 16 slots in use.
+        assertEquals(4, ring.backpressureEvents());
+        assertEquals(16, ring.highWaterMark());
+        assertEquals(16, ring.depth());
+        assertEquals(16, consumer.backlog());
+
+        // Once the consumer catches up, the slots can be used again.
+        assertEquals(16, drain(consumer, 100).size());
+        assertEquals(0, ring.depth());
+        assertEquals(16, publish(ring, 18));
+        assertEquals(List.of(18L), drain(consumer, 100));
+        assertEquals(2, ring.droppedPackets());
+    }
+
+    @Test
+    void slowestConsumerHoldsTheSlots() {
+        CaptureRingBuffer ring = new CaptureRingBuffer(16, 64);
+        CaptureRingBuffer.Consumer fast = ring.addConsumer();
+        CaptureRingBuffer.Consumer slow = ring.addConsumer();
+        for (int i = 0; i < 16; i++) { publish(ring, i); }
+        assertEquals(16, drain(fast, 100).size());
+        assertEquals(-1, publish(ring, 16));
+        assertEquals(16, ring.depth());
+
+        assertEquals(List.of(0L, 1L, 2L, 3L), drain(slow, 4));
+        assertEquals(16, publish(ring, 16));
+        assertEquals(List.of(16L), drain(fast, 100));
+        assertEquals(13, slow.backlog());
+    }
+
+    @Test
+    void batchIsOnlyVisibleOncePublished() {
+        CaptureRingBuffer ring = new CaptureRingBuffer(16, 64);
+        CaptureRingBuffer.Consumer consumer = ring.addConsumer();
+        long last = -1;
+        for (int i = 0; i < 5; i++) {
+            last = ring.claim();
+            ring.slot(last)[0] = (byte) i;
+            ring.fill(last, 1, 60, i);
+        }
+        assertEquals(-1, consumer.peekTimestamp());
+        assertEquals(0, drain(consumer, 100).size());
+
+        ring.publishThrough(last);
+        assertEquals(5, ring.publishedPackets());
+        assertEquals(List.of(0L, 1L, 2L, 3L, 4L), drain(consumer, 100));
+    }
+
+    @Test
+    void takenSlotsAreKeptUntilReleased() {
+        CaptureRingBuffer ring = new CaptureRingBuffer(16, 64);
+        CaptureRingBuffer.Consumer consumer = ring.addConsumer();
+        for (int i = 0; i < 16; i++) { publish(ring, i); }
+        assertEquals(0, consumer.peekTimestamp());
+        consumer.take((data, captureLength, wireLength, timestampMicros) -> assertEquals(0, data[0]));
+        assertEquals(1, consumer.peekTimestamp());
+        assertEquals(-1, publish(ring, 16));
+
+        consumer.release();
+        assertEquals(16, publish(ring, 16));
+        assertEquals(16, consumer.backlog());
+    }
+}
@@ -0,0 +1,148 @@
+package networkvisualiser;
+
+import static networkvisualiser.TestFrames.address;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class DisplayFilterTest {
+    private static final int HOST = address(10, 0, 0, 1);
+    private static final int SERVER = address(10, 0, 0, 2);
+    private static final int RESOLVER = address(10, 0, 0, 3);
+    private static final int LAPTOP = address(192, 168, 1, 5);
+    private static final int MDNS = address(224, 0, 0, 251);
+
+    private static PacketStore store;
+
+    @BeforeAll
+    static void setUp() {
+        store = new PacketStore();
+        byte[] none = new byte[0];
+        append(TestFrames.tcp(HOST, SERVER, 40000, 80, 1000, Protocols.TCP_SYN, none)); // 0
+        append(TestFrames.tcp(SERVER, HOST, 80, 40000, 5000, Protocols.TCP_SYN | Protocols.TCP_ACK, none)); // 1
+        append(TestFrames.tcp(HOST, SERVER, 40000, 80, 1001, Protocols.TCP_ACK, TestFrames.payload(100, 0))); // 2
+        append(TestFrames.udp(LAPTOP, MDNS, 5353, 5353, TestFrames.payload(20, 0))); // 3
+        append(TestFrames.udp(RESOLVER, HOST, 53, 1234, TestFrames.payload(20, 0))); // 4
+        append(TestFrames.tcp(LAPTOP, SERVER, 50000, 443, 1, Protocols.TCP_RST, none)); // 5
+        ByteBuffer arp = ByteBuffer.allocate(42);
+        arp.putShort(12, (short) FrameDecoder.ETHERTYPE_ARP);
+        append(arp.array()); // 6
+    }
+
+    private static void append(byte[] frame) {
+        TestFrames.append(store, frame, 1_000_000 + store.size());
+    }
+
+    private static int[] matching(String expression) throws ParseException {
+        DisplayFilter filter = DisplayFilter.compile(expression);
+        PacketBitmap matches = new PacketBitmap();
+        filter.filter(store, 0, store.size(), matches);
+        // The compiled predicate and the bulk filter must agree.
+        for (int i = 0; i < store.size(); i++) { assertEquals(matches.contains(i), filter.matches(store, i)); }
+        return matches.toArray();
+    }
+
+    private static void assertMatches(String expression, int... expected) throws ParseException {
+        assertArrayEquals(expected, matching(expression), expression);
+    }
+
+    @Test
+    void protocols() throws ParseException {
+        assertMatches("tcp", 0, 1, 2, 5);
+        assertMatches("udp", 3, 4);
+        assertMatches("arp", 6);
+        assertMatches("ip", 0, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    void ports() throws ParseException {
+        assertMatches("tcp.port == 80", 0, 1, 2);
+        assertMatches("tcp.dstport == 80", 0, 2);
+        assertMatches("udp.srcport == 53", 4);
+        assertMatches("udp.port == 53", 4);
+        assertMatches("tcp.port >= 443", 0, 1, 2, 5);
+        assertMatches("tcp.dstport > 80 && tcp.dstport < 1000", 5);
+    }
+
+    @Test
+    void addresses() throws ParseException {
+        assertMatches("ip.addr == 10.0.0.1", 0, 1, 2, 4);
+        assertMatches("ip.src == 10.0.0.1", 0, 2);
+        assertMatches("ip.dst == 224.0.0.251", 3);
+        assertMatches("ip.src == 192.168.0.0/16", 3, 5);
+        assertMatches("ip.addr == 10.0.0.0/24", 0, 1, 2, 4, 5);
+    }
+
+    @Test
+    void addressNotEqualMeansNeither() throws ParseException {
+        // Unlike !(ip.addr == x), a packet needs an address, and neither may be x.
+        assertMatches("ip.addr != 10.0.0.1", 3, 5);
+        assertMatches("!(ip.addr == 10.0.0.1)", 3, 5, 6);
+        assertMatches("ip.addr != 10.0.0.0/8", 3);
+        assertMatches("tcp.port != 80", 5);
+    }
+
+    @Test
+    void flags() throws ParseException {
+        assertMatches("tcp.flags.syn", 0, 1);
+        assertMatches("tcp.flags.syn && !tcp.flags.ack", 0);
+        assertMatches("tcp.flags.reset", 5);
+        assertMatches("tcp.flags.rst == 1", 5);
+        assertMatches("tcp.flags.ack == false", 0, 5);
+        assertMatches("tcp.flags == 0x12", 1);
+    }
+
+    @Test
+    void andBindsTighterThanOr() throws ParseException {
+        assertMatches("udp || tcp && tcp.flags.syn", 0, 1, 3, 4);
+        assertMatches("tcp && tcp.flags.syn || udp", 0, 1, 3, 4);
+        assertMatches("(udp || tcp) && tcp.flags.syn", 0, 1);
+        assertMatches("!tcp && ip", 3, 4);
+        assertMatches("!(tcp && ip)", 3, 4, 6);
+        assertMatches("!!arp", 6);
+    }
+
+    @Test
+    void wordOperators() throws ParseException {
+        assertMatches("tcp.port eq 80 and not tcp.flags.syn", 2);
+        assertMatches("frame.len ge 100 or arp", 2, 6);
+        assertMatches("frame.number le 2 || frame.number gt 6", 0, 1, 6);
+        assertMatches("udp.port ne 53 AND udp", 3);
+        assertMatches("frame.cap_len lt 60", 0, 1, 5, 6);
+        assertMatches("frame.interface_id == 0", 0, 1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    void invalidFiltersAreRejected() {
+        assertInvalid("", 0);
+        assertInvalid("tcp.port ==", 0);
+        assertInvalid("foo == 1", 0);
+        assertInvalid("tcp udp", 4);
+        assertInvalid("(tcp", 0);
+        assertInvalid("tcp)", 3);
+        assertInvalid("tcp.port == x", 12);
+        assertInvalid("ip.addr == 10.0.0", 11);
+        assertInvalid("ip.addr == 10.0.0.256", 11);
+        assertInvalid("ip.addr == 10.0.0.0/33", 11);
+        assertInvalid("tcp $ udp", 4);
+        assertInvalid("tcp &&", 0);
+    }
+
+    private static void assertInvalid(String expression, int offset) {
+        ParseException e = assertThrows(ParseException.class, () -> DisplayFilter.compile(expression), expression);
+        assertEquals(offset, e.getErrorOffset(), expression);
+        assertTrue(e.getMessage().length() > 0);
+    }
+
+    @Test
+    void filterKeepsTheExpression() throws ParseException {
+        assertEquals("tcp.port == 80", DisplayFilter.compile("tcp.port == 80").toString());
+    }
+}
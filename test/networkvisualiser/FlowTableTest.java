@@ -0,0 +1,144 @@
+package networkvisualiser;
+
+import static networkvisualiser.TestFrames.CLIENT;
+import static networkvisualiser.TestFrames.CLIENT_PORT;
+import static networkvisualiser.TestFrames.SERVER;
+import static networkvisualiser.TestFrames.SERVER_PORT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FlowTableTest {
+    private static final int TCP = Protocols.ETHERNET | Protocols.IP4 | Protocols.TCP;
+    private static final int UDP = Protocols.ETHERNET | Protocols.IP4 | Protocols.UDP;
+    private static final int SYN = Protocols.TCP_SYN;
+    private static final int SYN_ACK = Protocols.TCP_SYN | Protocols.TCP_ACK;
+    private static final int ACK = Protocols.TCP_ACK;
+    private static final int FIN_ACK = Protocols.TCP_FIN | Protocols.TCP_ACK;
+
+    private FlowTable flows;
+    private int index;
+
+    @BeforeEach
+    void setUp() {
+        flows = new FlowTable();
+        index = 0;
+    }
+
+    // Adds a TCP packet between the client and the server.
+    private int tcp(boolean fromClient, int flags) {
+        return fromClient ? flows.add(index++, TCP, CLIENT, SERVER, CLIENT_PORT, SERVER_PORT, flags, 60)
+                : flows.add(index++, TCP, SERVER, CLIENT, SERVER_PORT, CLIENT_PORT, flags, 60);
+    }
+
+    private int handshake() {
+        tcp(true, SYN);
+        tcp(false, SYN_ACK);
+        return tcp(true, ACK);
+    }
+
+    @Test
+    void handshakeEstablishesConnection() {
+        int flow = tcp(true, SYN);
+        assertEquals(FlowTable.STATE_SYN_SENT, flows.state(flow));
+        assertEquals(flow, tcp(false, SYN_ACK));
+        assertEquals(FlowTable.STATE_SYN_RECEIVED, flows.state(flow));
+        tcp(true, ACK);
+        assertEquals(FlowTable.STATE_ESTABLISHED, flows.state(flow));
+
+        assertEquals(1, flows.flowCount());
+        assertEquals(1, flows.connections());
+        assertEquals(1, flows.handshakes());
+        assertEquals(3, flows.packets(flow));
+        assertEquals(180, flows.bytes(flow));
+    }
+
+    @Test
+    void retransmittedSynIsTheSameConnection() {
+        int flow = tcp(true, SYN);
+        tcp(true, SYN);
+        tcp(false, SYN_ACK);
+        tcp(true, ACK);
+        assertEquals(FlowTable.STATE_ESTABLISHED, flows.state(flow));
+        assertEquals(1, flows.connections());
+        assertEquals(1, flows.connectionCount(flow));
+    }
+
+    @Test
+    void synAfterSynAckIsTheSameConnection() {
+        // The SYN-ACK was lost on its way to the client, so the client sends its SYN again.
+        int flow = tcp(true, SYN);
+        tcp(false, SYN_ACK);
+        tcp(true, SYN);
+        tcp(false, SYN_ACK);
+        tcp(true, ACK);
+        assertEquals(FlowTable.STATE_ESTABLISHED, flows.state(flow));
+        assertEquals(1, flows.connections());
+        assertEquals(1, flows.handshakes());
+    }
+
+    @Test
+    void finFromBothSidesClosesConnection() {
+        int flow = handshake();
+        tcp(true, FIN_ACK);
+        assertEquals(FlowTable.STATE_CLOSING, flows.state(flow));
+        tcp(false, FIN_ACK);
+        assertEquals(FlowTable.STATE_CLOSED, flows.state(flow));
+    }
+
+    @Test
+    void reusedPortPairIsANewConnection() {
+        int flow = handshake();
+        tcp(true, FIN_ACK);
+        tcp(false, FIN_ACK);
+        assertEquals(flow, handshake());
+
+        assertEquals(FlowTable.STATE_ESTABLISHED, flows.state(flow));
+        assertEquals(1, flows.flowCount());
+        assertEquals(2, flows.connections());
+        assertEquals(2, flows.handshakes());
+        assertEquals(2, flows.connectionCount(flow));
+    }
+
+    @Test
+    void resetIsCountedOnce() {
+        int flow = handshake();
+        tcp(false, Protocols.TCP_RST);
+        tcp(true, Protocols.TCP_RST);
+        assertEquals(FlowTable.STATE_RESET, flows.state(flow));
+        assertEquals(1, flows.resets());
+        assertEquals(1, flows.connections());
+    }
+
+    @Test
+    void connectionOpenBeforeCaptureIsMidstream() {
+        int flow = tcp(false, ACK);
+        assertEquals(FlowTable.STATE_MIDSTREAM, flows.state(flow));
+        assertEquals(1, flows.connections());
+        assertEquals(0, flows.handshakes());
+    }
+
+    @Test
+    void bothDirectionsFindTheSameFlow() {
+        int flow = tcp(true, SYN);
+        assertEquals(flow, flows.find(TCP, SERVER, CLIENT, SERVER_PORT, CLIENT_PORT));
+        assertEquals(flow, flows.find(TCP, CLIENT, SERVER, CLIENT_PORT, SERVER_PORT));
+        assertEquals(1 - FlowTable.direction(CLIENT, SERVER, CLIENT_PORT, SERVER_PORT),
+                FlowTable.direction(SERVER, CLIENT, SERVER_PORT, CLIENT_PORT));
+
+        // The same endpoints over UDP are a separate flow, with no TCP state.
+        int udp = flows.add(index++, UDP, CLIENT, SERVER, CLIENT_PORT, SERVER_PORT, 0, 60);
+        assertEquals(2, flows.flowCount());
+        assertEquals(FlowTable.STATE_NONE, flows.state(udp));
+        assertFalse(flows.isTcp(udp));
+    }
+
+    @Test
+    void packetsWithoutPortsHaveNoFlow() {
+        assertEquals(-1, flows.add(index++, Protocols.ETHERNET | Protocols.ARP, 0, 0, 0, 0, 0, 42));
+        assertEquals(-1, flows.add(index++, Protocols.ETHERNET | Protocols.IP4, CLIENT, SERVER, 0, 0, 0, 42));
+        assertEquals(0, flows.flowCount());
+    }
+}
@@ -0,0 +1,160 @@
+package networkvisualiser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PacketBitmapTest {
+    private static final int BLOCK = PacketBitmap.BLOCK_SIZE;
+    private static final int SIZE = 4 * BLOCK + 1000;
+
+    // Builds a set of the indices below SIZE which pass a test, along with a BitSet of the same indices to check it by.
+    private static PacketBitmap build(IntPredicate test, BitSet expected) {
+        PacketBitmap set = new PacketBitmap();
+        for (int i = 0; i < SIZE; i++) {
+            if (test.test(i)) {
+                set.add(i);
+                expected.set(i);
+            }
+        }
+        return set;
+    }
+
+    private static void assertSet(BitSet expected, PacketBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertArrayEquals(expected.stream().toArray(), actual.toArray());
+        for (int i = 0; i < SIZE; i += 7) { assertEquals(expected.get(i), actual.contains(i), "index " + i); }
+    }
+
+    // Sparse blocks are kept as arrays and dense ones as bitmaps, so these sets mix both forms, and leave block 2 out.
+    private static final IntPredicate SPARSE = i -> i % 97 == 0 && i / BLOCK != 2;
+    private static final IntPredicate DENSE = i -> i % 3 != 0 && (i / BLOCK == 1 || i / BLOCK == 4);
+
+    @Test
+    void setOperations() {
+        BitSet sparse = new BitSet();
+        BitSet dense = new BitSet();
+        PacketBitmap a = build(SPARSE, sparse);
+        PacketBitmap b = build(DENSE, dense);
+        assertSet(sparse, a);
+        assertSet(dense, b);
+
+        BitSet and = (BitSet) sparse.clone();
+        and.and(dense);
+        assertSet(and, a.and(b));
+        assertSet(and, b.and(a));
+
+        BitSet or = (BitSet) sparse.clone();
+        or.or(dense);
+        assertSet(or, a.or(b));
+        assertSet(or, b.or(a));
+
+        BitSet andNot = (BitSet) dense.clone();
+        andNot.andNot(sparse);
+        assertSet(andNot, b.andNot(a));
+
+        BitSet not = (BitSet) sparse.clone();
+        not.flip(0, SIZE);
+        assertSet(not, a.not(SIZE));
+
+        // The operations make new sets, and leave their operands alone.
+        assertSet(sparse, a);
+        assertSet(dense, b);
+    }
+
+    @Test
+    void rangeHoldsEveryIndex() {
+        PacketBitmap range = PacketBitmap.range(SIZE);
+        assertEquals(SIZE, range.cardinality());
+        assertTrue(range.contains(SIZE - 1));
+        assertFalse(range.contains(SIZE));
+        assertEquals(0, PacketBitmap.range(0).cardinality());
+        assertEquals(0, range.not(SIZE).cardinality());
+    }
+
+    @Test
+    void selectFindsTheNthIndex() {
+        BitSet expected = new BitSet();
+        PacketBitmap set = build(SPARSE.or(DENSE), expected);
+        int[] indices = set.toArray();
+        for (int rank = 0; rank < indices.length; rank += 13) { assertEquals(indices[rank], set.select(rank)); }
+        assertEquals(indices[indices.length - 1], set.select(indices.length - 1));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.select(indices.length));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.select(-1));
+
+        // Adding more indices brings the ranks up to date.
+        set.add(SIZE + 5);
+        assertEquals(SIZE + 5, set.select(indices.length));
+    }
+
+    @Test
+    void arrayBecomesBitmapPastTheLimit() {
+        PacketBitmap set = new PacketBitmap();
+        for (int i = 0; i < PacketBitmap.ARRAY_LIMIT; i++) { set.add(i * 2); }
+        assertEquals(PacketBitmap.ARRAY_LIMIT * 2 - 2, set.select(PacketBitmap.ARRAY_LIMIT - 1));
+        set.add(PacketBitmap.ARRAY_LIMIT * 2);
+        set.add(BLOCK - 1);
+
+        assertEquals(PacketBitmap.ARRAY_LIMIT + 2, set.cardinality());
+        assertTrue(set.contains(PacketBitmap.ARRAY_LIMIT * 2));
+        assertFalse(set.contains(PacketBitmap.ARRAY_LIMIT * 2 - 1));
+        assertEquals(PacketBitmap.ARRAY_LIMIT * 2, set.select(PacketBitmap.ARRAY_LIMIT));
+        assertEquals(BLOCK - 1, set.select(PacketBitmap.ARRAY_LIMIT + 1));
+    }
+
+    @Test
+    void appendJoinsConsecutiveRanges() {
+        BitSet expected = new BitSet();
+        PacketBitmap whole = build(SPARSE.or(DENSE), expected);
+        // Split part way through a block, so both halves hold some of it.
+        int split = BLOCK + BLOCK / 2;
+        PacketBitmap first = new PacketBitmap();
+        PacketBitmap second = new PacketBitmap();
+        for (int index : whole.toArray()) { (index < split ? first : second).add(index); }
+        first.append(second);
+        assertSet(expected, first);
+
+        PacketBitmap copy = first.copy();
+        first.add(SIZE + 1);
+        assertSet(expected, copy);
+    }
+
+    @Test
+    void saveAndLoad(@TempDir Path directory) throws IOException {
+        BitSet expected = new BitSet();
+        PacketBitmap set = build(SPARSE.or(DENSE), expected);
+        PacketBitmap empty = new PacketBitmap();
+        Path file = directory.resolve("bitmap");
+        try (SessionFile.Output out = new SessionFile.Output(file)) {
+            set.save(out);
+            empty.save(out);
+        }
+
+        PacketBitmap loaded;
+        PacketBitmap loadedEmpty;
+        try (SessionFile.Input in = new SessionFile.Input(file)) {
+            loaded = PacketBitmap.load(in);
+            loadedEmpty = PacketBitmap.load(in);
+        }
+        assertSet(expected, loaded);
+        assertEquals(0, loadedEmpty.cardinality());
+        assertEquals(expected.stream().skip(1000).findFirst().getAsInt(), loaded.select(1000));
+
+        // A loaded set can be added to, as before it was saved.
+        loaded.add(SIZE + 3);
+        loadedEmpty.add(3);
+        expected.set(SIZE + 3);
+        assertArrayEquals(expected.stream().toArray(), loaded.toArray());
+        assertArrayEquals(new int[] { 3 }, loadedEmpty.toArray());
+    }
+}
@@ -0,0 +1,219 @@
+package networkvisualiser;
+
+import static networkvisualiser.TestFrames.CLIENT;
+import static networkvisualiser.TestFrames.SERVER;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionFileTest {
+    private static final long START_SECOND = 1_700_000_000L;
+    private static final int RESOLVER = TestFrames.address(10, 0, 0, 53);
+
+    @TempDir
+    Path directory;
+
+    /**
+     * This class holds a store and every analysis a session saves, wired up as the GUI wires them.
+     */
+    private static class Analysis {
+        final PacketStore store = new PacketStore();
+        final FlowTable flows = new FlowTable();
+        final ThroughputHistory throughput = new ThroughputHistory();
+        final TopTalkers talkers = new TopTalkers();
+        final UniqueCounts uniqueCounts = new UniqueCounts();
+        final PacketIndex index = new PacketIndex();
+        final TcpAnalytics tcpAnalytics = new TcpAnalytics();
+
+        Analysis observe() {
+            store.addObserver(flows);
+            store.addObserver(throughput);
+            store.addObserver(talkers);
+            store.addObserver(uniqueCounts);
+            store.addObserver(index);
+            store.addObserver(tcpAnalytics);
+            return this;
+        }
+
+        void save(Path path) throws IOException {
+            SessionFile.save(path, store, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+        }
+
+        void open(Path path) throws IOException {
+            SessionFile.open(path, store, flows, throughput, index, talkers, uniqueCounts, tcpAnalytics);
+        }
+    }
+
+    // A TCP connection from start to finish, with a retransmission, then some DNS and ARP, spread over a few seconds.
+    private static Analysis capture() {
+        Analysis analysis = new Analysis().observe();
+        PacketStore store = analysis.store;
+        byte[] none = new byte[0];
+        long time = START_SECOND * 1_000_000;
+        TestFrames.append(store, TestFrames.tcp(true, 999, Protocols.TCP_SYN, none), time);
+        TestFrames.append(store, TestFrames.tcp(false, 4999, Protocols.TCP_SYN | Protocols.TCP_ACK, none), time + 800);
+        TestFrames.append(store, TestFrames.tcp(true, 1000, Protocols.TCP_ACK, none), time + 1600);
+        byte[] request = "GET / HTTP/1.1\r\nHost: example\r\n\r\n".getBytes();
+        TestFrames.append(store, TestFrames.tcp(true, 1000, Protocols.TCP_ACK | Protocols.TCP_PSH, request),
+                time + 2000);
+        TestFrames.append(store, TestFrames.tcp(true, 1000, Protocols.TCP_ACK | Protocols.TCP_PSH, request),
+                time + 1_200_000);
+        TestFrames.append(store, TestFrames.tcp(false, 5000, Protocols.TCP_ACK, TestFrames.payload(1400, 0)),
+                time + 1_300_000);
+        TestFrames.append(store, TestFrames.tcp(true, 1000 + request.length, Protocols.TCP_FIN | Protocols.TCP_ACK,
+                none), time + 2_000_000);
+        TestFrames.append(store, TestFrames.tcp(false, 6400, Protocols.TCP_FIN | Protocols.TCP_ACK, none),
+                time + 2_000_100);
+        TestFrames.append(store, TestFrames.udp(CLIENT, RESOLVER, 5000, 53, TestFrames.payload(30, 0)),
+                time + 3_000_000);
+        TestFrames.append(store, TestFrames.udp(RESOLVER, CLIENT, 53, 5000, TestFrames.payload(90, 0)),
+                time + 3_000_500);
+        ByteBuffer arp = ByteBuffer.allocate(42);
+        arp.putShort(12, (short) FrameDecoder.ETHERTYPE_ARP);
+        TestFrames.append(store, arp.array(), time + 4_000_000);
+        return analysis;
+    }
+
+    private static byte[] bytes(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    void sessionReopensAsItWasSaved() throws IOException {
+        Analysis saved = capture();
+        assertEquals(1, saved.tcpAnalytics.retransmissions());
+        Path path = directory.resolve("capture" + SessionFile.EXTENSION);
+        saved.save(path);
+        Analysis opened = new Analysis();
+        opened.open(path);
+
+        PacketStore store = opened.store;
+        assertEquals(saved.store.size(), store.size());
+        for (int i = 0; i < store.size(); i++) {
+            assertEquals(saved.store.timestamp(i), store.timestamp(i));
+            assertEquals(saved.store.wireLength(i), store.wireLength(i));
+            assertEquals(saved.store.captureLength(i), store.captureLength(i));
+            assertEquals(saved.store.protocols(i), store.protocols(i));
+            assertEquals(saved.store.tcpFlags(i), store.tcpFlags(i));
+            assertEquals(saved.store.sourcePort(i), store.sourcePort(i));
+            assertArrayEquals(bytes(saved.store.frame(i)), bytes(store.frame(i)), "frame " + i);
+        }
+
+        FlowTable flows = opened.flows;
+        assertEquals(2, flows.flowCount());
+        assertEquals(1, flows.connections());
+        assertEquals(1, flows.handshakes());
+        int tcp = flows.find(Protocols.IP4 | Protocols.TCP, CLIENT, SERVER, TestFrames.CLIENT_PORT,
+                TestFrames.SERVER_PORT);
+        int udp = flows.find(Protocols.IP4 | Protocols.UDP, RESOLVER, CLIENT, 53, 5000);
+        assertEquals(0, tcp);
+        assertEquals(1, udp);
+        assertEquals(FlowTable.STATE_CLOSED, flows.state(tcp));
+        assertEquals(saved.flows.bytes(tcp), flows.bytes(tcp));
+        assertEquals(8, flows.packets(tcp));
+        assertEquals(2, flows.packets(udp));
+
+        ThroughputHistory throughput = opened.throughput;
+        assertEquals(saved.throughput.totalBytes(), throughput.totalBytes());
+        assertEquals(11, throughput.totalPackets());
+        assertEquals(START_SECOND, throughput.startingSecond());
+        assertEquals(START_SECOND + 4, throughput.latestSecond());
+        for (int tier = 0; tier < throughput.tierCount(); tier++) {
+            int resolution = throughput.tier(tier).resolution();
+            for (long second = START_SECOND; second <= START_SECOND + 4; second++) {
+                assertEquals(saved.throughput.tier(tier).bytes(second / resolution),
+                        throughput.tier(tier).bytes(second / resolution));
+            }
+        }
+
+        PacketIndex index = opened.index;
+        assertArrayEquals(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }, index.protocol(Protocols.TCP).toArray());
+        assertArrayEquals(new int[] { 10 }, index.protocol(Protocols.ARP).toArray());
+        assertArrayEquals(new int[] { 8, 9 }, index.port(53).toArray());
+        assertArrayEquals(saved.index.address(CLIENT).toArray(), index.address(CLIENT).toArray());
+        assertEquals(saved.index.size(), index.size());
+
+        for (int kind : new int[] { TopTalkers.SOURCE, TopTalkers.DESTINATION, TopTalkers.PAIR }) {
+            TopTalkers.Ranking before = saved.talkers.ranking(kind, true);
+            TopTalkers.Ranking after = opened.talkers.ranking(kind, true);
+            assertEquals(before.size(), after.size());
+            assertEquals(before.totalWeight(), after.totalWeight());
+            for (int entry = 0; entry < after.size(); entry++) {
+                assertEquals(before.label(entry), after.label(entry));
+                assertEquals(before.weight(entry), after.weight(entry));
+            }
+        }
+
+        assertEquals(saved.uniqueCounts.sources(), opened.uniqueCounts.sources());
+        assertEquals(saved.uniqueCounts.destinations(), opened.uniqueCounts.destinations());
+        assertEquals(saved.uniqueCounts.flows(), opened.uniqueCounts.flows());
+
+        TcpAnalytics tcpAnalytics = opened.tcpAnalytics;
+        assertEquals(1, tcpAnalytics.synToSynAck().count());
+        assertEquals(1, tcpAnalytics.synAckToAck().count());
+        assertEquals(saved.tcpAnalytics.dataSegments(), tcpAnalytics.dataSegments());
+        assertEquals(1, tcpAnalytics.retransmissions());
+    }
+
+    @Test
+    void emptyCaptureRoundTrips() throws IOException {
+        Path path = directory.resolve("empty" + SessionFile.EXTENSION);
+        new Analysis().observe().save(path);
+        Analysis opened = new Analysis();
+        opened.open(path);
+        assertEquals(0, opened.store.size());
+        assertEquals(0, opened.flows.flowCount());
+        assertEquals(0, opened.throughput.totalPackets());
+    }
+
+    @Test
+    void truncatedSessionIsRefused() throws IOException {
+        Path path = directory.resolve("capture" + SessionFile.EXTENSION);
+        capture().save(path);
+        byte[] whole = Files.readAllBytes(path);
+        Path cut = directory.resolve("cut" + SessionFile.EXTENSION);
+        Files.write(cut, Arrays.copyOf(whole, whole.length - 4));
+        assertThrows(IOException.class, () -> new Analysis().open(cut));
+
+        Path other = directory.resolve("other" + SessionFile.EXTENSION);
+        Files.write(other, new byte[64]);
+        assertThrows(IOException.class, () -> new Analysis().open(other));
+    }
+
+    @Test
+    void sessionIsCurrentUntilTheCaptureChanges() throws IOException {
+        Path capture = directory.resolve("capture.pcapng");
+        Files.write(capture, new byte[16]);
+        Path session = SessionFile.sessionFor(capture);
+        assertEquals(directory.resolve("capture.pcapng" + SessionFile.EXTENSION), session);
+        assertTrue(SessionFile.isSession(session));
+        assertFalse(SessionFile.isSession(capture));
+        assertFalse(SessionFile.isCurrent(session, capture));
+
+        capture().save(session);
+        Files.setLastModifiedTime(capture, FileTime.fromMillis(Files.getLastModifiedTime(session).toMillis() - 1000));
+        assertTrue(SessionFile.isCurrent(session, capture));
+
+        Files.setLastModifiedTime(capture, FileTime.fromMillis(Files.getLastModifiedTime(session).toMillis() + 1000));
+        assertFalse(SessionFile.isCurrent(session, capture));
+
+        // A file which only looks like a session by its name isn't current either.
+        Files.write(session, new byte[4]);
+        Files.setLastModifiedTime(capture, FileTime.fromMillis(0));
+        assertFalse(SessionFile.isCurrent(session, capture));
+    }
+}
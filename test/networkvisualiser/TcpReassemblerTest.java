@@ -0,0 +1,155 @@
+package networkvisualiser;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class TcpReassemblerTest {
+    private static final int ACK = Protocols.TCP_ACK;
+
+    private PacketStore store;
+    private FlowTable flows;
+    private TcpReassembler reassembler;
+    private long time = 1_000_000;
+
+    private void setUp(long budget) {
+        store = new PacketStore();
+        flows = new FlowTable();
+        reassembler = new TcpReassembler(store, flows, budget);
+        store.addObserver(flows);
+        store.reassembleStreams(reassembler);
+    }
+
+    // Sends a segment from the client, whose bytes are numbered from the start of the stream (sequence 1000).
+    private void send(int clientPort, int sequence, int length) {
+        byte[] payload = TestFrames.payload(length, sequence - 1000);
+        TestFrames.append(store, TestFrames.tcp(TestFrames.CLIENT, TestFrames.SERVER, clientPort,
+                TestFrames.SERVER_PORT, sequence, ACK, payload), time++);
+    }
+
+    private void send(int sequence, int length) {
+        send(TestFrames.CLIENT_PORT, sequence, length);
+    }
+
+    private TcpReassembler.StreamView client() {
+        return client(TestFrames.CLIENT_PORT);
+    }
+
+    private TcpReassembler.StreamView client(int clientPort) {
+        int flow = flows.find(Protocols.IP4 | Protocols.TCP, TestFrames.CLIENT, TestFrames.SERVER, clientPort,
+                TestFrames.SERVER_PORT);
+        return reassembler.view(flow, 0);
+    }
+
+    // Checks that a view holds the stream's bytes, numbered as send() numbers them, between two offsets.
+    private static void assertStream(TcpReassembler.StreamView view, long start, long end) {
+        assertEquals(start, view.start());
+        assertEquals(end, view.end());
+        byte[] bytes = new byte[(int) (end - start)];
+        assertEquals(bytes.length, view.read(start, bytes, 0, bytes.length));
+        for (int i = 0; i < bytes.length; i++) { assertEquals((byte) (start + i), bytes[i], "offset " + (start + i)); }
+    }
+
+    @Test
+    void segmentsAreJoinedInOrder() {
+        setUp(1 << 20);
+        TestFrames.append(store, TestFrames.tcp(true, 999, Protocols.TCP_SYN, new byte[0]), time++);
+        send(1000, 100);
+        send(1100, 50);
+        assertStream(client(), 0, 150);
+        assertEquals(0, reassembler.outOfOrder());
+        assertEquals(2 * TcpReassembler.SEGMENT_OVERHEAD + 150, reassembler.memoryUsed());
+    }
+
+    @Test
+    void readLineSpansSegments() {
+        setUp(1 << 20);
+        TestFrames.append(store, TestFrames.tcp(true, 1000, ACK, "GET /ind".getBytes()), time++);
+        TestFrames.append(store, TestFrames.tcp(true, 1008, ACK, "ex.html HTTP/1.1\r\nHost: a\r\n".getBytes()),
+                time++);
+        assertEquals("GET /index.html HTTP/1.1", client().readLine(0, 100));
+    }
+
+    @Test
+    void overlapsAreTrimmedAndRetransmissionsDropped() {
+        setUp(1 << 20);
+        send(1000, 10);
+        send(1005, 10); // The first five bytes repeat the end of the last segment.
+        send(1000, 10); // Every byte has been seen.
+        assertStream(client(), 0, 15);
+        assertEquals(1, reassembler.overlaps());
+        assertEquals(1, reassembler.retransmissions());
+        assertEquals(2 * TcpReassembler.SEGMENT_OVERHEAD + 15, reassembler.memoryUsed());
+    }
+
+    @Test
+    void earlySegmentsWaitForTheGap() {
+        setUp(1 << 20);
+        send(1000, 10);
+        send(1030, 10);
+        send(1020, 10);
+        assertStream(client(), 0, 10);
+        send(1010, 15); // Fills the gap, and overlaps the segment after it.
+        assertStream(client(), 0, 40);
+        assertEquals(2, reassembler.outOfOrder());
+        assertEquals(0, reassembler.gaps());
+    }
+
+    @Test
+    void gapIsSkippedOncePendingLimitIsPassed() {
+        long budget = 64 * 1024;
+        long pendingLimit = budget / TcpReassembler.PENDING_SHARE;
+        setUp(budget);
+        send(1000, 100);
+        // The bytes from 100 to 200 are never seen, so the segments after them wait until there are too many.
+        int sequence = 1200;
+        while (sequence - 1200 <= pendingLimit) {
+            assertEquals(0, reassembler.gaps());
+            send(sequence, 1000);
+            sequence += 1000;
+        }
+        assertEquals(1, reassembler.gaps());
+        assertStream(client(), 200, sequence - 1000);
+        assertTrue(reassembler.memoryUsed() <= budget);
+
+        // The stream carries on after the gap.
+        send(sequence, 1000);
+        assertStream(client(), 200, sequence - 1000 + 1000);
+    }
+
+    @Test
+    void quietestStreamIsEvictedFirst() {
+        long budget = 4096;
+        setUp(budget);
+        send(40000, 1000, 1000);
+        send(40000, 2000, 1000);
+        send(40001, 1000, 1000);
+        assertEquals(0, reassembler.evictions());
+        send(40001, 2000, 1000); // Goes over the budget.
+
+        assertEquals(1, reassembler.evictions());
+        assertTrue(reassembler.memoryUsed() <= budget);
+        assertTrue(client(40000).isEmpty());
+        assertStream(client(40001), 0, 2000);
+
+        // The evicted stream carries on from where it was.
+        send(40000, 3000, 100);
+        assertStream(client(40000), 2000, 2100);
+    }
+
+    @Test
+    void viewReadsAcrossSegments() {
+        setUp(1 << 20);
+        send(1000, 10);
+        send(1010, 10);
+        TcpReassembler.StreamView view = client();
+        byte[] bytes = new byte[8];
+        assertEquals(8, view.read(6, bytes, 0, 8));
+        assertArrayEquals(new byte[] { 6, 7, 8, 9, 10, 11, 12, 13 }, bytes);
+        assertEquals(19, view.get(19));
+        assertEquals(-1, view.get(20));
+        assertEquals(10, view.offsetOf(1010));
+    }
+}
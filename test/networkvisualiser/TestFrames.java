@@ -0,0 +1,83 @@
+package networkvisualiser;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class builds Ethernet/IPv4 frames by hand for the unit tests, so they don't need a capture file or a NIC.
+ */
+final class TestFrames {
+    static final int CLIENT = address(10, 0, 0, 1);
+    static final int SERVER = address(10, 0, 0, 2);
+    static final int CLIENT_PORT = 40000;
+    static final int SERVER_PORT = 80;
+
+    private TestFrames() {}
+
+    static int address(int a, int b, int c, int d) {
+        return (a << 24) | (b << 16) | (c << 8) | d;
+    }
+
+    /**
+     * This function builds a TCP segment.
+     * @param fromClient Whether the segment is sent from CLIENT to SERVER, rather than the other way.
+     * @param sequence The sequence number.
+     * @param flags The TCP flags (see Protocols).
+     * @param payload The payload.
+     * @return The frame.
+     */
+    static byte[] tcp(boolean fromClient, int sequence, int flags, byte[] payload) {
+        return tcp(fromClient ? CLIENT : SERVER, fromClient ? SERVER : CLIENT, fromClient ? CLIENT_PORT : SERVER_PORT,
+                fromClient ? SERVER_PORT : CLIENT_PORT, sequence, flags, payload);
+    }
+
+    static byte[] tcp(int source, int destination, int sourcePort, int destinationPort, int sequence, int flags,
+                      byte[] payload) {
+        ByteBuffer frame = ip(source, destination, FrameDecoder.IP_PROTOCOL_TCP, 20 + payload.length);
+        frame.putShort(34, (short) sourcePort);
+        frame.putShort(36, (short) destinationPort);
+        frame.putInt(38, sequence);
+        frame.put(46, (byte) 0x50); // A 20 byte header.
+        frame.put(47, (byte) flags);
+        frame.putShort(48, (short) 1000);
+        frame.position(54);
+        frame.put(payload);
+        return frame.array();
+    }
+
+    static byte[] udp(int source, int destination, int sourcePort, int destinationPort, byte[] payload) {
+        ByteBuffer frame = ip(source, destination, FrameDecoder.IP_PROTOCOL_UDP, 8 + payload.length);
+        frame.putShort(34, (short) sourcePort);
+        frame.putShort(36, (short) destinationPort);
+        frame.putShort(38, (short) (8 + payload.length));
+        frame.position(42);
+        frame.put(payload);
+        return frame.array();
+    }
+
+    // An Ethernet and IPv4 header, with room for the transport header and payload after them.
+    private static ByteBuffer ip(int source, int destination, int protocol, int transportLength) {
+        ByteBuffer frame = ByteBuffer.allocate(FrameDecoder.ETHERNET_HEADER_LENGTH + 20 + transportLength);
+        frame.putShort(12, (short) FrameDecoder.ETHERTYPE_IP4);
+        frame.put(14, (byte) 0x45);
+        frame.putShort(16, (short) (20 + transportLength));
+        frame.put(22, (byte) 64);
+        frame.put(23, (byte) protocol);
+        frame.putInt(26, source);
+        frame.putInt(30, destination);
+        return frame;
+    }
+
+    static byte[] payload(int length, int fill) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) { payload[i] = (byte) (fill + i); }
+        return payload;
+    }
+
+    /**
+     * This function stores a frame, with the capture length equal to its wire length.
+     * @return The packet's index.
+     */
+    static int append(PacketStore store, byte[] frame, long timestampMicros) {
+        return store.append(frame, frame.length, frame.length, timestampMicros);
+    }
+}